@@ -1,109 +1,139 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * An abstract ACM class that holds basic operation instructions
  */
 public abstract class ACM {
     //region Variables
-    protected final ArrayList<String> subjects;
-    //List of the names of subjects
-    protected final ArrayList<String> objects;
-    //List of the names of the objects
-    protected final ArrayList<ArrayList<Capabilities>> capabilityList;
-    //A 2-dimensional list that contains the capability data for each subject with each object
-    //First dimension is subject, second dimension is object
+    protected final IdRegistry subjects;
+    //The names of the subjects. A subject's ID is its index in the other subject lists
+    protected final IdRegistry objects;
+    //The names of the objects. An object's ID is its index in each capability row
+    protected final CapabilityMatrix capabilityMatrix;
+    //The capability data for each subject with each object, addressed by subject ID and object ID
+    private final CapabilityIndex capabilityIndex;
+    //The objects each subject has each capability on and the subjects with each capability on each object
     final protected HashMap<String, Capabilities> defaultCapabilities;
     //The default capabilities to be given to each role
     final protected ArrayList<String> subjectRoles;
     //List of the roles for each subject
-    final private ArrayList<LogEntry> log;
-    //List of log data for testing the ACM
+    final protected ArrayList<Integer> subjectRoleIds;
+    //The role ID of each subject's role
+    final private HashMap<String, Integer> roleIds;
+    //The role ID of each role
+    final protected HashMap<String, ArrayList<Integer>> roleSubjects;
+    //The IDs of the subjects with each role, in ID order
+    final private AuditSink auditSink;
+    //Where the log data is stored
+    final private AuditIndex auditIndex;
+    //The log entries of each subject, object, capability and permission. Its monitor guards the log
+    private volatile AsyncAuditLog asyncLog;
+    //Writes the log on a background thread. Null if the log is written by the commands
+    private final ThreadLocal<LogEntry> reusableLogs;
+    //The entry each thread reuses for its commands while the log is written on a background thread, which copies entries
+    protected static final int LOG_PAGE_SIZE = 1024;
+    //The number of entries fetched at a time when printing the log
+    protected final ReentrantReadWriteLock structureLock;
+    //Held exclusively while subjects or objects are added and shared while the ACM is used
+    private final ReentrantLock[] objectLocks;
+    //Striped locks that serialize changes to the cells of each object
+    protected static final int OBJECT_LOCK_STRIPES = 64;
+    //The number of object lock stripes. Must be a power of 2
+    private volatile WriteAheadLog writeAheadLog;
+    //Makes each change durable before its command returns. Null if changes are only kept in memory
+    private final CellChanges[] cellChanges;
+    //The cells changed by the running command of each object lock stripe. Guarded by the stripe's lock
+    private final ThreadLocal<WriteAheadLog.Record> writeAheadRecords;
+    //The record each thread encodes its changes in. Cleared and reused by every command the thread runs
+    protected static final long WRITE_AHEAD_LOG_SEGMENT_BYTES = 64L << 20;
+    //The size a write-ahead log segment can grow to before a new one is started
     //endregion
     //region Constructor
     /**
-     * The default ACM Constructor
+     * The ACM Constructor
+     * @param capabilityMatrixIn The empty matrix to store capabilities in
+     * @param auditSinkIn The sink to store log data in
+     * @param rolesIn The names of the roles. A role's index is its role ID
+     * @param defaultCapabilitiesIn The default capabilities to be given to each role. Frozen and shared by the cells
      */
-    public ACM(){
-        HashMap<String, Capabilities> defaultCapabilitiesIn = GetCapabilities();
-        subjects = new ArrayList<String>();
-        objects = new ArrayList<String>();
-        capabilityList = new ArrayList<ArrayList<Capabilities>>();
+    public ACM(CapabilityMatrix capabilityMatrixIn, AuditSink auditSinkIn, String[] rolesIn, HashMap<String, Capabilities> defaultCapabilitiesIn){
+        for (Capabilities roleDefault : defaultCapabilitiesIn.values())
+            roleDefault.Freeze();
+        //role defaults are shared by every cell that has not been changed
+        subjects = new IdRegistry();
+        objects = new IdRegistry();
+        capabilityMatrix = capabilityMatrixIn;
+        capabilityIndex = new CapabilityIndex();
         defaultCapabilities = defaultCapabilitiesIn;
         subjectRoles = new ArrayList<String>();
-        log = new ArrayList<LogEntry>();
+        subjectRoleIds = new ArrayList<Integer>();
+        roleIds = new HashMap<String, Integer>();
+        for (int x = 0; x < rolesIn.length; x++)
+            roleIds.put(rolesIn[x], x);
+        roleSubjects = new HashMap<String, ArrayList<Integer>>();
+        for (String role : defaultCapabilitiesIn.keySet())
+            roleSubjects.put(role, new ArrayList<Integer>());
+        auditSink = auditSinkIn;
+        auditIndex = auditSinkIn.CreateIndex();
+        //entries already in the sink keep their position
+        asyncLog = null;
+        reusableLogs = ThreadLocal.withInitial(() -> new LogEntry(false));
+        structureLock = new ReentrantReadWriteLock();
+        objectLocks = new ReentrantLock[OBJECT_LOCK_STRIPES];
+        for (int x = 0; x < OBJECT_LOCK_STRIPES; x++)
+            objectLocks[x] = new ReentrantLock();
+        writeAheadLog = null;
+        cellChanges = new CellChanges[OBJECT_LOCK_STRIPES];
+        for (int x = 0; x < OBJECT_LOCK_STRIPES; x++)
+            cellChanges[x] = new CellChanges();
+        writeAheadRecords = ThreadLocal.withInitial(WriteAheadLog.Record::new);
     }
     //endregion
     //region Read ACM Data
     /**
      * Prints the ACM as a table
+     * Rows are copied a block at a time between commands, so commands keep running while a large ACM is printed
      */
     protected void PrintACM(){
-        StringBuilder sb = new StringBuilder();
-        //region Find Max size for each column for clean formatting
-        int[] maxSize = new int[objects.size() + 1];
-
-        for (String subject : subjects)
-            if (subject.length() > maxSize[0])
-                maxSize[0] = subject.length();
-
-        for (int x = 0; x < objects.size(); x++)
-            maxSize[x + 1] = objects.get(x).length();
-
-        int temp = 0;
-        for (int x = 0; x < subjects.size(); x++){
-            for (int y = 0; y < objects.size(); y++){
-                temp = capabilityList.get(x).get(y).toString().length();
-                if (temp > maxSize[y + 1])
-                    maxSize[y + 1] = temp;
-            }
+        try {
+            ACMExport.Export(this, new ACMExport.Settings());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        //endregion
-        //region Create Horizontal Line for formatting
-        int numberOfColumns = objects.size() + 2;
-        for (int size : maxSize)
-            numberOfColumns += size;
-        String horizontalLine = "=".repeat(numberOfColumns);
-
-        System.out.println(horizontalLine);
-        //endregion
-        //region Print Items
-        sb.setLength(0);
-        sb.append('|');
-        sb.append(" ".repeat(maxSize[0]));
-        sb.append('|');
-        for (int x = 0; x < objects.size(); x++){
-            sb.append(objects.get(x));
-            sb.append(" ".repeat(maxSize[x + 1] - objects.get(x).length()));
-            sb.append('|');
-        }
-        System.out.println(sb.toString());
-        //endregion
-        //region Print Users and capabilities
-        String subject = "";
-        String capability = "";
-        for (int x = 0; x < subjects.size(); x++){
-            sb.setLength(0);
-            sb.append('|');
-            subject = subjects.get(x);
-            sb.append(subject);
-            sb.append(" ".repeat(maxSize[0] - subject.length()));
-            sb.append('|');
-            for (int y = 0; y < objects.size(); y++){
-                capability = capabilityList.get(x).get(y).toString();
-                sb.append(capability);
-                sb.append(" ".repeat(maxSize[y + 1] - capability.length()));
-                sb.append('|');
-            }
-            System.out.println(sb.toString());
-        }
-        //endregion
-        System.out.println(horizontalLine);
+        //standard output does not throw, so this only fails for a file
+    }
+    /**
+     * Exports a page of the ACM
+     * @param settingsIn What to export and where
+     * @throws IOException If the output cannot be written
+     */
+    public void Export(ACMExport.Settings settingsIn) throws IOException {
+        ACMExport.Export(this, settingsIn);
     }
     /**
      * Prints the Subject names and their respective roles
      */
     protected void PrintUsers(){
+        structureLock.readLock().lock();
+        try {
+            PrintUsersTable();
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+    /**
+     * Prints the Subject names and their respective roles. The caller must hold the structure lock
+     */
+    private void PrintUsersTable(){
         int[] maxSize = new int[2];
 
         for (String role : subjects)
@@ -118,11 +148,11 @@ public abstract class ACM {
         String horizontalLine = sb.toString();
         System.out.println(horizontalLine);
 
-        for (int x = 0; x < subjects.size(); x++){
+        for (int x = 0; x < subjects.Size(); x++){
             sb.setLength(0);
             sb.append('|');
-            sb.append(subjects.get(x));
-            sb.append(" ".repeat(maxSize[0] - subjects.get(x).length()));
+            sb.append(subjects.NameOf(x));
+            sb.append(" ".repeat(maxSize[0] - subjects.NameOf(x).length()));
             sb.append('|');
             sb.append(subjectRoles.get(x));
             sb.append(" ".repeat(maxSize[1] - subjectRoles.get(x).length()));
@@ -135,26 +165,114 @@ public abstract class ACM {
      * Prints the entire log
      */
     protected void PrintLog(){
-        for (LogEntry use : log)
-            System.out.println(use);
+        FlushLog();
+        auditSink.Scan(use -> System.out.println(use));
     }
     /**
      * Prints the log data where the specified subject was involved
      * @param subjectIn The subject to search for in the log
      */
     protected void PrintLog(String subjectIn){
-        for (LogEntry use : log)
-            if (use.subject.equals(subjectIn))
-                System.out.println(use);
+        PrintLog(AuditIndex.Field.SUBJECT, subjectIn);
     }
     /**
      * Prints the log data where the permission status is the same as the specified status
      * @param permittedIn The status of the request. True is granted - False is denied
      */
     protected void PrintLog(boolean permittedIn){
-        for (LogEntry use : log)
-            if (use.permitted == permittedIn)
+        PrintLog(AuditIndex.Field.PERMITTED, String.valueOf(permittedIn));
+    }
+    /**
+     * Prints the log data with a given value, one page at a time
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for
+     */
+    private void PrintLog(AuditIndex.Field fieldIn, String valueIn){
+        ArrayList<LogEntry> page = QueryLog(fieldIn, valueIn, -1, LOG_PAGE_SIZE);
+        while (!page.isEmpty()){
+            for (LogEntry use : page)
                 System.out.println(use);
+            if (page.size() < LOG_PAGE_SIZE)
+                break;
+
+            page = QueryLog(fieldIn, valueIn, page.get(page.size() - 1).sequence, LOG_PAGE_SIZE);
+        }
+    }
+    /**
+     * Finds a page of the log data with a given value. Uses the log indexes, so only the matching entries are read
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for. "true" or "false" for PERMITTED
+     * @param afterSequence Only entries logged after the entry with this sequence number are found. -1 starts from the beginning
+     * @param pageSize The most entries to find
+     * @return The matching entries in log order. Pass the sequence of the last one to get the next page
+     */
+    protected ArrayList<LogEntry> QueryLog(AuditIndex.Field fieldIn, String valueIn, int afterSequence, int pageSize){
+        FlushLog();
+        int[] sequences = new int[pageSize];
+        int count;
+        synchronized (auditIndex){
+            count = auditIndex.Page(fieldIn, valueIn, afterSequence, sequences);
+        }
+
+        ArrayList<LogEntry> page = new ArrayList<LogEntry>(count);
+        auditSink.Get(sequences, count, page::add);
+        return page;
+    }
+    /**
+     * Counts the log data with a given value
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for. "true" or "false" for PERMITTED
+     * @return The number of matching entries
+     */
+    protected int CountLog(AuditIndex.Field fieldIn, String valueIn){
+        FlushLog();
+        synchronized (auditIndex){
+            return auditIndex.Count(fieldIn, valueIn);
+        }
+    }
+    /**
+     * Finds every object a subject has a capability on. Answered from the capability index without reading the matrix
+     * @param subjectIn The subject
+     * @param capabilityIn The capability
+     * @return The names of the objects in ID order. Empty if the subject or capability does not exist
+     */
+    public ArrayList<String> ObjectsWithCapability(String subjectIn, String capabilityIn){
+        ArrayList<String> objectNames = new ArrayList<String>();
+        int ordinal = CapabilityRegistry.OrdinalOf(capabilityIn);
+        structureLock.readLock().lock();
+        try {
+            int subjectId = subjects.IdOf(subjectIn);
+            if (subjectId == -1 || ordinal == -1)
+                return objectNames;
+
+            for (int objectId : capabilityIndex.Objects(subjectId, ordinal, objects.Size()))
+                objectNames.add(objects.NameOf(objectId));
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        return objectNames;
+    }
+    /**
+     * Finds every subject that has a capability on an object. Answered from the capability index without reading the matrix
+     * @param objectIn The object
+     * @param capabilityIn The capability
+     * @return The names of the subjects in ID order. Empty if the object or capability does not exist
+     */
+    public ArrayList<String> SubjectsWithCapability(String objectIn, String capabilityIn){
+        ArrayList<String> subjectNames = new ArrayList<String>();
+        int ordinal = CapabilityRegistry.OrdinalOf(capabilityIn);
+        structureLock.readLock().lock();
+        try {
+            int objectId = objects.IdOf(objectIn);
+            if (objectId == -1 || ordinal == -1)
+                return subjectNames;
+
+            for (int subjectId : capabilityIndex.Subjects(objectId, ordinal))
+                subjectNames.add(subjects.NameOf(subjectId));
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        return subjectNames;
     }
     /**
      * Prints all possible roles
@@ -164,12 +282,13 @@ public abstract class ACM {
             System.out.println(role);
     }
     /**
-     * Prints all possible capabilities
+     * Prints all possible capabilities in the order they were registered
      */
     protected void PrintCapabilities(){
-        //print all possible capabilities
-        System.out.println(defaultCapabilities.get("Administrator"));
-        //administrator always has every capability
+        String[] names = new String[CapabilityRegistry.Size()];
+        for (int x = 0; x < names.length; x++)
+            names[x] = CapabilityRegistry.NameOf(x);
+        System.out.println(String.join("/", names));
     }
     /**
      * Prints all possible capabilities of a given role
@@ -182,32 +301,158 @@ public abstract class ACM {
             System.out.println("Role: ".concat(roleIn).concat(" does not exist"));
     }
     /**
-     * Finds the role of a specified subject
+     * Finds the role of a specified subject. The caller must hold the structure lock
      * @param subjectIn The subject to find the role for
      * @return The role of the subject
      */
     protected String RoleOf(String subjectIn){
-        int index = subjects.indexOf(subjectIn);
-        if (index == -1)
+        int subjectId = subjects.IdOf(subjectIn);
+        if (subjectId == -1)
             return "";
 
-        return subjectRoles.get(index);
+        return subjectRoles.get(subjectId);
+    }
+    /**
+     * Finds the role of a specified subject. The caller must hold the structure lock
+     * @param subjectId The ID of the subject to find the role for
+     * @return The role of the subject
+     */
+    protected String RoleOf(int subjectId){
+        return subjectRoles.get(subjectId);
+    }
+    /**
+     * Finds the role ID of a specified subject. The caller must hold the structure lock
+     * @param subjectId The ID of the subject to find the role for
+     * @return The role ID of the subject's role
+     */
+    protected int RoleIdOf(int subjectId){
+        return subjectRoleIds.get(subjectId);
+    }
+    /**
+     * Finds every subject with a specified role. The caller must hold the structure lock
+     * @param roleIn The role to find the subjects of
+     * @return The IDs of the subjects with the role in ID order. Empty if the role does not exist
+     */
+    protected ArrayList<Integer> SubjectsWithRole(String roleIn){
+        ArrayList<Integer> subjectIds = roleSubjects.get(roleIn);
+        if (subjectIds == null)
+            return new ArrayList<Integer>();
+
+        return subjectIds;
     }
     /**
      * Determines if a subject has a given capability on the specified object
+     * The caller must hold the structure lock and the object's lock unless the matrix supports lock-free reads
      * @param objectIn The object to check for the capability
      * @param subjectIn The subject trying to perform an action
      * @param capabilityIn The capability being requested
      * @return Whether the subject has the capability on the object
      */
     protected boolean HasCapability(String objectIn, String subjectIn, String capabilityIn){
-        if (objects.contains(objectIn) && subjects.contains(subjectIn))
-            return capabilityList.get(subjects.indexOf(subjectIn)).get(objects.indexOf(objectIn)).HasAccess(capabilityIn);
-        else
+        int objectId = objects.IdOf(objectIn);
+        int subjectId = subjects.IdOf(subjectIn);
+        if (objectId == -1 || subjectId == -1)
             return false;
+
+        return HasCapability(objectId, subjectId, capabilityIn);
     }
+    /**
+     * Determines if a subject has a given capability on the specified object
+     * The caller must hold the structure lock and the object's lock unless the matrix supports lock-free reads
+     * @param objectId The ID of the object to check for the capability
+     * @param subjectId The ID of the subject trying to perform an action
+     * @param capabilityIn The capability being requested
+     * @return Whether the subject has the capability on the object
+     */
+    protected boolean HasCapability(int objectId, int subjectId, String capabilityIn){
+        int ordinal = CapabilityRegistry.OrdinalOf(capabilityIn);
+        if (ordinal == -1)
+            return false;
+
+        return capabilityMatrix.HasAccess(subjectId, objectId, ordinal);
+    }
+    /**
+     * Finds the capabilities a subject has on an object. The result must not be modified
+     * The caller must hold the structure lock and the object's lock unless the matrix supports lock-free reads
+     * @param objectIn The object to get the capabilities for
+     * @param subjectIn The subject to get the capabilities for
+     * @return The capabilities of the subject on the object
+     */
     protected Capabilities GetCapability(String objectIn, String subjectIn){
-        return capabilityList.get(subjects.indexOf(subjectIn)).get(objects.indexOf(objectIn));
+        return capabilityMatrix.Get(subjects.IdOf(subjectIn), objects.IdOf(objectIn));
+    }
+    /**
+     * Finds the access mask a subject has on an object, including changes the running command has not committed
+     * The caller must hold the structure lock and the object's lock
+     * @param objectId The ID of the object
+     * @param subjectId The ID of the subject
+     * @return The access mask of the subject on the object
+     */
+    protected long GetPendingCapability(int objectId, int subjectId){
+        return capabilityMatrix.GetPendingMask(subjectId, objectId);
+    }
+    /**
+     * Changes the access mask a subject has on an object. Capabilities that are not part of the subject's role are ignored
+     * The caller must hold the structure lock and the object's lock, and call CommitObject once the command is done
+     * @param objectId The ID of the object
+     * @param subjectId The ID of the subject
+     * @param accessMask A mask with bit n set if the capability with ordinal n is allowed
+     * @return The access mask that was stored
+     */
+    protected long SetCapability(int objectId, int subjectId, long accessMask){
+        long oldMask = capabilityMatrix.GetPendingMask(subjectId, objectId);
+        long newMask = capabilityMatrix.SetMask(subjectId, objectId, accessMask);
+        cellChanges[objectId & (OBJECT_LOCK_STRIPES - 1)].Add(subjectId, oldMask, newMask);
+
+        return newMask;
+    }
+    /**
+     * Finishes the changes a command made to an object's cells
+     * The changes are added to the write-ahead log and then made visible to lock-free readers
+     * Cells left with the mask they had are not logged, and a command that changed nothing does not touch the log
+     * The caller must hold the structure lock and the object's lock
+     * @param objectId The ID of the object
+     * @param createdName The name of the object if the command created it, otherwise null
+     */
+    protected void CommitObject(int objectId, String createdName){
+        CellChanges changes = cellChanges[objectId & (OBJECT_LOCK_STRIPES - 1)];
+        for (int x = 0; x < changes.count; x++)
+            capabilityIndex.Update(objectId, changes.subjectIds[x], changes.oldMasks[x], changes.newMasks[x]);
+
+        WriteAheadLog log = writeAheadLog;
+        if (log != null && (changes.count > 0 || createdName != null)){
+            WriteAheadLog.Record record = writeAheadRecords.get();
+            record.Clear();
+            if (createdName != null)
+                record.AddObject(objectId, createdName);
+            for (int x = 0; x < changes.count; x++)
+                if (changes.newMasks[x] != changes.oldMasks[x])
+                    record.SetCell(objectId, changes.subjectIds[x], changes.newMasks[x]);
+            log.Append(record);
+            //a record with no changes is not appended
+        }
+        changes.Clear();
+
+        capabilityMatrix.Commit(objectId);
+    }
+    /**
+     * Sets a cell while a snapshot or the write-ahead log is loaded. The caller must hold the structure write lock
+     * @param objectId The ID of the object
+     * @param subjectId The ID of the subject
+     * @param accessMask The access mask of the cell
+     */
+    void LoadCell(int objectId, int subjectId, long accessMask){
+        long oldMask = capabilityMatrix.GetPendingMask(subjectId, objectId);
+        long newMask = capabilityMatrix.SetMask(subjectId, objectId, accessMask);
+        capabilityIndex.Update(objectId, subjectId, oldMask, newMask);
+    }
+    /**
+     * Finds the lock that serializes changes to an object's cells
+     * @param objectId The ID of the object
+     * @return The lock stripe of the object
+     */
+    protected ReentrantLock ObjectLock(int objectId){
+        return objectLocks[objectId & (OBJECT_LOCK_STRIPES - 1)];
     }
     //endregion
     //region Modify ACM
@@ -218,51 +463,306 @@ public abstract class ACM {
      * @return Whether the addition of the subject was successful or not. True is success - False is fail
      */
     protected boolean AddSubject(String subjectIn, String roleIn){
-        ArrayList<String> data = new ArrayList<String>();
-        data.add("User to Add: ".concat(subjectIn));
-        data.add("Role to Give: ".concat(roleIn));
-        //region Check if subject exists and role exists
-        if (subjects.contains(subjectIn)){
-            data.add("Attempted to add subject that already existed");
+        LogEntry currentLog = new LogEntry("", "Add Subject", false);
+        currentLog.AddEffect(LogEffect.USER_TO_ADD, subjectIn);
+        currentLog.AddEffect(LogEffect.ROLE_TO_GIVE, roleIn);
+        structureLock.writeLock().lock();
+        try {
+            //region Check if subject exists and role exists
+            if (subjects.Contains(subjectIn)){
+                currentLog.AddEffect(LogEffect.SUBJECT_ALREADY_EXISTED);
 
-            log.add(new LogEntry("", "Add Subject", false, data));
-            return false;
-        }
-        if (!defaultCapabilities.containsKey(roleIn)){
-            data.add("Role does not exist");
+                AddLog(currentLog);
+                return false;
+            }
+            if (!defaultCapabilities.containsKey(roleIn)){
+                currentLog.AddEffect(LogEffect.ROLE_DOES_NOT_EXIST);
 
-            log.add(new LogEntry("", "Add Subject", false, data));
-            return false;
+                AddLog(currentLog);
+                return false;
+            }
+            //endregion
+            RegisterSubject(subjectIn, roleIn);
+        } finally {
+            structureLock.writeLock().unlock();
         }
-        //endregion
-        subjects.add(subjectIn);
-        subjectRoles.add(roleIn);
-        capabilityList.add(new ArrayList<Capabilities>());
-        for (int x = 0; x < objects.size(); x++)
-            capabilityList.get(subjects.size() - 1).add(new Capabilities(defaultCapabilities.get(roleIn)));
+        SyncWriteAheadLog();
 
-        data.add("Successfully added subject");
-        log.add(new LogEntry("", "Add Subject", true, data));
+        currentLog.permitted = true;
+        currentLog.AddEffect(LogEffect.SUBJECT_ADDED);
+        AddLog(currentLog);
         return true;
     }
+    /**
+     * Adds a subject without checking or logging. The caller must hold the structure write lock
+     * @param subjectIn The subject to add. Must not exist
+     * @param roleIn The role to be given to the subject. Must exist
+     */
+    protected void RegisterSubject(String subjectIn, String roleIn){
+        WriteAheadLog log = writeAheadLog;
+        if (log != null){
+            WriteAheadLog.Record record = writeAheadRecords.get();
+            record.Clear();
+            record.AddSubject(subjects.Size(), subjectIn, roleIn);
+            log.Append(record);
+        }
+        capabilityMatrix.AddSubject(defaultCapabilities.get(roleIn));
+        capabilityIndex.AddSubject(subjects.Size(), defaultCapabilities.get(roleIn).GetAccessMask());
+        subjectRoles.add(roleIn);
+        subjectRoleIds.add(roleIds.get(roleIn));
+        roleSubjects.get(roleIn).add(subjects.Size());
+        subjects.Add(subjectIn);
+        //the name is registered last so lock-free readers never find a subject without a row
+    }
     /**
      * Adds LogEntry data to the log
      * @param currentLogIn The data to add to the log
      */
     protected void AddLog(LogEntry currentLogIn){
-        log.add(currentLogIn);
+        AsyncAuditLog async = asyncLog;
+        if (async != null){
+            async.Publish(currentLogIn);
+            return;
+        }
+
+        synchronized (auditIndex){
+            auditSink.Append(currentLogIn);
+            auditIndex.Add(currentLogIn);
+        }
+    }
+    /**
+     * Makes the log entry of a command
+     * While the log is written on a background thread, entries are copied when they are added, so each thread reuses one entry
+     * @return An empty denied entry. Must not be used after it is given to AddLog
+     */
+    protected LogEntry NewLogEntry(){
+        if (asyncLog == null)
+            return new LogEntry(false);
+
+        LogEntry entry = reusableLogs.get();
+        entry.Reset();
+        return entry;
+    }
+    /**
+     * Adds several LogEntries to the log, keeping their order
+     * @param logsIn The data to add to the log
+     */
+    protected void AddLogs(List<LogEntry> logsIn){
+        AsyncAuditLog async = asyncLog;
+        if (async != null){
+            async.PublishAll(logsIn);
+            return;
+        }
+
+        WriteLogs(logsIn);
+    }
+    /**
+     * Stores several LogEntries in the sink and the indexes, keeping their order
+     * @param logsIn The data to store
+     */
+    private void WriteLogs(List<LogEntry> logsIn){
+        synchronized (auditIndex){
+            auditSink.AppendAll(logsIn);
+            for (LogEntry entry : logsIn)
+                auditIndex.Add(entry);
+        }
+    }
+    /**
+     * Starts writing the log on a background thread so commands only hand their entries over
+     * Must be called before any commands are run
+     * @param capacityIn The number of entries that can wait to be written
+     * @param policyIn What happens to entries that arrive when capacityIn entries are already waiting
+     * @param sampleRateIn One in this many overflowing entries are kept by the SAMPLE policy
+     */
+    public void StartAsyncLog(int capacityIn, AsyncAuditLog.OverflowPolicy policyIn, int sampleRateIn){
+        if (asyncLog != null)
+            throw new IllegalStateException("The log is already written asynchronously");
+
+        asyncLog = new AsyncAuditLog(capacityIn, policyIn, sampleRateIn, this::WriteLogs, auditSink::Flush);
+    }
+    /**
+     * The number of log entries dropped because the asynchronous log was full
+     * @return The number of dropped entries. 0 if the log is written by the commands
+     */
+    public long DroppedLogCount(){
+        AsyncAuditLog async = asyncLog;
+        return (async == null) ? 0 : async.DroppedCount();
+    }
+    /**
+     * Waits until every log entry added so far can be read
+     */
+    protected void FlushLog(){
+        AsyncAuditLog async = asyncLog;
+        if (async != null)
+            async.Flush();
+    }
+    /**
+     * Writes any buffered log data and closes the log. Nothing can be logged afterwards
+     */
+    public void CloseLog(){
+        AsyncAuditLog async = asyncLog;
+        if (async != null)
+            async.Close();
+        auditSink.Close();
     }
     //endregion
-    //region Abstract Methods
+    //region Snapshots
     /**
-     * Generates a hashmap of the role names paired with their default capabilities
-     * @return The default capabilities hashmap
+     * Saves the subjects, objects and capabilities to a file while commands keep running
+     * @param pathIn The file to save to
+     * @throws IOException If the file cannot be written
      */
-    protected abstract HashMap<String, Capabilities> GetCapabilities();
+    public void SaveSnapshot(Path pathIn) throws IOException {
+        long position = ACMSnapshot.Save(this, pathIn);
+        WriteAheadLog log = writeAheadLog;
+        if (log != null)
+            log.Checkpoint(position);
+        //the snapshot holds every change before position, so older write-ahead log segments are not needed
+    }
     /**
-     * Generates a String array of the role names
-     * @return An array containing the names of the roles
+     * Loads the subjects, objects and capabilities saved by SaveSnapshot. The ACM must not have any subjects or objects
+     * @param pathIn The file to load
+     * @return The write-ahead log position of the first change the snapshot might not hold
+     * @throws IOException If the file cannot be read or does not match this ACM
      */
-    protected abstract String[] GetRoles();
+    public long LoadSnapshot(Path pathIn) throws IOException {
+        if (writeAheadLog != null)
+            throw new IllegalStateException("A snapshot cannot be loaded while the write-ahead log is open");
+
+        return ACMSnapshot.Load(this, pathIn);
+    }
+    /**
+     * The write-ahead log position of the next change. Read by snapshots. The caller must hold the structure lock
+     * @return The position of the next change, or 0 if there is no write-ahead log
+     */
+    protected long WriteAheadLogPosition(){
+        WriteAheadLog log = writeAheadLog;
+        return (log == null) ? 0 : log.NextPosition();
+    }
+    //endregion
+    //region Write-Ahead Log
+    /**
+     * Rebuilds the ACM from the latest snapshot and the write-ahead log, then logs every later change
+     * Each command waits for its changes to be durable before it returns
+     * The ACM must not have any subjects or objects
+     * @param snapshotPath The snapshot to start from. Recovery starts from an empty ACM if it does not exist
+     * @param writeAheadLogPath The path the write-ahead log segment numbers are added to
+     * @throws IOException If the snapshot or write-ahead log cannot be read or do not match this ACM
+     */
+    public void Recover(Path snapshotPath, Path writeAheadLogPath) throws IOException {
+        if (writeAheadLog != null)
+            throw new IllegalStateException("The write-ahead log is already open");
+
+        long replayFrom = Files.exists(snapshotPath) ? LoadSnapshot(snapshotPath) : 0;
+        structureLock.writeLock().lock();
+        try {
+            writeAheadLog = new WriteAheadLog(writeAheadLogPath, WRITE_AHEAD_LOG_SEGMENT_BYTES, replayFrom, new WriteAheadLog.Replayer() {
+                private int changedObject = -1;
+                //The object whose cells the current record changes
+
+                @Override
+                public void AddSubject(int subjectId, String name, String role) throws IOException {
+                    if (subjectId < subjects.Size() && name.equals(subjects.NameOf(subjectId)))
+                        return;
+                    if (subjectId != subjects.Size() || !defaultCapabilities.containsKey(role))
+                        throw new IOException("Cannot replay subject " + subjectId + " \"" + name + "\"");
+
+                    RegisterSubject(name, role);
+                }
+                @Override
+                public void AddObject(int objectId, String name) throws IOException {
+                    if (objectId < objects.Size() && name.equals(objects.NameOf(objectId)))
+                        return;
+                    if (objectId != objects.Size())
+                        throw new IOException("Cannot replay object " + objectId + " \"" + name + "\"");
+
+                    capabilityMatrix.AddObject();
+                    objects.Add(name);
+                }
+                @Override
+                public void SetCell(int objectId, int subjectId, long accessMask) throws IOException {
+                    if (objectId >= objects.Size() || subjectId >= subjects.Size())
+                        throw new IOException("Cannot replay cell " + subjectId + ", " + objectId);
+
+                    LoadCell(objectId, subjectId, accessMask);
+                    changedObject = objectId;
+                }
+                @Override
+                public void EndRecord(){
+                    if (changedObject != -1)
+                        capabilityMatrix.Commit(changedObject);
+                    changedObject = -1;
+                }
+            });
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+    /**
+     * Waits until every change made by this thread is durable. Does nothing if there is no write-ahead log
+     */
+    protected void SyncWriteAheadLog(){
+        WriteAheadLog log = writeAheadLog;
+        if (log == null)
+            return;
+
+        try {
+            log.Sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * The number of times the write-ahead log has been forced to disk. Each force makes every waiting command durable
+     * @return The number of forces, or 0 if there is no write-ahead log
+     */
+    public long WriteAheadLogSyncCount(){
+        WriteAheadLog log = writeAheadLog;
+        return (log == null) ? 0 : log.SyncCount();
+    }
+    /**
+     * Makes every change durable and closes the write-ahead log. Changes are only kept in memory afterwards
+     * @throws IOException If the changes could not be written
+     */
+    public void CloseWriteAheadLog() throws IOException {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null)
+            return;
+
+        structureLock.writeLock().lock();
+        try {
+            writeAheadLog = null;
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+        log.Close();
+    }
+    /**
+     * The cells changed by a running command
+     */
+    private static final class CellChanges {
+        int[] subjectIds = new int[8];
+        //The subject ID of each changed cell
+        long[] oldMasks = new long[8];
+        //The access mask of each changed cell before the change
+        long[] newMasks = new long[8];
+        //The access mask of each changed cell after the change. A cell changed twice has two entries, in order
+        int count = 0;
+        //The number of changes
+
+        void Add(int subjectId, long oldMask, long newMask){
+            if (count == subjectIds.length){
+                subjectIds = Arrays.copyOf(subjectIds, count * 2);
+                oldMasks = Arrays.copyOf(oldMasks, count * 2);
+                newMasks = Arrays.copyOf(newMasks, count * 2);
+            }
+            subjectIds[count] = subjectId;
+            oldMasks[count] = oldMask;
+            newMasks[count++] = newMask;
+        }
+        void Clear(){
+            count = 0;
+        }
+    }
     //endregion
 }
\ No newline at end of file
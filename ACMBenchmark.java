@@ -0,0 +1,260 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Measures the throughput and allocation of the ACM and EditorialACM hot paths at several populations
+ * Each benchmark runs warmup iterations and then measured iterations of a fixed number of operations on one thread
+ * Allocation is the bytes the benchmark thread allocated per operation, read from the JVM's thread allocation counter
+ * java ACMBenchmark {matrix} {population} ... runs the populations given, where matrix is sparse, dense, snapshot or mapped
+ * A population of n has n subjects and n manuscripts. The dense matrix needs n * n cells, so keep it to small populations
+ */
+public final class ACMBenchmark {
+    //region Variables
+    private static final int[] DEFAULT_POPULATIONS = {1_000, 10_000, 100_000};
+    //The populations measured when none are given. 1,000,000 can be given but takes a while to set up
+    private static final int EDITORS = 16;
+    //The number of editors in every population. Each submission gives every editor a cell, so this stays fixed
+    private static final int WARMUP_ITERATIONS = 5;
+    //The iterations run before measuring so the JIT has compiled the hot paths
+    private static final int MEASURED_ITERATIONS = 5;
+    //The iterations that are measured
+    private static final int OPERATIONS = 50_000;
+    //The operations in each iteration
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    //Reads the bytes allocated by the benchmark thread
+    private static final PrintStream CONSOLE = System.out;
+    //The real standard output. The ACM prints the result of every command, so System.out is discarded while measuring
+    //endregion
+    //region Constructor
+    /**
+     * The benchmark is only run through main
+     */
+    private ACMBenchmark(){
+    }
+    //endregion
+    //region Benchmarks
+    /**
+     * A benchmark operation with an unmeasured setup step before each iteration
+     */
+    private interface Benchmark {
+        /**
+         * Gets ready for an iteration. Not measured
+         * @param iteration The number of the iteration, counting warmup iterations
+         */
+        default void Prepare(int iteration){
+        }
+        /**
+         * Runs one operation
+         * @param iteration The number of the iteration, counting warmup iterations
+         * @param operation The number of the operation in the iteration
+         */
+        void Run(int iteration, int operation);
+    }
+    /**
+     * Runs every benchmark at a population
+     * @param matrix The capability matrix type
+     * @param population The number of subjects and manuscripts
+     */
+    private static void RunPopulation(String matrix, int population){
+        EditorialACM system = Populate(matrix, population);
+        int authors = population - EDITORS - Reviewers(population);
+        Random random = new Random(population);
+
+        String[] objects = new String[OPERATIONS];
+        String[] subjects = new String[OPERATIONS];
+        for (int x = 0; x < OPERATIONS; x++){
+            int manuscript = random.nextInt(population);
+            objects[x] = "manuscript" + manuscript;
+            subjects[x] = (x % 2 == 0) ? "author" + (manuscript % authors) : "author" + random.nextInt(authors);
+            //half the checks are by the manuscript's owner, half by another author
+        }
+        Measure("ACM.HasCapability", population, (iteration, operation) ->
+                system.HasCapability(objects[operation], subjects[operation], "Read"));
+
+        String[] reads = new String[OPERATIONS];
+        for (int x = 0; x < OPERATIONS; x++)
+            reads[x] = "Read " + objects[x] + " " + subjects[x];
+        Measure("EditorialACM.RunCommand (Read)", population, (iteration, operation) ->
+                system.RunCommand(reads[operation]));
+
+        Measure("ACM.AddSubject", population, (iteration, operation) ->
+                system.AddSubject("added" + iteration + "-" + operation, "Reviewer"));
+
+        Measure("EditorialACM.CreateManuscript", population, (iteration, operation) ->
+                system.RunCommand("Create created" + iteration + "-" + operation + " author" + (operation % authors)));
+
+        Measure("EditorialACM.SubmitManuscript", population, new Benchmark() {
+            @Override
+            public void Prepare(int iteration){
+                for (int x = 0; x < OPERATIONS; x++)
+                    system.RunCommand("Create submitted" + iteration + "-" + x + " author" + (x % authors));
+            }
+            @Override
+            public void Run(int iteration, int operation){
+                system.RunCommand("Submit submitted" + iteration + "-" + operation + " author" + (operation % authors));
+            }
+        });
+
+        Measure("EditorialACM workflow (Send/Accept/Review/Consider_Reviews)", population, new Benchmark() {
+            @Override
+            public void Prepare(int iteration){
+                for (int x = 0; x < OPERATIONS; x++){
+                    system.RunCommand("Create reviewed" + iteration + "-" + x + " author" + (x % authors));
+                    system.RunCommand("Submit reviewed" + iteration + "-" + x + " author" + (x % authors));
+                }
+            }
+            @Override
+            public void Run(int iteration, int operation){
+                String manuscript = " reviewed" + iteration + "-" + operation;
+                String editor = " editor" + (operation % EDITORS);
+                String reviewer = " reviewer" + (operation % Reviewers(population));
+                system.RunCommand("Send" + manuscript + editor + reviewer);
+                system.RunCommand("Accept" + manuscript + reviewer);
+                system.RunCommand("Review" + manuscript + reviewer);
+                system.RunCommand("Review" + manuscript + editor);
+                system.RunCommand("Consider_Reviews" + manuscript + editor + " Accept");
+            }
+        });
+    }
+    //endregion
+    //region Measuring
+    /**
+     * Runs a benchmark and prints its throughput and allocation
+     * @param name The name of the benchmark
+     * @param population The population it runs at
+     * @param benchmark The benchmark to run
+     */
+    private static void Measure(String name, int population, Benchmark benchmark){
+        double[] throughputs = new double[MEASURED_ITERATIONS];
+        long allocated = 0;
+        long measuredNanos = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++){
+            benchmark.Prepare(iteration);
+            long startBytes = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int operation = 0; operation < OPERATIONS; operation++)
+                benchmark.Run(iteration, operation);
+            long nanos = System.nanoTime() - start;
+            long bytes = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+
+            if (iteration >= WARMUP_ITERATIONS){
+                throughputs[iteration - WARMUP_ITERATIONS] = OPERATIONS / (nanos / 1_000_000_000.0);
+                allocated += bytes;
+                measuredNanos += nanos;
+            }
+        }
+
+        double mean = MEASURED_ITERATIONS * OPERATIONS / (measuredNanos / 1_000_000_000.0);
+        //the total operations over the total time, so one slow iteration counts for its full length
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (double throughput : throughputs){
+            min = Math.min(min, throughput);
+            max = Math.max(max, throughput);
+        }
+        CONSOLE.printf("%-60s %,10d %,14.0f ops/s (%,.0f - %,.0f) %,10.0f ns/op %,10.0f B/op%n", name, population,
+                mean, min, max, 1_000_000_000.0 / mean, allocated / (double) (MEASURED_ITERATIONS * OPERATIONS));
+    }
+    //endregion
+    //region Population
+    /**
+     * Builds an EditorialACM with a population of authors, editors and reviewers and one manuscript per subject
+     * Every other manuscript is submitted. The log is discarded so it does not grow during the benchmark
+     * @param matrix The capability matrix type
+     * @param population The number of subjects and manuscripts
+     * @return The populated system
+     */
+    private static EditorialACM Populate(String matrix, int population){
+        EditorialACM system = new EditorialACM(CreateMatrix(matrix), new DiscardAuditSink());
+        int reviewers = Reviewers(population);
+        int authors = population - EDITORS - reviewers;
+        ArrayList<String> commands = new ArrayList<String>();
+        Consumer<String> add = command -> {
+            commands.add(command);
+            if (commands.size() == 4096){
+                system.RunBatch(commands);
+                commands.clear();
+            }
+        };
+
+        for (int x = 0; x < EDITORS; x++)
+            add.accept("Add editor" + x + " Editor");
+        for (int x = 0; x < reviewers; x++)
+            add.accept("Add reviewer" + x + " Reviewer");
+        for (int x = 0; x < authors; x++)
+            add.accept("Add author" + x + " Author");
+        for (int x = 0; x < population; x++){
+            add.accept("Create manuscript" + x + " author" + (x % authors));
+            if (x % 2 == 0)
+                add.accept("Submit manuscript" + x + " author" + (x % authors));
+        }
+        system.RunBatch(commands);
+
+        return system;
+    }
+    /**
+     * The number of reviewers in a population
+     * @param population The number of subjects
+     * @return A tenth of the population
+     */
+    private static int Reviewers(int population){
+        return Math.max(1, population / 10);
+    }
+    /**
+     * Creates an empty capability matrix
+     * @param matrix The matrix type. sparse, dense, snapshot or mapped
+     * @return The new matrix
+     */
+    private static CapabilityMatrix CreateMatrix(String matrix){
+        return switch (matrix) {
+            case "dense" -> new DenseCapabilityMatrix();
+            case "snapshot" -> new SnapshotCapabilityMatrix();
+            case "mapped" -> new MappedCapabilityMatrix();
+            case "sparse" -> new SparseCapabilityMatrix();
+            default -> throw new IllegalArgumentException("Unknown matrix \"".concat(matrix).concat("\""));
+        };
+    }
+    /**
+     * An audit sink that keeps nothing, so the benchmark measures the commands and not the log's growth
+     */
+    private static final class DiscardAuditSink extends AuditSink {
+        @Override
+        public void Append(LogEntry entryIn){
+        }
+        @Override
+        public void Scan(Consumer<LogEntry> visitor){
+        }
+        @Override
+        public LogEntry Get(int sequence){
+            return null;
+        }
+    }
+    //endregion
+    //region Running Benchmark
+    /**
+     * Runs the benchmarks
+     * @param args The matrix type followed by the populations to run. Defaults to sparse at 1,000, 10,000 and 100,000
+     */
+    public static void main(String[] args){
+        String matrix = (args.length > 0) ? args[0] : "sparse";
+        List<Integer> populations = new ArrayList<Integer>();
+        for (int x = 1; x < args.length; x++)
+            populations.add(Integer.parseInt(args[x]));
+        if (populations.isEmpty())
+            for (int population : DEFAULT_POPULATIONS)
+                populations.add(population);
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        CONSOLE.printf("%-60s %10s %14s%n", "Benchmark (".concat(matrix).concat(" matrix)"), "Population", "Throughput");
+        for (int population : populations)
+            RunPopulation(matrix, population);
+        System.setOut(CONSOLE);
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * A blocking client for an ACMServer
+ * Requests are buffered by Send and written by Flush, so many requests can be in flight before their responses are read
+ * A client is not thread-safe; give each thread its own connection
+ */
+public final class ACMClient implements AutoCloseable {
+    //region Variables
+    private final SocketChannel channel;
+    //The connection to the server
+    private final ByteBuffer output;
+    //Requests that have not been written yet, ready to be written to
+    private final ByteBuffer input;
+    //Responses that have been received but not returned yet, ready to be read
+    private long inFlight;
+    //The number of requests sent whose responses have not been returned
+    private static final int BUFFER_BYTES = 1 << 16;
+    //The size of the request and response buffers
+    public static final int DEFAULT_WINDOW = 1024;
+    //The most requests RunPipelined keeps in flight unless told otherwise
+    //endregion
+    //region Constructor
+    /**
+     * The default ACMClient constructor. Connects to the server
+     * @param addressIn The server's address
+     * @throws IOException If the server cannot be reached
+     */
+    public ACMClient(InetSocketAddress addressIn) throws IOException {
+        channel = SocketChannel.open(addressIn);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        output = ByteBuffer.allocate(BUFFER_BYTES);
+        input = ByteBuffer.allocate(BUFFER_BYTES);
+        input.flip();
+        inFlight = 0;
+    }
+    //endregion
+    //region Requests
+    /**
+     * Buffers a request. It is written when the buffer is full or Flush is called
+     * @param commandIn The command in the RunCommand syntax
+     * @throws IOException If the buffer was full and could not be written
+     */
+    public void Send(String commandIn) throws IOException {
+        byte[] command = ACMProtocol.Encode(commandIn);
+        if (output.remaining() < ACMProtocol.HEADER_BYTES + command.length)
+            Flush();
+        ACMProtocol.WriteRequest(output, command);
+        inFlight++;
+    }
+    /**
+     * Writes every buffered request
+     * @throws IOException If the connection fails
+     */
+    public void Flush() throws IOException {
+        output.flip();
+        while (output.hasRemaining())
+            channel.write(output);
+        output.clear();
+    }
+    /**
+     * Waits for the response to the oldest request in flight. Buffered requests must have been flushed
+     * @return The status of the response. One of ACMProtocol's STATUS values
+     * @throws IOException If the connection fails or closes
+     */
+    public byte Receive() throws IOException {
+        if (inFlight == 0)
+            throw new IllegalStateException("There are no requests in flight");
+
+        if (!input.hasRemaining()){
+            input.clear();
+            int read = channel.read(input);
+            input.flip();
+            if (read == -1)
+                throw new EOFException("The server closed the connection");
+        }
+        inFlight--;
+        return input.get();
+    }
+    /**
+     * The number of requests sent whose responses have not been returned by Receive
+     * @return The number of requests in flight
+     */
+    public long InFlight(){
+        return inFlight;
+    }
+    /**
+     * Runs a command and waits for its result
+     * @param commandIn The command in the RunCommand syntax
+     * @return Whether the command ran and succeeded
+     * @throws IOException If the connection fails
+     */
+    public boolean RunCommand(String commandIn) throws IOException {
+        Send(commandIn);
+        Flush();
+        while (inFlight > 1)
+            Receive();
+        //responses to earlier requests that were never received
+
+        return Receive() == ACMProtocol.STATUS_OK;
+    }
+    /**
+     * Runs many commands, keeping up to DEFAULT_WINDOW requests in flight
+     * @param commands The commands in the RunCommand syntax
+     * @return Whether each command ran and succeeded, in the same order as the commands
+     * @throws IOException If the connection fails
+     */
+    public boolean[] RunPipelined(List<String> commands) throws IOException {
+        return RunPipelined(commands, DEFAULT_WINDOW);
+    }
+    /**
+     * Runs many commands, keeping a window of requests in flight so the server can run them in batches
+     * @param commands The commands in the RunCommand syntax
+     * @param window The most requests in flight at once
+     * @return Whether each command ran and succeeded, in the same order as the commands
+     * @throws IOException If the connection fails
+     */
+    public boolean[] RunPipelined(List<String> commands, int window) throws IOException {
+        if (inFlight != 0)
+            throw new IllegalStateException("Every response must be received before running a pipeline");
+
+        boolean[] results = new boolean[commands.size()];
+        int received = 0;
+        for (int sent = 0; sent < commands.size(); sent++){
+            if (inFlight == window){
+                Flush();
+                results[received++] = Receive() == ACMProtocol.STATUS_OK;
+            }
+            Send(commands.get(sent));
+        }
+        Flush();
+        while (received < results.length)
+            results[received++] = Receive() == ACMProtocol.STATUS_OK;
+
+        return results;
+    }
+    //endregion
+    //region Closing
+    /**
+     * Closes the connection. Requests that were not flushed are not sent
+     * @throws IOException If the connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    //endregion
+}
\ No newline at end of file
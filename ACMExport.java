@@ -0,0 +1,738 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams a page of an ACM's capabilities as a table, CSV, TSV or binary file
+ * The subjects and objects can be chosen by name or role, then paged. Rows are copied a block at a time while the locks are held
+ * and written while they are not, so commands keep running during a long export and each block is copied between commands
+ * Every cell is read once. Cells are written from the text of their (role, access mask), which is made once per export
+ * The table needs its column widths before the first row. They come from the role defaults and the modified cells only,
+ * so the cells that are still the role default are not visited twice
+ * The binary format is big endian: a 4 byte magic number and version, the capability count and each capability name in ordinal order,
+ * the role count and each role name, the subject count and each subject's name and role index, the object count and each object's name,
+ * then the 8 byte access mask of every cell one subject row at a time. Names are an int length followed by UTF-8 bytes
+ */
+public final class ACMExport {
+    //region Settings
+    /**
+     * The ways a page can be written
+     */
+    public enum Format {
+        TABLE,
+        //Columns padded to line up, as Print shows them
+        CSV,
+        //Comma separated values. Names are quoted when needed
+        TSV,
+        //Tab separated values. Tabs, line breaks and backslashes in names are escaped
+        BINARY
+        //Access masks with the capability and role names needed to read them
+    }
+    /**
+     * What to export and where. Each field can be set as name=value, with the settings joined by &amp;
+     */
+    public static final class Settings {
+        public String format = "table";
+        //table, csv, tsv or binary
+        public String subjects = "";
+        //Comma separated names of the subjects to export. Every subject if empty
+        public String roles = "";
+        //Comma separated roles of the subjects to export. Every role if empty
+        public String objects = "";
+        //Comma separated names of the objects to export. Every object if empty
+        public int firstSubject = 0;
+        //The index among the chosen subjects of the first row exported
+        public int subjectCount = Integer.MAX_VALUE;
+        //The most rows exported
+        public int firstObject = 0;
+        //The index among the chosen objects of the first column exported
+        public int objectCount = Integer.MAX_VALUE;
+        //The most columns exported
+        public int width = 0;
+        //The widest a table column can be. Longer names and cells are cut short and end with ~. No bound if 0
+        public String output = "";
+        //The file to write to. Standard output if empty
+
+        /**
+         * Sets fields from name=value settings joined by &amp;
+         * @param settingsIn The settings, such as format=csv&amp;roles=Reviewer&amp;subjectCount=100
+         * @return These settings
+         */
+        public Settings Parse(String settingsIn){
+            for (String setting : settingsIn.split("&")){
+                if (setting.isEmpty())
+                    continue;
+
+                int equals = setting.indexOf('=');
+                if (equals == -1)
+                    throw new IllegalArgumentException("Expected name=value but found \"".concat(setting).concat("\""));
+                try {
+                    java.lang.reflect.Field field = Settings.class.getField(setting.substring(0, equals));
+                    String value = setting.substring(equals + 1);
+                    if (field.getType() == int.class)
+                        field.setInt(this, Integer.parseInt(value));
+                    else
+                        field.set(this, value);
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalArgumentException("Unknown setting \"".concat(setting.substring(0, equals)).concat("\""));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            FormatOf();
+            if (firstSubject < 0 || subjectCount < 0 || firstObject < 0 || objectCount < 0 || width < 0)
+                throw new IllegalArgumentException("Page positions, sizes and the width must not be negative");
+
+            return this;
+        }
+        /**
+         * Finds the format named by the format setting
+         * @return The format
+         */
+        public Format FormatOf(){
+            for (Format option : Format.values())
+                if (option.name().equalsIgnoreCase(format))
+                    return option;
+
+            throw new IllegalArgumentException("Unknown format \"".concat(format).concat("\""));
+        }
+    }
+    //endregion
+    //region Variables
+    private static final int MAGIC = 0x41434D58;
+    //The first 4 bytes of every binary export
+    private static final int VERSION = 1;
+    //The version of the binary format
+    private static final int CELLS_PER_LOCK = 1 << 16;
+    //The most cells copied each time the locks are taken
+    private static final int BUFFER_BYTES = 1 << 16;
+    //The size of the output buffer
+    private final ACM acm;
+    //The ACM being exported
+    private final Settings settings;
+    //What to export
+    private final Format format;
+    //How the page is written
+    private final Output output;
+    //Where the page is written
+    private int[] subjectIds;
+    //The IDs of the subjects of the page in ID order
+    private String[] subjectNames;
+    //The name of each subject of the page
+    private int[] roleIds;
+    //The role ID of each subject of the page
+    private int[] objectIds;
+    //The IDs of the objects of the page in ID order
+    private String[] objectNames;
+    //The name of each object of the page
+    private CellText[] roleTexts;
+    //The texts of each role's access masks, indexed by role ID. Null for roles without a subject on the page
+    private Capabilities[] roleDefaults;
+    //The default capabilities of each role, indexed by role ID
+    private String[] roleNames;
+    //The name of each role, indexed by role ID
+    private final String lineSeparator;
+    //Written after every line of text
+    //endregion
+    //region Constructor
+    /**
+     * The ACMExport constructor. Each export makes its own
+     * @param acmIn The ACM to export
+     * @param settingsIn What to export
+     * @param channelIn Where to write the page
+     */
+    private ACMExport(ACM acmIn, Settings settingsIn, WritableByteChannel channelIn){
+        acm = acmIn;
+        settings = settingsIn;
+        format = settingsIn.FormatOf();
+        output = new Output(channelIn);
+        lineSeparator = System.lineSeparator();
+    }
+    //endregion
+    //region Exporting
+    /**
+     * Exports a page of an ACM to the output of the settings
+     * @param acm The ACM to export
+     * @param settings What to export and where
+     * @throws IOException If the page cannot be written
+     */
+    public static void Export(ACM acm, Settings settings) throws IOException {
+        if (!settings.output.isEmpty()){
+            try (FileChannel channel = FileChannel.open(Path.of(settings.output), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Export(acm, settings, channel);
+            }
+            return;
+        }
+
+        Export(acm, settings, Channels.newChannel(System.out));
+        System.out.flush();
+        //the channel is not closed, since that would close standard output
+    }
+    /**
+     * Exports a page of an ACM
+     * @param acm The ACM to export
+     * @param settings What to export. The output setting is ignored
+     * @param channel Where to write the page. Not closed
+     * @throws IOException If the page cannot be written
+     */
+    public static void Export(ACM acm, Settings settings, WritableByteChannel channel) throws IOException {
+        ACMExport export = new ACMExport(acm, settings, channel);
+        export.ChoosePage();
+        switch (export.format){
+            case TABLE -> export.WriteTable();
+            case CSV, TSV -> export.WriteSeparated();
+            case BINARY -> export.WriteBinary();
+        }
+        export.output.Flush();
+    }
+    /**
+     * Finds the subjects and objects of the page and the roles of the subjects
+     */
+    private void ChoosePage(){
+        acm.structureLock.readLock().lock();
+        try {
+            BitSet chosenSubjects = Choose(settings.subjects, acm.subjects);
+            if (!settings.roles.isEmpty()){
+                BitSet withRole = new BitSet();
+                for (String role : settings.roles.split(","))
+                    for (int subjectId : acm.SubjectsWithRole(role))
+                        withRole.set(subjectId);
+                chosenSubjects.and(withRole);
+            }
+            subjectIds = Page(chosenSubjects, settings.firstSubject, settings.subjectCount);
+            objectIds = Page(Choose(settings.objects, acm.objects), settings.firstObject, settings.objectCount);
+
+            subjectNames = new String[subjectIds.length];
+            roleIds = new int[subjectIds.length];
+            roleTexts = new CellText[0];
+            roleDefaults = new Capabilities[0];
+            roleNames = new String[0];
+            for (int x = 0; x < subjectIds.length; x++){
+                subjectNames[x] = acm.subjects.NameOf(subjectIds[x]);
+                roleIds[x] = acm.RoleIdOf(subjectIds[x]);
+                if (roleIds[x] >= roleTexts.length){
+                    roleTexts = Arrays.copyOf(roleTexts, roleIds[x] + 1);
+                    roleDefaults = Arrays.copyOf(roleDefaults, roleIds[x] + 1);
+                    roleNames = Arrays.copyOf(roleNames, roleIds[x] + 1);
+                }
+                if (roleTexts[roleIds[x]] == null){
+                    roleNames[roleIds[x]] = acm.RoleOf(subjectIds[x]);
+                    roleDefaults[roleIds[x]] = acm.defaultCapabilities.get(roleNames[roleIds[x]]);
+                    roleTexts[roleIds[x]] = new CellText(roleDefaults[roleIds[x]]);
+                }
+            }
+            objectNames = new String[objectIds.length];
+            for (int x = 0; x < objectIds.length; x++)
+                objectNames[x] = acm.objects.NameOf(objectIds[x]);
+        } finally {
+            acm.structureLock.readLock().unlock();
+        }
+    }
+    /**
+     * Finds the IDs named by a setting. The caller must hold the structure lock
+     * @param namesIn Comma separated names, or empty for every ID
+     * @param registry The names of the IDs
+     * @return The IDs. Names that do not exist are skipped
+     */
+    private static BitSet Choose(String namesIn, IdRegistry registry){
+        BitSet chosen = new BitSet(registry.Size());
+        if (namesIn.isEmpty()){
+            chosen.set(0, registry.Size());
+            return chosen;
+        }
+
+        for (String name : namesIn.split(",")){
+            int id = registry.IdOf(name);
+            if (id != -1)
+                chosen.set(id);
+        }
+        return chosen;
+    }
+    /**
+     * Finds a page of the chosen IDs
+     * @param chosen The chosen IDs
+     * @param first The index among the chosen IDs of the first ID of the page
+     * @param count The most IDs on the page
+     * @return The IDs of the page in ascending order
+     */
+    private static int[] Page(BitSet chosen, int first, int count){
+        int[] page = new int[(int) Math.max(0, Math.min((long) count, (long) chosen.cardinality() - first))];
+        int id = chosen.nextSetBit(0);
+        for (int x = 0; x < first && id != -1; x++)
+            id = chosen.nextSetBit(id + 1);
+        for (int x = 0; x < page.length; x++){
+            page[x] = id;
+            id = chosen.nextSetBit(id + 1);
+        }
+        return page;
+    }
+    /**
+     * Copies the access masks of a block of rows while holding the structure lock and the locks of the page's objects
+     * @param first The index in subjectIds of the first row
+     * @param last The index after the last row
+     * @param masks Filled with the access mask of each cell, one row after another
+     */
+    private void CopyRows(int first, int last, long[] masks){
+        ReentrantLock[] locks = acm.capabilityMatrix.SupportsLockFreeReads() ? new ReentrantLock[0] : ObjectLocks();
+        acm.structureLock.readLock().lock();
+        try {
+            for (ReentrantLock lock : locks)
+                lock.lock();
+            try {
+                int cell = 0;
+                for (int row = first; row < last; row++)
+                    for (int objectId : objectIds)
+                        masks[cell++] = acm.capabilityMatrix.GetMask(subjectIds[row], objectId);
+            } finally {
+                for (int x = locks.length - 1; x >= 0; x--)
+                    locks[x].unlock();
+            }
+        } finally {
+            acm.structureLock.readLock().unlock();
+        }
+    }
+    /**
+     * Finds the locks of the page's objects
+     * @return Each lock stripe with an object on the page, in stripe order so they are always taken in the same order
+     */
+    private ReentrantLock[] ObjectLocks(){
+        boolean[] used = new boolean[ACM.OBJECT_LOCK_STRIPES];
+        int count = 0;
+        for (int objectId : objectIds){
+            int stripe = objectId & (ACM.OBJECT_LOCK_STRIPES - 1);
+            if (!used[stripe]){
+                used[stripe] = true;
+                count++;
+            }
+        }
+
+        ReentrantLock[] locks = new ReentrantLock[count];
+        int next = 0;
+        for (int stripe = 0; stripe < used.length; stripe++)
+            if (used[stripe])
+                locks[next++] = acm.ObjectLock(stripe);
+        return locks;
+    }
+    /**
+     * The number of rows copied each time the locks are taken
+     * @return The rows per block
+     */
+    private int RowsPerBlock(){
+        return Math.max(1, CELLS_PER_LOCK / Math.max(1, objectIds.length));
+    }
+    //endregion
+    //region Table
+    /**
+     * Writes the page as a table with a column for each object
+     * @throws IOException If the page cannot be written
+     */
+    private void WriteTable() throws IOException {
+        int[] widths = ColumnWidths();
+        int lineLength = objectIds.length + 2;
+        for (int size : widths)
+            lineLength += size;
+
+        output.Repeat('=', lineLength);
+        output.Put(lineSeparator);
+        output.Put('|');
+        output.Repeat(' ', widths[0]);
+        output.Put('|');
+        for (int x = 0; x < objectIds.length; x++)
+            PutColumn(objectNames[x], widths[x + 1]);
+        output.Put(lineSeparator);
+
+        int rowsPerBlock = RowsPerBlock();
+        long[] masks = new long[rowsPerBlock * objectIds.length];
+        for (int first = 0; first < subjectIds.length; first += rowsPerBlock){
+            int last = Math.min(subjectIds.length, first + rowsPerBlock);
+            CopyRows(first, last, masks);
+
+            int cell = 0;
+            for (int row = first; row < last; row++){
+                output.Put('|');
+                PutColumn(subjectNames[row], widths[0]);
+                CellText texts = roleTexts[roleIds[row]];
+                for (int x = 0; x < objectIds.length; x++)
+                    PutColumn(texts.Get(masks[cell++]), widths[x + 1]);
+                output.Put(lineSeparator);
+            }
+        }
+        output.Repeat('=', lineLength);
+        output.Put(lineSeparator);
+    }
+    /**
+     * Writes a value padded to the width of its column, followed by the column separator
+     * @param value The value
+     * @param width The width of the column
+     * @throws IOException If the page cannot be written
+     */
+    private void PutColumn(String value, int width) throws IOException {
+        if (value.length() > width){
+            value = (width == 0) ? "" : value.substring(0, width - 1).concat("~");
+            //a cell that changed after the widths were found is cut short as well
+        }
+        output.Put(value);
+        output.Repeat(' ', width - value.length());
+        output.Put('|');
+    }
+    /**
+     * Finds the width of every column of the table without visiting the cells that are still the role default
+     * @return The width of the subject column, then the width of each object column
+     */
+    private int[] ColumnWidths(){
+        int[] widths = new int[objectIds.length + 1];
+        for (String name : subjectNames)
+            widths[0] = Math.max(widths[0], name.length());
+        for (int x = 0; x < objectIds.length; x++)
+            widths[x + 1] = objectNames[x].length();
+
+        int[] roleRows = new int[roleTexts.length];
+        for (int roleId : roleIds)
+            roleRows[roleId]++;
+        int[] pageRows = new int[acm.capabilityMatrix.SubjectCount()];
+        Arrays.fill(pageRows, -1);
+        for (int row = 0; row < subjectIds.length; row++)
+            pageRows[subjectIds[row]] = row;
+
+        int[] modifiedRows = new int[roleTexts.length];
+        acm.structureLock.readLock().lock();
+        try {
+            for (int x = 0; x < objectIds.length; x++){
+                int column = x + 1;
+                Arrays.fill(modifiedRows, 0);
+                ReentrantLock objectLock = acm.ObjectLock(objectIds[x]);
+                objectLock.lock();
+                try {
+                    acm.capabilityMatrix.ForEachCell(objectIds[x], (subjectId, accessMask) -> {
+                        if (subjectId >= pageRows.length || pageRows[subjectId] == -1)
+                            return;
+
+                        int roleId = roleIds[pageRows[subjectId]];
+                        modifiedRows[roleId]++;
+                        widths[column] = Math.max(widths[column], roleTexts[roleId].Get(accessMask).length());
+                    });
+                } finally {
+                    objectLock.unlock();
+                }
+                for (int roleId = 0; roleId < roleTexts.length; roleId++)
+                    if (modifiedRows[roleId] < roleRows[roleId])
+                        widths[column] = Math.max(widths[column], roleTexts[roleId].Get(roleDefaults[roleId].GetAccessMask()).length());
+                //a role with a row still at its default on the object shows the default text
+            }
+        } finally {
+            acm.structureLock.readLock().unlock();
+        }
+
+        if (settings.width > 0)
+            for (int x = 0; x < widths.length; x++)
+                widths[x] = Math.min(widths[x], settings.width);
+        return widths;
+    }
+    //endregion
+    //region Separated Values
+    /**
+     * Writes the page as CSV or TSV with a header row of object names and a row for each subject
+     * @throws IOException If the page cannot be written
+     */
+    private void WriteSeparated() throws IOException {
+        char separator = (format == Format.CSV) ? ',' : '\t';
+        output.Put(Escape("subject"));
+        for (String name : objectNames){
+            output.Put(separator);
+            output.Put(Escape(name));
+        }
+        output.Put(lineSeparator);
+
+        int rowsPerBlock = RowsPerBlock();
+        long[] masks = new long[rowsPerBlock * objectIds.length];
+        for (int first = 0; first < subjectIds.length; first += rowsPerBlock){
+            int last = Math.min(subjectIds.length, first + rowsPerBlock);
+            CopyRows(first, last, masks);
+
+            int cell = 0;
+            for (int row = first; row < last; row++){
+                output.Put(Escape(subjectNames[row]));
+                CellText texts = roleTexts[roleIds[row]];
+                for (int x = 0; x < objectIds.length; x++){
+                    output.Put(separator);
+                    output.Put(texts.Get(masks[cell++]));
+                    //capability names never hold a separator, so cells are not escaped
+                }
+                output.Put(lineSeparator);
+            }
+        }
+    }
+    /**
+     * Escapes a name for the format
+     * @param value The name
+     * @return The name quoted for CSV if it holds a comma, quote or line break, or with tabs, line breaks and backslashes escaped for TSV
+     */
+    private String Escape(String value){
+        if (format == Format.CSV){
+            if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1)
+                return value;
+
+            return "\"".concat(value.replace("\"", "\"\"")).concat("\"");
+        }
+
+        if (value.indexOf('\\') == -1 && value.indexOf('\t') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1)
+            return value;
+
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+    //endregion
+    //region Binary
+    /**
+     * Writes the page in the binary format
+     * @throws IOException If the page cannot be written
+     */
+    private void WriteBinary() throws IOException {
+        output.PutInt(MAGIC);
+        output.PutInt(VERSION);
+
+        int capabilityCount = CapabilityRegistry.Size();
+        output.PutInt(capabilityCount);
+        for (int x = 0; x < capabilityCount; x++)
+            output.PutString(CapabilityRegistry.NameOf(x));
+
+        LinkedHashMap<Integer, Integer> roleIndexes = new LinkedHashMap<Integer, Integer>();
+        for (int roleId : roleIds)
+            roleIndexes.putIfAbsent(roleId, roleIndexes.size());
+        output.PutInt(roleIndexes.size());
+        for (int roleId : roleIndexes.keySet())
+            output.PutString(roleNames[roleId]);
+
+        output.PutInt(subjectIds.length);
+        for (int row = 0; row < subjectIds.length; row++){
+            output.PutString(subjectNames[row]);
+            output.PutInt(roleIndexes.get(roleIds[row]));
+        }
+        output.PutInt(objectIds.length);
+        for (String name : objectNames)
+            output.PutString(name);
+
+        int rowsPerBlock = RowsPerBlock();
+        long[] masks = new long[rowsPerBlock * objectIds.length];
+        for (int first = 0; first < subjectIds.length; first += rowsPerBlock){
+            int last = Math.min(subjectIds.length, first + rowsPerBlock);
+            CopyRows(first, last, masks);
+            for (int cell = 0; cell < (last - first) * objectIds.length; cell++)
+                output.PutLong(masks[cell]);
+        }
+    }
+    //endregion
+    //region Cell Text
+    /**
+     * The text of each access mask of one role, made the first time the mask is seen
+     * Every cell of a subject has its role's capabilities, so the text of a cell only depends on its role and mask
+     */
+    private static final class CellText {
+        private final Capabilities layout;
+        //A copy of the role default, used to make the text of a mask
+        private long[] masks;
+        //The masks with a text, in an open addressing table
+        private String[] texts;
+        //The text of each mask in masks. Null for an empty slot
+        private int size;
+        //The number of masks with a text
+
+        /**
+         * The CellText constructor
+         * @param roleDefaultIn The default capabilities of the role
+         */
+        CellText(Capabilities roleDefaultIn){
+            layout = new Capabilities(roleDefaultIn);
+            masks = new long[16];
+            texts = new String[16];
+            size = 0;
+        }
+        /**
+         * Finds the text of an access mask
+         * @param mask The access mask
+         * @return The capabilities the mask allows, as Capabilities.toString shows them
+         */
+        String Get(long mask){
+            int slot = Slot(masks, texts, mask);
+            if (texts[slot] != null)
+                return texts[slot];
+
+            layout.SetAccessMask(mask);
+            String text = layout.toString();
+            if ((size + 1) * 2 > masks.length){
+                Grow();
+                slot = Slot(masks, texts, mask);
+            }
+            masks[slot] = mask;
+            texts[slot] = text;
+            size++;
+            return text;
+        }
+        /**
+         * Finds the slot of a mask, or the empty slot it would go in
+         * @param table The masks of the table
+         * @param tableTexts The texts of the table
+         * @param mask The access mask
+         * @return The slot
+         */
+        private static int Slot(long[] table, String[] tableTexts, long mask){
+            int slot = Long.hashCode(mask * 0x9E3779B97F4A7C15L) & (table.length - 1);
+            while (tableTexts[slot] != null && table[slot] != mask)
+                slot = (slot + 1) & (table.length - 1);
+            return slot;
+        }
+        /**
+         * Doubles the size of the table
+         */
+        private void Grow(){
+            long[] oldMasks = masks;
+            String[] oldTexts = texts;
+            masks = new long[oldMasks.length * 2];
+            texts = new String[oldMasks.length * 2];
+            for (int x = 0; x < oldMasks.length; x++){
+                if (oldTexts[x] != null){
+                    int slot = Slot(masks, texts, oldMasks[x]);
+                    masks[slot] = oldMasks[x];
+                    texts[slot] = oldTexts[x];
+                }
+            }
+        }
+    }
+    //endregion
+    //region Output
+    /**
+     * Writes text and big endian values to a channel through a buffer
+     */
+    private static final class Output {
+        private final WritableByteChannel channel;
+        //Where the bytes go
+        private final ByteBuffer buffer;
+        //Bytes waiting to be written
+
+        /**
+         * The Output constructor
+         * @param channelIn Where the bytes go
+         */
+        Output(WritableByteChannel channelIn){
+            channel = channelIn;
+            buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        }
+        /**
+         * Writes a character as UTF-8
+         * @param value The character. Must not be half of a surrogate pair
+         * @throws IOException If the channel cannot be written to
+         */
+        void Put(char value) throws IOException {
+            if (value < 0x80){
+                Ensure(1);
+                buffer.put((byte) value);
+            }
+            else
+                Put(String.valueOf(value));
+        }
+        /**
+         * Writes text as UTF-8
+         * @param value The text
+         * @throws IOException If the channel cannot be written to
+         */
+        void Put(String value) throws IOException {
+            int length = value.length();
+            int x = 0;
+            while (x < length && value.charAt(x) < 0x80)
+                x++;
+            if (x < length){
+                PutBytes(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            //text that is not ASCII is encoded as a whole
+
+            for (x = 0; x < length; x++){
+                Ensure(1);
+                buffer.put((byte) value.charAt(x));
+            }
+        }
+        /**
+         * Writes a character several times
+         * @param value The character. Must be ASCII
+         * @param count The number of times to write it
+         * @throws IOException If the channel cannot be written to
+         */
+        void Repeat(char value, int count) throws IOException {
+            for (int x = 0; x < count; x++){
+                Ensure(1);
+                buffer.put((byte) value);
+            }
+        }
+        /**
+         * Writes a big endian int
+         * @param value The int
+         * @throws IOException If the channel cannot be written to
+         */
+        void PutInt(int value) throws IOException {
+            Ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+        /**
+         * Writes a big endian long
+         * @param value The long
+         * @throws IOException If the channel cannot be written to
+         */
+        void PutLong(long value) throws IOException {
+            Ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+        /**
+         * Writes a name as its UTF-8 length followed by its UTF-8 bytes
+         * @param value The name
+         * @throws IOException If the channel cannot be written to
+         */
+        void PutString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            PutInt(bytes.length);
+            PutBytes(bytes);
+        }
+        /**
+         * Writes bytes
+         * @param bytes The bytes
+         * @throws IOException If the channel cannot be written to
+         */
+        private void PutBytes(byte[] bytes) throws IOException {
+            int written = 0;
+            while (written < bytes.length){
+                Ensure(1);
+                int count = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, count);
+                written += count;
+            }
+        }
+        /**
+         * Writes every waiting byte to the channel
+         * @throws IOException If the channel cannot be written to
+         */
+        void Flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+        /**
+         * Makes room in the buffer
+         * @param count The number of bytes needed
+         * @throws IOException If the channel cannot be written to
+         */
+        private void Ensure(int count) throws IOException {
+            if (buffer.remaining() < count)
+                Flush();
+        }
+    }
+    //endregion
+}
\ No newline at end of file
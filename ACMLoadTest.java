@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures how many authorization checks an ACMServer answers per second
+ * A population of authors and manuscripts is created through one connection. Then each connection runs on its own thread,
+ * sending Read commands for random manuscripts with a window of requests in flight, half by the owner and half by another author
+ * java ACMLoadTest {connections} {window} {seconds} {population} {host} {port} tests a running server
+ * Without a host and port, a server with the snapshot matrix is started in this process with one event loop per core
+ */
+public final class ACMLoadTest {
+    //region Variables
+    private final InetSocketAddress address;
+    //The server's address
+    private final int population;
+    //The number of authors and manuscripts
+    private final int window;
+    //The most requests in flight on each connection
+    //endregion
+    //region Constructor
+    /**
+     * The default ACMLoadTest constructor
+     * @param addressIn The server's address
+     * @param populationIn The number of authors and manuscripts
+     * @param windowIn The most requests in flight on each connection
+     */
+    public ACMLoadTest(InetSocketAddress addressIn, int populationIn, int windowIn){
+        address = addressIn;
+        population = populationIn;
+        window = windowIn;
+    }
+    //endregion
+    //region Load Test
+    /**
+     * Adds the authors and creates one manuscript for each of them
+     * @throws IOException If the server cannot be reached
+     */
+    public void Populate() throws IOException {
+        try (ACMClient client = new ACMClient(address)) {
+            ArrayList<String> commands = new ArrayList<String>(population * 2);
+            for (int x = 0; x < population; x++)
+                commands.add("Add loadAuthor" + x + " Author");
+            for (int x = 0; x < population; x++)
+                commands.add("Create loadManuscript" + x + " loadAuthor" + x);
+            client.RunPipelined(commands);
+        }
+    }
+    /**
+     * Sends Read commands on one connection until a deadline
+     * @param seed The seed of the random manuscripts and authors
+     * @param deadline When to stop sending, from System.nanoTime
+     * @param latencies Where each request's time from send to response is recorded
+     * @return The number of responses that were granted, then the number denied
+     * @throws IOException If the connection fails
+     */
+    private long[] RunConnection(long seed, long deadline, LatencyHistogram latencies) throws IOException {
+        Random random = new Random(seed);
+        long[] sentAt = new long[window];
+        //the send time of each request in flight, in a ring
+        long sent = 0;
+        long received = 0;
+        long[] counts = new long[2];
+        try (ACMClient client = new ACMClient(address)) {
+            while (System.nanoTime() < deadline){
+                while (sent - received < window){
+                    int manuscript = random.nextInt(population);
+                    int author = random.nextBoolean() ? manuscript : random.nextInt(population);
+                    client.Send("Read loadManuscript" + manuscript + " loadAuthor" + author);
+                    sentAt[(int) (sent++ % window)] = System.nanoTime();
+                }
+                client.Flush();
+                while (sent - received > window / 2)
+                    counts[Receive(client, sentAt, received++, latencies)]++;
+                //half the window is refilled at once, so each write carries many requests
+            }
+            while (received < sent)
+                counts[Receive(client, sentAt, received++, latencies)]++;
+        }
+        return counts;
+    }
+    /**
+     * Receives a response and records its latency
+     * @param client The connection
+     * @param sentAt The send time of each request in flight, in a ring
+     * @param request The number of the request on the connection
+     * @param latencies Where the request's time from send to response is recorded
+     * @return 0 if the request was granted, otherwise 1
+     * @throws IOException If the connection fails
+     */
+    private int Receive(ACMClient client, long[] sentAt, long request, LatencyHistogram latencies) throws IOException {
+        byte status = client.Receive();
+        latencies.Record(System.nanoTime() - sentAt[(int) (request % window)]);
+        return (status == ACMProtocol.STATUS_OK) ? 0 : 1;
+    }
+    /**
+     * Runs every connection for a number of seconds and prints the results
+     * @param connections The number of connections, each on its own thread
+     * @param seconds How long to send requests for
+     * @throws InterruptedException If the test is interrupted
+     */
+    public void Run(int connections, double seconds) throws InterruptedException {
+        LatencyHistogram[] histograms = new LatencyHistogram[connections];
+        long[][] counts = new long[connections][];
+        IOException[] failures = new IOException[connections];
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1_000_000_000L);
+        for (int x = 0; x < connections; x++){
+            final int connection = x;
+            histograms[x] = new LatencyHistogram();
+            threads[x] = new Thread(() -> {
+                try {
+                    counts[connection] = RunConnection(connection, deadline, histograms[connection]);
+                } catch (IOException e) {
+                    failures[connection] = e;
+                }
+            }, "ACMLoadTest-" + x);
+            threads[x].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        LatencyHistogram total = new LatencyHistogram();
+        long granted = 0;
+        long denied = 0;
+        for (int x = 0; x < connections; x++){
+            if (failures[x] != null){
+                System.out.println("Connection " + x + " failed: ".concat(String.valueOf(failures[x].getMessage())));
+                continue;
+            }
+            total.Add(histograms[x]);
+            granted += counts[x][0];
+            denied += counts[x][1];
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        double checksPerSecond = total.Count() / elapsed;
+        System.out.printf("%,d checks (%,d granted, %,d denied) on %d connections with a window of %d in %.2fs%n",
+                total.Count(), granted, denied, connections, window, elapsed);
+        System.out.printf("Throughput: %,.0f checks/sec, %,.0f checks/sec per core (%d cores, shared with the clients if local)%n",
+                checksPerSecond, checksPerSecond / cores, cores);
+        System.out.printf("Latency: p50 %,.1fus  p99 %,.1fus  p999 %,.1fus  max %,.1fus%n", total.Percentile(50) / 1000.0,
+                total.Percentile(99) / 1000.0, total.Percentile(99.9) / 1000.0, total.Max() / 1000.0);
+    }
+    //endregion
+    //region Running Load Test
+    /**
+     * Runs the load test
+     * @param args The number of connections, the window, the seconds, the population, then optionally a server's host and port
+     * @throws Exception If the server cannot be reached or the test is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int connections = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int window = (args.length > 1) ? Integer.parseInt(args[1]) : 256;
+        double seconds = (args.length > 2) ? Double.parseDouble(args[2]) : 10;
+        int population = (args.length > 3) ? Integer.parseInt(args[3]) : 10_000;
+
+        ACMServer server = null;
+        InetSocketAddress address;
+        if (args.length > 5)
+            address = new InetSocketAddress(args[4], Integer.parseInt(args[5]));
+        else{
+            EditorialACM system = new EditorialACM(new SnapshotCapabilityMatrix());
+            server = new ACMServer(system, new InetSocketAddress("127.0.0.1", 0), Runtime.getRuntime().availableProcessors());
+            address = new InetSocketAddress("127.0.0.1", server.Port());
+        }
+
+        try {
+            ACMLoadTest test = new ACMLoadTest(address, population, window);
+            test.Populate();
+            test.Run(connections, seconds);
+        } finally {
+            if (server != null)
+                server.close();
+        }
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The wire format shared by ACMServer and ACMClient
+ * A request is a 2 byte big-endian length followed by that many bytes of a UTF-8 command in the RunCommand syntax
+ * A response is a single status byte. Responses are sent in the order the requests arrived, so a client can send
+ * many requests before reading any responses
+ */
+public final class ACMProtocol {
+    //region Variables
+    public static final int HEADER_BYTES = 2;
+    //The size of a request's length
+    public static final int MAX_COMMAND_BYTES = 4096;
+    //The longest command a request can hold. A server closes connections that send a longer one
+    public static final byte STATUS_DENIED = 0;
+    //The command ran and failed
+    public static final byte STATUS_OK = 1;
+    //The command ran and succeeded
+    public static final byte STATUS_REJECTED = 2;
+    //The command was not run because the server only runs commands on subjects and manuscripts
+    //endregion
+    //region Constructor
+    /**
+     * The protocol only has static members
+     */
+    private ACMProtocol(){
+    }
+    //endregion
+    //region Encoding
+    /**
+     * Encodes a command for a request
+     * @param commandIn The command in the RunCommand syntax
+     * @return The UTF-8 bytes of the command
+     */
+    public static byte[] Encode(String commandIn){
+        byte[] bytes = commandIn.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_COMMAND_BYTES)
+            throw new IllegalArgumentException("A command must be between 1 and " + MAX_COMMAND_BYTES + " bytes");
+
+        return bytes;
+    }
+    /**
+     * Writes a request
+     * @param out The buffer to write to. Must have HEADER_BYTES + command.length bytes remaining
+     * @param command The encoded command
+     */
+    public static void WriteRequest(ByteBuffer out, byte[] command){
+        out.putShort((short) command.length);
+        out.put(command);
+    }
+    /**
+     * Finds the length of the next request in a buffer without moving its position
+     * @param in The buffer holding received bytes, ready to be read
+     * @return The number of command bytes, 0 if the length has not fully arrived, or -1 if the length is not valid
+     */
+    public static int PeekLength(ByteBuffer in){
+        if (in.remaining() < HEADER_BYTES)
+            return 0;
+
+        int length = in.getShort(in.position()) & 0xFFFF;
+        if (length == 0 || length > MAX_COMMAND_BYTES)
+            return -1;
+
+        return length;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves an EditorialACM over the ACMProtocol with non-blocking sockets
+ * Each event loop thread has its own selector and runs the commands of its connections itself, so there is no handoff per request
+ * Every complete request in a read is run together with RunBatch and the responses are written back in one write
+ * Only commands with 3 or 4 words are run. Print, Export and SaveSnapshot commands are rejected, since their output and files are the server's
+ * java ACMServer {port} {eventLoops} {snapshot} {policy} serves a new ACM, recovered from {snapshot} and {snapshot}.wal if given,
+ * with the roles and lifecycle of {policy} if given
+ */
+public final class ACMServer implements AutoCloseable {
+    //region Variables
+    private final EditorialACM system;
+    //The ACM the commands run on
+    private final ServerSocketChannel serverChannel;
+    //Accepts new connections
+    private final EventLoop[] loops;
+    //The threads that read, run and answer requests. The first one also accepts connections
+    private int nextLoop;
+    //The loop the next accepted connection is given to
+    private volatile boolean running;
+    //Whether the loops should keep running
+    private static final int BUFFER_BYTES = 1 << 16;
+    //The size of each connection's read and write buffers
+    //endregion
+    //region Constructor
+    /**
+     * The default ACMServer constructor. Binds the address and starts the event loops
+     * @param systemIn The ACM to run the commands on
+     * @param addressIn The address to listen on. Port 0 picks a free port
+     * @param loopCount The number of event loop threads. Usually the number of cores
+     * @throws IOException If the address cannot be bound
+     */
+    public ACMServer(EditorialACM systemIn, InetSocketAddress addressIn, int loopCount) throws IOException {
+        if (loopCount < 1)
+            throw new IllegalArgumentException("There must be at least one event loop");
+
+        system = systemIn;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(addressIn);
+        serverChannel.configureBlocking(false);
+        loops = new EventLoop[loopCount];
+        for (int x = 0; x < loopCount; x++)
+            loops[x] = new EventLoop(x);
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        nextLoop = 0;
+        running = true;
+        for (EventLoop loop : loops)
+            loop.thread.start();
+    }
+    //endregion
+    //region Event Loops
+    /**
+     * A thread that owns a selector and the connections registered with it
+     */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        //Waits for the loop's sockets to be ready
+        final Thread thread;
+        //The thread running the loop
+        final ConcurrentLinkedQueue<SocketChannel> accepted;
+        //Connections given to this loop that are not registered yet
+        final CommandTokenizer tokens;
+        //Counts the words of each command
+        final ArrayList<String> batch;
+        //The commands of the current read that will be run
+        byte[] statuses;
+        //The response of each request in the current read. Run commands are filled in after the batch
+
+        /**
+         * The EventLoop constructor
+         * @param index The number of the loop
+         * @throws IOException If the selector cannot be opened
+         */
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "ACMServer-" + index);
+            accepted = new ConcurrentLinkedQueue<SocketChannel>();
+            tokens = new CommandTokenizer();
+            batch = new ArrayList<String>();
+            statuses = new byte[256];
+        }
+        /**
+         * Selects and handles ready sockets until the server is closed
+         */
+        @Override
+        public void run(){
+            try {
+                while (running){
+                    selector.select();
+                    for (SocketChannel channel = accepted.poll(); channel != null; channel = accepted.poll()){
+                        try {
+                            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                        } catch (ClosedChannelException e) {
+                            //the client left before the connection was registered
+                        }
+                    }
+
+                    Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                    while (ready.hasNext()){
+                        SelectionKey key = ready.next();
+                        ready.remove();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable())
+                            Accept();
+                        else
+                            Handle(key);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                //the server was closed
+            } catch (IOException e) {
+                if (running)
+                    throw new UncheckedIOException(e);
+            } finally {
+                for (SelectionKey key : selector.keys())
+                    Disconnect(key);
+            }
+        }
+        /**
+         * Accepts every waiting connection and gives them to the loops in turn
+         * @throws IOException If the server socket fails
+         */
+        private void Accept() throws IOException {
+            for (SocketChannel channel = serverChannel.accept(); channel != null; channel = serverChannel.accept()){
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    channel.close();
+                    //the client left while it was being accepted
+                    continue;
+                }
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.accepted.add(channel);
+                loop.selector.wakeup();
+            }
+        }
+        /**
+         * Reads and answers requests, or finishes writing responses, on a ready connection
+         * A connection is not read while it has responses waiting, so a client that does not read its responses is slowed down
+         * @param key The connection's key
+         */
+        private void Handle(SelectionKey key){
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isWritable() && !connection.Drain())
+                    return;
+                if (key.isReadable() && !connection.output.hasRemaining()){
+                    if (connection.channel.read(connection.input) == -1){
+                        Disconnect(key);
+                        return;
+                    }
+                    if (!Answer(connection)){
+                        Disconnect(key);
+                        return;
+                    }
+                    connection.Drain();
+                }
+                key.interestOps(connection.output.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                Disconnect(key);
+            }
+        }
+        /**
+         * Runs every complete request in a connection's input and puts the responses in its output
+         * @param connection The connection
+         * @return Whether every request was valid. The connection is closed if not
+         */
+        private boolean Answer(Connection connection){
+            ByteBuffer input = connection.input;
+            input.flip();
+            int requests = 0;
+            boolean valid = true;
+            for (int length = ACMProtocol.PeekLength(input); length > 0 && input.remaining() >= ACMProtocol.HEADER_BYTES + length;
+                 length = ACMProtocol.PeekLength(input)){
+                String command = new String(input.array(), input.arrayOffset() + input.position() + ACMProtocol.HEADER_BYTES,
+                        length, StandardCharsets.UTF_8);
+                input.position(input.position() + ACMProtocol.HEADER_BYTES + length);
+
+                if (requests == statuses.length)
+                    statuses = Arrays.copyOf(statuses, requests * 2);
+                int words = tokens.Tokenize(command);
+                if (words == 3 || words == 4){
+                    statuses[requests] = ACMProtocol.STATUS_OK;
+                    //replaced by the result once the batch has run
+                    batch.add(command);
+                }
+                else
+                    statuses[requests] = ACMProtocol.STATUS_REJECTED;
+                requests++;
+            }
+            if (ACMProtocol.PeekLength(input) == -1)
+                valid = false;
+            input.compact();
+
+            if (batch.size() == 1)
+                Fill(requests, new boolean[] {system.RunCommand(batch.get(0))});
+            else if (!batch.isEmpty())
+                Fill(requests, system.RunBatch(batch));
+            //a lone request takes RunCommand's lock-free path for reads
+            batch.clear();
+
+            connection.output.clear();
+            connection.output.put(statuses, 0, requests);
+            connection.output.flip();
+            return valid;
+        }
+        /**
+         * Puts the results of the batch in the statuses of the requests that were run
+         * @param requests The number of requests in the read
+         * @param results The result of each command in the batch
+         */
+        private void Fill(int requests, boolean[] results){
+            int next = 0;
+            for (int x = 0; x < requests; x++)
+                if (statuses[x] != ACMProtocol.STATUS_REJECTED)
+                    statuses[x] = results[next++] ? ACMProtocol.STATUS_OK : ACMProtocol.STATUS_DENIED;
+        }
+        /**
+         * Closes a connection
+         * @param key The connection's key
+         */
+        private void Disconnect(SelectionKey key){
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                //the connection is gone either way
+            }
+        }
+    }
+    /**
+     * The buffers of one client connection
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        //The client's socket
+        final ByteBuffer input;
+        //Received bytes that have not been run yet, ready to be written to
+        final ByteBuffer output;
+        //Responses that have not been sent yet, ready to be read
+
+        /**
+         * The Connection constructor
+         * @param channelIn The client's socket
+         */
+        Connection(SocketChannel channelIn){
+            channel = channelIn;
+            input = ByteBuffer.allocate(BUFFER_BYTES);
+            output = ByteBuffer.allocate(BUFFER_BYTES);
+            output.flip();
+            //every request is at least 3 bytes and its response is 1, so one read's responses always fit
+        }
+        /**
+         * Writes as many waiting responses as the socket takes
+         * @return Whether every response has been written
+         * @throws IOException If the socket fails
+         */
+        boolean Drain() throws IOException {
+            channel.write(output);
+            return !output.hasRemaining();
+        }
+    }
+    //endregion
+    //region Using Server
+    /**
+     * The port the server listens on
+     * @return The port
+     */
+    public int Port(){
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Stops the event loops and closes every connection. Commands that are running finish first
+     * @throws IOException If the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (EventLoop loop : loops)
+            loop.selector.wakeup();
+        for (EventLoop loop : loops){
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            loop.selector.close();
+        }
+        serverChannel.close();
+    }
+    //endregion
+    //region Running Server
+    /**
+     * Serves an ACM until the process is stopped
+     * @param args The port, then optionally the number of event loops, a snapshot to recover from and save to on exit, and a policy file
+     * @throws IOException If the port cannot be bound or the snapshot cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0){
+            System.out.println("java ACMServer {port} {eventLoops} {snapshot} {policy}");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int loopCount = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        EditorialPolicy policy = (args.length > 3) ? EditorialPolicy.Load(Path.of(args[3])) : EditorialPolicy.Default();
+        EditorialACM system = new EditorialACM(new SnapshotCapabilityMatrix(), new MemoryAuditSink(), policy);
+        if (args.length > 2)
+            system.Recover(Path.of(args[2]), Path.of(args[2].concat(".wal")));
+
+        ACMServer server = new ACMServer(system, new InetSocketAddress(port), loopCount);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (args.length > 2)
+                    system.SaveSnapshot(Path.of(args[2]));
+                system.CloseWriteAheadLog();
+                system.CloseLog();
+            } catch (IOException e) {
+                System.out.println("Could not shut down cleanly: ".concat(String.valueOf(e.getMessage())));
+            }
+        }));
+        System.out.println("Serving on port " + server.Port() + " with " + loopCount + " event loops");
+    }
+    //endregion
+}
\ No newline at end of file
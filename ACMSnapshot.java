@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Saves the subjects, objects, roles and capabilities of an ACM to a compact binary file and loads them back
+ * The file is big endian: a 4 byte magic number and version, the 8 byte write-ahead log position the snapshot was started at, then
+ * the capability count and each capability name in ordinal order,
+ * the role count and each role name,
+ * the subject count and each subject's name and role index,
+ * the object count and each object's name, modified cell count and the subject ID and access mask of each modified cell
+ * Names are an int length followed by UTF-8 bytes. Cells that are still the role default are not stored
+ * The log is not part of the snapshot
+ */
+public final class ACMSnapshot {
+    //region Variables
+    private static final int MAGIC = 0x41434D53;
+    //The first 4 bytes of every snapshot
+    private static final int VERSION = 2;
+    //The version of the format
+    private static final int OBJECTS_PER_LOCK = 256;
+    //The number of objects copied each time the structure lock is taken while saving
+    private static final int MAP_WINDOW = 1 << 30;
+    //The most bytes of a snapshot mapped at once while loading
+    //endregion
+    //region Constructor
+    /**
+     * The snapshot methods are all static
+     */
+    private ACMSnapshot(){
+    }
+    //endregion
+    //region Save
+    /**
+     * Saves the state of an ACM. Commands can keep running while the snapshot is saved
+     * Each object is copied while its lock is held, so every object is saved between commands
+     * Subjects and objects added after saving starts are not saved
+     * The snapshot is written to a temporary file that replaces the target once it is complete
+     * @param acm The ACM to save
+     * @param path The file to save to
+     * @return The write-ahead log position of the first change the snapshot might not hold
+     * @throws IOException If the file cannot be written
+     */
+    public static long Save(ACM acm, Path path) throws IOException {
+        String[] subjectNames;
+        String[] subjectRoles;
+        int objectCount;
+        long writeAheadLogPosition;
+        acm.structureLock.readLock().lock();
+        try {
+            writeAheadLogPosition = acm.WriteAheadLogPosition();
+            //every change logged before this position is committed before its object's lock is released, so each copy below holds it
+            subjectNames = new String[acm.subjects.Size()];
+            subjectRoles = new String[subjectNames.length];
+            for (int x = 0; x < subjectNames.length; x++){
+                subjectNames[x] = acm.subjects.NameOf(x);
+                subjectRoles[x] = acm.RoleOf(x);
+            }
+            objectCount = acm.objects.Size();
+        } finally {
+            acm.structureLock.readLock().unlock();
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output output = new Output(channel);
+            output.PutInt(MAGIC);
+            output.PutInt(VERSION);
+            output.PutLong(writeAheadLogPosition);
+
+            output.PutInt(CapabilityRegistry.Size());
+            for (int x = 0; x < CapabilityRegistry.Size(); x++)
+                output.PutString(CapabilityRegistry.NameOf(x));
+
+            LinkedHashMap<String, Integer> roleIndexes = new LinkedHashMap<String, Integer>();
+            for (String role : subjectRoles)
+                roleIndexes.putIfAbsent(role, roleIndexes.size());
+            output.PutInt(roleIndexes.size());
+            for (String role : roleIndexes.keySet())
+                output.PutString(role);
+
+            output.PutInt(subjectNames.length);
+            for (int x = 0; x < subjectNames.length; x++){
+                output.PutString(subjectNames[x]);
+                output.PutInt(roleIndexes.get(subjectRoles[x]));
+            }
+
+            output.PutInt(objectCount);
+            CellBuffer chunk = new CellBuffer(subjectNames.length);
+            for (int first = 0; first < objectCount; first += OBJECTS_PER_LOCK){
+                int last = Math.min(objectCount, first + OBJECTS_PER_LOCK);
+                CopyObjects(acm, first, last, chunk);
+                //the locks are only held while copying, not while writing
+
+                for (int x = 0; x < last - first; x++){
+                    output.PutString(chunk.names[x]);
+                    output.PutInt(chunk.starts[x + 1] - chunk.starts[x]);
+                    for (int y = chunk.starts[x]; y < chunk.starts[x + 1]; y++){
+                        output.PutInt(chunk.subjectIds[y]);
+                        output.PutLong(chunk.masks[y]);
+                    }
+                }
+            }
+
+            output.Flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return writeAheadLogPosition;
+    }
+    /**
+     * Copies the names and modified cells of a range of objects
+     * @param acm The ACM to copy from
+     * @param first The ID of the first object to copy
+     * @param last The ID after the last object to copy
+     * @param chunk Cleared and filled with the copied objects
+     */
+    private static void CopyObjects(ACM acm, int first, int last, CellBuffer chunk){
+        chunk.Clear();
+        acm.structureLock.readLock().lock();
+        try {
+            for (int objectId = first; objectId < last; objectId++){
+                ReentrantLock objectLock = acm.ObjectLock(objectId);
+                objectLock.lock();
+                try {
+                    chunk.StartObject(acm.objects.NameOf(objectId));
+                    acm.capabilityMatrix.ForEachCell(objectId, chunk::Add);
+                } finally {
+                    objectLock.unlock();
+                }
+            }
+            chunk.StartObject(null);
+        } finally {
+            acm.structureLock.readLock().unlock();
+        }
+    }
+    //endregion
+    //region Load
+    /**
+     * Loads a snapshot into an ACM that has no subjects or objects. The file is memory mapped while it is read
+     * @param acm The empty ACM to load into
+     * @param path The snapshot file
+     * @return The write-ahead log position of the first change the snapshot might not hold
+     * @throws IOException If the file cannot be read, is not a snapshot or does not match the ACM's roles and capabilities
+     */
+    public static long Load(ACM acm, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Input input = new Input(channel);
+            if (input.GetInt() != MAGIC)
+                throw new IOException("\"" + path + "\" is not an ACM snapshot");
+            int version = input.GetInt();
+            if (version != VERSION)
+                throw new IOException("\"" + path + "\" has unsupported snapshot version " + version);
+            long writeAheadLogPosition = input.GetLong();
+
+            int[] ordinals = new int[input.GetCount(CapabilityRegistry.MAX_CAPABILITIES)];
+            boolean sameOrdinals = true;
+            for (int x = 0; x < ordinals.length; x++){
+                String capability = input.GetString();
+                ordinals[x] = CapabilityRegistry.OrdinalOf(capability);
+                if (ordinals[x] == -1)
+                    throw new IOException("Capability \"" + capability + "\" does not exist");
+                sameOrdinals &= ordinals[x] == x;
+            }
+
+            String[] roles = new String[input.GetCount(Integer.MAX_VALUE)];
+            for (int x = 0; x < roles.length; x++){
+                roles[x] = input.GetString();
+                if (!acm.defaultCapabilities.containsKey(roles[x]))
+                    throw new IOException("Role \"" + roles[x] + "\" does not exist");
+            }
+
+            acm.structureLock.writeLock().lock();
+            try {
+                if (acm.subjects.Size() != 0 || acm.objects.Size() != 0)
+                    throw new IllegalStateException("A snapshot can only be loaded into an empty ACM");
+
+                int subjectCount = input.GetCount(Integer.MAX_VALUE);
+                for (int x = 0; x < subjectCount; x++){
+                    String subject = input.GetString();
+                    int role = input.GetInt();
+                    if (role < 0 || role >= roles.length || acm.subjects.Contains(subject))
+                        throw new IOException("\"" + path + "\" has an invalid subject at " + x);
+
+                    acm.RegisterSubject(subject, roles[role]);
+                }
+
+                int objectCount = input.GetCount(Integer.MAX_VALUE);
+                for (int objectId = 0; objectId < objectCount; objectId++){
+                    String object = input.GetString();
+                    if (acm.objects.Contains(object))
+                        throw new IOException("\"" + path + "\" has a duplicate object at " + objectId);
+
+                    acm.capabilityMatrix.AddObject();
+                    int cellCount = input.GetCount(subjectCount);
+                    for (int x = 0; x < cellCount; x++){
+                        int subjectId = input.GetInt();
+                        long mask = input.GetLong();
+                        if (subjectId < 0 || subjectId >= subjectCount)
+                            throw new IOException("\"" + path + "\" has an invalid cell in object " + objectId);
+
+                        acm.LoadCell(objectId, subjectId, sameOrdinals ? mask : Remap(mask, ordinals));
+                    }
+                    acm.capabilityMatrix.Commit(objectId);
+                    acm.objects.Add(object);
+                }
+            } finally {
+                acm.structureLock.writeLock().unlock();
+            }
+            return writeAheadLogPosition;
+        }
+    }
+    /**
+     * Converts an access mask from the snapshot's capability ordinals to this process's ordinals
+     * @param mask The mask from the snapshot
+     * @param ordinals The ordinal in this process of each snapshot ordinal
+     * @return The converted mask
+     */
+    private static long Remap(long mask, int[] ordinals){
+        long remapped = 0;
+        for (int x = 0; x < ordinals.length; x++)
+            if ((mask & (1L << x)) != 0)
+                remapped |= 1L << ordinals[x];
+
+        return remapped;
+    }
+    //endregion
+    //region Buffers
+    /**
+     * The names and modified cells of a range of objects
+     */
+    private static final class CellBuffer {
+        String[] names = new String[OBJECTS_PER_LOCK];
+        //The name of each object
+        int[] starts = new int[OBJECTS_PER_LOCK + 1];
+        //The index of the first cell of each object. The entry after the last object is the cell count
+        int objectCount = 0;
+        //The number of objects started
+        int[] subjectIds;
+        //The subject ID of each cell
+        long[] masks;
+        //The access mask of each cell
+        int cellCount = 0;
+        //The number of cells used
+        private final int subjectLimit;
+        //Cells of subjects added after saving started are skipped
+
+        CellBuffer(int subjectLimitIn){
+            subjectLimit = subjectLimitIn;
+            subjectIds = new int[1024];
+            masks = new long[1024];
+        }
+        void Clear(){
+            objectCount = 0;
+            cellCount = 0;
+        }
+        void StartObject(String name){
+            starts[objectCount] = cellCount;
+            if (name != null)
+                names[objectCount++] = name;
+        }
+        void Add(int subjectId, long accessMask){
+            if (subjectId >= subjectLimit)
+                return;
+            if (cellCount == subjectIds.length){
+                subjectIds = Arrays.copyOf(subjectIds, cellCount * 2);
+                masks = Arrays.copyOf(masks, cellCount * 2);
+            }
+            subjectIds[cellCount] = subjectId;
+            masks[cellCount++] = accessMask;
+        }
+    }
+    /**
+     * Writes big endian values to a file through a buffer
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        //The file being written
+        private final ByteBuffer buffer;
+        //Values waiting to be written
+
+        Output(FileChannel channelIn){
+            channel = channelIn;
+            buffer = ByteBuffer.allocateDirect(1 << 20);
+        }
+        void PutInt(int value) throws IOException {
+            Ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+        void PutLong(long value) throws IOException {
+            Ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+        void PutString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            PutInt(bytes.length);
+            int written = 0;
+            while (written < bytes.length){
+                Ensure(1);
+                int count = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, count);
+                written += count;
+            }
+        }
+        void Flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+        private void Ensure(int count) throws IOException {
+            if (buffer.remaining() < count)
+                Flush();
+        }
+    }
+    /**
+     * Reads big endian values from a memory mapped file, mapping at most MAP_WINDOW bytes at a time
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        //The file being read
+        private final long size;
+        //The size of the file
+        private long windowStart;
+        //The position in the file of the start of the window
+        private MappedByteBuffer window;
+        //The mapped part of the file
+
+        Input(FileChannel channelIn) throws IOException {
+            channel = channelIn;
+            size = channelIn.size();
+            Map(0);
+        }
+        int GetInt() throws IOException {
+            Ensure(Integer.BYTES);
+            return window.getInt();
+        }
+        long GetLong() throws IOException {
+            Ensure(Long.BYTES);
+            return window.getLong();
+        }
+        int GetCount(int limit) throws IOException {
+            int count = GetInt();
+            if (count < 0 || count > limit)
+                throw new IOException("The snapshot has an invalid count " + count);
+            return count;
+        }
+        String GetString() throws IOException {
+            int length = GetCount(MAP_WINDOW);
+            Ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        private void Ensure(int count) throws IOException {
+            if (window.remaining() >= count)
+                return;
+
+            long position = windowStart + window.position();
+            if (position + count > size)
+                throw new IOException("The snapshot is truncated");
+            Map(position);
+        }
+        private void Map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+        }
+    }
+    //endregion
+}
\ No newline at end of file
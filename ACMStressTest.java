@@ -0,0 +1,443 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks that EditorialACM gives linearizable outcomes when many threads run commands at once
+ * Every manuscript has a script: its author, associate editor and reviewer are added, then it is created, submitted, sent out,
+ * reviewed and decided, with commands that must be denied in between. Worker threads run the scripts of different manuscripts at
+ * the same time, step by step so that many manuscripts are in flight, while watcher threads read random manuscripts as editors
+ * who take no part in the scripts
+ * The same scripts are then run one manuscript at a time on a second EditorialACM. A script only changes its own manuscript's cells
+ * and only adds subjects of roles that no command fans out to, so every linearization of the concurrent run ends in the state of
+ * the sequential run. The test checks that:
+ * - every script command gave the result it gives when run alone
+ * - every subject has the same role and the same capabilities on every manuscript as in the sequential run
+ * - the log of each manuscript, leaving out the watchers, is the sequential log of that manuscript in the same order
+ * - the log holds one entry for every command, and each watcher's entries are its reads in the order it made them
+ * - every watcher read saw a state its manuscript was in at some moment while the read was running
+ * java ACMStressTest {matrix} {mode} {manuscripts} {threads} runs the test, where matrix is sparse, dense, snapshot or mapped and mode
+ * is direct, where workers call RunCommand, or executor, where they submit to a CommandExecutor. Exits with status 1 if a check fails
+ */
+public final class ACMStressTest {
+    //region Variables
+    private static final int WATCHERS = 2;
+    //The number of threads reading manuscripts while the scripts run
+    private static final String[] SCRIPT = {
+            "Add author# Author",
+            "Add associate# Associate_Editor",
+            "Add reviewer# Reviewer",
+            "Create manuscript# author#",
+            "Read manuscript# reviewer#",
+            "Submit manuscript# author#",
+            "Send manuscript# editor associate#",
+            "Accept manuscript# associate#",
+            "Send manuscript# associate# reviewer#",
+            "Accept manuscript# reviewer#",
+            "Read manuscript# reviewer#",
+            "Review manuscript# reviewer#",
+            "Review manuscript# reviewer#",
+            "Review manuscript# associate#",
+            "Consider_Reviews manuscript# associate# Accept",
+            "Consider_Reviews manuscript# associate# Accept"
+    };
+    //The commands run for every manuscript, where # is the manuscript's number
+    private static final boolean[] SCRIPT_RESULTS = {
+            true, true, true, true, false, true, true, true, true, true, true, true, false, true, true, false
+    };
+    //The result of each script command, which the sequential run must give too
+    private static final PrintStream CONSOLE = System.out;
+    //The real standard output. The ACM prints the result of every command, so System.out is discarded while commands run
+    private final String matrix;
+    //The capability matrix type
+    private final boolean useExecutor;
+    //Whether workers submit to a CommandExecutor instead of calling RunCommand
+    private final int manuscripts;
+    //The number of manuscripts, each with its own script
+    private final int threads;
+    //The number of worker threads
+    private final boolean[][] results;
+    //The result of each script command of each manuscript in the concurrent run
+    private final long[][] starts;
+    //When each script command was started, in System.nanoTime
+    private final long[][] ends;
+    //When each script command was known to have finished
+    private final List<CompletableFuture<Void>> pending;
+    //Completes once the result of each submitted command is recorded
+    private final boolean[][] readable;
+    //Whether a watcher may read each manuscript after each script command, from the sequential run
+    private int failures;
+    //The number of checks that failed
+    //endregion
+    //region Constructor
+    /**
+     * The default ACMStressTest constructor
+     * @param matrixIn The capability matrix type. sparse, dense, snapshot or mapped
+     * @param useExecutorIn Whether workers submit to a CommandExecutor instead of calling RunCommand
+     * @param manuscriptsIn The number of manuscripts
+     * @param threadsIn The number of worker threads
+     */
+    public ACMStressTest(String matrixIn, boolean useExecutorIn, int manuscriptsIn, int threadsIn){
+        matrix = matrixIn;
+        useExecutor = useExecutorIn;
+        manuscripts = manuscriptsIn;
+        threads = threadsIn;
+        results = new boolean[manuscriptsIn][SCRIPT.length];
+        starts = new long[manuscriptsIn][SCRIPT.length];
+        ends = new long[manuscriptsIn][SCRIPT.length];
+        readable = new boolean[manuscriptsIn][SCRIPT.length];
+        pending = Collections.synchronizedList(new ArrayList<CompletableFuture<Void>>());
+        failures = 0;
+    }
+    //endregion
+    //region Watchers
+    /**
+     * The reads made by one watcher thread
+     */
+    private static final class Watcher {
+        final String name;
+        //The watcher's subject name
+        int count;
+        //The number of reads made
+        int[] manuscripts;
+        //The manuscript of each read
+        boolean[] results;
+        //The result of each read
+        long[] starts;
+        //When each read was started
+        long[] ends;
+        //When each read returned
+
+        /**
+         * The default Watcher constructor
+         * @param nameIn The watcher's subject name
+         */
+        Watcher(String nameIn){
+            name = nameIn;
+            count = 0;
+            manuscripts = new int[1024];
+            results = new boolean[1024];
+            starts = new long[1024];
+            ends = new long[1024];
+        }
+        /**
+         * Records a read, growing the arrays when they are full
+         * @param manuscript The manuscript read
+         * @param result The result of the read
+         * @param start When the read was started
+         * @param end When the read returned
+         */
+        void Record(int manuscript, boolean result, long start, long end){
+            if (count == manuscripts.length){
+                int capacity = count * 2;
+                manuscripts = Arrays.copyOf(manuscripts, capacity);
+                results = Arrays.copyOf(results, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            manuscripts[count] = manuscript;
+            results[count] = result;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+    //endregion
+    //region Running
+    /**
+     * Makes the command of a script step for a manuscript
+     * @param manuscript The number of the manuscript
+     * @param step The index of the command in SCRIPT
+     * @return The command
+     */
+    private static String Command(int manuscript, int step){
+        return SCRIPT[step].replace("#", String.valueOf(manuscript));
+    }
+    /**
+     * Creates an EditorialACM with the editor the scripts send from and the watchers
+     * @return The system
+     */
+    private EditorialACM CreateSystem(){
+        EditorialACM system = new EditorialACM(CreateMatrix(matrix));
+        system.RunCommand("Add editor Editor");
+        for (int x = 0; x < WATCHERS; x++)
+            system.RunCommand("Add watcher" + x + " Editor");
+        return system;
+    }
+    /**
+     * Runs every script at once on a system while the watchers read
+     * @param system The system
+     * @param watchers The watchers, which record their reads
+     * @throws InterruptedException If the run is interrupted
+     */
+    private void RunConcurrent(EditorialACM system, Watcher[] watchers) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] watcherThreads = new Thread[watchers.length];
+        for (int x = 0; x < watchers.length; x++){
+            Watcher watcher = watchers[x];
+            Random random = new Random(x);
+            watcherThreads[x] = new Thread(() -> {
+                while (running.get()){
+                    int manuscript = random.nextInt(manuscripts);
+                    String command = "Read manuscript" + manuscript + " " + watcher.name;
+                    long start = System.nanoTime();
+                    boolean result = system.RunCommand(command);
+                    watcher.Record(manuscript, result, start, System.nanoTime());
+                }
+            }, "ACMStressTest-" + watcher.name);
+            watcherThreads[x].start();
+        }
+
+        try (CommandExecutor executor = useExecutor ? new CommandExecutor(system) : null) {
+            Thread[] workers = new Thread[threads];
+            for (int x = 0; x < threads; x++){
+                final int worker = x;
+                workers[x] = new Thread(() -> {
+                    for (int step = 0; step < SCRIPT.length; step++)
+                        for (int manuscript = worker; manuscript < manuscripts; manuscript += threads)
+                            RunStep(system, executor, manuscript, step);
+                    //every step of the worker's manuscripts is run before the next, so its manuscripts are in flight together
+                }, "ACMStressTest-worker" + x);
+                workers[x].start();
+            }
+            for (Thread worker : workers)
+                worker.join();
+        }
+        for (CompletableFuture<Void> recorded : pending)
+            recorded.join();
+
+        running.set(false);
+        for (Thread watcher : watcherThreads)
+            watcher.join();
+    }
+    /**
+     * Runs one script command, recording its result and when it ran
+     * @param system The system
+     * @param executor The executor to submit to, or null to call RunCommand
+     * @param manuscript The number of the manuscript
+     * @param step The index of the command in SCRIPT
+     */
+    private void RunStep(EditorialACM system, CommandExecutor executor, int manuscript, int step){
+        String command = Command(manuscript, step);
+        starts[manuscript][step] = System.nanoTime();
+        if (executor == null){
+            results[manuscript][step] = system.RunCommand(command);
+            ends[manuscript][step] = System.nanoTime();
+            return;
+        }
+
+        pending.add(executor.Submit(command).thenAccept(permitted -> {
+            ends[manuscript][step] = System.nanoTime();
+            results[manuscript][step] = permitted;
+        }));
+    }
+    /**
+     * Runs every script one manuscript at a time, recording whether a watcher may read the manuscript after each command
+     * @param system The system
+     */
+    private void RunSequential(EditorialACM system){
+        for (int manuscript = 0; manuscript < manuscripts; manuscript++){
+            for (int step = 0; step < SCRIPT.length; step++){
+                Check(system.RunCommand(Command(manuscript, step)) == SCRIPT_RESULTS[step],
+                        "Sequential \"".concat(Command(manuscript, step)).concat("\" gave the wrong result"));
+                readable[manuscript][step] = system.HasCapability("manuscript" + manuscript, "watcher0", "Read");
+            }
+        }
+    }
+    //endregion
+    //region Checking
+    /**
+     * Records a failed check
+     * @param condition Whether the check passed
+     * @param message What failed
+     */
+    private void Check(boolean condition, String message){
+        if (condition)
+            return;
+        if (failures++ < 20)
+            CONSOLE.println("FAILED: ".concat(message));
+    }
+    /**
+     * Checks the result of every script command against the sequential result
+     */
+    private void CheckResults(){
+        for (int manuscript = 0; manuscript < manuscripts; manuscript++)
+            for (int step = 0; step < SCRIPT.length; step++)
+                Check(results[manuscript][step] == SCRIPT_RESULTS[step],
+                        "\"".concat(Command(manuscript, step)).concat("\" gave ").concat(String.valueOf(results[manuscript][step])));
+    }
+    /**
+     * Checks that every subject has the same role and capabilities on every manuscript in both systems
+     * @param concurrent The system the scripts ran on at once
+     * @param sequential The system the scripts ran on one at a time
+     */
+    private void CheckMatrix(EditorialACM concurrent, EditorialACM sequential){
+        Check(concurrent.subjects.Size() == sequential.subjects.Size(), "The systems have different numbers of subjects");
+        Check(concurrent.objects.Size() == sequential.objects.Size(), "The systems have different numbers of manuscripts");
+        ArrayList<String> names = new ArrayList<String>();
+        names.add("editor");
+        for (int x = 0; x < WATCHERS; x++)
+            names.add("watcher" + x);
+        for (int x = 0; x < manuscripts; x++){
+            names.add("author" + x);
+            names.add("associate" + x);
+            names.add("reviewer" + x);
+        }
+
+        for (String subject : names){
+            Check(concurrent.RoleOf(subject).equals(sequential.RoleOf(subject)), "\"".concat(subject).concat("\" has the wrong role"));
+            for (int manuscript = 0; manuscript < manuscripts; manuscript++){
+                String object = "manuscript" + manuscript;
+                Check(concurrent.GetCapability(object, subject).GetAccessMask() == sequential.GetCapability(object, subject).GetAccessMask(),
+                        "\"".concat(subject).concat("\" has the wrong capabilities on \"").concat(object).concat("\""));
+            }
+        }
+    }
+    /**
+     * Reads every log entry with a given value
+     * @param system The system
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for
+     * @return The entries in log order
+     */
+    private static ArrayList<LogEntry> Query(EditorialACM system, AuditIndex.Field fieldIn, String valueIn){
+        ArrayList<LogEntry> entries = new ArrayList<LogEntry>();
+        int after = -1;
+        while (true){
+            ArrayList<LogEntry> page = system.QueryLog(fieldIn, valueIn, after, ACM.LOG_PAGE_SIZE);
+            entries.addAll(page);
+            if (page.size() < ACM.LOG_PAGE_SIZE)
+                return entries;
+            after = page.get(page.size() - 1).sequence;
+        }
+    }
+    /**
+     * Checks the audit log of the concurrent run against the sequential log and the watchers' reads
+     * @param concurrent The system the scripts ran on at once
+     * @param sequential The system the scripts ran on one at a time
+     * @param watchers The watchers of the concurrent run
+     */
+    private void CheckLog(EditorialACM concurrent, EditorialACM sequential, Watcher[] watchers){
+        long reads = 0;
+        for (Watcher watcher : watchers)
+            reads += watcher.count;
+        long concurrentSize = concurrent.CountLog(AuditIndex.Field.PERMITTED, "true") + concurrent.CountLog(AuditIndex.Field.PERMITTED, "false");
+        long sequentialSize = sequential.CountLog(AuditIndex.Field.PERMITTED, "true") + sequential.CountLog(AuditIndex.Field.PERMITTED, "false");
+        Check(concurrentSize == sequentialSize + reads, "The log has " + concurrentSize + " entries instead of " + (sequentialSize + reads));
+
+        for (int manuscript = 0; manuscript < manuscripts; manuscript++){
+            String object = "manuscript" + manuscript;
+            ArrayList<LogEntry> expected = Query(sequential, AuditIndex.Field.OBJECT, object);
+            ArrayList<LogEntry> actual = new ArrayList<LogEntry>(expected.size());
+            int previous = -1;
+            for (LogEntry entry : Query(concurrent, AuditIndex.Field.OBJECT, object)){
+                Check(entry.sequence > previous, "The log of \"".concat(object).concat("\" is out of order"));
+                previous = entry.sequence;
+                if (!entry.subject.startsWith("watcher"))
+                    actual.add(entry);
+            }
+
+            Check(actual.size() == expected.size(), "\"".concat(object).concat("\" has " + actual.size() + " script entries instead of " + expected.size()));
+            for (int x = 0; x < Math.min(actual.size(), expected.size()); x++)
+                Check(actual.get(x).toString().equals(expected.get(x).toString()),
+                        "Entry " + x + " of \"".concat(object).concat("\" differs: ").concat(actual.get(x).toString()));
+        }
+
+        for (Watcher watcher : watchers){
+            ArrayList<LogEntry> entries = Query(concurrent, AuditIndex.Field.SUBJECT, watcher.name);
+            Check(entries.size() == watcher.count, "\"".concat(watcher.name).concat("\" has " + entries.size() + " entries for " + watcher.count + " reads"));
+            for (int x = 0; x < Math.min(entries.size(), watcher.count); x++)
+                Check(entries.get(x).permitted == watcher.results[x],
+                        "Entry " + x + " of \"".concat(watcher.name).concat("\" does not match its read"));
+        }
+    }
+    /**
+     * Checks that every watcher read can be placed at a moment while it ran
+     * A read can see the state left by a script command if that command started before the read returned and the next command
+     * of the manuscript had not finished when the read started
+     * @param watchers The watchers of the concurrent run
+     */
+    private void CheckReads(Watcher[] watchers){
+        for (Watcher watcher : watchers){
+            for (int x = 0; x < watcher.count; x++){
+                int manuscript = watcher.manuscripts[x];
+                boolean seen = false;
+                for (int state = -1; state < SCRIPT.length && !seen; state++){
+                    boolean canRead = state >= 0 && readable[manuscript][state];
+                    //before its first command the manuscript does not exist and cannot be read
+                    boolean started = state < 0 || starts[manuscript][state] < watcher.ends[x];
+                    boolean notReplaced = state == SCRIPT.length - 1 || watcher.starts[x] < ends[manuscript][state + 1];
+                    seen = canRead == watcher.results[x] && started && notReplaced;
+                }
+                Check(seen, "\"".concat(watcher.name).concat("\" read manuscript" + manuscript + " as " + watcher.results[x]
+                        + ", which it never was while the read ran"));
+            }
+        }
+    }
+    //endregion
+    //region Running Test
+    /**
+     * Runs the scripts at once and one at a time, then checks the concurrent run
+     * @return Whether every check passed
+     * @throws InterruptedException If the run is interrupted
+     */
+    public boolean Run() throws InterruptedException {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        EditorialACM sequential = CreateSystem();
+        RunSequential(sequential);
+        EditorialACM concurrent = CreateSystem();
+        Watcher[] watchers = new Watcher[WATCHERS];
+        for (int x = 0; x < WATCHERS; x++)
+            watchers[x] = new Watcher("watcher" + x);
+        long start = System.nanoTime();
+        RunConcurrent(concurrent, watchers);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.setOut(CONSOLE);
+
+        CheckResults();
+        CheckMatrix(concurrent, sequential);
+        CheckLog(concurrent, sequential, watchers);
+        CheckReads(watchers);
+        long reads = 0;
+        for (Watcher watcher : watchers)
+            reads += watcher.count;
+        CONSOLE.printf("%s matrix, %s: %,d manuscripts on %d threads with %,d watcher reads in %.2fs, %d failed checks%n",
+                matrix, useExecutor ? "executor" : "direct", manuscripts, threads, reads, seconds, failures);
+        return failures == 0;
+    }
+    /**
+     * Creates an empty capability matrix
+     * @param matrix The matrix type. sparse, dense, snapshot or mapped
+     * @return The new matrix
+     */
+    private static CapabilityMatrix CreateMatrix(String matrix){
+        return switch (matrix) {
+            case "dense" -> new DenseCapabilityMatrix();
+            case "snapshot" -> new SnapshotCapabilityMatrix();
+            case "mapped" -> new MappedCapabilityMatrix();
+            case "sparse" -> new SparseCapabilityMatrix();
+            default -> throw new IllegalArgumentException("Unknown matrix \"".concat(matrix).concat("\""));
+        };
+    }
+    /**
+     * Runs the test
+     * @param args The matrix type, the mode, the manuscripts and the worker threads. Defaults to snapshot, direct, 2,000 and 16
+     * @throws InterruptedException If the test is interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String matrix = (args.length > 0) ? args[0] : "snapshot";
+        boolean useExecutor = args.length > 1 && args[1].equals("executor");
+        int manuscripts = (args.length > 2) ? Integer.parseInt(args[2]) : 2_000;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : 16;
+
+        if (!new ACMStressTest(matrix, useExecutor, manuscripts, threads).Run())
+            System.exit(1);
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,381 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Moves log writing off the threads that run commands
+ * Commands put their entries in a ring buffer and a background thread writes them in batches, in the order they were put in
+ * The slots of the ring are made once. An entry is copied into its slot field by field, and the background thread builds the
+ * LogEntry that is written from the slot, so a command can reuse its entry and publishing does not allocate
+ * Entries that do not fit when the buffer is full are handled by the overflow policy
+ */
+public final class AsyncAuditLog {
+    //region Overflow Policy
+    /**
+     * What happens to an entry when the ring buffer is full
+     */
+    public enum OverflowPolicy {
+        BLOCK,
+        //Wait for space. No entries are lost
+        DROP,
+        //Drop the entry
+        SAMPLE
+        //Wait for space for one in every sampleRate overflowing entries and drop the rest
+    }
+    //endregion
+    //region Variables
+    private static final int SPINS = (Runtime.getRuntime().availableProcessors() > 1) ? 100 : 0;
+    //How many times a thread retries before parking. Spinning only helps if another core can make progress
+    private final Slot[] slots;
+    //The ring buffer
+    private final int capacity;
+    //The number of slots. A power of 2
+    private final OverflowPolicy policy;
+    //What happens to entries that do not fit
+    private final int sampleRate;
+    //One in this many overflowing entries are kept by the SAMPLE policy
+    private final int maxBatch;
+    //The most entries given to the writer at once
+    private final Consumer<List<LogEntry>> writer;
+    //Writes a batch of entries
+    private final Runnable flusher;
+    //Called when the buffer becomes empty after entries were written
+    private final AtomicLong claimed;
+    //The number of slots claimed by commands
+    private volatile long consumed;
+    //The number of slots taken out of the buffer by the background thread
+    private volatile long written;
+    //The number of entries the writer has finished with
+    private final AtomicLong dropped;
+    //The number of entries dropped by the overflow policy
+    private final AtomicLong overflows;
+    //The number of entries that found the buffer full
+    private volatile RuntimeException failure;
+    //The first error thrown by the writer
+    private volatile boolean consumerWaiting;
+    //Whether the background thread is parked and must be woken for new entries
+    private volatile boolean closing;
+    //Whether Close has been called
+    private final Thread consumer;
+    //The background thread
+    //endregion
+    //region Constructor
+    /**
+     * The default AsyncAuditLog constructor. Starts the background thread
+     * @param capacityIn The number of entries the ring buffer holds. Rounded up to a power of 2
+     * @param policyIn What happens to entries that do not fit
+     * @param sampleRateIn One in this many overflowing entries are kept by the SAMPLE policy
+     * @param writerIn Writes a batch of entries. Only called from the background thread
+     * @param flusherIn Called when the buffer becomes empty after entries were written
+     */
+    public AsyncAuditLog(int capacityIn, OverflowPolicy policyIn, int sampleRateIn,
+                         Consumer<List<LogEntry>> writerIn, Runnable flusherIn){
+        if (capacityIn < 1 || capacityIn > 1 << 30)
+            throw new IllegalArgumentException("The capacity must be between 1 and " + (1 << 30));
+        if (sampleRateIn < 1)
+            throw new IllegalArgumentException("The sample rate must be at least 1");
+
+        int rounded = 1;
+        while (rounded < capacityIn)
+            rounded <<= 1;
+        capacity = rounded;
+        slots = new Slot[capacity];
+        for (int x = 0; x < capacity; x++)
+            slots[x] = new Slot();
+        policy = policyIn;
+        sampleRate = sampleRateIn;
+        maxBatch = Math.min(capacity, 1024);
+        writer = writerIn;
+        flusher = flusherIn;
+        claimed = new AtomicLong();
+        consumed = 0;
+        written = 0;
+        dropped = new AtomicLong();
+        overflows = new AtomicLong();
+        failure = null;
+        consumerWaiting = false;
+        closing = false;
+        consumer = new Thread(this::Consume, "audit-log-writer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+    //endregion
+    //region Slots
+    /**
+     * A slot of the ring buffer. Holds the fields of one entry and is reused for every entry put in it
+     */
+    private static final class Slot {
+        String subject;
+        //The user requesting the action
+        String capabilityRequested;
+        //The action requested
+        String object;
+        //The object the action was requested on
+        boolean permitted;
+        //Whether the action was permitted
+        long timestamp;
+        //When the entry was made
+        LogEffect[] effects = new LogEffect[4];
+        //The effects of the entry
+        int effectCount;
+        //The number of effects used
+        String[] effectArgs = new String[4];
+        //The arguments of every effect in order
+        int effectArgCount;
+        //The number of arguments used
+        volatile long published = -1;
+        //The position of the entry in the slot. Written after the fields, so the fields can be read once it is seen
+
+        /**
+         * Copies the fields of an entry into the slot and publishes it
+         * @param entryIn The entry to copy
+         * @param position The position of the entry in the ring
+         */
+        void Put(LogEntry entryIn, long position){
+            subject = entryIn.subject;
+            capabilityRequested = entryIn.capabilityRequested;
+            object = entryIn.object;
+            permitted = entryIn.permitted;
+            timestamp = entryIn.timestamp;
+            effectCount = entryIn.effects.size();
+            if (effectCount > effects.length)
+                effects = new LogEffect[Math.max(effects.length * 2, effectCount)];
+            for (int x = 0; x < effectCount; x++)
+                effects[x] = entryIn.effects.get(x);
+            effectArgCount = entryIn.effectArgCount;
+            if (effectArgCount > effectArgs.length)
+                effectArgs = new String[Math.max(effectArgs.length * 2, effectArgCount)];
+            System.arraycopy(entryIn.effectArgs, 0, effectArgs, 0, effectArgCount);
+            published = position;
+        }
+        /**
+         * Builds the entry held by the slot and lets go of its strings
+         * @return The entry
+         */
+        LogEntry Take(){
+            LogEntry entry = new LogEntry(subject, capabilityRequested, permitted);
+            entry.object = object;
+            entry.timestamp = timestamp;
+            for (int x = 0; x < effectCount; x++)
+                entry.effects.add(effects[x]);
+            entry.effectArgs = Arrays.copyOf(effectArgs, effectArgCount);
+            entry.effectArgCount = effectArgCount;
+
+            subject = null;
+            capabilityRequested = null;
+            object = null;
+            Arrays.fill(effectArgs, 0, effectArgCount, null);
+            return entry;
+        }
+    }
+    //endregion
+    //region Publish
+    /**
+     * Copies an entry into the ring buffer
+     * @param entryIn The entry to log. Can be reused once Publish returns
+     * @return Whether the entry was kept. False if the overflow policy dropped it
+     */
+    public boolean Publish(LogEntry entryIn){
+        long start = Claim(1);
+        if (start == -1)
+            return false;
+
+        slots[(int) start & (capacity - 1)].Put(entryIn, start);
+        Wake();
+        return true;
+    }
+    /**
+     * Copies several entries into the ring buffer next to each other
+     * @param entriesIn The entries to log, in order. Can be reused once PublishAll returns
+     * @return Whether the entries were kept. False if the overflow policy dropped them
+     */
+    public boolean PublishAll(List<LogEntry> entriesIn){
+        if (entriesIn.size() > capacity){
+            boolean kept = true;
+            for (LogEntry entry : entriesIn)
+                kept &= Publish(entry);
+            return kept;
+        }
+
+        long start = Claim(entriesIn.size());
+        if (start == -1)
+            return false;
+
+        for (int x = 0; x < entriesIn.size(); x++)
+            slots[(int) (start + x) & (capacity - 1)].Put(entriesIn.get(x), start + x);
+        Wake();
+        return true;
+    }
+    /**
+     * Claims slots in the ring buffer, applying the overflow policy if they are not free
+     * @param count The number of slots to claim. At most the capacity
+     * @return The position of the first claimed slot, or -1 if the entries were dropped
+     */
+    private long Claim(int count){
+        if (closing)
+            throw new IllegalStateException("The audit log is closed");
+
+        boolean overflowed = false;
+        int spins = 0;
+        while (true){
+            long start = claimed.get();
+            if (start + count - consumed <= capacity){
+                if (claimed.compareAndSet(start, start + count))
+                    return start;
+                continue;
+            }
+
+            if (!overflowed){
+                overflowed = true;
+                long overflow = overflows.incrementAndGet();
+                if (policy == OverflowPolicy.DROP ||
+                        (policy == OverflowPolicy.SAMPLE && overflow % sampleRate != 0)){
+                    dropped.addAndGet(count);
+                    return -1;
+                }
+            }
+            CheckFailure();
+            if (closing)
+                throw new IllegalStateException("The audit log is closed");
+
+            Wake();
+            if (++spins < SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(10_000);
+        }
+    }
+    /**
+     * Wakes the background thread if it is waiting for entries
+     */
+    private void Wake(){
+        if (consumerWaiting)
+            LockSupport.unpark(consumer);
+    }
+    //endregion
+    //region Consume
+    /**
+     * The background thread. Takes entries out of the ring buffer in order, builds them and writes them in batches
+     */
+    private void Consume(){
+        ArrayList<LogEntry> batch = new ArrayList<LogEntry>(maxBatch);
+        long next = 0;
+        boolean unflushed = false;
+        int idleSpins = 0;
+        while (true){
+            Slot slot = slots[(int) next & (capacity - 1)];
+            if (slot.published == next){
+                batch.add(slot.Take());
+                next++;
+                if (batch.size() < maxBatch)
+                    continue;
+            }
+
+            if (!batch.isEmpty()){
+                consumed = next;
+                //the slots can be reused while the batch is written
+                Write(batch);
+                batch.clear();
+                written = next;
+                unflushed = true;
+                idleSpins = 0;
+                continue;
+            }
+            if (next < claimed.get()){
+                if (SPINS == 0)
+                    Thread.yield();
+                else
+                    Thread.onSpinWait();
+                //a command has claimed the slot but not filled it yet
+                continue;
+            }
+
+            if (unflushed){
+                Flush(flusher);
+                unflushed = false;
+            }
+            if (closing && next == claimed.get())
+                return;
+            if (++idleSpins < SPINS){
+                Thread.onSpinWait();
+                continue;
+            }
+
+            consumerWaiting = true;
+            if (slot.published != next && !closing)
+                LockSupport.parkNanos(1_000_000);
+            consumerWaiting = false;
+        }
+    }
+    /**
+     * Gives a batch to the writer, keeping the first error instead of stopping the background thread
+     * @param batch The entries to write
+     */
+    private void Write(List<LogEntry> batch){
+        try {
+            writer.accept(batch);
+        } catch (RuntimeException e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+    /**
+     * Runs the flusher, keeping the first error instead of stopping the background thread
+     * @param flusherIn The flusher to run
+     */
+    private void Flush(Runnable flusherIn){
+        try {
+            flusherIn.run();
+        } catch (RuntimeException e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+    //endregion
+    //region Control
+    /**
+     * Waits until every entry put in the ring buffer so far has been written
+     */
+    public void Flush(){
+        long target = claimed.get();
+        while (written < target){
+            CheckFailure();
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(50_000);
+        }
+        CheckFailure();
+    }
+    /**
+     * Writes the remaining entries and stops the background thread. Nothing can be logged afterwards
+     * Must only be called once no more commands are running
+     */
+    public void Close(){
+        closing = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CheckFailure();
+    }
+    /**
+     * The number of entries dropped by the overflow policy
+     * @return The number of dropped entries
+     */
+    public long DroppedCount(){
+        return dropped.get();
+    }
+    /**
+     * Throws the first error thrown by the writer, if there was one
+     */
+    private void CheckFailure(){
+        RuntimeException error = failure;
+        if (error != null)
+            throw new IllegalStateException("The audit log could not be written", error);
+    }
+    //endregion
+}
\ No newline at end of file
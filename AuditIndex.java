@@ -0,0 +1,47 @@
+/**
+ * Secondary indexes over the audit log, kept up to date as entries are added
+ * Each entry is identified by its sequence number, the number of entries added before it
+ * Every sink can be indexed in memory by a MemoryAuditIndex. A sink that stores its entries elsewhere may keep its index there too
+ * Not thread safe. The ACM guards the index with its monitor
+ */
+public abstract class AuditIndex {
+    //region Fields
+    /**
+     * The parts of an entry that can be searched
+     */
+    public enum Field {
+        SUBJECT,
+        OBJECT,
+        CAPABILITY,
+        PERMITTED
+    }
+    //endregion
+    //region Abstract Methods
+    /**
+     * Indexes the next entry of the log and gives it its sequence number
+     * @param entryIn The entry to index. It has already been added to the sink
+     */
+    public abstract void Add(LogEntry entryIn);
+    /**
+     * The number of indexed entries
+     * @return The number of indexed entries
+     */
+    public abstract int Size();
+    /**
+     * Counts the entries with a given value
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for. "true" or "false" for PERMITTED
+     * @return The number of matching entries
+     */
+    public abstract int Count(Field fieldIn, String valueIn);
+    /**
+     * Finds the next page of entries with a given value
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for. "true" or "false" for PERMITTED
+     * @param afterSequence Only entries after this sequence number are found. -1 starts from the beginning
+     * @param page Filled with the sequence numbers of the matching entries in ascending order
+     * @return The number of sequence numbers put in the page. Less than the page length once there are no more
+     */
+    public abstract int Page(Field fieldIn, String valueIn, int afterSequence, int[] page);
+    //endregion
+}
\ No newline at end of file
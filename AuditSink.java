@@ -0,0 +1,68 @@
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An abstract destination for ACM log entries
+ * Entries are only given to a sink once they are complete and are never changed afterwards
+ */
+public abstract class AuditSink {
+    //region Abstract Methods
+    /**
+     * Adds an entry to the end of the log
+     * @param entryIn The entry to add
+     */
+    public abstract void Append(LogEntry entryIn);
+    /**
+     * Visits every entry in the order they were added
+     * @param visitor The function to give each entry to
+     */
+    public abstract void Scan(Consumer<LogEntry> visitor);
+    /**
+     * Finds an entry by its position in the log
+     * @param sequence The number of entries added before it
+     * @return The entry
+     */
+    public abstract LogEntry Get(int sequence);
+    //endregion
+    //region Default Methods
+    /**
+     * Adds several entries to the end of the log, keeping their order
+     * @param entriesIn The entries to add
+     */
+    public void AppendAll(List<LogEntry> entriesIn){
+        for (LogEntry entry : entriesIn)
+            Append(entry);
+    }
+    /**
+     * Visits several entries by their position in the log
+     * @param sequences The number of entries added before each entry to visit
+     * @param count The number of sequences to use
+     * @param visitor The function to give each entry to, in the order of the sequences
+     */
+    public void Get(int[] sequences, int count, Consumer<LogEntry> visitor){
+        for (int x = 0; x < count; x++)
+            visitor.accept(Get(sequences[x]));
+    }
+    /**
+     * Creates the index the ACM searches the log with, holding every entry already in the sink
+     * By default the entries are read back once and indexed in memory
+     * @return The index
+     */
+    public AuditIndex CreateIndex(){
+        MemoryAuditIndex index = new MemoryAuditIndex();
+        Scan(index::Add);
+        return index;
+    }
+    /**
+     * Makes sure every added entry has reached the sink's storage
+     */
+    public void Flush(){
+    }
+    /**
+     * Flushes the sink and releases its resources
+     */
+    public void Close(){
+        Flush();
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,1268 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * An audit sink that appends entries to compact binary segment files
+ * Segments are named {basePath}.{n} and a new segment is started once the current one reaches its size limit
+ * Each segment starts with a 4 byte magic number followed by records:
+ * String record: 1, varint ID, varint length, UTF-8 bytes. Defines a string before its first use in the segment
+ * Entry record: 2, varint subject string ID, varint capability string ID, varint object string ID, permitted byte, 8 byte timestamp,
+ * varint effect count, then for each effect its LogEffect ordinal byte followed by a varint string ID per argument
+ * When a segment is finished, an index file {basePath}.{n}.idx is written next to it with the segment's strings, the offset of every
+ * CHECKPOINT_INTERVAL-th entry, the permitted flags and a posting list of entry numbers for each subject, object and capability
+ * Index files are mapped rather than read, so the heap holds the string table, a few counts per finished segment and the
+ * indexes of the segment being written, however long the log is
+ * Opening a sink only reads the segments without an up to date index file. A record cut off at the end of the newest segment
+ * was being written when the process stopped, so the segment is truncated before it
+ */
+public final class BinaryFileAuditSink extends AuditSink {
+    //region Format
+    private static final int MAGIC = 0x41434D32;
+    //The first 4 bytes of every segment
+    private static final int HEADER_SIZE = 4;
+    //The size of the segment header
+    private static final byte STRING_RECORD = 1;
+    //The type byte of a string definition
+    private static final byte ENTRY_RECORD = 2;
+    //The type byte of a log entry
+    private static final LogEffect[] EFFECTS = LogEffect.values();
+    //The effects by ordinal
+    private static final int INDEX_MAGIC = 0x41434D58;
+    //The first 4 bytes of every index file
+    private static final int INDEX_HEADER_SIZE = 44;
+    //The magic number, segment length, entry and permitted counts, then the position and size of each section
+    private static final int CHECKPOINT_INTERVAL = 64;
+    //The entries between two recorded offsets. An entry is found by decoding forward from the offset before it
+    private static final int LOADED_STRING_TABLES = 4;
+    //The string tables of segments from before the sink was opened that are kept for reading
+    //endregion
+    //region Variables
+    private final Path basePath;
+    //The path the segment numbers are added to
+    private final long maxSegmentBytes;
+    //The size a segment can grow to before a new one is started
+    private final IdRegistry strings;
+    //The ID of every string written since the sink was opened. Can be read without the lock
+    private final ArrayList<FinishedSegment> finished;
+    //The segments that are no longer written, in order
+    private final LinkedHashMap<Integer, HashMap<Integer, String>> loadedStrings;
+    //The strings of the most recently read segments from before the sink was opened, by their IDs in that segment
+    private int firstSegment;
+    //The number of the first segment written since the sink was opened
+    private int entryCount;
+    //The number of entries in the log
+    private int finishedPermittedCount;
+    //The number of permitted entries in the finished segments
+    private SegmentIndex current;
+    //The indexes of the segment being written. Null once the sink is closed
+    private final BitSet definedInSegment;
+    //The string IDs that have been defined in the current segment
+    private final ByteBuffer buffer;
+    //Bytes waiting to be written to the current segment
+    private final Encoder definitions;
+    //The string records needed by the entry being written
+    private final Encoder entryRecord;
+    //The entry being written
+    private FileChannel channel;
+    //The current segment. Null once the sink is closed
+    private int segmentIndex;
+    //The number of the current segment
+    private long segmentBytes;
+    //The size of the current segment including buffered bytes
+    //endregion
+    //region Constructor
+    /**
+     * The default BinaryFileAuditSink constructor. Existing segments are kept and new entries go in a new segment
+     * @param basePathIn The path the segment numbers are added to
+     * @param maxSegmentBytesIn The size a segment can grow to before a new one is started. Must be less than 2GB
+     * @throws IOException If an existing segment cannot be read or the first segment cannot be created
+     */
+    public BinaryFileAuditSink(Path basePathIn, long maxSegmentBytesIn) throws IOException {
+        if (maxSegmentBytesIn > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segments must be smaller than " + Integer.MAX_VALUE + " bytes");
+
+        basePath = basePathIn.toAbsolutePath();
+        maxSegmentBytes = maxSegmentBytesIn;
+        strings = new IdRegistry();
+        finished = new ArrayList<FinishedSegment>();
+        loadedStrings = new LinkedHashMap<Integer, HashMap<Integer, String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, HashMap<Integer, String>> eldest){
+                return size() > LOADED_STRING_TABLES;
+            }
+        };
+        entryCount = 0;
+        finishedPermittedCount = 0;
+        definedInSegment = new BitSet();
+        buffer = ByteBuffer.allocateDirect(1 << 16);
+        definitions = new Encoder();
+        entryRecord = new Encoder();
+
+        ArrayList<Integer> existing = SegmentIndexes();
+        for (int x = 0; x < existing.size(); x++){
+            int index = existing.get(x);
+            FinishedSegment segment = OpenIndex(index);
+            if (segment == null)
+                segment = RecoverSegment(index, x == existing.size() - 1);
+            if (segment == null)
+                continue;
+
+            finished.add(segment);
+            entryCount += segment.entryCount;
+            finishedPermittedCount += segment.permittedCount;
+        }
+        //existing entries keep their sequence numbers
+        segmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+        firstSegment = segmentIndex;
+        OpenSegment();
+    }
+    //endregion
+    //region Overrides
+    /**
+     * Adds an entry to the end of the current segment and indexes it, starting a new segment if it is full
+     * @param entryIn The entry to add. Given its sequence number
+     */
+    @Override
+    public synchronized void Append(LogEntry entryIn){
+        try {
+            Encode(entryIn);
+            long size = definitions.size + entryRecord.size;
+            if (segmentBytes + size > maxSegmentBytes && segmentBytes > HEADER_SIZE){
+                Rotate();
+                Encode(entryIn);
+                //the new segment needs its own string definitions
+            }
+
+            Write(definitions);
+            long position = segmentBytes;
+            Write(entryRecord);
+            current.Add(position, entryIn);
+            entryIn.sequence = entryCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Decodes and visits every entry from the segment files in order
+     * Entries added while the scan runs are not visited
+     * @param visitor The function to give each entry to
+     */
+    @Override
+    public void Scan(Consumer<LogEntry> visitor){
+        int lastSegment;
+        long lastSegmentBytes;
+        synchronized (this){
+            try {
+                FlushBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            lastSegment = segmentIndex;
+            lastSegmentBytes = segmentBytes;
+        }
+
+        try {
+            for (int index : SegmentIndexes()){
+                if (index > lastSegment)
+                    break;
+
+                Path path = SegmentPath(index);
+                ReadSegment(path, (index == lastSegment) ? lastSegmentBytes : Files.size(path),
+                        new HashMap<Integer, String>(), (position, entry) -> visitor.accept(entry), false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Finds an entry by its position in the log
+     * @param sequence The number of entries added before it
+     * @return The entry
+     */
+    @Override
+    public LogEntry Get(int sequence){
+        LogEntry[] entry = new LogEntry[1];
+        Get(new int[] {sequence}, 1, found -> entry[0] = found);
+        return entry[0];
+    }
+    /**
+     * Decodes and visits several entries by their position in the log. Each segment is opened once
+     * An entry is found by decoding forward from the checkpoint before it, at most CHECKPOINT_INTERVAL - 1 entries
+     * @param sequences The number of entries added before each entry to visit
+     * @param count The number of sequences to use
+     * @param visitor The function to give each entry to, in the order of the sequences
+     */
+    @Override
+    public void Get(int[] sequences, int count, Consumer<LogEntry> visitor){
+        int[] segments = new int[count];
+        long[] checkpoints = new long[count];
+        int[] skips = new int[count];
+        ArrayList<IntFunction<String>> segmentStrings = new ArrayList<IntFunction<String>>(count);
+        synchronized (this){
+            try {
+                boolean buffered = false;
+                for (int x = 0; x < count; x++){
+                    if (sequences[x] < 0 || sequences[x] >= entryCount)
+                        throw new IndexOutOfBoundsException("Log entry " + sequences[x] + " does not exist");
+
+                    int ordinal;
+                    if (current != null && sequences[x] >= current.firstSequence){
+                        ordinal = sequences[x] - current.firstSequence;
+                        segments[x] = segmentIndex;
+                        checkpoints[x] = current.checkpoints[ordinal / CHECKPOINT_INTERVAL];
+                        buffered = true;
+                    }
+                    else{
+                        FinishedSegment segment = finished.get(FinishedSegmentOf(sequences[x]));
+                        ordinal = sequences[x] - segment.firstSequence;
+                        segments[x] = segment.number;
+                        checkpoints[x] = segment.Checkpoint(ordinal / CHECKPOINT_INTERVAL);
+                    }
+                    skips[x] = ordinal % CHECKPOINT_INTERVAL;
+                    segmentStrings.add((segments[x] >= firstSegment) ? strings::NameOf : LoadedStrings(segments[x])::get);
+                }
+                if (buffered)
+                    FlushBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        FileChannel input = null;
+        int inputSegment = -1;
+        try {
+            for (int x = 0; x < count; x++){
+                if (segments[x] != inputSegment){
+                    if (input != null)
+                        input.close();
+                    input = FileChannel.open(SegmentPath(segments[x]), StandardOpenOption.READ);
+                    inputSegment = segments[x];
+                }
+
+                Decoder decoder = new Decoder(input, checkpoints[x], input.size(), 4096);
+                int skip = skips[x];
+                while (true){
+                    byte type = decoder.ReadByte();
+                    if (type == STRING_RECORD){
+                        decoder.ReadVarint();
+                        decoder.Skip(decoder.ReadVarint());
+                    }
+                    else if (type != ENTRY_RECORD)
+                        throw new IOException("Log entry " + sequences[x] + " is not at its recorded position");
+                    else if (skip-- == 0)
+                        break;
+                    else
+                        SkipEntry(decoder);
+                }
+
+                LogEntry entry = DecodeEntry(decoder, segmentStrings.get(x));
+                entry.sequence = sequences[x];
+                visitor.accept(entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                if (input != null)
+                    input.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    /**
+     * Creates the index of the log, which is kept by the sink as entries are appended and is not read back
+     * @return The index
+     */
+    @Override
+    public AuditIndex CreateIndex(){
+        return new Index();
+    }
+    /**
+     * Writes every buffered entry to the current segment
+     */
+    @Override
+    public synchronized void Flush(){
+        try {
+            FlushBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Writes every buffered entry, forces the segment to disk, closes it and writes its index file
+     */
+    @Override
+    public synchronized void Close(){
+        if (channel == null)
+            return;
+
+        try {
+            FlushBuffer();
+            channel.force(true);
+            channel.close();
+            channel = null;
+            FinishSegment();
+            current = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    //endregion
+    //region Index
+    /**
+     * The audit index of the sink. Searches the index files of the finished segments and the indexes of the current one
+     */
+    private final class Index extends AuditIndex {
+        /**
+         * Does nothing, because Append has already indexed the entry and given it its sequence number
+         * @param entryIn The entry that was added
+         */
+        @Override
+        public void Add(LogEntry entryIn){
+        }
+        /**
+         * The number of entries in the log
+         * @return The number of entries in the log
+         */
+        @Override
+        public int Size(){
+            synchronized (BinaryFileAuditSink.this){
+                return entryCount;
+            }
+        }
+        /**
+         * Counts the entries with a given value, adding up the count of each segment
+         * @param fieldIn The field to search
+         * @param valueIn The value to search for. "true" or "false" for PERMITTED
+         * @return The number of matching entries
+         */
+        @Override
+        public int Count(Field fieldIn, String valueIn){
+            synchronized (BinaryFileAuditSink.this){
+                if (fieldIn == Field.PERMITTED){
+                    int permittedCount = finishedPermittedCount + ((current == null) ? 0 : current.permittedCount);
+                    return Boolean.parseBoolean(valueIn) ? permittedCount : entryCount - permittedCount;
+                }
+
+                try {
+                    int count = (current == null) ? 0 : current.Count(fieldIn, valueIn);
+                    for (FinishedSegment segment : finished)
+                        count += segment.Count(fieldIn, valueIn);
+                    return count;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        /**
+         * Finds the next page of entries with a given value, starting at the segment holding the entry after afterSequence
+         * @param fieldIn The field to search
+         * @param valueIn The value to search for. "true" or "false" for PERMITTED
+         * @param afterSequence Only entries after this sequence number are found. -1 starts from the beginning
+         * @param page Filled with the sequence numbers of the matching entries in ascending order
+         * @return The number of sequence numbers put in the page. Less than the page length once there are no more
+         */
+        @Override
+        public int Page(Field fieldIn, String valueIn, int afterSequence, int[] page){
+            synchronized (BinaryFileAuditSink.this){
+                int next = afterSequence + 1;
+                int count = 0;
+                try {
+                    for (int x = (next < entryCount) ? FinishedSegmentOf(next) : finished.size(); x < finished.size(); x++){
+                        FinishedSegment segment = finished.get(x);
+                        count = segment.Page(fieldIn, valueIn, Math.max(0, next - segment.firstSequence), page, count);
+                        if (count == page.length)
+                            return count;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                if (current != null)
+                    count = current.Page(fieldIn, valueIn, Math.max(0, next - current.firstSequence), page, count);
+                return count;
+            }
+        }
+    }
+    /**
+     * Finds the finished segment holding an entry
+     * @param sequence The sequence number of the entry. Must be before the current segment
+     * @return The position of the segment in finished. The current segment's position if the entry is in it
+     */
+    private int FinishedSegmentOf(int sequence){
+        int low = 0;
+        int high = finished.size() - 1;
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            FinishedSegment segment = finished.get(middle);
+            if (sequence < segment.firstSequence)
+                high = middle - 1;
+            else if (sequence >= segment.firstSequence + segment.entryCount)
+                low = middle + 1;
+            else
+                return middle;
+        }
+
+        return low;
+    }
+    /**
+     * Finds the strings of a segment from before the sink was opened, reading them from its index file if they are not loaded
+     * The caller must hold the sink's monitor
+     * @param index The number of the segment
+     * @return The strings by their IDs in the segment
+     * @throws IOException If the index file cannot be read
+     */
+    private HashMap<Integer, String> LoadedStrings(int index) throws IOException {
+        HashMap<Integer, String> segmentStrings = loadedStrings.get(index);
+        if (segmentStrings == null){
+            for (FinishedSegment segment : finished)
+                if (segment.number == index)
+                    segmentStrings = segment.Strings();
+            loadedStrings.put(index, segmentStrings);
+        }
+
+        return segmentStrings;
+    }
+    /**
+     * The indexes of one segment kept in memory: the segment being written, or one being recovered before its index file is written
+     */
+    private static final class SegmentIndex {
+        final int firstSequence;
+        //The sequence number of the segment's first entry
+        final HashMap<String, Postings> bySubject;
+        //The entry numbers in the segment of each subject
+        final HashMap<String, Postings> byObject;
+        //The entry numbers in the segment of each object
+        final HashMap<String, Postings> byCapability;
+        //The entry numbers in the segment of each requested capability
+        final BitSet permitted;
+        //Bit n is set if entry n of the segment was permitted
+        int permittedCount;
+        //The number of permitted entries
+        int count;
+        //The number of entries in the segment
+        long[] checkpoints;
+        //The offset of every CHECKPOINT_INTERVAL-th entry
+
+        /**
+         * The default SegmentIndex constructor
+         * @param firstSequenceIn The sequence number of the segment's first entry
+         */
+        SegmentIndex(int firstSequenceIn){
+            firstSequence = firstSequenceIn;
+            bySubject = new HashMap<String, Postings>();
+            byObject = new HashMap<String, Postings>();
+            byCapability = new HashMap<String, Postings>();
+            permitted = new BitSet();
+            permittedCount = 0;
+            count = 0;
+            checkpoints = new long[16];
+        }
+        /**
+         * Indexes the next entry of the segment
+         * @param offset The position of the entry's record in the segment
+         * @param entryIn The entry
+         */
+        void Add(long offset, LogEntry entryIn){
+            if (count % CHECKPOINT_INTERVAL == 0){
+                int checkpoint = count / CHECKPOINT_INTERVAL;
+                if (checkpoint == checkpoints.length)
+                    checkpoints = Arrays.copyOf(checkpoints, checkpoint * 2);
+                checkpoints[checkpoint] = offset;
+            }
+            Post(bySubject, entryIn.subject);
+            Post(byObject, entryIn.object);
+            Post(byCapability, entryIn.capabilityRequested);
+            if (entryIn.permitted){
+                permitted.set(count);
+                permittedCount++;
+            }
+            count++;
+        }
+        /**
+         * Adds the next entry number to the posting list of a value
+         * @param index The index of the field
+         * @param value The value of the field in the entry
+         */
+        private void Post(HashMap<String, Postings> index, String value){
+            Postings postings = index.get(value);
+            if (postings == null){
+                postings = new Postings();
+                index.put(value, postings);
+            }
+            postings.Add(count);
+        }
+        /**
+         * Finds the index of a field
+         * @param fieldIn The field to find the index of. Must not be PERMITTED
+         * @return The posting lists of the field
+         */
+        HashMap<String, Postings> IndexOf(AuditIndex.Field fieldIn){
+            return switch (fieldIn){
+                case SUBJECT -> bySubject;
+                case OBJECT -> byObject;
+                case CAPABILITY -> byCapability;
+                default -> throw new IllegalArgumentException(fieldIn + " does not have posting lists");
+            };
+        }
+        /**
+         * Counts the entries of the segment with a given value
+         * @param fieldIn The field to search. Must not be PERMITTED
+         * @param valueIn The value to search for
+         * @return The number of matching entries
+         */
+        int Count(AuditIndex.Field fieldIn, String valueIn){
+            Postings postings = IndexOf(fieldIn).get(valueIn);
+            return (postings == null) ? 0 : postings.size;
+        }
+        /**
+         * Adds the sequence numbers of the segment's entries with a given value to a page
+         * @param fieldIn The field to search
+         * @param valueIn The value to search for. "true" or "false" for PERMITTED
+         * @param fromEntry The first entry number in the segment that can be added
+         * @param page The page being filled
+         * @param count The number of sequence numbers already in the page
+         * @return The number of sequence numbers in the page
+         */
+        int Page(AuditIndex.Field fieldIn, String valueIn, int fromEntry, int[] page, int count){
+            if (fieldIn == AuditIndex.Field.PERMITTED){
+                boolean permittedIn = Boolean.parseBoolean(valueIn);
+                int next = fromEntry;
+                while (count < page.length){
+                    next = permittedIn ? permitted.nextSetBit(next) : permitted.nextClearBit(next);
+                    if (next == -1 || next >= this.count)
+                        break;
+                    page[count++] = firstSequence + next++;
+                }
+
+                return count;
+            }
+
+            Postings postings = IndexOf(fieldIn).get(valueIn);
+            if (postings == null)
+                return count;
+            int start = Arrays.binarySearch(postings.entries, 0, postings.size, fromEntry);
+            if (start < 0)
+                start = -start - 1;
+            while (start < postings.size && count < page.length)
+                page[count++] = firstSequence + postings.entries[start++];
+
+            return count;
+        }
+        /**
+         * Writes the index file of the segment. The file is written beside its final path and then moved over it
+         * @param path The index file
+         * @param segmentLength The length of the segment the index describes
+         * @param segmentStrings The strings defined in the segment by their IDs
+         * @throws IOException If the file cannot be written
+         */
+        void Write(Path path, long segmentLength, HashMap<Integer, String> segmentStrings) throws IOException {
+            int words = (count + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL;
+            //one checkpoint and one 64 bit word of permitted flags per CHECKPOINT_INTERVAL entries
+            long size = INDEX_HEADER_SIZE + words * 16L;
+            ArrayList<byte[]> stringBytes = new ArrayList<byte[]>(segmentStrings.size());
+            for (String value : segmentStrings.values()){
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                stringBytes.add(bytes);
+                size += 8 + bytes.length;
+            }
+            ArrayList<Map.Entry<String, Postings>> values = new ArrayList<Map.Entry<String, Postings>>();
+            ArrayList<byte[]> valueBytes = new ArrayList<byte[]>();
+            int[] fieldStarts = new int[4];
+            for (HashMap<String, Postings> index : Arrays.asList(bySubject, byObject, byCapability)){
+                ArrayList<Map.Entry<String, Postings>> sorted = new ArrayList<Map.Entry<String, Postings>>(index.entrySet());
+                sorted.sort(Map.Entry.comparingByKey());
+                values.addAll(sorted);
+            }
+            fieldStarts[1] = bySubject.size();
+            fieldStarts[2] = fieldStarts[1] + byObject.size();
+            fieldStarts[3] = fieldStarts[2] + byCapability.size();
+            for (Map.Entry<String, Postings> value : values){
+                byte[] bytes = value.getKey().getBytes(StandardCharsets.UTF_8);
+                valueBytes.add(bytes);
+                size += 4 + 9 + bytes.length + value.getValue().size * 4L;
+            }
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("The index of \"" + path + "\" is too large");
+
+            ByteBuffer output = ByteBuffer.allocate((int) size);
+            int stringsAt = INDEX_HEADER_SIZE + words * 16;
+            int directoryAt = stringsAt + 8 * segmentStrings.size() + SumBytes(stringBytes);
+            output.putInt(INDEX_MAGIC).putLong(segmentLength).putInt(count).putInt(permittedCount);
+            output.putInt(INDEX_HEADER_SIZE).putInt(INDEX_HEADER_SIZE + words * 8).putInt(stringsAt).putInt(segmentStrings.size());
+            output.putInt(directoryAt).putInt(values.size());
+            for (int x = 0; x < words; x++)
+                output.putLong(checkpoints[x]);
+            long[] permittedWords = permitted.toLongArray();
+            for (int x = 0; x < words; x++)
+                output.putLong((x < permittedWords.length) ? permittedWords[x] : 0);
+            int stringNumber = 0;
+            for (int id : segmentStrings.keySet()){
+                byte[] bytes = stringBytes.get(stringNumber++);
+                output.putInt(id).putInt(bytes.length).put(bytes);
+            }
+
+            int record = directoryAt + values.size() * 4;
+            for (int x = 0; x < values.size(); x++){
+                output.putInt(directoryAt + x * 4, record);
+                record += 9 + valueBytes.get(x).length + values.get(x).getValue().size * 4;
+            }
+            output.position(directoryAt + values.size() * 4);
+            for (int x = 0; x < values.size(); x++){
+                int field = (x < fieldStarts[1]) ? 0 : (x < fieldStarts[2]) ? 1 : 2;
+                Postings postings = values.get(x).getValue();
+                output.put((byte) field).putInt(valueBytes.get(x).length).put(valueBytes.get(x)).putInt(postings.size);
+                for (int y = 0; y < postings.size; y++)
+                    output.putInt(postings.entries[y]);
+            }
+            output.flip();
+
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                while (output.hasRemaining())
+                    file.write(output);
+                file.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        /**
+         * Adds up the lengths of byte arrays
+         * @param arrays The arrays
+         * @return The total length
+         */
+        private static int SumBytes(ArrayList<byte[]> arrays){
+            int total = 0;
+            for (byte[] array : arrays)
+                total += array.length;
+            return total;
+        }
+    }
+    /**
+     * A growable list of entry numbers in ascending order
+     */
+    private static final class Postings {
+        int[] entries = new int[4];
+        //The entry numbers
+        int size = 0;
+        //The number of entry numbers used
+
+        void Add(int entry){
+            if (size == entries.length)
+                entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = entry;
+        }
+    }
+    /**
+     * A segment that is no longer written. Only its counts are kept on the heap, and its index file is mapped when first searched
+     * Index file: magic, segment length, entry count, permitted count, then the position of the checkpoints, the permitted flags,
+     * the strings with their count and the directory with its count. Strings are an ID, a length and UTF-8 bytes. The directory
+     * holds the position of each value record sorted by field and value. A value record is the field ordinal byte, the value's
+     * length and UTF-8 bytes, the number of entries and their entry numbers in the segment
+     */
+    private static final class FinishedSegment {
+        final int number;
+        //The number of the segment
+        final Path indexPath;
+        //The segment's index file
+        final int firstSequence;
+        //The sequence number of the segment's first entry
+        final int entryCount;
+        //The number of entries in the segment
+        final int permittedCount;
+        //The number of permitted entries in the segment
+        private MappedByteBuffer index;
+        //The mapped index file. Null until it is first searched
+
+        /**
+         * The default FinishedSegment constructor
+         * @param numberIn The number of the segment
+         * @param indexPathIn The segment's index file
+         * @param firstSequenceIn The sequence number of the segment's first entry
+         * @param entryCountIn The number of entries in the segment
+         * @param permittedCountIn The number of permitted entries in the segment
+         */
+        FinishedSegment(int numberIn, Path indexPathIn, int firstSequenceIn, int entryCountIn, int permittedCountIn){
+            number = numberIn;
+            indexPath = indexPathIn;
+            firstSequence = firstSequenceIn;
+            entryCount = entryCountIn;
+            permittedCount = permittedCountIn;
+            index = null;
+        }
+        /**
+         * Maps the index file if it is not mapped yet. The caller must hold the sink's monitor
+         * @return The mapped index file
+         * @throws IOException If the file cannot be mapped
+         */
+        private MappedByteBuffer Index() throws IOException {
+            if (index == null){
+                try (FileChannel file = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                    index = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                }
+            }
+
+            return index;
+        }
+        /**
+         * Finds the offset of a checkpoint entry
+         * @param checkpoint The number of the checkpoint
+         * @return The offset in the segment of entry checkpoint * CHECKPOINT_INTERVAL
+         * @throws IOException If the index file cannot be mapped
+         */
+        long Checkpoint(int checkpoint) throws IOException {
+            MappedByteBuffer mapped = Index();
+            return mapped.getLong(mapped.getInt(20) + checkpoint * 8);
+        }
+        /**
+         * Reads the strings defined in the segment
+         * @return The strings by their IDs in the segment
+         * @throws IOException If the index file cannot be mapped
+         */
+        HashMap<Integer, String> Strings() throws IOException {
+            MappedByteBuffer mapped = Index();
+            int position = mapped.getInt(28);
+            int stringCount = mapped.getInt(32);
+            HashMap<Integer, String> segmentStrings = new HashMap<Integer, String>(stringCount * 2);
+            for (int x = 0; x < stringCount; x++){
+                int id = mapped.getInt(position);
+                byte[] bytes = new byte[mapped.getInt(position + 4)];
+                mapped.get(position + 8, bytes);
+                segmentStrings.put(id, new String(bytes, StandardCharsets.UTF_8));
+                position += 8 + bytes.length;
+            }
+
+            return segmentStrings;
+        }
+        /**
+         * Finds the record of a value with a binary search of the directory
+         * @param fieldIn The field of the value. Must not be PERMITTED
+         * @param valueIn The value
+         * @return The position of the value's record. -1 if no entry of the segment has the value
+         * @throws IOException If the index file cannot be mapped
+         */
+        private int Find(AuditIndex.Field fieldIn, String valueIn) throws IOException {
+            MappedByteBuffer mapped = Index();
+            int directory = mapped.getInt(36);
+            int low = 0;
+            int high = mapped.getInt(40) - 1;
+            while (low <= high){
+                int middle = (low + high) >>> 1;
+                int record = mapped.getInt(directory + middle * 4);
+                int compare = Integer.compare(mapped.get(record), fieldIn.ordinal());
+                if (compare == 0){
+                    byte[] bytes = new byte[mapped.getInt(record + 1)];
+                    mapped.get(record + 5, bytes);
+                    compare = new String(bytes, StandardCharsets.UTF_8).compareTo(valueIn);
+                }
+                if (compare < 0)
+                    low = middle + 1;
+                else if (compare > 0)
+                    high = middle - 1;
+                else
+                    return record;
+            }
+
+            return -1;
+        }
+        /**
+         * Counts the entries of the segment with a given value
+         * @param fieldIn The field to search. Must not be PERMITTED
+         * @param valueIn The value to search for
+         * @return The number of matching entries
+         * @throws IOException If the index file cannot be mapped
+         */
+        int Count(AuditIndex.Field fieldIn, String valueIn) throws IOException {
+            int record = Find(fieldIn, valueIn);
+            return (record == -1) ? 0 : index.getInt(record + 5 + index.getInt(record + 1));
+        }
+        /**
+         * Adds the sequence numbers of the segment's entries with a given value to a page
+         * @param fieldIn The field to search
+         * @param valueIn The value to search for. "true" or "false" for PERMITTED
+         * @param fromEntry The first entry number in the segment that can be added
+         * @param page The page being filled
+         * @param count The number of sequence numbers already in the page
+         * @return The number of sequence numbers in the page
+         * @throws IOException If the index file cannot be mapped
+         */
+        int Page(AuditIndex.Field fieldIn, String valueIn, int fromEntry, int[] page, int count) throws IOException {
+            MappedByteBuffer mapped = Index();
+            if (fieldIn == AuditIndex.Field.PERMITTED){
+                boolean permittedIn = Boolean.parseBoolean(valueIn);
+                int flags = mapped.getInt(24);
+                for (int entry = fromEntry; entry < entryCount && count < page.length; entry++){
+                    long word = mapped.getLong(flags + (entry >>> 6) * 8);
+                    if (((word >>> (entry & 63)) & 1) == (permittedIn ? 1 : 0))
+                        page[count++] = firstSequence + entry;
+                }
+
+                return count;
+            }
+
+            int record = Find(fieldIn, valueIn);
+            if (record == -1)
+                return count;
+            int size = mapped.getInt(record + 5 + mapped.getInt(record + 1));
+            int entries = record + 9 + mapped.getInt(record + 1);
+            int low = 0;
+            int high = size;
+            while (low < high){
+                int middle = (low + high) >>> 1;
+                if (mapped.getInt(entries + middle * 4) < fromEntry)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            //low is the first entry at or after fromEntry
+            while (low < size && count < page.length)
+                page[count++] = firstSequence + mapped.getInt(entries + low++ * 4);
+
+            return count;
+        }
+    }
+    //endregion
+    //region Writing
+    /**
+     * Encodes an entry and any string definitions it needs in the current segment
+     * @param entryIn The entry to encode
+     */
+    private void Encode(LogEntry entryIn){
+        definitions.size = 0;
+        entryRecord.size = 0;
+
+        entryRecord.WriteByte(ENTRY_RECORD);
+        entryRecord.WriteVarint(StringId(entryIn.subject));
+        entryRecord.WriteVarint(StringId(entryIn.capabilityRequested));
+        entryRecord.WriteVarint(StringId(entryIn.object));
+        entryRecord.WriteByte(entryIn.permitted ? 1 : 0);
+        entryRecord.WriteLong(entryIn.timestamp);
+        entryRecord.WriteVarint(entryIn.effects.size());
+        int offset = 0;
+        for (LogEffect effect : entryIn.effects){
+            entryRecord.WriteByte(effect.ordinal());
+            for (int x = 0; x < effect.ArgumentCount(); x++)
+                entryRecord.WriteVarint(StringId(entryIn.effectArgs[offset + x]));
+            offset += effect.ArgumentCount();
+        }
+    }
+    /**
+     * Finds the ID of a string, adding a definition record if the current segment has not defined it yet
+     * @param value The string to find
+     * @return The ID of the string
+     */
+    private int StringId(String value){
+        int id = strings.IdOf(value);
+        if (id == -1)
+            id = strings.Add(value);
+        if (!definedInSegment.get(id)){
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            definitions.WriteByte(STRING_RECORD);
+            definitions.WriteVarint(id);
+            definitions.WriteVarint(bytes.length);
+            definitions.WriteBytes(bytes);
+            definedInSegment.set(id);
+        }
+
+        return id;
+    }
+    /**
+     * Adds encoded bytes to the current segment
+     * @param encoder The bytes to add
+     * @throws IOException If the segment cannot be written
+     */
+    private void Write(Encoder encoder) throws IOException {
+        if (channel == null)
+            throw new IOException("The audit log is closed");
+        if (encoder.size > buffer.remaining())
+            FlushBuffer();
+
+        if (encoder.size > buffer.capacity()){
+            ByteBuffer large = ByteBuffer.wrap(encoder.bytes, 0, encoder.size);
+            while (large.hasRemaining())
+                channel.write(large);
+        }
+        else
+            buffer.put(encoder.bytes, 0, encoder.size);
+        segmentBytes += encoder.size;
+    }
+    /**
+     * Writes the buffered bytes to the current segment
+     * @throws IOException If the segment cannot be written
+     */
+    private void FlushBuffer() throws IOException {
+        if (channel == null)
+            return;
+
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+    /**
+     * Closes the current segment and starts the next one
+     * @throws IOException If a segment cannot be closed or created
+     */
+    private void Rotate() throws IOException {
+        FlushBuffer();
+        channel.close();
+        FinishSegment();
+        segmentIndex++;
+        OpenSegment();
+    }
+    /**
+     * Writes the index file of the current segment, which has been closed, and adds it to the finished segments
+     * @throws IOException If the index file cannot be written
+     */
+    private void FinishSegment() throws IOException {
+        HashMap<Integer, String> segmentStrings = new HashMap<Integer, String>();
+        for (int id = definedInSegment.nextSetBit(0); id != -1; id = definedInSegment.nextSetBit(id + 1))
+            segmentStrings.put(id, strings.NameOf(id));
+        current.Write(IndexPath(segmentIndex), segmentBytes, segmentStrings);
+
+        finished.add(new FinishedSegment(segmentIndex, IndexPath(segmentIndex), current.firstSequence, current.count,
+                current.permittedCount));
+        finishedPermittedCount += current.permittedCount;
+    }
+    /**
+     * Creates the segment with the current index and writes its header
+     * @throws IOException If the segment cannot be created
+     */
+    private void OpenSegment() throws IOException {
+        channel = FileChannel.open(SegmentPath(segmentIndex),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        definedInSegment.clear();
+        buffer.putInt(MAGIC);
+        segmentBytes = HEADER_SIZE;
+        current = new SegmentIndex(entryCount);
+    }
+    //endregion
+    //region Reading
+    /**
+     * Decodes the entries of a segment
+     * @param path The segment file
+     * @param length The number of bytes of the segment to read
+     * @param segmentStrings Filled with the strings defined in the segment
+     * @param handler The function to give each entry and its offset to
+     * @param last Whether the segment was the newest when a process stopped, so its last record may be partly written
+     * @return The position after the last complete record
+     * @throws IOException If the segment cannot be read or is corrupt
+     */
+    private static long ReadSegment(Path path, long length, HashMap<Integer, String> segmentStrings,
+                                    EntryHandler handler, boolean last) throws IOException {
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            Decoder decoder = new Decoder(input, 0, length, 1 << 16);
+            if (length < HEADER_SIZE || decoder.ReadInt() != MAGIC)
+                throw new IOException("\"" + path + "\" is not an audit log segment");
+
+            while (decoder.HasMore()){
+                long position = decoder.Position();
+                LogEntry entry = null;
+                try {
+                    byte type = decoder.ReadByte();
+                    if (type == STRING_RECORD){
+                        int id = (int) decoder.ReadVarint();
+                        byte[] bytes = decoder.ReadBytes((int) decoder.ReadVarint());
+                        segmentStrings.put(id, new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    else if (type == ENTRY_RECORD)
+                        entry = DecodeEntry(decoder, segmentStrings::get);
+                    else if (last)
+                        return position;
+                    else
+                        throw new IOException("\"" + path + "\" has an unknown record type " + type);
+                } catch (EOFException e) {
+                    if (!last)
+                        throw e;
+                    return position;
+                }
+
+                if (entry != null)
+                    handler.Handle(position, entry);
+            }
+        }
+
+        return length;
+    }
+    /**
+     * Decodes an entry record
+     * @param decoder The segment positioned after the record type
+     * @param strings Finds the strings of the segment by ID
+     * @return The decoded entry
+     * @throws IOException If the segment cannot be read
+     */
+    private static LogEntry DecodeEntry(Decoder decoder, IntFunction<String> strings) throws IOException {
+        String subject = strings.apply((int) decoder.ReadVarint());
+        String capability = strings.apply((int) decoder.ReadVarint());
+        String object = strings.apply((int) decoder.ReadVarint());
+        boolean permitted = decoder.ReadByte() != 0;
+        LogEntry entry = new LogEntry(subject, capability, permitted);
+        entry.object = object;
+        entry.timestamp = decoder.ReadLong();
+
+        int effectCount = (int) decoder.ReadVarint();
+        for (int x = 0; x < effectCount; x++){
+            LogEffect effect = EFFECTS[decoder.ReadByte()];
+            String[] args = new String[effect.ArgumentCount()];
+            for (int y = 0; y < args.length; y++)
+                args[y] = strings.apply((int) decoder.ReadVarint());
+            entry.AddEffect(effect, args);
+        }
+
+        return entry;
+    }
+    /**
+     * Moves past an entry record without decoding its strings
+     * @param decoder The segment positioned after the record type
+     * @throws IOException If the segment cannot be read
+     */
+    private static void SkipEntry(Decoder decoder) throws IOException {
+        decoder.ReadVarint();
+        decoder.ReadVarint();
+        decoder.ReadVarint();
+        decoder.Skip(9);
+        //the permitted byte and the timestamp
+        int effectCount = (int) decoder.ReadVarint();
+        for (int x = 0; x < effectCount; x++){
+            LogEffect effect = EFFECTS[decoder.ReadByte()];
+            for (int y = 0; y < effect.ArgumentCount(); y++)
+                decoder.ReadVarint();
+        }
+    }
+    //endregion
+    //region Segments
+    /**
+     * Finds the file of a segment
+     * @param index The number of the segment
+     * @return The path of the segment
+     */
+    private Path SegmentPath(int index){
+        return basePath.resolveSibling(basePath.getFileName() + "." + index);
+    }
+    /**
+     * Finds the index file of a segment
+     * @param index The number of the segment
+     * @return The path of the segment's index file
+     */
+    private Path IndexPath(int index){
+        return basePath.resolveSibling(basePath.getFileName() + "." + index + ".idx");
+    }
+    /**
+     * Finds the numbers of the existing segments
+     * @return The segment numbers in ascending order
+     * @throws IOException If the directory cannot be listed
+     */
+    private ArrayList<Integer> SegmentIndexes() throws IOException {
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+        String prefix = basePath.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(basePath.getParent(), prefix + "*")) {
+            for (Path file : files){
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit))
+                    indexes.add(Integer.parseInt(suffix));
+            }
+        }
+        indexes.sort(null);
+
+        return indexes;
+    }
+    /**
+     * Reads the header of a segment's index file
+     * @param index The number of the segment
+     * @return The finished segment. Null if there is no index file or it does not describe the whole segment
+     * @throws IOException If the files cannot be read
+     */
+    private FinishedSegment OpenIndex(int index) throws IOException {
+        Path indexPath = IndexPath(index);
+        if (!Files.exists(indexPath))
+            return null;
+
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        try (FileChannel file = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && file.read(header) > 0)
+                ;
+        }
+        header.flip();
+        if (header.remaining() < INDEX_HEADER_SIZE || header.getInt() != INDEX_MAGIC || header.getLong() != Files.size(SegmentPath(index)))
+            return null;
+        //an index written before its segment was extended or truncated is rebuilt
+
+        return new FinishedSegment(index, indexPath, entryCount, header.getInt(), header.getInt());
+    }
+    /**
+     * Reads a segment without an up to date index file and writes its index file
+     * The newest segment may end with a partly written record, which is cut off
+     * @param index The number of the segment
+     * @param last Whether it is the newest segment
+     * @return The finished segment. Null if the segment was deleted because its header was never completely written
+     * @throws IOException If the segment cannot be read or is corrupt
+     */
+    private FinishedSegment RecoverSegment(int index, boolean last) throws IOException {
+        Path path = SegmentPath(index);
+        long length = Files.size(path);
+        if (length < HEADER_SIZE && last){
+            Files.delete(path);
+            //the header is the first thing written, so a segment with a partly written header holds nothing
+            return null;
+        }
+
+        SegmentIndex recovered = new SegmentIndex(entryCount);
+        HashMap<Integer, String> segmentStrings = new HashMap<Integer, String>();
+        long end = ReadSegment(path, length, segmentStrings, recovered::Add, last);
+        if (end < length){
+            try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(end);
+            }
+            //the record was being written when the process stopped
+        }
+
+        recovered.Write(IndexPath(index), end, segmentStrings);
+        return new FinishedSegment(index, IndexPath(index), recovered.firstSequence, recovered.count, recovered.permittedCount);
+    }
+    //endregion
+    //region Encoding
+    /**
+     * Receives the entries of a segment as they are decoded
+     */
+    private interface EntryHandler {
+        void Handle(long position, LogEntry entry) throws IOException;
+    }
+    /**
+     * A growable byte array for building records
+     */
+    private static final class Encoder {
+        byte[] bytes = new byte[256];
+        //The encoded bytes
+        int size = 0;
+        //The number of bytes used
+
+        void WriteByte(int value){
+            Ensure(1);
+            bytes[size++] = (byte) value;
+        }
+        void WriteVarint(long value){
+            Ensure(10);
+            while ((value & ~0x7FL) != 0){
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+        void WriteLong(long value){
+            Ensure(8);
+            for (int x = 7; x >= 0; x--)
+                bytes[size++] = (byte) (value >>> (x * 8));
+        }
+        void WriteBytes(byte[] value){
+            Ensure(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+        private void Ensure(int extra){
+            if (size + extra > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+    /**
+     * Reads primitive values from part of a file
+     */
+    private static final class Decoder {
+        private final FileChannel input;
+        //The file being read
+        private final ByteBuffer window;
+        //The bytes read from the file but not decoded yet
+        private long next;
+        //The position in the file of the first byte after the window
+        private final long end;
+        //The position in the file to stop reading at
+
+        Decoder(FileChannel inputIn, long start, long endIn, int windowSize){
+            input = inputIn;
+            window = ByteBuffer.allocate(windowSize);
+            window.flip();
+            next = start;
+            end = endIn;
+        }
+        long Position(){
+            return next - window.remaining();
+        }
+        boolean HasMore(){
+            return window.hasRemaining() || next < end;
+        }
+        byte ReadByte() throws IOException {
+            if (!window.hasRemaining())
+                Fill();
+            return window.get();
+        }
+        int ReadInt() throws IOException {
+            int value = 0;
+            for (int x = 0; x < 4; x++)
+                value = (value << 8) | (ReadByte() & 0xFF);
+            return value;
+        }
+        long ReadLong() throws IOException {
+            long value = 0;
+            for (int x = 0; x < 8; x++)
+                value = (value << 8) | (ReadByte() & 0xFF);
+            return value;
+        }
+        long ReadVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7){
+                byte next = ReadByte();
+                value |= (long) (next & 0x7F) << shift;
+                if ((next & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Varint is too long");
+        }
+        byte[] ReadBytes(int length) throws IOException {
+            byte[] value = new byte[length];
+            for (int x = 0; x < length; x++)
+                value[x] = ReadByte();
+            return value;
+        }
+        void Skip(long length) throws IOException {
+            while (length > 0){
+                if (!window.hasRemaining())
+                    Fill();
+                int step = (int) Math.min(length, window.remaining());
+                window.position(window.position() + step);
+                length -= step;
+            }
+        }
+        private void Fill() throws IOException {
+            if (next >= end)
+                throw new EOFException("Unexpected end of audit log segment");
+
+            window.clear();
+            if (end - next < window.capacity())
+                window.limit((int) (end - next));
+            int read = input.read(window, next);
+            if (read <= 0)
+                throw new EOFException("Unexpected end of audit log segment");
+            next += read;
+            window.flip();
+        }
+    }
+    //endregion
+}
\ No newline at end of file
@@ -3,6 +3,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A simple CLI to run the EditorialACM class
@@ -20,7 +25,14 @@ public final class CLI {
      * The default CLI constructor
      */
     public CLI(){
-        system = new EditorialACM();
+        this(new EditorialACM());
+    }
+    /**
+     * The CLI constructor for an existing ACM
+     * @param systemIn The editorial management ACM to run commands on
+     */
+    public CLI(EditorialACM systemIn){
+        system = systemIn;
         loop = true;
     }
     //endregion
@@ -91,28 +103,161 @@ public final class CLI {
         }
     }
     /**
-     * Runs a set of commands listed in a file
+     * Runs a set of commands listed in a file, one line at a time as the file is read
      * @param fileName The file containing commands
      */
     public void RunFile(String fileName){
-        ArrayList<String> fileLines = new ArrayList<String>();
-        BufferedReader reader;
-        try {
-            reader = new BufferedReader(new FileReader(fileName));
-            String line = reader.readLine();
-            while (line != null) {
-                fileLines.add(line);
-                line = reader.readLine();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String command = reader.readLine();
+            while (command != null) {
+                System.out.println("Running command \"".concat(command).concat("\""));
+                RunCommand(command);
+                command = reader.readLine();
             }
-            reader.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Could not read \"".concat(fileName).concat("\": ").concat(String.valueOf(e.getMessage())));
+        }
+    }
+    /**
+     * Runs a command file of any size in constant memory, reporting progress instead of each result
+     * A reader thread fills a bounded queue of batches, so reading stops while the ACM falls behind
+     * @param fileName The file containing commands
+     * @param batchSize The number of commands given to EditorialACM.RunBatch at once
+     * @param readAhead The most batches that can be read before they are run
+     * @param progressMillis How often to report progress, in milliseconds
+     * @return Whether every line was read and run
+     */
+    public boolean StreamFile(String fileName, int batchSize, int readAhead, long progressMillis){
+        final ArrayList<String> endOfFile = new ArrayList<String>();
+        //placed on the queue once the reader stops
+        final ArrayBlockingQueue<ArrayList<String>> queue = new ArrayBlockingQueue<ArrayList<String>>(readAhead);
+        final AtomicReference<IOException> readError = new AtomicReference<IOException>();
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        //set once an interrupted runner stops taking batches
+
+        Thread readerThread = new Thread(() -> {
+            boolean interrupted = false;
+            try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+                ArrayList<String> batch = new ArrayList<String>(batchSize);
+                String line = reader.readLine();
+                while (line != null) {
+                    batch.add(line);
+                    if (batch.size() == batchSize){
+                        queue.put(batch);
+                        batch = new ArrayList<String>(batchSize);
+                    }
+                    line = reader.readLine();
+                }
+                if (!batch.isEmpty())
+                    queue.put(batch);
+            } catch (IOException e) {
+                readError.set(e);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } finally {
+                while (!stopped.get()) {
+                    try {
+                        queue.put(endOfFile);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                //the queue is full whenever the reader is readAhead batches ahead, so the marker waits for room
+                //only a runner that has stopped taking batches is not waiting for it, and it interrupts the reader once stopped
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }, "CommandFileReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        long start = System.nanoTime();
+        long nextReport = start + progressMillis * 1_000_000L;
+        long commands = 0;
+        long failures = 0;
+        try {
+            ArrayList<String> batch = queue.take();
+            while (batch != endOfFile) {
+                for (boolean result : system.RunBatch(batch))
+                    if (!result)
+                        failures++;
+                commands += batch.size();
+
+                long now = System.nanoTime();
+                if (now >= nextReport){
+                    PrintProgress(commands, failures, now - start);
+                    nextReport = now + progressMillis * 1_000_000L;
+                }
+                batch = queue.take();
+            }
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            readerThread.interrupt();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        PrintProgress(commands, failures, System.nanoTime() - start);
+
+        if (readError.get() != null){
+            System.out.println("Could not read \"".concat(fileName).concat("\": ").concat(String.valueOf(readError.get().getMessage())));
+            return false;
         }
+        return true;
+    }
+    /**
+     * Runs a command file through a CommandExecutor, so commands on different manuscripts run at the same time
+     * Commands on the same manuscript keep the file's order, and commands such as Add still see every line before them
+     * @param fileName The file containing commands
+     * @param maxInFlight The most commands submitted that have not finished. Reading waits while this many are running
+     * @param progressMillis How often to report progress, in milliseconds
+     * @return Whether every line was read and run
+     */
+    public boolean SubmitFile(String fileName, int maxInFlight, long progressMillis){
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicLong commands = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+        long nextReport = start + progressMillis * 1_000_000L;
+        try (CommandExecutor executor = new CommandExecutor(system);
+             BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+            String command = reader.readLine();
+            while (command != null) {
+                inFlight.acquire();
+                executor.Submit(command).whenComplete((result, error) -> {
+                    if (result == null || !result)
+                        failures.incrementAndGet();
+                    commands.incrementAndGet();
+                    inFlight.release();
+                });
 
-        for (String command : fileLines){
-            System.out.println("Running command \"".concat(command).concat("\""));
-            RunCommand(command);
+                long now = System.nanoTime();
+                if (now >= nextReport){
+                    PrintProgress(commands.get(), failures.get(), now - start);
+                    nextReport = now + progressMillis * 1_000_000L;
+                }
+                command = reader.readLine();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read \"".concat(fileName).concat("\": ").concat(String.valueOf(e.getMessage())));
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+        PrintProgress(commands.get(), failures.get(), System.nanoTime() - start);
+
+        return true;
+    }
+    /**
+     * Prints the progress of a streamed command file
+     * @param commands The number of commands run so far
+     * @param failures The number of commands that failed so far
+     * @param elapsedNanos The time since the file was opened
+     */
+    private void PrintProgress(long commands, long failures, long elapsedNanos){
+        double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+        System.out.printf("Ran %d commands in %.1fs (%.0f commands/sec), %d failed%n", commands, seconds, commands / seconds, failures);
     }
     //endregion
 }
\ No newline at end of file
@@ -1,14 +1,44 @@
-import java.util.Arrays;
-
 /**
  * A class to hold the names and permissions for each ACM entry
+ * Permissions are stored as a bitmask indexed by CapabilityRegistry ordinals
  */
 public final class Capabilities {
     //region Variables
-    private final String[] capabilityNames;
-    //The names of the capabilities
-    private final boolean[] capabilityAccess;
-    //Whether the capabilities are allowed
+    private final Layout layout;
+    //The names of the capabilities. Shared between every copy of the same entry
+    private long accessMask;
+    //Whether the capabilities are allowed. Bit n is the capability with ordinal n
+    private boolean readOnly;
+    //Whether the entry is shared and cannot be changed
+    //endregion
+    //region Layout
+    /**
+     * The immutable capability names of an entry
+     */
+    private static final class Layout {
+        final String[] capabilityNames;
+        //The names of the capabilities in display order
+        final int[] capabilityOrdinals;
+        //The ordinals of the capabilities in display order
+        final long capabilityMask;
+        //A mask with a bit set for every capability in the layout
+
+        /**
+         * The default Layout constructor
+         * @param capabilityNamesIn The names of the capabilities
+         */
+        Layout(final String[] capabilityNamesIn){
+            capabilityNames = new String[capabilityNamesIn.length];
+            capabilityOrdinals = new int[capabilityNamesIn.length];
+            long mask = 0;
+            for (int x = 0; x < capabilityNamesIn.length; x++){
+                capabilityNames[x] = capabilityNamesIn[x];
+                capabilityOrdinals[x] = CapabilityRegistry.Register(capabilityNamesIn[x]);
+                mask |= 1L << capabilityOrdinals[x];
+            }
+            capabilityMask = mask;
+        }
+    }
     //endregion
     //region Constructors
     /**
@@ -18,19 +48,22 @@ public final class Capabilities {
      */
     public Capabilities(final String[] capabilityNamesIn, final boolean[] capabilityAccessIn){
         //make exception for not same size
-        capabilityNames = new String[capabilityNamesIn.length];
-        capabilityAccess = new boolean[capabilityAccessIn.length];
-        System.arraycopy(capabilityNamesIn, 0, capabilityNames, 0, capabilityAccessIn.length);
-        System.arraycopy(capabilityAccessIn, 0, capabilityAccess, 0, capabilityAccessIn.length);
+        layout = new Layout(capabilityNamesIn);
+        long mask = 0;
+        for (int x = 0; x < capabilityAccessIn.length; x++)
+            if (capabilityAccessIn[x])
+                mask |= 1L << layout.capabilityOrdinals[x];
+        accessMask = mask;
+        readOnly = false;
     }
     /**
-     * The copy constructor
+     * The copy constructor. The copy can always be changed, even if the original is read only
      * @param capabilitiesIn The object to copy
      */
     public Capabilities(Capabilities capabilitiesIn){
-        Capabilities temp = new Capabilities(capabilitiesIn.capabilityNames, capabilitiesIn.capabilityAccess);
-        this.capabilityNames = temp.capabilityNames;
-        this.capabilityAccess = temp.capabilityAccess;
+        layout = capabilitiesIn.layout;
+        accessMask = capabilitiesIn.accessMask;
+        readOnly = false;
     }
     //endregion
     //region Override
@@ -40,32 +73,34 @@ public final class Capabilities {
      */
     @Override
     public String toString(){
+        return Describe(accessMask);
+    }
+    //endregion
+    //region View Access
+    /**
+     * Lists the names of the capabilities an access mask allows, using the names and order of this entry
+     * @param accessMaskIn A mask with bit n set if the capability with ordinal n is allowed
+     * @return The names of the allowed capabilities separated by '/'
+     */
+    public String Describe(long accessMaskIn){
         StringBuilder sb = new StringBuilder();
-        for (int x = 0; x < capabilityNames.length; x++){
-            if (capabilityAccess[x]){
+        for (int x = 0; x < layout.capabilityNames.length; x++){
+            if ((accessMaskIn & (1L << layout.capabilityOrdinals[x])) != 0){
                 if (!sb.isEmpty())
                     sb.append('/');
 
-                sb.append(capabilityNames[x]);
+                sb.append(layout.capabilityNames[x]);
             }
         }
 
         return sb.toString();
     }
-    //endregion
-    //region View Access
     /**
      * Lists the names of each capability even if it is not permitted
      * @return A string containing the names of all the capabilities
      */
     public String ListAllCapabilities(){
-        StringBuilder sb = new StringBuilder();
-        for (String capabilityName : capabilityNames) {
-            if (!sb.isEmpty())
-                sb.append('/');
-            sb.append(capabilityName);
-        }
-        return sb.toString();
+        return String.join("/", layout.capabilityNames);
     }
     /**
      * Determines if a given capability is allowed
@@ -73,32 +108,69 @@ public final class Capabilities {
      * @return Whether there is access for the capability. True is enabled - False is disabled
      */
     public boolean HasAccess(String capabilityName){
-        int index = -1;
-        for (int x = 0; x < capabilityNames.length; x++){
-            if (capabilityNames[x].equals(capabilityName)){
-                index = x;
-                break;
-            }
-        }
-        if (index == -1)
+        int ordinal = CapabilityRegistry.OrdinalOf(capabilityName);
+        if (ordinal == -1)
             return false;
 
-        return capabilityAccess[index];
+        return HasAccess(ordinal);
     }
+    /**
+     * Determines if a given capability is allowed
+     * @param ordinalIn The CapabilityRegistry ordinal of the capability to check
+     * @return Whether there is access for the capability. True is enabled - False is disabled
+     */
+    public boolean HasAccess(int ordinalIn){
+        return (accessMask & (1L << ordinalIn)) != 0;
+    }
+    /**
+     * Determines if the entry has a given capability, even if it is not permitted
+     * @param capabilityIn The capability to check
+     * @return Whether the capability is part of the entry
+     */
     public boolean ContainsCapability(String capabilityIn){
-        for (String capability : capabilityNames)
-            if (capability.equals(capabilityIn))
-                return true;
+        int ordinal = CapabilityRegistry.OrdinalOf(capabilityIn);
+        if (ordinal == -1)
+            return false;
 
-        return false;
+        return (layout.capabilityMask & (1L << ordinal)) != 0;
+    }
+    /**
+     * Gets the permitted capabilities as a mask
+     * @return A mask with bit n set if the capability with ordinal n is allowed
+     */
+    public long GetAccessMask(){
+        return accessMask;
+    }
+    /**
+     * Determines if the entry is shared and cannot be changed
+     * @return Whether the entry is read only
+     */
+    public boolean IsReadOnly(){
+        return readOnly;
+    }
+    /**
+     * Gets every capability of the entry as a mask, even if it is not permitted
+     * @return A mask with bit n set if the capability with ordinal n is part of the entry
+     */
+    public long GetCapabilityMask(){
+        return layout.capabilityMask;
     }
     //endregion
     //region Change Access
+    /**
+     * Marks the entry as read only so it can be shared between ACM cells
+     * @return This entry
+     */
+    public Capabilities Freeze(){
+        readOnly = true;
+        return this;
+    }
     /**
      * Disables access to all capabilities
      */
     public void GiveNoAccess(){
-        Arrays.fill(capabilityAccess, false);
+        CheckWritable();
+        accessMask = 0;
     }
     /**
      * Sets a specific capability to the given access
@@ -106,20 +178,45 @@ public final class Capabilities {
      * @param access The permission to give the capability
      */
     public void SetAccess(String capabilityNameIn, boolean access){
-        for (int x = 0; x < capabilityNames.length; x++)
-            if (capabilityNames[x].equals(capabilityNameIn))
-                capabilityAccess[x] = access;
+        int ordinal = CapabilityRegistry.OrdinalOf(capabilityNameIn);
+        if (ordinal != -1)
+            SetAccess(ordinal, access);
+    }
+    /**
+     * Sets a specific capability to the given access. Capabilities that are not part of the entry are ignored
+     * @param ordinalIn The CapabilityRegistry ordinal of the capability to set
+     * @param access The permission to give the capability
+     */
+    public void SetAccess(int ordinalIn, boolean access){
+        CheckWritable();
+        long bit = (1L << ordinalIn) & layout.capabilityMask;
+        if (access)
+            accessMask |= bit;
+        else
+            accessMask &= ~bit;
+    }
+    /**
+     * Sets the access of every capability at once. Capabilities that are not part of the entry are ignored
+     * @param accessMaskIn A mask with bit n set if the capability with ordinal n is allowed
+     */
+    public void SetAccessMask(long accessMaskIn){
+        CheckWritable();
+        accessMask = accessMaskIn & layout.capabilityMask;
     }
     /**
      * Sets access to capabilities where the capabilityName is in the given capabilities instance
      * @param capabilityIn The instance to compare against
      */
     public void AddOverlappedAccess(Capabilities capabilityIn){
-        for (String capabilityName : capabilityIn.capabilityNames){
-            for (int x = 0; x < this.capabilityNames.length; x++)
-                if (this.capabilityNames[x].equals(capabilityName))
-                    this.capabilityAccess[x] = true;
-        }
+        CheckWritable();
+        accessMask |= capabilityIn.layout.capabilityMask & layout.capabilityMask;
+    }
+    /**
+     * Stops a shared entry from being changed
+     */
+    private void CheckWritable(){
+        if (readOnly)
+            throw new UnsupportedOperationException("Shared capabilities cannot be changed. Copy them first");
     }
     //endregion
 }
\ No newline at end of file
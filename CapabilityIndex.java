@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Inverted indexes over the capability matrix, kept up to date as cells change
+ * A cell that was never changed has its role default, so only cells that differ from their role default are indexed
+ * For each subject and capability there is a bitmap of the objects where the subject's cell differs from the role default,
+ * and for each object and capability a bitmap of the subjects whose cell differs. Each capability also has a bitmap of the
+ * subjects whose role default allows it. A query combines the role default with the differences, so it never reads the matrix
+ * Thread safe. Every method holds the index's monitor
+ */
+public final class CapabilityIndex {
+    //region Variables
+    private final ArrayList<CompactBitmap[]> objectsBySubject;
+    //The objects where each subject's cell differs from the role default, for each capability ordinal. Null until one differs
+    private final ArrayList<CompactBitmap[]> subjectsByObject;
+    //The subjects whose cell on each object differs from the role default, for each capability ordinal. Null until one differs
+    private final CompactBitmap[] defaultSubjects;
+    //The subjects whose role default allows each capability ordinal
+    private long[] defaultMasks;
+    //The role default access mask of each subject
+    //endregion
+    //region Constructor
+    /**
+     * The default CapabilityIndex constructor
+     */
+    public CapabilityIndex(){
+        objectsBySubject = new ArrayList<CompactBitmap[]>();
+        subjectsByObject = new ArrayList<CompactBitmap[]>();
+        defaultSubjects = new CompactBitmap[CapabilityRegistry.MAX_CAPABILITIES];
+        for (int x = 0; x < defaultSubjects.length; x++)
+            defaultSubjects[x] = new CompactBitmap();
+        defaultMasks = new long[16];
+    }
+    //endregion
+    //region Updating
+    /**
+     * Adds a subject. Its cells start with its role default
+     * @param subjectId The ID of the subject. Must be the number of subjects added before it
+     * @param defaultMask The access mask of the subject's role default
+     */
+    public synchronized void AddSubject(int subjectId, long defaultMask){
+        if (subjectId == defaultMasks.length)
+            defaultMasks = Arrays.copyOf(defaultMasks, subjectId * 2);
+        defaultMasks[subjectId] = defaultMask;
+        for (long bits = defaultMask; bits != 0; bits &= bits - 1)
+            defaultSubjects[Long.numberOfTrailingZeros(bits)].Add(subjectId);
+    }
+    /**
+     * Records a change to a cell
+     * @param objectId The ID of the object
+     * @param subjectId The ID of the subject
+     * @param oldMask The access mask of the cell before the change
+     * @param newMask The access mask of the cell after the change
+     */
+    public synchronized void Update(int objectId, int subjectId, long oldMask, long newMask){
+        long differences = newMask ^ defaultMasks[subjectId];
+        for (long bits = oldMask ^ newMask; bits != 0; bits &= bits - 1){
+            int ordinal = Long.numberOfTrailingZeros(bits);
+            boolean differs = (differences & (1L << ordinal)) != 0;
+            Bitmap(objectsBySubject, subjectId, ordinal).Set(objectId, differs);
+            Bitmap(subjectsByObject, objectId, ordinal).Set(subjectId, differs);
+        }
+    }
+    /**
+     * Finds the bitmap of a row and capability, making it if needed
+     * @param rows The bitmaps of each row
+     * @param row The row
+     * @param ordinal The CapabilityRegistry ordinal of the capability
+     * @return The bitmap
+     */
+    private static CompactBitmap Bitmap(ArrayList<CompactBitmap[]> rows, int row, int ordinal){
+        while (rows.size() <= row)
+            rows.add(null);
+        CompactBitmap[] bitmaps = rows.get(row);
+        if (bitmaps == null){
+            bitmaps = new CompactBitmap[CapabilityRegistry.MAX_CAPABILITIES];
+            rows.set(row, bitmaps);
+        }
+        if (bitmaps[ordinal] == null)
+            bitmaps[ordinal] = new CompactBitmap();
+
+        return bitmaps[ordinal];
+    }
+    /**
+     * Finds the bitmap of a row and capability without making it
+     * @param rows The bitmaps of each row
+     * @param row The row
+     * @param ordinal The CapabilityRegistry ordinal of the capability
+     * @return The bitmap, or null if no cell of the row differs from its role default on the capability
+     */
+    private static CompactBitmap Existing(ArrayList<CompactBitmap[]> rows, int row, int ordinal){
+        if (row >= rows.size() || rows.get(row) == null)
+            return null;
+
+        return rows.get(row)[ordinal];
+    }
+    //endregion
+    //region Queries
+    /**
+     * Finds the objects a subject has a capability on
+     * @param subjectId The ID of the subject
+     * @param ordinal The CapabilityRegistry ordinal of the capability
+     * @param objectCount The number of objects
+     * @return The IDs of the objects in ascending order
+     */
+    public synchronized int[] Objects(int subjectId, int ordinal, int objectCount){
+        CompactBitmap differences = Existing(objectsBySubject, subjectId, ordinal);
+        int[] changed = (differences == null) ? new int[0] : differences.ToArray();
+        if ((defaultMasks[subjectId] & (1L << ordinal)) == 0)
+            return changed;
+
+        return Complement(changed, objectCount);
+        //the role default allows the capability, so the subject has it everywhere except where the cell differs
+    }
+    /**
+     * Finds the subjects that have a capability on an object
+     * @param objectId The ID of the object
+     * @param ordinal The CapabilityRegistry ordinal of the capability
+     * @return The IDs of the subjects in ascending order
+     */
+    public synchronized int[] Subjects(int objectId, int ordinal){
+        CompactBitmap differences = Existing(subjectsByObject, objectId, ordinal);
+        int[] defaults = defaultSubjects[ordinal].ToArray();
+        if (differences == null)
+            return defaults;
+
+        return SymmetricDifference(defaults, differences.ToArray());
+        //a subject whose cell differs has the capability exactly when its role default does not
+    }
+    /**
+     * Lists the ints below a bound that are not in a sorted array
+     * @param sorted The ints to leave out in ascending order
+     * @param bound The end of the range
+     * @return The ints in [0, bound) that are not in sorted, in ascending order
+     */
+    private static int[] Complement(int[] sorted, int bound){
+        int inRange = 0;
+        while (inRange < sorted.length && sorted[inRange] < bound)
+            inRange++;
+
+        int[] out = new int[bound - inRange];
+        int next = 0;
+        int skip = 0;
+        for (int x = 0; x < bound; x++){
+            if (skip < inRange && sorted[skip] == x)
+                skip++;
+            else
+                out[next++] = x;
+        }
+        return out;
+    }
+    /**
+     * Lists the ints that are in exactly one of two sorted arrays
+     * @param first Ints in ascending order
+     * @param second Ints in ascending order
+     * @return The symmetric difference in ascending order
+     */
+    private static int[] SymmetricDifference(int[] first, int[] second){
+        int[] out = new int[first.length + second.length];
+        int size = 0;
+        int x = 0;
+        int y = 0;
+        while (x < first.length || y < second.length){
+            if (y == second.length || (x < first.length && first[x] < second[y]))
+                out[size++] = first[x++];
+            else if (x == first.length || second[y] < first[x])
+                out[size++] = second[y++];
+            else{
+                x++;
+                y++;
+            }
+        }
+        return Arrays.copyOf(out, size);
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks the capability index and the bitmaps it is built from against simple structures that are known to be right
+ * CompactBitmap is fuzzed against a TreeSet. Values are drawn from a few chunks, and each chunk is filled past the array limit of
+ * 4096 and emptied below the bitmap limit of 2048 again, so every chunk turns from an array into a bitmap and back many times.
+ * After every operation its result and the membership of the value must match the TreeSet, and every few hundred operations the
+ * cardinality and the sorted contents must match too
+ * The index is then checked on every matrix against a scan of the matrix. A generated workload is run, and every few hundred
+ * commands ObjectsWithCapability and SubjectsWithCapability must give, for every subject, object and capability, exactly the
+ * objects or subjects whose cell allows the capability, in ID order. The same is checked after a snapshot round trip
+ * java CapabilityIndexTest {operations} {manuscripts} runs the test. Exits with status 1 if a check fails
+ */
+public final class CapabilityIndexTest {
+    //region Variables
+    private static final int ARRAY_LIMIT = 4096;
+    //The most ints a CompactBitmap array chunk holds
+    private static final int[] HIGHS = {0, 1, 5, 0x7FFF};
+    //The chunks the fuzzed values are drawn from, including the last chunk of non-negative ints
+    private static final int SPREAD = 3 * ARRAY_LIMIT;
+    //The number of low values used in each chunk, spread from 0 to 65535. Enough for a chunk to pass the array limit
+    private static final int CHECK_INTERVAL = 250;
+    //The number of commands or operations between full comparisons
+    private static final String[] MATRICES = {"sparse", "dense", "snapshot", "mapped"};
+    //The matrix types the index is checked on
+    private static final PrintStream CONSOLE = System.out;
+    //The real standard output. The ACM prints the result of every command, so System.out is discarded while commands run
+    private final int operations;
+    //The number of bitmap operations fuzzed
+    private final int manuscripts;
+    //The number of manuscripts in the generated workload
+    private int failures;
+    //The number of checks that failed
+    private long checks;
+    //The number of comparisons made
+    //endregion
+    //region Constructor
+    /**
+     * The default CapabilityIndexTest constructor
+     * @param operationsIn The number of bitmap operations fuzzed
+     * @param manuscriptsIn The number of manuscripts in the generated workload
+     */
+    public CapabilityIndexTest(int operationsIn, int manuscriptsIn){
+        operations = operationsIn;
+        manuscripts = manuscriptsIn;
+        failures = 0;
+        checks = 0;
+    }
+    //endregion
+    //region Checks
+    /**
+     * Records a failed check
+     * @param condition Whether the check passed
+     * @param message What failed
+     */
+    private void Check(boolean condition, String message){
+        checks++;
+        if (condition)
+            return;
+        if (failures++ < 20)
+            CONSOLE.println("FAILED: ".concat(message));
+    }
+    //endregion
+    //region Bitmap
+    /**
+     * Adds and removes random values in phases that fill a chunk past the array limit and then empty it well below it
+     * @param random The source of values
+     * @return The number of times a chunk passed the array limit in either direction
+     */
+    private int FuzzBitmap(Random random){
+        CompactBitmap bitmap = new CompactBitmap();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        int[] sizes = new int[HIGHS.length];
+        //the number of values the TreeSet holds in each chunk
+        boolean[] overLimit = new boolean[HIGHS.length];
+        int transitions = 0;
+        boolean filling = true;
+
+        for (int x = 0; x < operations; x++){
+            int chunk = random.nextInt(HIGHS.length);
+            int value = Value(chunk, random);
+            boolean add = random.nextInt(10) < (filling ? 9 : 1);
+            //the chunks fill while most operations add and empty while most remove
+
+            boolean changed;
+            if (random.nextInt(4) == 0){
+                changed = add != bitmap.Contains(value);
+                bitmap.Set(value, add);
+                Check(!changed || bitmap.Contains(value) == add, "Set(" + value + ", " + add + ") did not change the bitmap");
+            }
+            else
+                changed = add ? bitmap.Add(value) : bitmap.Remove(value);
+            Check(changed == (add ? expected.add(value) : expected.remove(value)),
+                    (add ? "Add(" : "Remove(") + value + ") returned " + changed);
+            Check(bitmap.Contains(value) == add, "Contains(" + value + ") is wrong after " + (add ? "adding" : "removing") + " it");
+            int probe = Value(random.nextInt(HIGHS.length), random);
+            Check(bitmap.Contains(probe) == expected.contains(probe), "Contains(" + probe + ") is wrong");
+
+            if (changed)
+                sizes[chunk] += add ? 1 : -1;
+            if (sizes[chunk] > ARRAY_LIMIT && !overLimit[chunk]){
+                overLimit[chunk] = true;
+                transitions++;
+            }
+            else if (sizes[chunk] <= ARRAY_LIMIT / 2 && overLimit[chunk]){
+                overLimit[chunk] = false;
+                transitions++;
+            }
+
+            int smallest = Arrays.stream(sizes).min().getAsInt();
+            int largest = Arrays.stream(sizes).max().getAsInt();
+            if (filling && smallest > ARRAY_LIMIT + ARRAY_LIMIT / 4)
+                filling = false;
+            else if (!filling && largest < ARRAY_LIMIT / 2 - ARRAY_LIMIT / 8)
+                filling = true;
+
+            if (x % CHECK_INTERVAL == 0 || x == operations - 1)
+                CheckBitmap(bitmap, expected);
+        }
+        return transitions;
+    }
+    /**
+     * Draws a value from a chunk. The low values are spread over the whole chunk, so the first and last bitmap words are used
+     * @param chunk The index of the chunk in HIGHS
+     * @param random The source of values
+     * @return The value
+     */
+    private static int Value(int chunk, Random random){
+        int low = (int) ((long) random.nextInt(SPREAD) * 0xFFFF / (SPREAD - 1));
+        return (HIGHS[chunk] << 16) | low;
+    }
+    /**
+     * Compares the cardinality and contents of a bitmap with a TreeSet
+     * @param bitmap The bitmap
+     * @param expected The values the bitmap must hold
+     */
+    private void CheckBitmap(CompactBitmap bitmap, TreeSet<Integer> expected){
+        Check(bitmap.Cardinality() == expected.size(), "The cardinality is " + bitmap.Cardinality() + " instead of " + expected.size());
+        int[] values = bitmap.ToArray();
+        int[] sorted = expected.stream().mapToInt(Integer::intValue).toArray();
+        Check(Arrays.equals(values, sorted), "ToArray does not list the values in ascending order");
+    }
+    //endregion
+    //region Index
+    /**
+     * Generates a workload with every role and a few administrators
+     * @return The commands
+     * @throws IOException If the workload cannot be generated
+     */
+    private ArrayList<String> Workload() throws IOException {
+        WorkloadGenerator.Settings settings = new WorkloadGenerator.Settings();
+        settings.authors = 40;
+        settings.editors = 3;
+        settings.associateEditors = 8;
+        settings.reviewers = 30;
+        settings.manuscripts = manuscripts;
+        settings.activeManuscripts = 16;
+        StringWriter writer = new StringWriter();
+        new WorkloadGenerator(settings, writer).Generate();
+
+        ArrayList<String> commands = new ArrayList<String>(Arrays.asList(writer.toString().split("\n")));
+        commands.add("Add late_editor Editor");
+        commands.add("Add late_admin Administrator");
+        //subjects added after manuscripts exist get the role default on every one of them
+        return commands;
+    }
+    /**
+     * Compares both queries with a scan of the matrix for every subject, object and capability
+     * @param system The system
+     * @param when When the comparison is made, for failure messages
+     */
+    private void CheckIndex(EditorialACM system, String when){
+        int subjectCount = system.subjects.Size();
+        int objectCount = system.objects.Size();
+        long[][] masks = new long[subjectCount][objectCount];
+        for (int subjectId = 0; subjectId < subjectCount; subjectId++)
+            for (int objectId = 0; objectId < objectCount; objectId++)
+                masks[subjectId][objectId] = system.capabilityMatrix.GetMask(subjectId, objectId);
+
+        for (int ordinal = 0; ordinal < CapabilityRegistry.Size(); ordinal++){
+            String capability = CapabilityRegistry.NameOf(ordinal);
+            long bit = 1L << ordinal;
+            for (int subjectId = 0; subjectId < subjectCount; subjectId++){
+                ArrayList<String> expected = new ArrayList<String>();
+                for (int objectId = 0; objectId < objectCount; objectId++)
+                    if ((masks[subjectId][objectId] & bit) != 0)
+                        expected.add(system.objects.NameOf(objectId));
+                String subject = system.subjects.NameOf(subjectId);
+                Check(system.ObjectsWithCapability(subject, capability).equals(expected),
+                        when.concat(": ObjectsWithCapability(").concat(subject).concat(", ").concat(capability).concat(") is wrong"));
+            }
+            for (int objectId = 0; objectId < objectCount; objectId++){
+                ArrayList<String> expected = new ArrayList<String>();
+                for (int subjectId = 0; subjectId < subjectCount; subjectId++)
+                    if ((masks[subjectId][objectId] & bit) != 0)
+                        expected.add(system.subjects.NameOf(subjectId));
+                String object = system.objects.NameOf(objectId);
+                Check(system.SubjectsWithCapability(object, capability).equals(expected),
+                        when.concat(": SubjectsWithCapability(").concat(object).concat(", ").concat(capability).concat(") is wrong"));
+            }
+        }
+    }
+    /**
+     * Runs the workload on one matrix, comparing the index with the matrix as it goes, then after a snapshot round trip
+     * @param matrix The matrix type
+     * @param commands The workload
+     * @throws IOException If the snapshot cannot be saved or loaded
+     */
+    private void CheckMatrix(String matrix, ArrayList<String> commands) throws IOException {
+        EditorialACM system = new EditorialACM(CreateMatrix(matrix));
+        for (int x = 0; x < commands.size(); x++){
+            system.RunCommand(commands.get(x));
+            if (x % CHECK_INTERVAL == 0)
+                CheckIndex(system, matrix.concat(" matrix after command ").concat(String.valueOf(x)));
+        }
+        CheckIndex(system, matrix.concat(" matrix after the workload"));
+
+        Path snapshot = Files.createTempFile("index", ".snapshot");
+        try {
+            system.SaveSnapshot(snapshot);
+            EditorialACM loaded = new EditorialACM(CreateMatrix(matrix));
+            loaded.LoadSnapshot(snapshot);
+            CheckIndex(loaded, matrix.concat(" matrix after loading a snapshot"));
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+    /**
+     * Creates an empty capability matrix
+     * @param matrix The matrix type. sparse, dense, snapshot or mapped
+     * @return The new matrix
+     */
+    private static CapabilityMatrix CreateMatrix(String matrix){
+        return switch (matrix) {
+            case "dense" -> new DenseCapabilityMatrix();
+            case "snapshot" -> new SnapshotCapabilityMatrix();
+            case "mapped" -> new MappedCapabilityMatrix();
+            case "sparse" -> new SparseCapabilityMatrix();
+            default -> throw new IllegalArgumentException("Unknown matrix \"".concat(matrix).concat("\""));
+        };
+    }
+    //endregion
+    //region Running
+    /**
+     * Fuzzes the bitmap, then checks the index on every matrix
+     * @return Whether every check passed
+     * @throws IOException If the workload or a snapshot cannot be written
+     */
+    public boolean Run() throws IOException {
+        long start = System.nanoTime();
+        int transitions = FuzzBitmap(new Random(23));
+        long bitmapChecks = checks;
+
+        ArrayList<String> commands = Workload();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (String matrix : MATRICES)
+                CheckMatrix(matrix, commands);
+        } finally {
+            System.setOut(CONSOLE);
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        Check(transitions >= 2 * HIGHS.length, "The chunks only passed the array limit " + transitions + " times");
+        CONSOLE.printf("%,d bitmap operations with %,d chunk conversions and %,d index comparisons over %,d commands in %.2fs, %d failed checks%n",
+                operations, transitions, checks - bitmapChecks, commands.size(), seconds, failures);
+        return failures == 0;
+    }
+    /**
+     * Runs the test
+     * @param args The bitmap operations and the manuscripts in the workload. Defaults to 400,000 and 300
+     * @throws IOException If the workload or a snapshot cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        int operations = (args.length > 0) ? Integer.parseInt(args[0]) : 400_000;
+        int manuscripts = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+
+        if (!new CapabilityIndexTest(operations, manuscripts).Run())
+            System.exit(1);
+    }
+    //endregion
+}
\ No newline at end of file
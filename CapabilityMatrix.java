@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+
+/**
+ * An abstract storage class for the capabilities each subject has on each object
+ * Subjects and objects are addressed by their registry IDs
+ * Cells are stored as access masks. A Capabilities object is only made for callers outside the ACM, by Get
+ */
+public abstract class CapabilityMatrix {
+    //region Variables
+    protected final ArrayList<Capabilities> roleDefaults;
+    //The read only role default capabilities of each subject. First dimension is subject
+    protected int objectCount;
+    //The number of objects in the matrix
+    //endregion
+    //region Cell Visitor
+    /**
+     * Receives the cells of an object from ForEachCell
+     */
+    @FunctionalInterface
+    public interface CellVisitor {
+        /**
+         * Receives a cell
+         * @param subjectId The ID of the subject of the cell
+         * @param accessMask The access mask of the cell
+         */
+        void Visit(int subjectId, long accessMask);
+    }
+    //endregion
+    //region Constructor
+    /**
+     * The default CapabilityMatrix constructor
+     */
+    public CapabilityMatrix(){
+        roleDefaults = new ArrayList<Capabilities>();
+        objectCount = 0;
+    }
+    //endregion
+    //region Size
+    /**
+     * The number of subjects in the matrix
+     * @return The number of subjects
+     */
+    public int SubjectCount(){
+        return roleDefaults.size();
+    }
+    /**
+     * The number of objects in the matrix
+     * @return The number of objects
+     */
+    public int ObjectCount(){
+        return objectCount;
+    }
+    //endregion
+    //region Publishing
+    /**
+     * Makes every change to an object's cells since the last commit visible to lock-free readers
+     * The caller must hold the object's lock
+     * @param objectId The ID of the object
+     */
+    public void Commit(int objectId){
+        //changes are visible immediately unless a storage publishes snapshots
+    }
+    /**
+     * Determines if cells can be read without holding the structure lock or the object's lock
+     * @return Whether GetMask and Get are safe to call without locking
+     */
+    public boolean SupportsLockFreeReads(){
+        return false;
+    }
+    //endregion
+    //region Reading
+    /**
+     * Determines if a subject has a capability on an object
+     * The caller must hold the structure lock and the object's lock unless the matrix supports lock-free reads
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param ordinalIn The CapabilityRegistry ordinal of the capability
+     * @return Whether the cell allows the capability
+     */
+    public boolean HasAccess(int subjectId, int objectId, int ordinalIn){
+        return (GetMask(subjectId, objectId) & (1L << ordinalIn)) != 0;
+    }
+    /**
+     * Gets the capabilities of a subject on an object as a read only Capabilities object
+     * Only for callers that need the names of the capabilities. A new object is made unless the cell is the role default
+     * The caller must hold the structure lock and the object's lock unless the matrix supports lock-free reads
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The capabilities of the subject on the object
+     */
+    public Capabilities Get(int subjectId, int objectId){
+        Capabilities roleDefault = RoleDefault(subjectId);
+        long accessMask = GetMask(subjectId, objectId);
+        if (accessMask == roleDefault.GetAccessMask())
+            return roleDefault;
+
+        Capabilities capabilities = new Capabilities(roleDefault);
+        capabilities.SetAccessMask(accessMask);
+        return capabilities.Freeze();
+    }
+    /**
+     * Gets the access mask of a subject on an object including changes that have not been committed
+     * The caller must hold the structure lock and the object's lock
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The access mask the cell will have after the next Commit
+     */
+    public long GetPendingMask(int subjectId, int objectId){
+        return GetMask(subjectId, objectId);
+        //changes are visible immediately unless a storage publishes snapshots
+    }
+    /**
+     * Lists the names of the capabilities an access mask allows a subject
+     * @param subjectId The ID of the subject
+     * @param accessMask The access mask
+     * @return The names in the order of the subject's role, separated by '/'
+     */
+    public String Describe(int subjectId, long accessMask){
+        return RoleDefault(subjectId).Describe(accessMask);
+    }
+    /**
+     * Gets the role default of a subject
+     * The caller must hold the structure lock unless the matrix supports lock-free reads
+     * @param subjectId The ID of the subject
+     * @return The read only default capabilities of the subject's role
+     */
+    protected Capabilities RoleDefault(int subjectId){
+        return roleDefaults.get(subjectId);
+    }
+    //endregion
+    //region Writing
+    /**
+     * Changes the access mask of a subject on an object. Capabilities that are not part of the subject's role are ignored
+     * The caller must hold the structure lock and the object's lock, and call Commit once the command is done
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param accessMask A mask with bit n set if the capability with ordinal n is allowed
+     * @return The access mask that was stored
+     */
+    public long SetMask(int subjectId, int objectId, long accessMask){
+        long stored = accessMask & roleDefaults.get(subjectId).GetCapabilityMask();
+        Store(subjectId, objectId, stored);
+        return stored;
+    }
+    //endregion
+    //region Abstract Methods
+    /**
+     * Adds a row for a new subject. The new subject's ID is the previous subject count
+     * @param roleDefaultIn The read only default capabilities of the subject's role
+     */
+    public abstract void AddSubject(Capabilities roleDefaultIn);
+    /**
+     * Adds a column for a new object. The new object's ID is the previous object count
+     */
+    public abstract void AddObject();
+    /**
+     * Gets the access mask of a subject on an object
+     * The caller must hold the structure lock and the object's lock unless the matrix supports lock-free reads
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The committed access mask of the cell
+     */
+    public abstract long GetMask(int subjectId, int objectId);
+    /**
+     * Stores the access mask of a subject on an object. The mask only has capabilities of the subject's role
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param accessMask The mask to store
+     */
+    protected abstract void Store(int subjectId, int objectId, long accessMask);
+    /**
+     * Visits every cell of an object that has been stored. Cells that are still the role default may be skipped
+     * The caller must hold the structure lock and the object's lock
+     * @param objectId The ID of the object
+     * @param visitor The function to give the subject ID and access mask of each stored cell to
+     */
+    public abstract void ForEachCell(int objectId, CellVisitor visitor);
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global table that gives every capability name a fixed ordinal
+ * The ordinal of a capability is its bit position in a Capabilities access mask
+ */
+public final class CapabilityRegistry {
+    //region Variables
+    public static final int MAX_CAPABILITIES = Long.SIZE;
+    //The most capabilities that fit in a single mask
+    private static final ConcurrentHashMap<String, Integer> ordinals = new ConcurrentHashMap<String, Integer>();
+    //The capability name to ordinal lookup
+    private static final String[] names = new String[MAX_CAPABILITIES];
+    //The ordinal to capability name lookup
+    private static int size = 0;
+    //The number of registered capabilities
+    //endregion
+    //region Constructor
+    /**
+     * The registry only has static members
+     */
+    private CapabilityRegistry(){
+    }
+    //endregion
+    //region Lookup
+    /**
+     * Finds the ordinal of a capability without registering it
+     * @param capabilityIn The capability name to look up
+     * @return The ordinal of the capability, or -1 if it has never been registered
+     */
+    public static int OrdinalOf(String capabilityIn){
+        Integer ordinal = ordinals.get(capabilityIn);
+        if (ordinal == null)
+            return -1;
+
+        return ordinal;
+    }
+    /**
+     * Finds the name of a capability ordinal
+     * @param ordinalIn The ordinal to look up
+     * @return The name of the capability
+     */
+    public static String NameOf(int ordinalIn){
+        return names[ordinalIn];
+    }
+    /**
+     * The number of registered capabilities
+     * @return The number of registered capabilities
+     */
+    public static synchronized int Size(){
+        return size;
+    }
+    //endregion
+    //region Modify
+    /**
+     * Finds the ordinal of a capability, registering it if it has not been seen before
+     * @param capabilityIn The capability name to register
+     * @return The ordinal of the capability
+     */
+    public static synchronized int Register(String capabilityIn){
+        Integer ordinal = ordinals.get(capabilityIn);
+        if (ordinal != null)
+            return ordinal;
+        if (size == MAX_CAPABILITIES)
+            throw new IllegalArgumentException("Cannot register more than " + MAX_CAPABILITIES + " capabilities");
+
+        names[size] = capabilityIn;
+        ordinals.put(capabilityIn, size);
+        return size++;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+/**
+ * The access masks of some subjects on one object, stored as primitive arrays in subject ID order
+ * Used by the sparse matrices for modified cells and for cells changed since the last commit. Not thread safe
+ */
+public final class CellColumn {
+    //region Variables
+    private int[] subjectIds;
+    //The IDs of the subjects with cells in ascending order
+    private long[] masks;
+    //The access mask of each subject in subjectIds
+    private int count;
+    //The number of cells
+    //endregion
+    //region Constructor
+    /**
+     * The default CellColumn constructor. The column starts empty
+     */
+    public CellColumn(){
+        subjectIds = new int[4];
+        masks = new long[4];
+        count = 0;
+    }
+    //endregion
+    //region Reading
+    /**
+     * The number of cells in the column
+     * @return The cell count
+     */
+    public int Size(){
+        return count;
+    }
+    /**
+     * Finds the position of a subject's cell
+     * @param subjectId The ID of the subject
+     * @return The index of the cell, or -(insertion point) - 1 if the subject has no cell
+     */
+    public int Find(int subjectId){
+        return Arrays.binarySearch(subjectIds, 0, count, subjectId);
+    }
+    /**
+     * Gets the subject ID of a cell
+     * @param index The index of the cell
+     * @return The subject ID
+     */
+    public int SubjectAt(int index){
+        return subjectIds[index];
+    }
+    /**
+     * Gets the access mask of a cell
+     * @param index The index of the cell
+     * @return The access mask
+     */
+    public long MaskAt(int index){
+        return masks[index];
+    }
+    //endregion
+    //region Writing
+    /**
+     * Stores the mask of a subject's cell, inserting the cell in subject ID order if it is new
+     * @param subjectId The ID of the subject
+     * @param accessMask The mask to store
+     */
+    public void Put(int subjectId, long accessMask){
+        int index = Find(subjectId);
+        if (index < 0){
+            index = -index - 1;
+            if (count == subjectIds.length){
+                subjectIds = Arrays.copyOf(subjectIds, count * 2);
+                masks = Arrays.copyOf(masks, count * 2);
+            }
+            System.arraycopy(subjectIds, index, subjectIds, index + 1, count - index);
+            System.arraycopy(masks, index, masks, index + 1, count - index);
+            subjectIds[index] = subjectId;
+            count++;
+        }
+
+        masks[index] = accessMask;
+    }
+    //endregion
+}
\ No newline at end of file
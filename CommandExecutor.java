@@ -0,0 +1,265 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs EditorialACM commands from many callers at once without reordering the workflow of any manuscript
+ * Commands on the same manuscript go through that manuscript's mailbox and run one at a time in the order they were submitted
+ * Commands on different manuscripts run at the same time. Each mailbox is drained by a task of its own, which is a virtual thread
+ * when the JVM has them (Java 21 and later) and a thread of a fixed pool otherwise
+ * Commands that are not about one manuscript, such as Add and Print, wait for every earlier command and run before any later one
+ * Log entries of different manuscripts may be interleaved differently from the submission order
+ */
+public final class CommandExecutor implements AutoCloseable {
+    //region Variables
+    private final EditorialACM system;
+    //The ACM the commands run on
+    private final ExecutorService executor;
+    //Runs the mailbox tasks
+    private final boolean virtualThreads;
+    //Whether executor starts a virtual thread for each task
+    private final ConcurrentHashMap<String, Mailbox> mailboxes;
+    //The mailbox of each manuscript that has commands waiting or running. Removed once empty
+    private final ReentrantReadWriteLock gate;
+    //Shared while a manuscript command is put in a mailbox, held exclusively while a command runs alone
+    private final AtomicLong pending;
+    //The number of manuscript commands submitted that have not finished
+    private final Object idle;
+    //Notified when pending reaches 0
+    private final ThreadLocal<CommandTokenizer> tokenizers;
+    //Finds the manuscript of each command on the submitting thread
+    private static final boolean HAS_VIRTUAL_THREADS = HasVirtualThreads();
+    //Whether the JVM can start virtual threads
+    //endregion
+    //region Constructor
+    /**
+     * The default CommandExecutor constructor. Uses virtual threads if the JVM has them, otherwise a pool with a thread per core
+     * @param systemIn The ACM to run the commands on
+     */
+    public CommandExecutor(EditorialACM systemIn){
+        this(systemIn, HAS_VIRTUAL_THREADS ? VirtualThreadExecutor()
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), HAS_VIRTUAL_THREADS);
+    }
+    /**
+     * The CommandExecutor constructor with a specific executor
+     * @param systemIn The ACM to run the commands on
+     * @param executorIn Runs the mailbox tasks. Closed with the CommandExecutor
+     */
+    public CommandExecutor(EditorialACM systemIn, ExecutorService executorIn){
+        this(systemIn, executorIn, false);
+    }
+    /**
+     * The complete CommandExecutor constructor
+     * @param systemIn The ACM to run the commands on
+     * @param executorIn Runs the mailbox tasks. Closed with the CommandExecutor
+     * @param virtualThreadsIn Whether the executor starts a virtual thread for each task
+     */
+    private CommandExecutor(EditorialACM systemIn, ExecutorService executorIn, boolean virtualThreadsIn){
+        system = systemIn;
+        executor = executorIn;
+        virtualThreads = virtualThreadsIn;
+        mailboxes = new ConcurrentHashMap<String, Mailbox>();
+        gate = new ReentrantReadWriteLock();
+        pending = new AtomicLong();
+        idle = new Object();
+        tokenizers = ThreadLocal.withInitial(CommandTokenizer::new);
+    }
+    /**
+     * Determines if the JVM can start virtual threads. Checked by reflection so the class still runs on Java 17
+     * @return Whether Executors.newVirtualThreadPerTaskExecutor exists
+     */
+    private static boolean HasVirtualThreads(){
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+    /**
+     * Makes an executor that starts a virtual thread for each task
+     * @return The executor
+     */
+    private static ExecutorService VirtualThreadExecutor(){
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available", e);
+        }
+    }
+    //endregion
+    //region Mailboxes
+    /**
+     * The commands waiting for one manuscript
+     * Only changed inside ConcurrentHashMap.compute on the mailboxes, which locks the manuscript's entry
+     */
+    private static final class Mailbox {
+        final ArrayDeque<Task> tasks = new ArrayDeque<Task>();
+        //The commands that have not started, in submission order
+        boolean draining = false;
+        //Whether a task is running the mailbox's commands
+    }
+    /**
+     * A submitted command and the future of its result
+     */
+    private static final class Task {
+        final String command;
+        //The command to run
+        final CompletableFuture<Boolean> result;
+        //Completed with the command's result
+
+        /**
+         * The Task constructor
+         * @param commandIn The command to run
+         */
+        Task(String commandIn){
+            command = commandIn;
+            result = new CompletableFuture<Boolean>();
+        }
+    }
+    /**
+     * Runs the commands of a manuscript's mailbox in order until it is empty, then removes the mailbox
+     * @param manuscript The name of the manuscript
+     */
+    private void Drain(String manuscript){
+        while (true){
+            Task[] next = new Task[1];
+            mailboxes.compute(manuscript, (name, mailbox) -> {
+                next[0] = mailbox.tasks.poll();
+                if (next[0] != null)
+                    return mailbox;
+
+                mailbox.draining = false;
+                return null;
+            });
+            if (next[0] == null)
+                return;
+
+            Run(next[0]);
+            if (pending.decrementAndGet() == 0){
+                synchronized (idle){
+                    idle.notifyAll();
+                }
+            }
+        }
+    }
+    /**
+     * Runs a command and completes its future
+     * @param task The command
+     */
+    private void Run(Task task){
+        try {
+            task.result.complete(system.RunCommand(task.command));
+        } catch (RuntimeException e) {
+            task.result.completeExceptionally(e);
+        }
+    }
+    //endregion
+    //region Submitting
+    /**
+     * Submits a command
+     * A manuscript command is queued and the call returns at once. Any other command waits for every earlier command,
+     * then runs on the calling thread before the call returns
+     * @param commandIn A command string to run. {action} {object} {subject1} {subject2} (optional)
+     * @return The command's result once it has run
+     */
+    public CompletableFuture<Boolean> Submit(String commandIn){
+        CommandTokenizer tokens = tokenizers.get();
+        int words = tokens.Tokenize(commandIn);
+        if ((words != 3 && words != 4) || (words == 3 && tokens.Matches(0, "Add")))
+            return RunAlone(commandIn);
+
+        String manuscript = tokens.Token(1);
+        Task task = new Task(commandIn);
+        boolean[] start = new boolean[1];
+        gate.readLock().lock();
+        try {
+            pending.incrementAndGet();
+            mailboxes.compute(manuscript, (name, mailbox) -> {
+                if (mailbox == null)
+                    mailbox = new Mailbox();
+                mailbox.tasks.add(task);
+                start[0] = !mailbox.draining;
+                mailbox.draining = true;
+                return mailbox;
+            });
+        } finally {
+            gate.readLock().unlock();
+        }
+        if (start[0])
+            executor.execute(() -> Drain(manuscript));
+
+        return task.result;
+    }
+    /**
+     * Runs a command after every earlier command has finished, keeping later commands out until it is done
+     * @param commandIn The command
+     * @return The command's result
+     */
+    private CompletableFuture<Boolean> RunAlone(String commandIn){
+        Task task = new Task(commandIn);
+        gate.writeLock().lock();
+        try {
+            AwaitIdle();
+            Run(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.result.completeExceptionally(e);
+        } finally {
+            gate.writeLock().unlock();
+        }
+        return task.result;
+    }
+    /**
+     * Waits until every submitted manuscript command has finished
+     * @throws InterruptedException If the wait is interrupted
+     */
+    private void AwaitIdle() throws InterruptedException {
+        synchronized (idle){
+            while (pending.get() != 0)
+                idle.wait();
+        }
+    }
+    /**
+     * Waits until every submitted command has finished
+     * @throws InterruptedException If the wait is interrupted
+     */
+    public void Await() throws InterruptedException {
+        gate.writeLock().lock();
+        try {
+            AwaitIdle();
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+    /**
+     * Whether commands run on virtual threads
+     * @return True if the JVM has virtual threads and the default executor is used
+     */
+    public boolean UsesVirtualThreads(){
+        return virtualThreads;
+    }
+    //endregion
+    //region Closing
+    /**
+     * Waits for every submitted command and stops the executor
+     * If the wait is interrupted, the executor is stopped without waiting and the thread keeps its interrupt
+     */
+    @Override
+    public void close(){
+        try {
+            Await();
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    //endregion
+}
\ No newline at end of file
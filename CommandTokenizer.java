@@ -0,0 +1,131 @@
+/**
+ * Splits a command string into its space separated words without copying them
+ * Gives the same words as command.split(" "): empty words between spaces are kept and empty words at the end are dropped
+ * A tokenizer is reused for each command, so it is not thread-safe
+ */
+public final class CommandTokenizer {
+    //region Variables
+    public static final int MAX_TOKENS = 4;
+    //The most words a command can have. Longer commands are only counted
+    private String command;
+    //The command that was split
+    private int count;
+    //The number of words in the command
+    private final int[] starts;
+    //The index of the first character of each word
+    private final int[] ends;
+    //The index after the last character of each word
+    //endregion
+    //region Constructor
+    /**
+     * The default CommandTokenizer constructor
+     */
+    public CommandTokenizer(){
+        command = "";
+        count = 0;
+        starts = new int[MAX_TOKENS];
+        ends = new int[MAX_TOKENS];
+    }
+    //endregion
+    //region Tokenizing
+    /**
+     * Splits a command into words
+     * @param commandIn The command to split
+     * @return The number of words. More than MAX_TOKENS if the command is too long to be valid
+     */
+    public int Tokenize(String commandIn){
+        command = commandIn;
+        int words = 0;
+        int lastWord = -1;
+        //the number of the last word that is not empty
+        int start = 0;
+        int length = commandIn.length();
+        for (int x = 0; x <= length; x++){
+            if (x < length && commandIn.charAt(x) != ' ')
+                continue;
+
+            if (words < MAX_TOKENS){
+                starts[words] = start;
+                ends[words] = x;
+            }
+            if (x > start)
+                lastWord = words;
+            words++;
+            start = x + 1;
+            if (lastWord >= MAX_TOKENS)
+                break;
+            //the command is already too long to be valid
+        }
+
+        count = (words == 1) ? 1 : lastWord + 1;
+        //a command without a space is one word, even when it is empty
+        return count;
+    }
+    //endregion
+    //region Reading
+    /**
+     * The command that was split
+     * @return The command
+     */
+    public String Command(){
+        return command;
+    }
+    /**
+     * The number of words in the command
+     * @return The number of words. More than MAX_TOKENS if the command is too long to be valid
+     */
+    public int Count(){
+        return count;
+    }
+    /**
+     * The index of the first character of a word
+     * @param token The number of the word
+     * @return The index in the command
+     */
+    public int Start(int token){
+        return starts[token];
+    }
+    /**
+     * The index after the last character of a word
+     * @param token The number of the word
+     * @return The index in the command
+     */
+    public int End(int token){
+        return ends[token];
+    }
+    /**
+     * The number of characters in a word
+     * @param token The number of the word
+     * @return The length of the word
+     */
+    public int Length(int token){
+        return ends[token] - starts[token];
+    }
+    /**
+     * Determines if a word is the same as a string, without copying the word
+     * @param token The number of the word
+     * @param textIn The string to compare to
+     * @return Whether the word and the string have the same characters
+     */
+    public boolean Matches(int token, String textIn){
+        return Length(token) == textIn.length() && command.regionMatches(starts[token], textIn, 0, textIn.length());
+    }
+    /**
+     * Determines if a word is the same as a string, ignoring case, without copying the word
+     * @param token The number of the word
+     * @param textIn The string to compare to
+     * @return Whether the word and the string have the same characters, ignoring case
+     */
+    public boolean MatchesIgnoreCase(int token, String textIn){
+        return Length(token) == textIn.length() && command.regionMatches(true, starts[token], textIn, 0, textIn.length());
+    }
+    /**
+     * Copies a word out of the command. Only used when the word has to be kept, such as a new name
+     * @param token The number of the word
+     * @return The word
+     */
+    public String Token(int token){
+        return command.substring(starts[token], ends[token]);
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+/**
+ * A set of non-negative ints stored in the roaring bitmap layout
+ * The ints are split by their high 16 bits into chunks. A chunk holding few ints is a sorted array of their low 16 bits,
+ * and a chunk holding many is a bitmap of all 65536 low values, so sparse and dense sets both stay small
+ * Not thread safe
+ */
+public final class CompactBitmap {
+    //region Variables
+    private static final int ARRAY_LIMIT = 4096;
+    //The most ints an array chunk holds. Above this a bitmap is smaller
+    private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+    //The number of words in a bitmap chunk
+    private char[] keys;
+    //The high 16 bits of each chunk in ascending order
+    private Chunk[] chunks;
+    //The chunk of each key
+    private int chunkCount;
+    //The number of chunks in use
+    private int cardinality;
+    //The number of ints in the set
+    //endregion
+    //region Chunks
+    /**
+     * The ints of a set that share their high 16 bits
+     */
+    private static final class Chunk {
+        char[] values = new char[4];
+        //The low 16 bits of each int in ascending order, or null if the chunk is a bitmap
+        long[] words = null;
+        //Bit n is set if the int with low 16 bits n is in the chunk, or null if the chunk is an array
+        int size = 0;
+        //The number of ints in the chunk
+
+        /**
+         * Determines if the chunk holds a low value
+         * @param low The low 16 bits of the int
+         * @return Whether the int is in the chunk
+         */
+        boolean Contains(char low){
+            if (words != null)
+                return (words[low >>> 6] & (1L << low)) != 0;
+
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+        /**
+         * Adds a low value
+         * @param low The low 16 bits of the int
+         * @return Whether the int was not already in the chunk
+         */
+        boolean Add(char low){
+            if (words != null){
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) != 0)
+                    return false;
+
+                words[low >>> 6] |= bit;
+                size++;
+                return true;
+            }
+
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0)
+                return false;
+            if (size == ARRAY_LIMIT){
+                ToBitmap();
+                return Add(low);
+            }
+
+            index = -index - 1;
+            if (size == values.length)
+                values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_LIMIT));
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return true;
+        }
+        /**
+         * Removes a low value
+         * @param low The low 16 bits of the int
+         * @return Whether the int was in the chunk
+         */
+        boolean Remove(char low){
+            if (words != null){
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) == 0)
+                    return false;
+
+                words[low >>> 6] &= ~bit;
+                size--;
+                if (size == ARRAY_LIMIT / 2)
+                    ToArray();
+                //a bitmap is only turned back into an array well below the limit, so a chunk near it does not keep converting
+                return true;
+            }
+
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index < 0)
+                return false;
+
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+        /**
+         * Turns an array chunk into a bitmap
+         */
+        void ToBitmap(){
+            words = new long[BITMAP_WORDS];
+            for (int x = 0; x < size; x++)
+                words[values[x] >>> 6] |= 1L << values[x];
+            values = null;
+        }
+        /**
+         * Turns a bitmap chunk into an array
+         */
+        void ToArray(){
+            values = new char[size];
+            int next = 0;
+            for (int word = 0; word < BITMAP_WORDS; word++)
+                for (long bits = words[word]; bits != 0; bits &= bits - 1)
+                    values[next++] = (char) ((word << 6) + Long.numberOfTrailingZeros(bits));
+            words = null;
+        }
+        /**
+         * Writes the ints of the chunk in ascending order
+         * @param high The high 16 bits of the chunk, already shifted into place
+         * @param out The array to write to
+         * @param offset The index to write the first int at
+         */
+        void CopyTo(int high, int[] out, int offset){
+            if (words == null){
+                for (int x = 0; x < size; x++)
+                    out[offset + x] = high | values[x];
+                return;
+            }
+
+            for (int word = 0; word < BITMAP_WORDS; word++)
+                for (long bits = words[word]; bits != 0; bits &= bits - 1)
+                    out[offset++] = high | ((word << 6) + Long.numberOfTrailingZeros(bits));
+        }
+    }
+    //endregion
+    //region Constructor
+    /**
+     * The default CompactBitmap constructor. Makes an empty set
+     */
+    public CompactBitmap(){
+        keys = new char[2];
+        chunks = new Chunk[2];
+        chunkCount = 0;
+        cardinality = 0;
+    }
+    //endregion
+    //region Using Bitmap
+    /**
+     * Determines if an int is in the set
+     * @param value The int
+     * @return Whether the int is in the set
+     */
+    public boolean Contains(int value){
+        int index = Arrays.binarySearch(keys, 0, chunkCount, (char) (value >>> 16));
+        return index >= 0 && chunks[index].Contains((char) value);
+    }
+    /**
+     * Adds an int to the set
+     * @param value The int. Must not be negative
+     * @return Whether the int was not already in the set
+     */
+    public boolean Add(int value){
+        char high = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, 0, chunkCount, high);
+        if (index < 0){
+            index = -index - 1;
+            if (chunkCount == keys.length){
+                keys = Arrays.copyOf(keys, chunkCount * 2);
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+            System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+            keys[index] = high;
+            chunks[index] = new Chunk();
+            chunkCount++;
+        }
+        if (!chunks[index].Add((char) value))
+            return false;
+
+        cardinality++;
+        return true;
+    }
+    /**
+     * Removes an int from the set
+     * @param value The int
+     * @return Whether the int was in the set
+     */
+    public boolean Remove(int value){
+        int index = Arrays.binarySearch(keys, 0, chunkCount, (char) (value >>> 16));
+        if (index < 0 || !chunks[index].Remove((char) value))
+            return false;
+
+        cardinality--;
+        if (chunks[index].size == 0){
+            System.arraycopy(keys, index + 1, keys, index, chunkCount - index - 1);
+            System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+            chunks[--chunkCount] = null;
+        }
+        return true;
+    }
+    /**
+     * Adds or removes an int
+     * @param value The int. Must not be negative
+     * @param present Whether the int should be in the set
+     */
+    public void Set(int value, boolean present){
+        if (present)
+            Add(value);
+        else
+            Remove(value);
+    }
+    /**
+     * The number of ints in the set
+     * @return The cardinality of the set
+     */
+    public int Cardinality(){
+        return cardinality;
+    }
+    /**
+     * Lists the ints in the set
+     * @return The ints in ascending order
+     */
+    public int[] ToArray(){
+        int[] out = new int[cardinality];
+        int offset = 0;
+        for (int x = 0; x < chunkCount; x++){
+            chunks[x].CopyTo(keys[x] << 16, out, offset);
+            offset += chunks[x].size;
+        }
+        return out;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A capability matrix that stores an entry for every subject and object pair
+ */
+public final class DenseCapabilityMatrix extends CapabilityMatrix {
+    //region Variables
+    private final ArrayList<long[]> capabilityList;
+    //A 2-dimensional list that contains the access mask of each subject with each object
+    //First dimension is subject, second dimension is object. Every row has the same length, which may be more than the object count
+    private int rowLength;
+    //The number of objects every row has room for
+    //endregion
+    //region Constructor
+    /**
+     * The default DenseCapabilityMatrix constructor
+     */
+    public DenseCapabilityMatrix(){
+        super();
+        capabilityList = new ArrayList<long[]>();
+        rowLength = 16;
+    }
+    //endregion
+    //region Overrides
+    /**
+     * Adds a row for a new subject where every cell has the role default
+     * @param roleDefaultIn The read only default capabilities of the subject's role
+     */
+    @Override
+    public void AddSubject(Capabilities roleDefaultIn){
+        long[] row = new long[rowLength];
+        Arrays.fill(row, roleDefaultIn.GetAccessMask());
+
+        roleDefaults.add(roleDefaultIn);
+        capabilityList.add(row);
+    }
+    /**
+     * Adds a column for a new object where every cell has the subject's role default
+     * Every row is doubled in length when it is full
+     */
+    @Override
+    public void AddObject(){
+        if (objectCount == rowLength){
+            rowLength *= 2;
+            for (int x = 0; x < capabilityList.size(); x++)
+                capabilityList.set(x, Arrays.copyOf(capabilityList.get(x), rowLength));
+        }
+        for (int x = 0; x < capabilityList.size(); x++)
+            capabilityList.get(x)[objectCount] = roleDefaults.get(x).GetAccessMask();
+
+        objectCount++;
+    }
+    /**
+     * Gets the access mask of a subject on an object
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The access mask of the subject on the object
+     */
+    @Override
+    public long GetMask(int subjectId, int objectId){
+        return capabilityList.get(subjectId)[objectId];
+    }
+    /**
+     * Stores the access mask of a subject on an object
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param accessMask The mask to store
+     */
+    @Override
+    protected void Store(int subjectId, int objectId, long accessMask){
+        capabilityList.get(subjectId)[objectId] = accessMask;
+    }
+    /**
+     * Visits every cell of an object that differs from the subject's role default
+     * @param objectId The ID of the object
+     * @param visitor The function to give the subject ID and access mask of each changed cell to
+     */
+    @Override
+    public void ForEachCell(int objectId, CellVisitor visitor){
+        for (int x = 0; x < capabilityList.size(); x++){
+            long accessMask = capabilityList.get(x)[objectId];
+            if (accessMask != roleDefaults.get(x).GetAccessMask())
+                visitor.Visit(x, accessMask);
+        }
+    }
+    //endregion
+}
\ No newline at end of file
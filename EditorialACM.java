@@ -1,5 +1,13 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 /**
  * An ACM-inheriting class that implements the editorial management specific details for the ACM
@@ -8,50 +16,69 @@ public final class EditorialACM extends ACM {
     //region Variables
     public HashMap<String, String> helpMessages = new HashMap<String, String>();
     //A hashmap of functionName - helpMessages for the cli
-    private final ArrayList<String> editorRoles = new ArrayList<String>();
-    //An arraylist of the editor roles
-    private final ArrayList<String> reviewerRoles = new ArrayList<String>();
-    //An arraylist of the reviewer roles
+    private final EditorialWorkflow workflow;
+    //The capability changes of each lifecycle step, compiled for each role
     private final ArrayList<String> considerOptions = new ArrayList<String>();
     //An arraylist of the Consider_Reviews options
-    private LogEntry currentLog;
-    //The current log entry
-    private ArrayList<String> logData;
-    //The extra data for the log entry
+    private final String[] submitRoles;
+    //The roles a submitted manuscript is given to
+    private final String adminRole;
+    //The role given full access to every manuscript. Null if the policy has none, which no subject can have
     //endregion
     //region Constructor
     /**
      * The default EditorialACM constructor
      */
     public EditorialACM(){
-        super();
-        editorRoles.add("Associate_Editor");
-        editorRoles.add("Author/Associate_Editor");
-        editorRoles.add("Administrator");
-        reviewerRoles.add("Reviewer");
-        reviewerRoles.add("Author/Reviewer");
-        reviewerRoles.add("Administrator");
-        considerOptions.add("Accept");
-        considerOptions.add("Accept_Minor");
-        considerOptions.add("Accept_Major");
-        considerOptions.add("Reject");
-        considerOptions.add("Report");
+        this(new SparseCapabilityMatrix());
+    }
+    /**
+     * The EditorialACM constructor with a specific capability storage
+     * @param capabilityMatrixIn The empty matrix to store capabilities in
+     */
+    public EditorialACM(CapabilityMatrix capabilityMatrixIn){
+        this(capabilityMatrixIn, new MemoryAuditSink());
+    }
+    /**
+     * The EditorialACM constructor with a specific capability storage and log destination
+     * @param capabilityMatrixIn The empty matrix to store capabilities in
+     * @param auditSinkIn The sink to store log data in
+     */
+    public EditorialACM(CapabilityMatrix capabilityMatrixIn, AuditSink auditSinkIn){
+        this(capabilityMatrixIn, auditSinkIn, EditorialPolicy.Default());
+    }
+    /**
+     * The EditorialACM constructor with a specific capability storage, log destination and policy
+     * @param capabilityMatrixIn The empty matrix to store capabilities in
+     * @param auditSinkIn The sink to store log data in
+     * @param policyIn The roles, capabilities and lifecycle of the ACM
+     */
+    public EditorialACM(CapabilityMatrix capabilityMatrixIn, AuditSink auditSinkIn, EditorialPolicy policyIn){
+        super(capabilityMatrixIn, auditSinkIn, policyIn.Roles(), policyIn.DefaultCapabilities());
+        workflow = new EditorialWorkflow(policyIn);
+        considerOptions.addAll(Arrays.asList(policyIn.Decisions()));
+        submitRoles = policyIn.SubmitRoles();
+        adminRole = policyIn.AdminRole();
+        ArrayList<String> ownerRoles = new ArrayList<String>();
+        for (int x = 0; x < policyIn.Roles().length; x++)
+            if (workflow.CanOwn(x))
+                ownerRoles.add(policyIn.Roles()[x]);
 
         helpMessages.put("Add", """
                 Add {subjectName} {role}
                 The subject must not already exist and the role must be a valid role
                 This creates a new subject in the ACM with the given role""");
-        helpMessages.put("Create", """
-                Create {objectName} {subjectName}
-                The object owner must already be enrolled in the system as either an author or administrator
-                This command creates a new object in the ACM""");
+        helpMessages.put("Create", "Create {objectName} {subjectName}\n" +
+                "The object owner must already be enrolled in the system with one of the roles ".concat(String.join(", ", ownerRoles)) +
+                "\nThis command creates a new object in the ACM" +
+                ((adminRole == null) ? "" : "\nEvery ".concat(adminRole).concat(" is given full access to it")));
         helpMessages.put("Edit", "Edit {objectName} {subjectName}\n" +
                 "The subject must be an owner of {objectName}");
         helpMessages.put("Read", "Read {objectName} {subjectName}\n" +
                 "The subject must have read access to {objectName}");
         helpMessages.put("Submit", "Submit {objectName} {subjectName}\n" +
-                "The subject must be an owner of {objectName}\n" +
-                "This gives editors ".concat(defaultCapabilities.get("Editor").ListAllCapabilities()));
+                "The subject must be an owner of {objectName}" + ((submitRoles.length == 0) ? "" :
+                "\nThis gives editors ".concat(defaultCapabilities.get(submitRoles[0]).ListAllCapabilities())));
         helpMessages.put("Send", """
                 Send {objectName} {senderSubjectName} {receiverSubjectName}
                 The sender must have send access to {objectName} and the receiver must be capable of accepting invitations
@@ -79,48 +106,14 @@ public final class EditorialACM extends ACM {
                 This prints the log data where the log.permitted=permitted
                 {permitted} should equal either "true" or "false\"""");
         helpMessages.put("PrintCapabilities", "PrintCapabilities\nLists all the possible capabilities in the system");
+        helpMessages.put("SaveSnapshot", "SaveSnapshot {fileName}\nSaves the subjects, objects and capabilities to {fileName}");
+        helpMessages.put("Export", """
+                Export {settings}
+                Writes a page of the ACM. {settings} are name=value pairs joined by &, such as format=csv&roles=Reviewer&subjectCount=100
+                format is table, csv, tsv or binary. subjects, roles and objects are comma separated names to export
+                firstSubject, subjectCount, firstObject and objectCount choose the page. width bounds the table's columns
+                output is the file to write to, otherwise the page is printed""");
         helpMessages.put("PrintCapabilitiesRole", "PrintCapabilities {roleName}\nLists all the possible capabilities of {roleName}");
-
-        logData = new ArrayList<String>();
-    }
-    //endregion
-    //region Overrides
-    /**
-     * Generates a hashmap of the role names paired with their default capabilities
-     * @return The default capabilities hashmap
-     */
-    @Override
-    protected HashMap<String, Capabilities> GetCapabilities(){
-        Capabilities[] temp = new Capabilities[]
-                {
-                        new Capabilities(new String[] {"Owner", "Edit", "Read", "Submit"}, new boolean[] {false, false, false, false}),
-                        new Capabilities(new String[] {"Read", "Send", "Review", "Consider_Reviews"},
-                                new boolean[] {false, false, false, false}),
-                        new Capabilities(new String[] {"Read", "Send", "Accept", "Review", "Consider_Reviews"},
-                                new boolean[] {false, false, false, false, false}),
-                        new Capabilities(new String[] {"Read", "Accept", "Review"}, new boolean[] {false, false, false}),
-                        new Capabilities(new String[] {"Owner", "Edit", "Read", "Submit", "Send", "Accept", "Review", "Consider_Reviews"},
-                                new boolean[] {true, true, true, true, true, true, true, true}),
-                        new Capabilities(new String[] {"Owner", "Edit", "Read", "Submit", "Send", "Accept", "Review", "Consider_Reviews"},
-                                new boolean[] {false, false, false, false, false, false, false, false}),
-                        new Capabilities(new String[] {"Owner", "Edit", "Read", "Submit", "Accept", "Review"},
-                                new boolean[] {false, false, false, false, false, false})
-                };
-        HashMap<String, Capabilities> capabilitiesHashMap = new HashMap<String, Capabilities>();
-        String[] tempRoles = GetRoles();
-        for (int x = 0; x < tempRoles.length; x++)
-            capabilitiesHashMap.put(tempRoles[x], temp[x]);
-
-        return capabilitiesHashMap;
-    }
-    /**
-     * Generates a String array of the role names
-     * @return An array containing the names of the roles
-     */
-    @Override
-    protected String[] GetRoles(){
-        return new String[] {"Author", "Editor", "Associate_Editor",
-                "Reviewer", "Administrator", "Author/Associate_Editor", "Author/Reviewer"};
     }
     //endregion
     //region Using ACM
@@ -128,111 +121,118 @@ public final class EditorialACM extends ACM {
      * Creates a manuscript with the given name owned by the given subject
      * @param objectIn The manuscript name to create
      * @param subjectIn The author's name
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean CreateManuscript(String objectIn, String subjectIn){
+    private boolean CreateManuscript(String objectIn, String subjectIn, LogEntry currentLog){
         String capabilityRequested = "Create";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
-        if (!defaultCapabilities.get(subjectRoles.get(subjects.indexOf(subjectIn))).ContainsCapability("Owner")){
-            logData.add("User does not have the correct role to create a manuscript");
+        int ownerId = subjects.IdOf(subjectIn);
+        if (!workflow.CanOwn(RoleIdOf(ownerId))){
+            currentLog.AddEffect(LogEffect.CREATE_WRONG_ROLE);
             return false;
         }
 
-        logData.add(subjectIn.concat(" created manuscript: ".concat(objectIn)));
+        currentLog.AddEffect(LogEffect.CREATED, subjectIn, objectIn);
         currentLog.permitted = true;
-        int index = subjects.indexOf(subjectIn);
-        objects.add(objectIn);
-
-        for (int x = 0; x < subjects.size(); x++){
-            if (x != index){
-                if (subjectRoles.get(x).equals("Administrator")){
-                    capabilityList.get(x).add(new Capabilities(defaultCapabilities.get("Administrator")));
-                    logData.add("Gave administrator \"".concat(subjects.get(x)).concat("\" full access to \"").concat(objectIn).concat("\""));
-                }
-                else
-                    capabilityList.get(x).add(new Capabilities(defaultCapabilities.get(RoleOf(subjects.get(x)))));
-            }
-
-            else{
-                capabilityList.get(x).add(
-                        new Capabilities(defaultCapabilities.get(subjectRoles.get(subjects.indexOf(subjectIn)))));
-                capabilityList.get(x).get(capabilityList.get(x).size() - 1).AddOverlappedAccess(defaultCapabilities.get("Author")); //give only relevant access
-                logData.add("Gave subject \"".concat(subjects.get(x)).concat("\" owner access to \"").concat(objectIn).concat("\""));
+        int objectId = objects.Size();
+        capabilityMatrix.AddObject();
+        //every subject starts with their role default on the new object
+        Advance(objectId, ownerId, EditorialWorkflow.Step.CREATE); //give only relevant access
+        CommitObject(objectId, objectIn);
+        objects.Add(objectIn);
+        //the name is registered last so lock-free readers never find a manuscript without its owner
+
+        boolean ownerLogged = false;
+        for (int x : SubjectsWithRole(adminRole)){
+            if (!ownerLogged && x > ownerId){
+                currentLog.AddEffect(LogEffect.GAVE_OWNER, subjectIn, objectIn);
+                ownerLogged = true;
             }
+            if (x != ownerId)
+                currentLog.AddEffect(LogEffect.GAVE_ADMINISTRATOR, subjects.NameOf(x), objectIn);
         }
+        if (!ownerLogged)
+            currentLog.AddEffect(LogEffect.GAVE_OWNER, subjectIn, objectIn);
+        //the log lists the owner and administrators in ID order
 
         return true;
     }
     /**
      * Edits a manuscript with the given name
-     * @param objectIn The manuscript to edit
-     * @param subjectIn The subject attempting to edit the manuscript
+     * @param objectId The ID of the manuscript to edit
+     * @param subjectId The ID of the subject attempting to edit the manuscript
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean EditManuscript(String objectIn, String subjectIn){
+    private boolean EditManuscript(int objectId, int subjectId, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
         String capabilityRequested = "Edit";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
-        if (!HasCapability(objectIn, subjectIn, capabilityRequested)){
-            logData.add("Subject does not have access to Edit the manuscript");
+        if (!HasCapability(objectId, subjectId, capabilityRequested)){
+            currentLog.AddEffect(LogEffect.EDIT_DENIED);
             return false;
         }
         else{
             currentLog.permitted = true;
-            logData.add("Subject edited the manuscript");
+            currentLog.AddEffect(LogEffect.EDITED);
             return true;
         }
     }
     /**
      * Reads a manuscript under the given name
-     * @param objectIn The name of the manuscript to read
-     * @param subjectIn The name of the subject attempting to read the manuscript
+     * @param objectId The ID of the manuscript to read
+     * @param subjectId The ID of the subject attempting to read the manuscript
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean ReadManuscript(String objectIn, String subjectIn){
+    private boolean ReadManuscript(int objectId, int subjectId, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
         String capabilityRequested = "Read";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
-        AddLog(currentLog);
-
 
-        if (HasCapability(objectIn, subjectIn, capabilityRequested)){
+        if (HasCapability(objectId, subjectId, capabilityRequested)){
             currentLog.permitted = true;
-            logData.add(subjectIn.concat(" read manuscript: ".concat(objectIn)));
+            currentLog.AddEffect(LogEffect.READ, subjectIn, objectIn);
             return true;
         }
 
-        logData.add(subjectIn.concat(" attempted to read manuscript: ".concat(objectIn)));
+        currentLog.AddEffect(LogEffect.READ_DENIED, subjectIn, objectIn);
         return false;
     }
     /**
      * Submits a given manuscript as a given subject
-     * @param objectIn The manuscript to submit
-     * @param subjectIn The subject attempting to submit the manuscript
+     * @param objectId The ID of the manuscript to submit
+     * @param subjectId The ID of the subject attempting to submit the manuscript
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean SubmitManuscript(String objectIn, String subjectIn){
+    private boolean SubmitManuscript(int objectId, int subjectId, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
         String capabilityRequested = "Submit";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
 
-        if (!HasCapability(objectIn, subjectIn, capabilityRequested)){
-            logData.add(subjectIn.concat(" attempted to submit: ".concat(objectIn)).concat(" without submission permissions"));
+        if (!HasCapability(objectId, subjectId, capabilityRequested)){
+            currentLog.AddEffect(LogEffect.SUBMIT_DENIED, subjectIn, objectIn);
             return false;
         }
 
         currentLog.permitted = true;
-        logData.add(subjectIn.concat(" submitted: ").concat(objectIn));
-        int objectIndex = objects.indexOf(objectIn);
-        for (int x = 0; x < subjects.size(); x++){
-            if (subjectRoles.get(x).equals("Editor")){
-                capabilityList.get(x).get(objectIndex).AddOverlappedAccess(defaultCapabilities.get("Editor"));
-                capabilityList.get(x).get(objectIndex).SetAccess("Consider_Reviews", false); //must review first
-                logData.add("Gave ".concat(subjects.get(x)).concat(": ").concat(capabilityList.get(x).get(objectIndex).toString()));
+        currentLog.AddEffect(LogEffect.SUBMITTED, subjectIn, objectIn);
+        for (String role : submitRoles){
+            for (int x : SubjectsWithRole(role)){
+                long accessMask = Advance(objectId, x, EditorialWorkflow.Step.SUBMIT); //must review before considering reviews
+                currentLog.AddEffect(LogEffect.GAVE_EDITOR, subjects.NameOf(x), capabilityMatrix.Describe(x, accessMask));
             }
         }
 
@@ -240,27 +240,30 @@ public final class EditorialACM extends ACM {
     }
     /**
      * Sends an invitation for a manuscript to a target subject as a given subject
-     * @param objectIn The manuscript to send an invitation for
-     * @param subjectIn The subject sending an invitation
-     * @param targetIn The subject to receive an invitation
+     * @param objectId The ID of the manuscript to send an invitation for
+     * @param subjectId The ID of the subject sending an invitation
+     * @param targetId The ID of the subject to receive an invitation
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean SendInvite(String objectIn, String subjectIn, String targetIn){
+    private boolean SendInvite(int objectId, int subjectId, int targetId, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
+        String targetIn = subjects.NameOf(targetId);
         String capabilityRequested = "Send";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
-        if (!RoleOf(targetIn).equals("Reviewer") && !RoleOf(targetIn).equals("Associate_Editor") &&
-                !RoleOf(targetIn).equals("Author/Reviewer") && !RoleOf(targetIn).equals("Author/Associate_Editor")){
-            logData.add("Incorrect role for invitations".concat(RoleOf(subjectIn)).concat(" cannot invite Reviewers"));
+        if (!workflow.CanBeInvited(RoleIdOf(targetId))){
+            currentLog.AddEffect(LogEffect.INVITE_WRONG_ROLE, RoleOf(subjectId));
             return false;
         }
 
-        if (HasCapability(objectIn, subjectIn, capabilityRequested)){
+        if (HasCapability(objectId, subjectId, capabilityRequested)){
             currentLog.permitted = true;
 
-            GetCapability(objectIn, targetIn).SetAccess("Accept", true);
-            logData.add("Gave: ".concat(targetIn).concat(" Accept"));
+            Advance(objectId, targetId, EditorialWorkflow.Step.INVITE);
+            currentLog.AddEffect(LogEffect.GAVE_ACCEPT, targetIn);
             return true;
         }
 
@@ -268,216 +271,613 @@ public final class EditorialACM extends ACM {
     }
     /**
      * Accepts an invitation for a manuscript as a given subject
-     * @param objectIn The manuscript to accept an invitation for
-     * @param subjectIn The subject accepting the invitation
+     * @param objectId The ID of the manuscript to accept an invitation for
+     * @param subjectId The ID of the subject accepting the invitation
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean AcceptInvite(String objectIn, String subjectIn){
+    private boolean AcceptInvite(int objectId, int subjectId, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
         String capabilityRequested = "Accept";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
-        if (HasCapability(objectIn, subjectIn, capabilityRequested)){
+        if (HasCapability(objectId, subjectId, capabilityRequested)){
             currentLog.permitted = true;
-            if (editorRoles.contains(subjectRoles.get(subjects.indexOf(subjectIn)))) //associate_editors
-                GetCapability(objectIn, subjectIn).
-                        AddOverlappedAccess(defaultCapabilities.get("Associate_Editor"));
-            else if (reviewerRoles.contains(subjectRoles.get(subjects.indexOf(subjectIn)))) //reviewers
-                GetCapability(objectIn, subjectIn).
-                        AddOverlappedAccess(defaultCapabilities.get("Reviewer"));
-            else //administrators
+            if (!Changes(objectId, subjectId, EditorialWorkflow.Step.ACCEPT))
                 return true;
 
-            GetCapability(objectIn, subjectIn).SetAccess(capabilityRequested, false);
-            //remove ability to accept invite
-            logData.add("Removed: ".concat(subjectIn).concat(" Accept"));
-            logData.add("Gave: ".concat(subjectIn).concat(" ").concat(GetCapability(objectIn, subjectIn).toString()));
+            long accessMask = Advance(objectId, subjectId, EditorialWorkflow.Step.ACCEPT);
+            //associate editors and reviewers join with their role's access and cannot accept again
+            currentLog.AddEffect(LogEffect.REMOVED_ACCEPT, subjectIn);
+            currentLog.AddEffect(LogEffect.GAVE_ACCEPTED, subjectIn, capabilityMatrix.Describe(subjectId, accessMask));
 
             return true;
         }
-        logData.add(subjectIn.concat(" does not have Accept"));
+        currentLog.AddEffect(LogEffect.ACCEPT_DENIED, subjectIn);
 
         return false;
     }
     /**
      * Reviews a manuscript as a given subject
-     * @param objectIn The manuscript to review
-     * @param subjectIn The subject reviewing the manuscript
+     * @param objectId The ID of the manuscript to review
+     * @param subjectId The ID of the subject reviewing the manuscript
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean Review(String objectIn, String subjectIn){
+    private boolean Review(int objectId, int subjectId, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
         String capabilityRequested = "Review";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
-        if (HasCapability(objectIn, subjectIn, capabilityRequested)){
+        if (HasCapability(objectId, subjectId, capabilityRequested)){
             currentLog.permitted = true;
-            if (subjectRoles.get(subjects.indexOf(subjectIn)).equals("Administrator"))
+            if (!Changes(objectId, subjectId, EditorialWorkflow.Step.REVIEW))
                 return true;
 
-            GetCapability(objectIn, subjectIn).SetAccess(capabilityRequested, false);
-            GetCapability(objectIn, subjectIn).SetAccess("Send", false);
-            GetCapability(objectIn, subjectIn).SetAccess("Consider Reviews", true);
-            if (!GetCapability(objectIn, subjectIn).HasAccess("Owner"))
-                GetCapability(objectIn, subjectIn).SetAccess("Read", false);
+            long accessMask = Advance(objectId, subjectId, EditorialWorkflow.Step.REVIEW);
             //cannot review more than once
-            //if the subject is a reviewer they will lose all access. SetAccess only sets the capability if it exists
-            logData.add("Removed: ".concat(subjectIn).concat(" Review"));
-            logData.add("Gave: ".concat(subjectIn).concat(GetCapability(objectIn, subjectIn).toString()));
+            //if the subject is a reviewer they will lose all access. Consider_Reviews is only given to roles that have it
+            currentLog.AddEffect(LogEffect.REMOVED_REVIEW, subjectIn);
+            currentLog.AddEffect(LogEffect.GAVE, subjectIn, capabilityMatrix.Describe(subjectId, accessMask));
 
             return true;
         }
-        logData.add(subjectIn.concat(" does not have Review"));
+        currentLog.AddEffect(LogEffect.REVIEW_DENIED, subjectIn);
         return false;
     }
     /**
      * Makes final review decisions on a manuscript as a given subject
-     * @param objectIn The manuscript to make final reviews on
-     * @param subjectIn The subject reviewing the manuscript
+     * @param objectId The ID of the manuscript to make final reviews on
+     * @param subjectId The ID of the subject reviewing the manuscript
+     * @param decisionIn The decision on the manuscript
+     * @param currentLog The log entry of the command
      * @return Whether the action was successful
      */
-    private boolean ConsiderReviews(String objectIn, String subjectIn, String decisionIn){
+    private boolean ConsiderReviews(int objectId, int subjectId, String decisionIn, LogEntry currentLog){
+        String objectIn = objects.NameOf(objectId);
+        String subjectIn = subjects.NameOf(subjectId);
         String capabilityRequested = "Consider_Reviews";
         currentLog.subject = subjectIn;
         currentLog.capabilityRequested = capabilityRequested;
 
         if (!considerOptions.contains(decisionIn)){
-            logData.add("Consider_Reviews option: ".concat(decisionIn).concat(" does not exist"));
+            currentLog.AddEffect(LogEffect.UNKNOWN_DECISION, decisionIn);
             return false;
         }
 
-        if (HasCapability(objectIn, subjectIn, capabilityRequested)){
-            logData.add(subjectIn.concat(" reviewed ".concat(objectIn)).concat(" and gave the decision: ").concat(decisionIn));
-            if (subjectRoles.get(subjects.indexOf(subjectIn)).equals("Administrator"))
+        if (HasCapability(objectId, subjectId, capabilityRequested)){
+            currentLog.AddEffect(LogEffect.CONSIDERED, subjectIn, objectIn, decisionIn);
+            if (!Changes(objectId, subjectId, EditorialWorkflow.Step.DECIDE))
                 return true;
 
-            logData.add("Removed: ".concat(subjectIn).concat(GetCapability(objectIn, subjectIn).toString()));
-            GetCapability(objectIn, subjectIn).GiveNoAccess();
-            GetCapability(objectIn, subjectIn).SetAccess("Owner", true);
+            long accessMask = GetPendingCapability(objectId, subjectId);
+            currentLog.AddEffect(LogEffect.REMOVED, subjectIn, capabilityMatrix.Describe(subjectId, accessMask));
+            accessMask = Advance(objectId, subjectId, EditorialWorkflow.Step.DECIDE);
 
-            if (HasCapability(objectIn, subjectIn, "Owner")){
-                GetCapability(objectIn, subjectIn).AddOverlappedAccess(defaultCapabilities.get("Author"));
-                logData.add("Gave: ".concat(subjectIn).concat(GetCapability(objectIn, subjectIn).toString()));
-            }
+            if (workflow.IsOwner(accessMask))
+                currentLog.AddEffect(LogEffect.GAVE, subjectIn, capabilityMatrix.Describe(subjectId, accessMask));
             //No access after final reviews (unless owner)
 
             return true;
         }
-        logData.add(subjectIn.concat(" does not have Consider Reviews"));
+        currentLog.AddEffect(LogEffect.CONSIDER_DENIED, subjectIn);
         return false;
     }
+    /**
+     * Takes a lifecycle step on a subject's cell
+     * The caller must hold the structure lock and the object's lock
+     * @param objectId The ID of the manuscript
+     * @param subjectId The ID of the subject the step changes
+     * @param step The step
+     * @return The subject's access mask on the manuscript after the step
+     */
+    private long Advance(int objectId, int subjectId, EditorialWorkflow.Step step){
+        long accessMask = GetPendingCapability(objectId, subjectId);
+        return SetCapability(objectId, subjectId, workflow.Apply(RoleIdOf(subjectId), step, accessMask));
+    }
+    /**
+     * Determines if a lifecycle step changes a subject's cell
+     * The caller must hold the structure lock and the object's lock
+     * @param objectId The ID of the manuscript
+     * @param subjectId The ID of the subject the step would change
+     * @param step The step
+     * @return Whether the step changes the subject's capabilities on the manuscript
+     */
+    private boolean Changes(int objectId, int subjectId, EditorialWorkflow.Step step){
+        return workflow.Changes(RoleIdOf(subjectId), step, capabilityMatrix.GetMask(subjectId, objectId));
+    }
     /**
      * Runs a command String
+     * The command is split and its names are looked up without copying them, so a command on existing names only allocates its log entry
+     * While the log is written on a background thread, the entry is reused as well
      * @param command A command string to run. {action} {object} {subject1} {subject2} (optional)
      * @return Whether the command was successful
      */
     public boolean RunCommand(String command){
-        logData = new ArrayList<String>();
-        currentLog = new LogEntry(false, logData);
-        String[] args = command.split(" ");
+        ResolvedCommand context = COMMAND_CONTEXT.get();
+        CommandTokenizer tokens = context.tokens;
+        tokens.Tokenize(command);
+        Action action = Lookup(tokens);
 
-        switch (args.length){
+        switch (tokens.Count()){
             case 1:
-                switch(args[0]){
-                    case "Print":
+                if (action == null)
+                    return false;
+                switch (action){
+                    case PRINT:
                         PrintACM();
                         return true;
-                    case "PrintUsers":
+                    case PRINT_USERS:
                         PrintUsers();
                         return true;
-                    case "PrintLog":
+                    case PRINT_LOG:
                         PrintLog();
                         return true;
-                    case "PrintCapabilities":
-                        PrintCapabilities();
+                    case PRINT_CAPABILITIES:
+                        if (adminRole == null)
+                            PrintCapabilities();
+                        else
+                            PrintCapabilities(adminRole);
+                        //the admin role has every capability, in the order the policy lists them
                         return true;
                     default:
                         return false;
                 }
             case 2:
-                switch (args[0]){
-                    case "PrintLogUser":
-                        PrintLog(args[1]);
+                if (action == null)
+                    return false;
+                switch (action){
+                    case PRINT_LOG_USER:
+                        PrintLog(tokens.Token(1));
                         return true;
-                    case "PrintLogPermission":
-                        PrintLog(Boolean.parseBoolean(args[1]));
+                    case PRINT_LOG_PERMISSION:
+                        PrintLog(tokens.MatchesIgnoreCase(1, "true"));
                         return true;
-                    case "PrintCapabilitiesRole":
-                        PrintCapabilities(args[1]);
+                    case PRINT_CAPABILITIES_ROLE:
+                        PrintCapabilities(tokens.Token(1));
                         return true;
+                    case SAVE_SNAPSHOT:
+                        try {
+                            SaveSnapshot(Path.of(tokens.Token(1)));
+                            return true;
+                        } catch (IOException e) {
+                            System.out.println("Could not save snapshot: ".concat(e.getMessage()));
+                            return false;
+                        }
+                    case EXPORT:
+                        try {
+                            Export(new ACMExport.Settings().Parse(tokens.Token(1)));
+                            return true;
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("Could not export: ".concat(e.getMessage()));
+                            return false;
+                        } catch (IOException e) {
+                            System.out.println("Could not export: ".concat(String.valueOf(e.getMessage())));
+                            return false;
+                        }
                     default:
                         return false;
                 }
             case 3:
-                AddLog(currentLog);
-                currentLog.capabilityRequested = args[0];
-
-                if (args[0].equals("Create")){
-                    if (objects.contains(args[1])){
-                        currentLog.subject = args[2];
-                        logData.add("The manuscript already exists");
-                        return false;
-                    }
-                    if (!subjects.contains(args[2])){
-                        logData.add("The subject does not exist");
-                        return false;
-                    }
-                }
-                else if (args[0].equals("Add")){
-                    if (subjects.contains(args[2])){
-                        currentLog.subject = args[1];
-                        logData.add("The subject already exists");
-                        return false;
+            case 4:
+                LogEntry currentLog = NewLogEntry();
+                //each thread has its own log entry so commands can run on many threads
+                boolean result;
+
+                if (action == Action.ADD)
+                    return RunAddCommand(tokens, currentLog);
+                context.Reset(action, currentLog);
+                if (capabilityMatrix.SupportsLockFreeReads() && (action == Action.READ || action == Action.EDIT))
+                    result = RunCheckCommand(context);
+                else if (action == Action.CREATE){
+                    structureLock.writeLock().lock();
+                    try {
+                        result = RunCreateCommand(tokens, currentLog);
+                    } finally {
+                        structureLock.writeLock().unlock();
                     }
-                    else
-                        currentLog.permitted = true;
                 }
                 else{
-                    currentLog.subject = args[2];
-                    if (!objects.contains(args[1])){
-                        logData.add("The manuscript does not exist");
-                        return false;
-                    }
-                    if (!subjects.contains(args[2])){
-                        logData.add("The subject does not exist");
-                        return false;
+                    structureLock.readLock().lock();
+                    try {
+                        result = RunManuscriptCommand(context);
+                    } finally {
+                        structureLock.readLock().unlock();
                     }
                 }
+                context.Reset(null, null);
+                //the thread's context does not keep the entry alive
+                SyncWriteAheadLog();
+                //the change is durable before the command returns
 
-                return switch (args[0]) {
-                    case "Add" -> AddSubject(args[1], args[2]);
-                    case "Create" -> CreateManuscript(args[1], args[2]);
-                    case "Edit" -> EditManuscript(args[1], args[2]);
-                    case "Read" -> ReadManuscript(args[1], args[2]);
-                    case "Submit" -> SubmitManuscript(args[1], args[2]);
-                    case "Accept" -> AcceptInvite(args[1], args[2]);
-                    case "Review" -> Review(args[1], args[2]);
-                    default -> false;
-                };
-            case 4:
                 AddLog(currentLog);
-                if (!objects.contains(args[1])){
-                    logData.add("The manuscript does not exist");
-                    return false;
-                }
-                if (!subjects.contains(args[2])){
-                    logData.add("The first subject does not exist");
-                    return false;
-                }
-                if (args[0].equals("Consider_Reviews"))
-                    return ConsiderReviews(args[1], args[2], args[3]);
+                return result;
+            default:
+                return false;
+        }
+    }
+    /**
+     * Runs an Add command
+     * @param tokens The words of the command. Add {subject} {role}
+     * @param currentLog The log entry of the command
+     * @return Whether the command was successful
+     */
+    private boolean RunAddCommand(CommandTokenizer tokens, LogEntry currentLog){
+        currentLog.capabilityRequested = Action.ADD.verb;
+        boolean exists;
+        structureLock.readLock().lock();
+        try {
+            exists = subjects.IdOf(tokens.Command(), tokens.Start(2), tokens.End(2)) != -1;
+        } finally {
+            structureLock.readLock().unlock();
+        }
 
-                if (!subjects.contains(args[3])){
-                    logData.add("The second subject does not exist");
-                    return false;
+        if (exists){
+            currentLog.subject = tokens.Token(1);
+            currentLog.AddEffect(LogEffect.SUBJECT_EXISTS);
+            AddLog(currentLog);
+            return false;
+        }
+        currentLog.permitted = true;
+        AddLog(currentLog);
+        //logged before the entry made by AddSubject
+
+        return AddSubject(tokens.Token(1), tokens.Token(2));
+    }
+    /**
+     * Runs a Create command. The caller must hold the structure write lock
+     * @param tokens The words of the command. Create {object} {subject}
+     * @param currentLog The log entry of the command
+     * @return Whether the command was successful
+     */
+    private boolean RunCreateCommand(CommandTokenizer tokens, LogEntry currentLog){
+        String objectIn = tokens.Token(1);
+        //the new manuscript keeps its name, so it is copied
+        currentLog.capabilityRequested = Action.CREATE.verb;
+        currentLog.object = objectIn;
+        if (objects.Contains(objectIn)){
+            currentLog.subject = tokens.Token(2);
+            currentLog.AddEffect(LogEffect.MANUSCRIPT_EXISTS);
+            return false;
+        }
+        int ownerId = subjects.IdOf(tokens.Command(), tokens.Start(2), tokens.End(2));
+        if (ownerId == -1){
+            currentLog.AddEffect(LogEffect.SUBJECT_MISSING);
+            return false;
+        }
+
+        return CreateManuscript(objectIn, subjects.NameOf(ownerId), currentLog);
+    }
+    /**
+     * Runs a Read or Edit command without locking. Only used when the capability matrix supports lock-free reads
+     * @param command The command, with its words and log entry set
+     * @return Whether the command was successful
+     */
+    private boolean RunCheckCommand(ResolvedCommand command){
+        if (!Resolve(command))
+            return false;
+
+        return Execute(command);
+    }
+    /**
+     * Runs a command on an existing manuscript while holding the manuscript's lock. The caller must hold the structure read lock
+     * @param command The command, with its words and log entry set
+     * @return Whether the command was successful
+     */
+    private boolean RunManuscriptCommand(ResolvedCommand command){
+        if (!Resolve(command))
+            return false;
+
+        ReentrantLock objectLock = ObjectLock(command.objectId);
+        objectLock.lock();
+        try {
+            return Execute(command);
+        } finally {
+            CommitObject(command.objectId, null);
+            objectLock.unlock();
+        }
+    }
+    //endregion
+    //region Batches
+    /**
+     * Runs a list of commands. The results and log entries are the same as running each command with RunCommand in order
+     * Runs of manuscript commands are validated in one pass and applied one manuscript at a time
+     * @param commands The command strings to run
+     * @return Whether each command was successful, in the same order as the commands
+     */
+    public boolean[] RunBatch(List<String> commands){
+        boolean[] results = new boolean[commands.size()];
+        ArrayList<ResolvedCommand> segment = new ArrayList<ResolvedCommand>();
+        int segmentStart = 0;
+
+        for (int x = 0; x < commands.size(); x++){
+            ResolvedCommand command = new ResolvedCommand();
+            command.tokens.Tokenize(commands.get(x));
+            Action action = Lookup(command.tokens);
+            if (IsManuscriptCommand(command.tokens, action)){
+                if (segment.isEmpty())
+                    segmentStart = x;
+                command.Reset(action, new LogEntry(false));
+                segment.add(command);
+                continue;
+            }
+
+            if (!segment.isEmpty()){
+                RunManuscriptBatch(segment, results, segmentStart);
+                segment.clear();
+            }
+            results[x] = RunCommand(commands.get(x));
+            //Add, Create and Print commands see every command before them
+        }
+        if (!segment.isEmpty())
+            RunManuscriptBatch(segment, results, segmentStart);
+
+        return results;
+    }
+    /**
+     * Runs a stream of commands. The results and log entries are the same as running each command with RunCommand in order
+     * @param commands The command strings to run
+     * @return Whether each command was successful, in the same order as the commands
+     */
+    public boolean[] RunBatch(Stream<String> commands){
+        return RunBatch(commands.toList());
+    }
+    /**
+     * Runs a list of commands that each act on a single existing manuscript
+     * Commands on the same manuscript keep their order. Log entries are added in the original order
+     * @param batch The commands, with their words and log entries set
+     * @param results The array to store each result in
+     * @param offset The index in results of the first command
+     */
+    private void RunManuscriptBatch(ArrayList<ResolvedCommand> batch, boolean[] results, int offset){
+        LinkedHashMap<Integer, ArrayList<ResolvedCommand>> byObject = new LinkedHashMap<Integer, ArrayList<ResolvedCommand>>();
+
+        structureLock.readLock().lock();
+        try {
+            for (ResolvedCommand command : batch)
+                if (Resolve(command))
+                    byObject.computeIfAbsent(command.objectId, y -> new ArrayList<ResolvedCommand>()).add(command);
+
+            for (Map.Entry<Integer, ArrayList<ResolvedCommand>> group : byObject.entrySet()){
+                ReentrantLock objectLock = ObjectLock(group.getKey());
+                objectLock.lock();
+                try {
+                    for (ResolvedCommand command : group.getValue()){
+                        command.result = Execute(command);
+                        CommitObject(group.getKey(), null);
+                        //later commands in the group read the committed cells
+                    }
+                } finally {
+                    objectLock.unlock();
                 }
-                if (args[0].equals("Send"))
-                    return SendInvite(args[1], args[2], args[3]);
-                else
-                    return false;
-            default:
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        SyncWriteAheadLog();
+        //one sync makes the whole batch durable
+
+        ArrayList<LogEntry> logs = new ArrayList<LogEntry>(batch.size());
+        for (int x = 0; x < batch.size(); x++){
+            results[offset + x] = batch.get(x).result;
+            logs.add(batch.get(x).log);
+        }
+        AddLogs(logs);
+    }
+    /**
+     * Determines if a command acts on a single existing manuscript
+     * @param tokens The words of the command
+     * @param action The action of the command, or null if it is not a known action
+     * @return Whether the command can be grouped with other commands on the same manuscript
+     */
+    private static boolean IsManuscriptCommand(CommandTokenizer tokens, Action action){
+        if (tokens.Count() == 3)
+            return action != Action.ADD && action != Action.CREATE;
+
+        return tokens.Count() == 4;
+    }
+    //endregion
+    //region Parsing Commands
+    /**
+     * The actions RunCommand understands and the number of words a command with each action has
+     */
+    private enum Action {
+        PRINT("Print", 1),
+        PRINT_USERS("PrintUsers", 1),
+        PRINT_LOG("PrintLog", 1),
+        PRINT_CAPABILITIES("PrintCapabilities", 1),
+        PRINT_LOG_USER("PrintLogUser", 2),
+        PRINT_LOG_PERMISSION("PrintLogPermission", 2),
+        PRINT_CAPABILITIES_ROLE("PrintCapabilitiesRole", 2),
+        SAVE_SNAPSHOT("SaveSnapshot", 2),
+        EXPORT("Export", 2),
+        ADD("Add", 3),
+        CREATE("Create", 3),
+        EDIT("Edit", 3),
+        READ("Read", 3),
+        SUBMIT("Submit", 3),
+        ACCEPT("Accept", 3),
+        REVIEW("Review", 3),
+        SEND("Send", 4),
+        CONSIDER_REVIEWS("Consider_Reviews", 4);
+
+        final String verb;
+        //The first word of the command
+        final int words;
+        //The number of words in the command
+
+        /**
+         * The Action constructor
+         * @param verbIn The first word of the command
+         * @param wordsIn The number of words in the command
+         */
+        Action(String verbIn, int wordsIn){
+            verb = verbIn;
+            words = wordsIn;
+        }
+    }
+    private static final Action[][] ACTIONS_BY_LENGTH = ActionTable();
+    //The dispatch table. The actions whose verb has each length
+    private static final ThreadLocal<ResolvedCommand> COMMAND_CONTEXT = ThreadLocal.withInitial(ResolvedCommand::new);
+    //The command each thread reuses for RunCommand, so parsing a command does not allocate
+    /**
+     * Builds the dispatch table
+     * @return The actions grouped by the length of their verb
+     */
+    private static Action[][] ActionTable(){
+        int longest = 0;
+        for (Action action : Action.values())
+            longest = Math.max(longest, action.verb.length());
+
+        Action[][] table = new Action[longest + 1][0];
+        for (Action action : Action.values()){
+            Action[] sameLength = table[action.verb.length()];
+            sameLength = Arrays.copyOf(sameLength, sameLength.length + 1);
+            sameLength[sameLength.length - 1] = action;
+            table[action.verb.length()] = sameLength;
+        }
+        return table;
+    }
+    /**
+     * Finds the action of a command from its first word and its number of words
+     * @param tokens The words of the command
+     * @return The action, or null if no action has that verb and number of words
+     */
+    private static Action Lookup(CommandTokenizer tokens){
+        if (tokens.Count() < 1 || tokens.Count() > CommandTokenizer.MAX_TOKENS || tokens.Length(0) >= ACTIONS_BY_LENGTH.length)
+            return null;
+
+        for (Action action : ACTIONS_BY_LENGTH[tokens.Length(0)])
+            if (action.words == tokens.Count() && tokens.Matches(0, action.verb))
+                return action;
+
+        return null;
+    }
+    /**
+     * Finds the Consider_Reviews decision of a command
+     * @param tokens The words of the command. Consider_Reviews {object} {subject} {decision}
+     * @return The matching decision option, or a copy of the word if it is not an option
+     */
+    private String Decision(CommandTokenizer tokens){
+        for (int x = 0; x < considerOptions.size(); x++)
+            if (tokens.Matches(3, considerOptions.get(x)))
+                return considerOptions.get(x);
+
+        return tokens.Token(3);
+    }
+    //endregion
+    //region Resolving Commands
+    /**
+     * A manuscript command with its names resolved to IDs
+     * Each thread reuses one for RunCommand. Batches make one for each command
+     */
+    private static final class ResolvedCommand {
+        final CommandTokenizer tokens;
+        //The words of the command. {action} {object} {subject1} {subject2} (optional)
+        Action action;
+        //The action of the command. Null if the verb is not an action with this number of words
+        LogEntry log;
+        //The log entry of the command
+        int objectId;
+        //The ID of the manuscript
+        int subjectId;
+        //The ID of the first subject
+        int targetId;
+        //The ID of the second subject. -1 if the command does not have one
+        boolean result;
+        //Whether the command was successful
+
+        /**
+         * The default ResolvedCommand constructor
+         */
+        ResolvedCommand(){
+            tokens = new CommandTokenizer();
+            Reset(null, null);
+        }
+        /**
+         * Gets ready to run the command that was last tokenized
+         * @param actionIn The action of the command
+         * @param logIn The log entry of the command
+         */
+        void Reset(Action actionIn, LogEntry logIn){
+            action = actionIn;
+            log = logIn;
+            objectId = -1;
+            subjectId = -1;
+            targetId = -1;
+            result = false;
+        }
+        /**
+         * The first word of the command
+         * @return The action's verb, or a copy of the word if it is not an action
+         */
+        String Verb(){
+            return (action != null) ? action.verb : tokens.Token(0);
+        }
+    }
+    /**
+     * Resolves the names of a manuscript command to IDs, logging the first name that does not exist
+     * The log uses the registered names, so only names that do not exist are copied out of the command
+     * @param command The command to resolve
+     * @return Whether every name exists
+     */
+    private boolean Resolve(ResolvedCommand command){
+        CommandTokenizer tokens = command.tokens;
+        String source = tokens.Command();
+        boolean threeWords = tokens.Count() == 3;
+        if (threeWords)
+            command.log.capabilityRequested = command.Verb();
+
+        command.objectId = objects.IdOf(source, tokens.Start(1), tokens.End(1));
+        if (command.objectId == -1){
+            command.log.object = tokens.Token(1);
+            if (threeWords)
+                command.log.subject = tokens.Token(2);
+            command.log.AddEffect(LogEffect.MANUSCRIPT_MISSING);
+            return false;
+        }
+        command.log.object = objects.NameOf(command.objectId);
+
+        command.subjectId = subjects.IdOf(source, tokens.Start(2), tokens.End(2));
+        if (threeWords)
+            command.log.subject = (command.subjectId == -1) ? tokens.Token(2) : subjects.NameOf(command.subjectId);
+        if (command.subjectId == -1){
+            command.log.AddEffect(threeWords ? LogEffect.SUBJECT_MISSING : LogEffect.FIRST_SUBJECT_MISSING);
+            return false;
+        }
+        if (!threeWords && command.action != Action.CONSIDER_REVIEWS){
+            command.targetId = subjects.IdOf(source, tokens.Start(3), tokens.End(3));
+            if (command.targetId == -1){
+                command.log.AddEffect(LogEffect.SECOND_SUBJECT_MISSING);
                 return false;
+            }
         }
+
+        return true;
+    }
+    /**
+     * Runs a resolved manuscript command. The caller must hold the manuscript's lock unless it is a lock-free read
+     * @param command The command to run
+     * @return Whether the command was successful
+     */
+    private boolean Execute(ResolvedCommand command){
+        if (command.action == null)
+            return false;
+
+        return switch (command.action) {
+            case EDIT -> EditManuscript(command.objectId, command.subjectId, command.log);
+            case READ -> ReadManuscript(command.objectId, command.subjectId, command.log);
+            case SUBMIT -> SubmitManuscript(command.objectId, command.subjectId, command.log);
+            case ACCEPT -> AcceptInvite(command.objectId, command.subjectId, command.log);
+            case REVIEW -> Review(command.objectId, command.subjectId, command.log);
+            case SEND -> SendInvite(command.objectId, command.subjectId, command.targetId, command.log);
+            case CONSIDER_REVIEWS -> ConsiderReviews(command.objectId, command.subjectId, Decision(command.tokens), command.log);
+            default -> false;
+        };
     }
     //endregion
 }
\ No newline at end of file
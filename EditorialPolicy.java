@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * The roles, capabilities and manuscript lifecycle of an EditorialACM, read from a policy file
+ * A policy is checked when it is read, so a misspelled role or capability is an error instead of a step that silently does nothing
+ * Each line is one of the following. Words are separated by spaces and lists by commas. Blank lines and lines starting with # are ignored
+ * role {name} {capability} ...                   A role and every capability it can have. A capability ending in * is allowed by default
+ * invite {role} ...                              The roles that can be sent an invitation
+ * submit {role} ...                              The roles a submitted manuscript is given to
+ * admin {role}                                   The role given full access to every manuscript. It must be allowed every capability by default
+ *                                                Without an admin line it is the first role allowed every capability by default, if there is one
+ * decide {decision} ...                          The decisions Consider_Reviews accepts
+ * step {step} {roles} {owner} {change} ...       How a lifecycle step changes a participant's capabilities
+ * {step} is Create, Submit, Invite, Accept, Review or Decide. {roles} is a list of roles or * for every role
+ * {owner} is owner, other or any, matching participants who own the manuscript, who do not, or both
+ * Each {change} is grant or revoke followed by a list of capabilities, @{role} for every capability of a role, or * for every capability
+ * Changes are made in order and only give a participant capabilities their role has. A change of none leaves the participant unchanged
+ * The first step line matching a participant is used. A participant with no matching line is not changed
+ */
+public final class EditorialPolicy {
+    //region Variables
+    public static final String DEFAULT_POLICY = """
+            # The editorial workflow: Create -> Submit -> Send (Invite) -> Accept -> Review -> Consider_Reviews (Decide)
+            role Author Owner Edit Read Submit
+            role Editor Read Send Review Consider_Reviews
+            role Associate_Editor Read Send Accept Review Consider_Reviews
+            role Reviewer Read Accept Review
+            role Administrator Owner* Edit* Read* Submit* Send* Accept* Review* Consider_Reviews*
+            role Author/Associate_Editor Owner Edit Read Submit Send Accept Review Consider_Reviews
+            role Author/Reviewer Owner Edit Read Submit Accept Review
+
+            invite Reviewer Associate_Editor Author/Reviewer Author/Associate_Editor
+            submit Editor
+            admin Administrator
+            decide Accept Accept_Minor Accept_Major Reject Report
+
+            step Create * any grant @Author
+            step Submit * any grant @Editor revoke Consider_Reviews
+            step Invite * any grant Accept
+            step Accept Associate_Editor,Author/Associate_Editor,Administrator any grant @Associate_Editor revoke Accept
+            step Accept Reviewer,Author/Reviewer any grant @Reviewer revoke Accept
+            step Review Administrator any none
+            step Review * owner revoke Review,Send grant Consider_Reviews
+            step Review * other revoke Review,Send,Read grant Consider_Reviews
+            step Decide Administrator any none
+            step Decide * owner revoke * grant @Author
+            step Decide * other revoke *
+            """;
+    //The policy EditorialACM uses unless it is given another one
+    private static final EditorialPolicy DEFAULT = Parse(DEFAULT_POLICY);
+    //The parsed default policy
+    private final LinkedHashMap<String, String[]> roleCapabilities;
+    //The capabilities of each role in the order they were declared
+    private final HashMap<String, boolean[]> roleAccess;
+    //Whether each capability of each role is allowed by default
+    private final String[] invitedRoles;
+    //The roles that can be sent an invitation
+    private final String[] submitRoles;
+    //The roles a submitted manuscript is given to
+    private final String[] decisions;
+    //The decisions Consider_Reviews accepts
+    private final String adminRole;
+    //The role given full access to every manuscript, or null if there is none
+    private final ArrayList<Rule> rules;
+    //The step lines in the order they were declared
+    //endregion
+    //region Rules
+    /**
+     * A step line. Its changes are resolved to capability masks when the policy is read
+     */
+    static final class Rule {
+        final EditorialWorkflow.Step step;
+        //The step the rule is for
+        final String[] roles;
+        //The roles the rule matches, or null for every role
+        final int owner;
+        //1 to match owners, 0 to match other participants, -1 to match both
+        final boolean[] grants;
+        //Whether each change gives capabilities. Otherwise it takes them away
+        final long[] masks;
+        //The capabilities of each change, using CapabilityRegistry ordinals. Empty if the rule leaves participants unchanged
+
+        /**
+         * The Rule constructor
+         * @param stepIn The step the rule is for
+         * @param rolesIn The roles the rule matches, or null for every role
+         * @param ownerIn 1 to match owners, 0 to match other participants, -1 to match both
+         * @param grantsIn Whether each change gives capabilities
+         * @param masksIn The capabilities of each change
+         */
+        Rule(EditorialWorkflow.Step stepIn, String[] rolesIn, int ownerIn, boolean[] grantsIn, long[] masksIn){
+            step = stepIn;
+            roles = rolesIn;
+            owner = ownerIn;
+            grants = grantsIn;
+            masks = masksIn;
+        }
+        /**
+         * Determines if the rule applies to a participant
+         * @param roleIn The participant's role
+         * @param ownerIn 1 if the participant owns the manuscript, otherwise 0
+         * @return Whether the rule matches
+         */
+        boolean Matches(String roleIn, int ownerIn){
+            return (owner == -1 || owner == ownerIn) && (roles == null || Arrays.asList(roles).contains(roleIn));
+        }
+    }
+    //endregion
+    //region Constructor
+    /**
+     * The complete EditorialPolicy constructor. Policies are made by Parse
+     * @param roleCapabilitiesIn The capabilities of each role in the order they were declared
+     * @param roleAccessIn Whether each capability of each role is allowed by default
+     * @param invitedRolesIn The roles that can be sent an invitation
+     * @param submitRolesIn The roles a submitted manuscript is given to
+     * @param decisionsIn The decisions Consider_Reviews accepts
+     * @param adminRoleIn The role given full access to every manuscript, or null if there is none
+     * @param rulesIn The step lines in the order they were declared
+     */
+    private EditorialPolicy(LinkedHashMap<String, String[]> roleCapabilitiesIn, HashMap<String, boolean[]> roleAccessIn,
+                            String[] invitedRolesIn, String[] submitRolesIn, String[] decisionsIn, String adminRoleIn,
+                            ArrayList<Rule> rulesIn){
+        roleCapabilities = roleCapabilitiesIn;
+        roleAccess = roleAccessIn;
+        invitedRoles = invitedRolesIn;
+        submitRoles = submitRolesIn;
+        decisions = decisionsIn;
+        adminRole = adminRoleIn;
+        rules = rulesIn;
+    }
+    //endregion
+    //region Reading
+    /**
+     * The policy of the built-in editorial workflow
+     * @return The default policy
+     */
+    public static EditorialPolicy Default(){
+        return DEFAULT;
+    }
+    /**
+     * Reads a policy file
+     * @param pathIn The file to read
+     * @return The policy
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is not a valid policy
+     */
+    public static EditorialPolicy Load(Path pathIn) throws IOException {
+        try {
+            return Parse(Files.readString(pathIn));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("\"" + pathIn + "\" is not a valid policy. ".concat(e.getMessage()), e);
+        }
+    }
+    /**
+     * Reads a policy
+     * @param policyIn The text of the policy
+     * @return The policy
+     * @throws IllegalArgumentException If the text is not a valid policy
+     */
+    public static EditorialPolicy Parse(String policyIn){
+        LinkedHashMap<String, String[]> roleCapabilities = new LinkedHashMap<String, String[]>();
+        HashMap<String, boolean[]> roleAccess = new HashMap<String, boolean[]>();
+        String[] invitedRoles = null;
+        String[] submitRoles = null;
+        String[] decisions = null;
+        String[] adminRoles = null;
+        ArrayList<String[]> stepLines = new ArrayList<String[]>();
+        ArrayList<Integer> stepLineNumbers = new ArrayList<Integer>();
+
+        String[] lines = policyIn.split("\n");
+        for (int x = 0; x < lines.length; x++){
+            String line = lines[x].trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] words = line.split("\\s+");
+            String[] arguments = Arrays.copyOfRange(words, 1, words.length);
+            int lineNumber = x + 1;
+            switch (words[0]){
+                case "role" -> {
+                    if (arguments.length < 2)
+                        throw Error(lineNumber, "A role needs a name and at least one capability");
+                    if (roleCapabilities.containsKey(arguments[0]))
+                        throw Error(lineNumber, "Role \"" + arguments[0] + "\" is declared twice");
+
+                    String[] capabilities = new String[arguments.length - 1];
+                    boolean[] access = new boolean[arguments.length - 1];
+                    for (int y = 0; y < capabilities.length; y++){
+                        String capability = arguments[y + 1];
+                        access[y] = capability.endsWith("*");
+                        capabilities[y] = access[y] ? capability.substring(0, capability.length() - 1) : capability;
+                        if (capabilities[y].isEmpty() || Arrays.asList(capabilities).subList(0, y).contains(capabilities[y]))
+                            throw Error(lineNumber, "Role \"" + arguments[0] + "\" has an empty or repeated capability");
+                    }
+                    roleCapabilities.put(arguments[0], capabilities);
+                    roleAccess.put(arguments[0], access);
+                }
+                case "invite" -> invitedRoles = Once(invitedRoles, arguments, lineNumber);
+                case "submit" -> submitRoles = Once(submitRoles, arguments, lineNumber);
+                case "decide" -> decisions = Once(decisions, arguments, lineNumber);
+                case "admin" -> {
+                    adminRoles = Once(adminRoles, arguments, lineNumber);
+                    if (arguments.length != 1)
+                        throw Error(lineNumber, "There can only be one admin role");
+                }
+                case "step" -> {
+                    stepLines.add(arguments);
+                    stepLineNumbers.add(lineNumber);
+                }
+                default -> throw Error(lineNumber, "Unknown keyword \"" + words[0] + "\"");
+            }
+        }
+        if (roleCapabilities.isEmpty())
+            throw new IllegalArgumentException("A policy must declare at least one role");
+
+        invitedRoles = (invitedRoles == null) ? new String[0] : invitedRoles;
+        submitRoles = (submitRoles == null) ? new String[0] : submitRoles;
+        decisions = (decisions == null) ? new String[0] : decisions;
+        for (String role : invitedRoles)
+            CheckRole(roleCapabilities, role, -1);
+        for (String role : submitRoles)
+            CheckRole(roleCapabilities, role, -1);
+        String adminRole = (adminRoles == null) ? null : adminRoles[0];
+        if (adminRole != null){
+            CheckRole(roleCapabilities, adminRole, -1);
+            if (!AllowsEverything(roleCapabilities, roleAccess, adminRole))
+                throw new IllegalArgumentException("Role \"" + adminRole + "\" must be allowed every capability by default to be the admin role");
+        }
+        for (String role : roleCapabilities.keySet())
+            if (adminRole == null && AllowsEverything(roleCapabilities, roleAccess, role))
+                adminRole = role;
+
+        HashMap<String, Long> layouts = new HashMap<String, Long>();
+        for (String role : roleCapabilities.keySet()){
+            long layout = 0;
+            for (String capability : roleCapabilities.get(role))
+                layout |= 1L << CapabilityRegistry.Register(capability);
+            layouts.put(role, layout);
+        }
+        //capabilities are registered in declaration order, so the default policy keeps the ordinals of earlier versions
+
+        ArrayList<Rule> rules = new ArrayList<Rule>();
+        for (int x = 0; x < stepLines.size(); x++)
+            rules.add(ParseRule(stepLines.get(x), stepLineNumbers.get(x), roleCapabilities, layouts));
+
+        return new EditorialPolicy(roleCapabilities, roleAccess, invitedRoles, submitRoles, decisions, adminRole, rules);
+    }
+    /**
+     * Reads a step line
+     * @param arguments The words after step
+     * @param lineNumber The line number of the step
+     * @param roleCapabilities The capabilities of each role
+     * @param layouts The mask of every capability of each role
+     * @return The rule
+     */
+    private static Rule ParseRule(String[] arguments, int lineNumber, LinkedHashMap<String, String[]> roleCapabilities,
+                                  HashMap<String, Long> layouts){
+        if (arguments.length < 4)
+            throw Error(lineNumber, "A step needs a step name, roles, owner and at least one change");
+
+        EditorialWorkflow.Step step;
+        try {
+            step = EditorialWorkflow.Step.valueOf(arguments[0].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw Error(lineNumber, "Unknown step \"" + arguments[0] + "\"");
+        }
+
+        String[] roles = null;
+        if (!arguments[1].equals("*")){
+            roles = arguments[1].split(",");
+            for (String role : roles)
+                CheckRole(roleCapabilities, role, lineNumber);
+        }
+
+        int owner = switch (arguments[2]){
+            case "owner" -> 1;
+            case "other" -> 0;
+            case "any" -> -1;
+            default -> throw Error(lineNumber, "The owner must be owner, other or any, not \"" + arguments[2] + "\"");
+        };
+
+        if (arguments.length == 4 && arguments[3].equals("none"))
+            return new Rule(step, roles, owner, new boolean[0], new long[0]);
+        if (arguments.length % 2 != 1)
+            throw Error(lineNumber, "Each grant or revoke needs a list of capabilities");
+
+        boolean[] grants = new boolean[(arguments.length - 3) / 2];
+        long[] masks = new long[grants.length];
+        for (int x = 0; x < grants.length; x++){
+            String change = arguments[3 + x * 2];
+            if (!change.equals("grant") && !change.equals("revoke"))
+                throw Error(lineNumber, "A change must be grant or revoke, not \"" + change + "\"");
+
+            grants[x] = change.equals("grant");
+            masks[x] = ParseCapabilities(arguments[4 + x * 2], lineNumber, roleCapabilities, layouts);
+        }
+        return new Rule(step, roles, owner, grants, masks);
+    }
+    /**
+     * Reads the capabilities of a change
+     * @param listIn A list of capabilities, @{role} or *
+     * @param lineNumber The line number of the change
+     * @param roleCapabilities The capabilities of each role
+     * @param layouts The mask of every capability of each role
+     * @return The mask of the capabilities
+     */
+    private static long ParseCapabilities(String listIn, int lineNumber, LinkedHashMap<String, String[]> roleCapabilities,
+                                          HashMap<String, Long> layouts){
+        long mask = 0;
+        for (String item : listIn.split(",")){
+            if (item.equals("*"))
+                mask = -1L;
+            else if (item.startsWith("@")){
+                CheckRole(roleCapabilities, item.substring(1), lineNumber);
+                mask |= layouts.get(item.substring(1));
+            }
+            else{
+                int ordinal = CapabilityRegistry.OrdinalOf(item);
+                boolean declared = false;
+                for (long layout : layouts.values())
+                    declared |= ordinal != -1 && (layout & (1L << ordinal)) != 0;
+                if (!declared)
+                    throw Error(lineNumber, "Capability \"" + item + "\" is not a capability of any role");
+
+                mask |= 1L << ordinal;
+            }
+        }
+        return mask;
+    }
+    /**
+     * Determines if a role is allowed every capability of every role by default
+     * @param roleCapabilities The capabilities of each role
+     * @param roleAccess Whether each capability of each role is allowed by default
+     * @param roleIn The role to check
+     * @return Whether the role has and is allowed every capability
+     */
+    private static boolean AllowsEverything(LinkedHashMap<String, String[]> roleCapabilities, HashMap<String, boolean[]> roleAccess,
+                                            String roleIn){
+        HashMap<String, Boolean> allowed = new HashMap<String, Boolean>();
+        for (int x = 0; x < roleCapabilities.get(roleIn).length; x++)
+            allowed.put(roleCapabilities.get(roleIn)[x], roleAccess.get(roleIn)[x]);
+        for (String[] capabilities : roleCapabilities.values())
+            for (String capability : capabilities)
+                if (!allowed.getOrDefault(capability, false))
+                    return false;
+
+        return true;
+    }
+    /**
+     * Makes sure a list keyword is only used once
+     * @param existing The list read so far, or null if the keyword has not been used
+     * @param arguments The words after the keyword
+     * @param lineNumber The line number of the keyword
+     * @return The list
+     */
+    private static String[] Once(String[] existing, String[] arguments, int lineNumber){
+        if (existing != null)
+            throw Error(lineNumber, "Each list can only be declared once");
+
+        return arguments;
+    }
+    /**
+     * Makes sure a role is declared
+     * @param roleCapabilities The capabilities of each role
+     * @param roleIn The role to check
+     * @param lineNumber The line number the role is used on, or -1 if the line is not known
+     */
+    private static void CheckRole(LinkedHashMap<String, String[]> roleCapabilities, String roleIn, int lineNumber){
+        if (!roleCapabilities.containsKey(roleIn)){
+            String message = "Role \"" + roleIn + "\" is not declared";
+            throw (lineNumber == -1) ? new IllegalArgumentException(message) : Error(lineNumber, message);
+        }
+    }
+    /**
+     * Makes the error of an invalid line
+     * @param lineNumber The line number
+     * @param message What is wrong with the line
+     * @return The error
+     */
+    private static IllegalArgumentException Error(int lineNumber, String message){
+        return new IllegalArgumentException("Line " + lineNumber + ": ".concat(message));
+    }
+    //endregion
+    //region Using Policy
+    /**
+     * The names of the roles in the order they were declared. A role's index is its role ID
+     * @return The role names
+     */
+    public String[] Roles(){
+        return roleCapabilities.keySet().toArray(new String[0]);
+    }
+    /**
+     * Makes the default capabilities of every role. Each call makes new instances
+     * @return The role names paired with their default capabilities
+     */
+    public HashMap<String, Capabilities> DefaultCapabilities(){
+        HashMap<String, Capabilities> capabilitiesHashMap = new HashMap<String, Capabilities>();
+        for (String role : roleCapabilities.keySet())
+            capabilitiesHashMap.put(role, new Capabilities(roleCapabilities.get(role), roleAccess.get(role)));
+
+        return capabilitiesHashMap;
+    }
+    /**
+     * The mask of every capability a role can have
+     * @param roleIn The role
+     * @return A mask with bit n set if the capability with ordinal n is one of the role's capabilities
+     */
+    public long LayoutOf(String roleIn){
+        long layout = 0;
+        for (String capability : roleCapabilities.get(roleIn))
+            layout |= 1L << CapabilityRegistry.OrdinalOf(capability);
+
+        return layout;
+    }
+    /**
+     * Determines if a role can be sent an invitation
+     * @param roleIn The role
+     * @return Whether the role is in the invite list
+     */
+    public boolean IsInvited(String roleIn){
+        return Arrays.asList(invitedRoles).contains(roleIn);
+    }
+    /**
+     * The roles a submitted manuscript is given to
+     * @return The submit list
+     */
+    public String[] SubmitRoles(){
+        return Arrays.copyOf(submitRoles, submitRoles.length);
+    }
+    /**
+     * The decisions Consider_Reviews accepts
+     * @return The decide list
+     */
+    public String[] Decisions(){
+        return Arrays.copyOf(decisions, decisions.length);
+    }
+    /**
+     * The role given full access to every manuscript when it is created
+     * @return The admin role, or null if the policy has none
+     */
+    public String AdminRole(){
+        return adminRole;
+    }
+    /**
+     * Finds the step line that applies to a participant
+     * @param step The step
+     * @param roleIn The participant's role
+     * @param owner 1 if the participant owns the manuscript, otherwise 0
+     * @return The first matching rule, or null if the participant is not changed by the step
+     */
+    Rule RuleFor(EditorialWorkflow.Step step, String roleIn, int owner){
+        for (Rule rule : rules)
+            if (rule.step == step && rule.Matches(roleIn, owner))
+                return rule;
+
+        return null;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+/**
+ * The manuscript lifecycle of an EditorialPolicy compiled into tables of capability masks
+ * Each step of the lifecycle changes the cell of one participant. What it does depends only on the participant's role
+ * and whether they own the manuscript, so every (role, step, owner) is compiled once into a mask of the capabilities
+ * that are kept and a mask of the capabilities that are given. Taking a step is two mask operations on the cell's access mask
+ * Roles are numbered by their index in the policy's roles
+ */
+public final class EditorialWorkflow {
+    //region Variables
+    /**
+     * The steps of the manuscript lifecycle, each applied to the cell of the participant it changes
+     */
+    public enum Step {
+        CREATE,
+        //The author becomes the owner of a new manuscript
+        SUBMIT,
+        //A manuscript is given to be handled
+        INVITE,
+        //A participant is sent an invitation
+        ACCEPT,
+        //An invited participant accepts
+        REVIEW,
+        //A participant reviews the manuscript
+        DECIDE
+        //A participant considers the reviews
+    }
+    private static final int STEPS = Step.values().length;
+    //The number of steps. A role's masks are stored together
+    private final long[] keepMasks;
+    //The capabilities a step keeps. Indexed by Index(role, step, owner)
+    private final long[] grantMasks;
+    //The capabilities a step gives. Indexed by Index(role, step, owner)
+    private final boolean[] changes;
+    //Whether a step changes the cell at all. Indexed by Index(role, step, owner)
+    private final boolean[] owners;
+    //Whether each role can own manuscripts
+    private final boolean[] invited;
+    //Whether each role can be sent an invitation
+    private final int ownerOrdinal;
+    //The CapabilityRegistry ordinal of Owner
+    //endregion
+    //region Constructor
+    /**
+     * The default EditorialWorkflow constructor. Compiles the masks of every role
+     * @param policyIn The policy to compile
+     */
+    public EditorialWorkflow(EditorialPolicy policyIn){
+        String[] roles = policyIn.Roles();
+        keepMasks = new long[roles.length * STEPS * 2];
+        grantMasks = new long[roles.length * STEPS * 2];
+        changes = new boolean[roles.length * STEPS * 2];
+        owners = new boolean[roles.length];
+        invited = new boolean[roles.length];
+        ownerOrdinal = CapabilityRegistry.Register("Owner");
+
+        for (int role = 0; role < roles.length; role++){
+            long layout = policyIn.LayoutOf(roles[role]);
+            owners[role] = (layout & (1L << ownerOrdinal)) != 0;
+            invited[role] = policyIn.IsInvited(roles[role]);
+
+            for (Step step : Step.values()){
+                for (int owner = 0; owner < 2; owner++){
+                    EditorialPolicy.Rule rule = policyIn.RuleFor(step, roles[role], owner);
+                    if (rule == null || rule.masks.length == 0)
+                        continue;
+                    //participants without a rule keep every capability and are not changed
+
+                    long keepMask = -1L;
+                    long grantMask = 0;
+                    for (int x = 0; x < rule.masks.length; x++){
+                        if (rule.grants[x])
+                            grantMask |= rule.masks[x] & layout;
+                        //a step can only give capabilities the role has
+                        else{
+                            keepMask &= ~rule.masks[x];
+                            grantMask &= ~rule.masks[x];
+                        }
+                    }
+                    Compile(role, step, owner, keepMask, grantMask);
+                }
+            }
+        }
+    }
+    /**
+     * Sets the masks of a step
+     * @param role The role ID
+     * @param step The step
+     * @param owner 1 if the participant owns the manuscript, otherwise 0
+     * @param keepMask The capabilities the step keeps
+     * @param grantMask The capabilities the step gives
+     */
+    private void Compile(int role, Step step, int owner, long keepMask, long grantMask){
+        int index = Index(role, step, owner);
+        keepMasks[index] = keepMask;
+        grantMasks[index] = grantMask;
+        changes[index] = true;
+    }
+    /**
+     * Finds the masks of a step
+     * @param role The role ID
+     * @param step The step
+     * @param owner 1 if the participant owns the manuscript, otherwise 0
+     * @return The index of the step's masks
+     */
+    private static int Index(int role, Step step, int owner){
+        return ((role * STEPS) + step.ordinal()) * 2 + owner;
+    }
+    //endregion
+    //region Roles
+    /**
+     * Determines if a role can own manuscripts
+     * @param roleId The role ID
+     * @return Whether subjects with the role can create manuscripts
+     */
+    public boolean CanOwn(int roleId){
+        return owners[roleId];
+    }
+    /**
+     * Determines if a role can be sent an invitation
+     * @param roleId The role ID
+     * @return Whether subjects with the role can be invited to handle or review a manuscript
+     */
+    public boolean CanBeInvited(int roleId){
+        return invited[roleId];
+    }
+    /**
+     * Determines if an access mask makes its subject an owner of the manuscript
+     * @param accessMask The participant's access mask
+     * @return Whether the mask allows Owner
+     */
+    public boolean IsOwner(long accessMask){
+        return ((accessMask >>> ownerOrdinal) & 1) != 0;
+    }
+    //endregion
+    //region Steps
+    /**
+     * Determines if a step changes the cells of a role
+     * @param roleId The role ID
+     * @param step The step
+     * @param accessMask The participant's access mask before the step
+     * @return Whether Apply can give a different mask
+     */
+    public boolean Changes(int roleId, Step step, long accessMask){
+        return changes[Index(roleId, step, (int) ((accessMask >>> ownerOrdinal) & 1))];
+    }
+    /**
+     * Takes a step of the lifecycle
+     * @param roleId The participant's role ID
+     * @param step The step
+     * @param accessMask The participant's access mask before the step
+     * @return The participant's access mask after the step
+     */
+    public long Apply(int roleId, Step step, long accessMask){
+        int index = Index(roleId, step, (int) ((accessMask >>> ownerOrdinal) & 1));
+        if (!changes[index])
+            return accessMask;
+
+        return (accessMask & keepMasks[index]) | grantMasks[index];
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,200 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A registry that interns names as dense integer IDs
+ * The ID of a name is the order it was added in, so IDs can be used directly as list indexes
+ * Lookups never lock and can run while a name is being added. Adds must not run at the same time as each other
+ * Names can also be looked up from part of a larger string, such as a word of a command, without copying it
+ */
+public final class IdRegistry implements Iterable<String> {
+    //region Variables
+    private volatile long[] slots;
+    //The name to ID lookup. An open addressing hash table of the name's hash in the high half and ID + 1 in the low half
+    //0 is an empty slot. Never more than half full
+    private volatile String[] names;
+    //The ID to name lookup. The ID of a name is its index. Replaced with a larger copy when full
+    private volatile int size;
+    //The number of registered names
+    //endregion
+    //region Constructor
+    /**
+     * The default IdRegistry constructor
+     */
+    public IdRegistry(){
+        slots = new long[32];
+        names = new String[16];
+        size = 0;
+    }
+    //endregion
+    //region Override
+    /**
+     * Iterates the names in ID order
+     * @return An iterator over the names registered when the iterator was made
+     */
+    @Override
+    public Iterator<String> iterator(){
+        final String[] namesAtStart = names;
+        final int sizeAtStart = size;
+        return new Iterator<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext(){
+                return next < sizeAtStart;
+            }
+            @Override
+            public String next(){
+                if (next >= sizeAtStart)
+                    throw new NoSuchElementException();
+
+                return namesAtStart[next++];
+            }
+        };
+    }
+    //endregion
+    //region Lookup
+    /**
+     * Finds the ID of a name
+     * @param nameIn The name to look up
+     * @return The ID of the name, or -1 if the name is not registered
+     */
+    public int IdOf(String nameIn){
+        return IdOf(nameIn, 0, nameIn.length(), nameIn.hashCode());
+    }
+    /**
+     * Finds the ID of a name that is part of a larger string, without copying it
+     * @param source The string holding the name
+     * @param start The index of the name's first character
+     * @param end The index after the name's last character
+     * @return The ID of the name, or -1 if the name is not registered
+     */
+    public int IdOf(String source, int start, int end){
+        int hash = 0;
+        for (int x = start; x < end; x++)
+            hash = 31 * hash + source.charAt(x);
+        //the same hash as String.hashCode of the name
+
+        return IdOf(source, start, end, hash);
+    }
+    /**
+     * Finds the ID of a name in the slots
+     * @param source The string holding the name
+     * @param start The index of the name's first character
+     * @param end The index after the name's last character
+     * @param hash The String.hashCode of the name
+     * @return The ID of the name, or -1 if the name is not registered
+     */
+    private int IdOf(String source, int start, int end, int hash){
+        int registered = size;
+        //read first, so every ID below it has its name visible
+        String[] currentNames = names;
+        long[] currentSlots = slots;
+        int mask = currentSlots.length - 1;
+        for (int slot = Home(hash, currentSlots.length); currentSlots[slot] != 0; slot = (slot + 1) & mask){
+            long entry = currentSlots[slot];
+            int id = (int) entry - 1;
+            if ((int) (entry >>> 32) != hash || id >= registered)
+                continue;
+            //a different name, or added after this lookup started
+
+            String name = currentNames[id];
+            if ((start == 0 && end == source.length()) ? name.equals(source)
+                    : name.length() == end - start && name.regionMatches(0, source, start, end - start))
+                return id;
+        }
+
+        return -1;
+    }
+    /**
+     * Finds the name of an ID
+     * @param idIn The ID to look up
+     * @return The name registered under the ID
+     */
+    public String NameOf(int idIn){
+        return names[idIn];
+    }
+    /**
+     * Determines if a name is registered
+     * @param nameIn The name to check
+     * @return Whether the name is registered
+     */
+    public boolean Contains(String nameIn){
+        return IdOf(nameIn) != -1;
+    }
+    /**
+     * The number of registered names
+     * @return The number of registered names, which is also the next ID to be given out
+     */
+    public int Size(){
+        return size;
+    }
+    //endregion
+    //region Modify
+    /**
+     * Registers a new name
+     * @param nameIn The name to register
+     * @return The ID given to the name, or -1 if the name was already registered
+     */
+    public int Add(String nameIn){
+        if (Contains(nameIn))
+            return -1;
+
+        int id = size;
+        String[] current = names;
+        if (id == current.length){
+            current = Arrays.copyOf(current, current.length * 2);
+            names = current;
+        }
+        current[id] = nameIn;
+        long[] currentSlots = slots;
+        if ((id + 1) * 2 > currentSlots.length){
+            currentSlots = Rehash(current, id, currentSlots.length * 2);
+            slots = currentSlots;
+        }
+        Place(currentSlots, nameIn.hashCode(), id);
+        size = id + 1;
+        //the name is stored before the ID is counted so readers that find the ID can always find the name
+        return id;
+    }
+    //endregion
+    //region Slots
+    /**
+     * Builds a larger slot table holding every name added so far
+     * @param namesIn The names by ID
+     * @param count The number of names to place
+     * @param length The length of the new table. A power of 2
+     * @return The new table
+     */
+    private static long[] Rehash(String[] namesIn, int count, int length){
+        long[] table = new long[length];
+        for (int x = 0; x < count; x++)
+            Place(table, namesIn[x].hashCode(), x);
+        return table;
+    }
+    /**
+     * Stores an ID in the first free slot for its hash
+     * @param table The slot table
+     * @param hash The String.hashCode of the name
+     * @param id The ID of the name
+     */
+    private static void Place(long[] table, int hash, int id){
+        int mask = table.length - 1;
+        int slot = Home(hash, table.length);
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = ((long) hash << 32) | (id + 1);
+    }
+    /**
+     * Finds the first slot to try for a hash
+     * Names like manuscript1, manuscript2 have hashes that differ in a regular pattern, so the hash is scrambled and its top bits are used
+     * @param hash The String.hashCode of a name
+     * @param length The length of the table. A power of 2
+     * @return The slot
+     */
+    private static int Home(int hash, int length){
+        return (hash * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(length) + 1);
+    }
+    //endregion
+}
\ No newline at end of file
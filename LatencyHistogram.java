@@ -0,0 +1,133 @@
+import java.io.PrintStream;
+
+/**
+ * Counts latencies in buckets that are a fixed fraction of their value wide, so percentiles are accurate to about 3% at any scale
+ * Values below 32 have a bucket each. Every power of 2 above that is split into 32 buckets
+ * Recording does not allocate. A histogram is not thread-safe; give each thread its own and Add them together afterwards
+ */
+public final class LatencyHistogram {
+    //region Variables
+    private static final int SUB_BUCKET_BITS = 5;
+    //Each power of 2 is split into 2^SUB_BUCKET_BITS buckets
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //The number of buckets in each power of 2
+    private final long[] counts;
+    //The number of values in each bucket
+    private long count;
+    //The number of values recorded
+    private long max;
+    //The largest value recorded
+    //endregion
+    //region Constructor
+    /**
+     * The default LatencyHistogram constructor
+     */
+    public LatencyHistogram(){
+        counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+        count = 0;
+        max = 0;
+    }
+    //endregion
+    //region Recording
+    /**
+     * Records a value
+     * @param value The value, usually in nanoseconds. Negative values are recorded as 0
+     */
+    public void Record(long value){
+        value = Math.max(0, value);
+        counts[BucketOf(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+    /**
+     * Adds every value recorded by another histogram
+     * @param other The histogram to add
+     */
+    public void Add(LatencyHistogram other){
+        for (int x = 0; x < counts.length; x++)
+            counts[x] += other.counts[x];
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+    //endregion
+    //region Reading
+    /**
+     * The number of values recorded
+     * @return The count
+     */
+    public long Count(){
+        return count;
+    }
+    /**
+     * The largest value recorded
+     * @return The exact maximum, or 0 if nothing was recorded
+     */
+    public long Max(){
+        return max;
+    }
+    /**
+     * Finds the value that a percentage of the recorded values are at or below
+     * @param percentile The percentage, from 0 to 100
+     * @return The highest value in the bucket holding the percentile, but never more than the maximum
+     */
+    public long Percentile(double percentile){
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int x = 0; x < counts.length; x++){
+            seen += counts[x];
+            if (seen >= rank)
+                return Math.min(max, UpperBound(x));
+        }
+
+        return max;
+    }
+    /**
+     * Prints the number of values at or below each power of 2, with the cumulative percentage
+     * @param out The stream to print to
+     */
+    public void Print(PrintStream out){
+        long seen = 0;
+        int bucket = 0;
+        for (int power = SUB_BUCKET_BITS; power < Long.SIZE - 1 && seen < count; power++){
+            long limit = 1L << power;
+            long inRange = 0;
+            for (; bucket < counts.length && UpperBound(bucket) < limit; bucket++)
+                inRange += counts[bucket];
+            seen += inRange;
+            if (inRange > 0)
+                out.printf("  < %,12.1fus %,12d %7.3f%%%n", limit / 1000.0, inRange, 100.0 * seen / count);
+        }
+    }
+    //endregion
+    //region Buckets
+    /**
+     * Finds the bucket of a value
+     * @param value The value. Not negative
+     * @return The bucket's index
+     */
+    private static int BucketOf(long value){
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        //the value's top SUB_BUCKET_BITS + 1 bits pick the bucket
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+    /**
+     * Finds the highest value that falls in a bucket
+     * @param bucket The bucket's index
+     * @return The highest value
+     */
+    private static long UpperBound(int bucket){
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+    //endregion
+}
\ No newline at end of file
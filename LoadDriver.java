@@ -0,0 +1,274 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a command file against an EditorialACM at a target rate on several threads and reports
+ * throughput, the latency distribution and how much the heap grew
+ * Commands on the same manuscript always run on the same thread, in file order, so workflows stay valid
+ * Commands that are not about one manuscript, such as Add, wait for every earlier command and run alone
+ * Latency is measured from when a command was scheduled to start, so a stalled command also counts against the commands queued behind it
+ * java LoadDriver {commandFile} {threads} {commandsPerSecond} {matrix} replays the file. A rate of 0 runs as fast as possible
+ */
+public final class LoadDriver {
+    //region Variables
+    private final EditorialACM system;
+    //The ACM the commands run on
+    private final int threads;
+    //The number of threads running manuscript commands
+    private final double commandsPerSecond;
+    //The target rate of all threads together. 0 for no limit
+    private final LatencyHistogram[] histograms;
+    //The latencies recorded by each thread. The last one is for commands that run alone
+    private final long[] failures;
+    //The number of commands that returned false on each thread. The last one is for commands that run alone
+    private static final int SEGMENT_COMMANDS = 1 << 16;
+    //The most manuscript commands split between the threads at once
+    //endregion
+    //region Constructor
+    /**
+     * The default LoadDriver constructor
+     * @param systemIn The ACM to run the commands on
+     * @param threadsIn The number of threads running manuscript commands
+     * @param commandsPerSecondIn The target rate of all threads together. 0 for no limit
+     */
+    public LoadDriver(EditorialACM systemIn, int threadsIn, double commandsPerSecondIn){
+        system = systemIn;
+        threads = threadsIn;
+        commandsPerSecond = commandsPerSecondIn;
+        histograms = new LatencyHistogram[threadsIn + 1];
+        for (int x = 0; x < histograms.length; x++)
+            histograms[x] = new LatencyHistogram();
+        failures = new long[threadsIn + 1];
+    }
+    //endregion
+    //region Replaying
+    /**
+     * Replays every command of a file
+     * The file is read in segments that end at each command that must run alone. Each segment is split between the threads
+     * @param fileName The command file
+     * @return The time the replay took, in nanoseconds
+     * @throws IOException If the file cannot be read
+     * @throws InterruptedException If the replay is interrupted
+     */
+    public long Replay(String fileName) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long scheduled = 0;
+        //the number of commands scheduled so far, which sets when the next command should start
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+            ArrayList<ArrayList<String>> segment = NewSegment();
+            int segmentSize = 0;
+            String command = reader.readLine();
+            while (command != null){
+                String[] args = command.split(" ");
+                if (args.length >= 3 && !args[0].equals("Add")){
+                    segment.get(Math.floorMod(args[1].hashCode(), threads)).add(command);
+                    segmentSize++;
+                }
+                else{
+                    scheduled = RunSegment(segment, segmentSize, start, scheduled);
+                    segment = NewSegment();
+                    segmentSize = 0;
+                    Pace(start, scheduled);
+                    long began = System.nanoTime();
+                    Record(threads, system.RunCommand(command), Intended(start, scheduled++, began), began);
+                }
+                if (segmentSize == SEGMENT_COMMANDS){
+                    scheduled = RunSegment(segment, segmentSize, start, scheduled);
+                    segment = NewSegment();
+                    segmentSize = 0;
+                }
+                command = reader.readLine();
+            }
+            RunSegment(segment, segmentSize, start, scheduled);
+        }
+
+        return System.nanoTime() - start;
+    }
+    /**
+     * Runs a segment of manuscript commands, one list per thread
+     * Commands are scheduled evenly across the segment's time slot, so each thread keeps its share of the target rate
+     * @param segment The commands of each thread
+     * @param segmentSize The number of commands in the segment
+     * @param start When the replay started
+     * @param scheduled The number of commands scheduled before the segment
+     * @return The number of commands scheduled after the segment
+     * @throws InterruptedException If the replay is interrupted
+     */
+    private long RunSegment(ArrayList<ArrayList<String>> segment, int segmentSize, long start, long scheduled)
+            throws InterruptedException {
+        if (segmentSize == 0)
+            return scheduled;
+
+        Thread[] workers = new Thread[threads];
+        for (int x = 0; x < threads; x++){
+            final int thread = x;
+            final ArrayList<String> mine = segment.get(x);
+            final double share = (double) segmentSize / Math.max(1, mine.size());
+            //this thread's commands are spread over the whole segment's time slot
+            workers[x] = new Thread(() -> {
+                for (int y = 0; y < mine.size(); y++){
+                    long slot = scheduled + (long) (y * share);
+                    Pace(start, slot);
+                    long began = System.nanoTime();
+                    Record(thread, system.RunCommand(mine.get(y)), Intended(start, slot, began), began);
+                }
+            }, "LoadDriver-" + x);
+            workers[x].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+
+        return scheduled + segmentSize;
+    }
+    /**
+     * Makes an empty segment
+     * @return A list of commands for each thread
+     */
+    private ArrayList<ArrayList<String>> NewSegment(){
+        ArrayList<ArrayList<String>> segment = new ArrayList<ArrayList<String>>(threads);
+        for (int x = 0; x < threads; x++)
+            segment.add(new ArrayList<String>());
+        return segment;
+    }
+    /**
+     * Waits until a command's scheduled start time. Returns at once if there is no target rate
+     * @param start When the replay started
+     * @param slot The number of the command in the schedule
+     */
+    private void Pace(long start, long slot){
+        if (commandsPerSecond <= 0)
+            return;
+
+        long due = start + (long) (slot * 1_000_000_000.0 / commandsPerSecond);
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+            LockSupport.parkNanos(wait);
+    }
+    /**
+     * Finds when a command should have started
+     * @param start When the replay started
+     * @param slot The number of the command in the schedule
+     * @param began When the command actually started
+     * @return The scheduled start, or the actual start if there is no target rate
+     */
+    private long Intended(long start, long slot, long began){
+        if (commandsPerSecond <= 0)
+            return began;
+
+        return start + (long) (slot * 1_000_000_000.0 / commandsPerSecond);
+    }
+    /**
+     * Records a command's latency and result. Each thread only records to its own histogram and failure count
+     * @param thread The number of the thread that ran the command
+     * @param result Whether the command succeeded
+     * @param intended When the command should have started
+     * @param began When the command started
+     */
+    private void Record(int thread, boolean result, long intended, long began){
+        histograms[thread].Record(System.nanoTime() - Math.min(intended, began));
+        if (!result)
+            failures[thread]++;
+    }
+    //endregion
+    //region Running Driver
+    /**
+     * Replays a command file and prints the results
+     * @param args The command file, then optionally the number of threads, the target commands per second and the matrix type
+     * @throws Exception If the file cannot be read or the replay is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0){
+            System.out.println("java LoadDriver {commandFile} {threads} {commandsPerSecond} {sparse|dense|snapshot|mapped}");
+            return;
+        }
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double rate = (args.length > 2) ? Double.parseDouble(args[2]) : 0;
+        String matrix = (args.length > 3) ? args[3] : "snapshot";
+        CapabilityMatrix capabilityMatrix = switch (matrix) {
+            case "sparse" -> new SparseCapabilityMatrix();
+            case "dense" -> new DenseCapabilityMatrix();
+            case "mapped" -> new MappedCapabilityMatrix();
+            case "snapshot" -> new SnapshotCapabilityMatrix();
+            default -> throw new IllegalArgumentException("Unknown matrix \"".concat(matrix).concat("\""));
+        };
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long[] gcBefore = GarbageCollection();
+
+        LoadDriver driver = new LoadDriver(new EditorialACM(capabilityMatrix), threads, rate);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        //the ACM prints the result of every command
+        long nanos;
+        try {
+            nanos = driver.Replay(args[0]);
+        } finally {
+            System.setOut(console);
+        }
+
+        long[] gcAfter = GarbageCollection();
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        driver.PrintReport(nanos, heapAfter - heapBefore, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1], matrix);
+    }
+    /**
+     * Reads the total garbage collection count and time
+     * @return The number of collections, then the milliseconds spent collecting
+     */
+    private static long[] GarbageCollection(){
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+    /**
+     * Prints throughput, latency percentiles and memory growth
+     * @param nanos The time the replay took
+     * @param heapGrowth The bytes the live heap grew by, measured after a full collection before and after
+     * @param collections The number of garbage collections during the replay
+     * @param collectionMillis The time spent collecting during the replay
+     * @param matrix The matrix type
+     */
+    private void PrintReport(long nanos, long heapGrowth, long collections, long collectionMillis, String matrix){
+        LatencyHistogram total = new LatencyHistogram();
+        long failed = 0;
+        for (int x = 0; x < histograms.length; x++){
+            total.Add(histograms[x]);
+            failed += failures[x];
+        }
+        long commands = total.Count();
+
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("Ran %,d commands (%,d failed) on %d threads with the %s matrix in %.2fs%n",
+                commands, failed, threads, matrix, seconds);
+        System.out.printf("Throughput: %,.0f commands/sec (target %s)%n", commands / seconds,
+                (commandsPerSecond > 0) ? String.format("%,.0f", commandsPerSecond) : "unlimited");
+        System.out.printf("Latency: p50 %s  p90 %s  p99 %s  p999 %s  max %s%n",
+                Micros(total.Percentile(50)), Micros(total.Percentile(90)), Micros(total.Percentile(99)),
+                Micros(total.Percentile(99.9)), Micros(total.Max()));
+        System.out.printf("Heap growth: %,.1f MB (%,.0f bytes/command), %,d collections taking %,d ms%n",
+                heapGrowth / 1048576.0, heapGrowth / (double) Math.max(1, commands), collections, collectionMillis);
+        System.out.println("Latency histogram:");
+        total.Print(System.out);
+    }
+    /**
+     * Formats nanoseconds as microseconds
+     * @param nanos The time in nanoseconds
+     * @return The time in microseconds with one decimal place
+     */
+    private static String Micros(long nanos){
+        return String.format("%,.1fus", nanos / 1000.0);
+    }
+    //endregion
+}
\ No newline at end of file
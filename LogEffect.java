@@ -0,0 +1,77 @@
+/**
+ * The kinds of extra information a LogEntry can hold
+ * Each effect is stored as its code and arguments and only turned into text when the log is read
+ */
+public enum LogEffect {
+    //region Values
+    USER_TO_ADD("User to Add: {}"),
+    ROLE_TO_GIVE("Role to Give: {}"),
+    SUBJECT_ALREADY_EXISTED("Attempted to add subject that already existed"),
+    ROLE_DOES_NOT_EXIST("Role does not exist"),
+    SUBJECT_ADDED("Successfully added subject"),
+    SUBJECT_EXISTS("The subject already exists"),
+    SUBJECT_MISSING("The subject does not exist"),
+    FIRST_SUBJECT_MISSING("The first subject does not exist"),
+    SECOND_SUBJECT_MISSING("The second subject does not exist"),
+    MANUSCRIPT_EXISTS("The manuscript already exists"),
+    MANUSCRIPT_MISSING("The manuscript does not exist"),
+    CREATE_WRONG_ROLE("User does not have the correct role to create a manuscript"),
+    CREATED("{} created manuscript: {}"),
+    GAVE_OWNER("Gave subject \"{}\" owner access to \"{}\""),
+    GAVE_ADMINISTRATOR("Gave administrator \"{}\" full access to \"{}\""),
+    EDIT_DENIED("Subject does not have access to Edit the manuscript"),
+    EDITED("Subject edited the manuscript"),
+    READ("{} read manuscript: {}"),
+    READ_DENIED("{} attempted to read manuscript: {}"),
+    SUBMIT_DENIED("{} attempted to submit: {} without submission permissions"),
+    SUBMITTED("{} submitted: {}"),
+    GAVE_EDITOR("Gave {}: {}"),
+    INVITE_WRONG_ROLE("Incorrect role for invitations{} cannot invite Reviewers"),
+    GAVE_ACCEPT("Gave: {} Accept"),
+    REMOVED_ACCEPT("Removed: {} Accept"),
+    GAVE_ACCEPTED("Gave: {} {}"),
+    ACCEPT_DENIED("{} does not have Accept"),
+    REMOVED_REVIEW("Removed: {} Review"),
+    GAVE("Gave: {}{}"),
+    REVIEW_DENIED("{} does not have Review"),
+    UNKNOWN_DECISION("Consider_Reviews option: {} does not exist"),
+    CONSIDERED("{} reviewed {} and gave the decision: {}"),
+    REMOVED("Removed: {}{}"),
+    CONSIDER_DENIED("{} does not have Consider Reviews");
+    //endregion
+    //region Variables
+    private final String[] parts;
+    //The text around each argument. There is one more part than there are arguments
+    //endregion
+    //region Constructor
+    /**
+     * The LogEffect constructor
+     * @param templateIn The text of the effect, with {} where each argument goes
+     */
+    LogEffect(String templateIn){
+        parts = templateIn.split("\\{}", -1);
+    }
+    //endregion
+    //region Formatting
+    /**
+     * The number of arguments the effect takes
+     * @return The number of arguments
+     */
+    public int ArgumentCount(){
+        return parts.length - 1;
+    }
+    /**
+     * Writes the text of the effect
+     * @param sb The builder to write to
+     * @param args The arguments of every effect in the entry
+     * @param offset The index in args of this effect's first argument
+     */
+    public void AppendTo(StringBuilder sb, String[] args, int offset){
+        sb.append(parts[0]);
+        for (int x = 1; x < parts.length; x++){
+            sb.append(args[offset + x - 1]);
+            sb.append(parts[x]);
+        }
+    }
+    //endregion
+}
\ No newline at end of file
@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A basic class to log ACM usage for testing / checking
@@ -9,35 +11,60 @@ public final class LogEntry {
     //The user requesting the action
     String capabilityRequested;
     //The action requested
+    String object;
+    //The object the action was requested on. Empty if there is none
     boolean permitted;
     //Whether the action was permitted
-    ArrayList<String> effects;
+    long timestamp;
+    //When the entry was made, in milliseconds since the epoch
+    int sequence;
+    //The number of entries logged before this one. Set when the entry is logged
+    final ArrayList<LogEffect> effects;
     //Extra information
+    String[] effectArgs;
+    //The arguments of every effect in order
+    int effectArgCount;
+    //The number of arguments used in effectArgs
     //endregion
     //region Constructor
     /**
      * The partial constructor
      * @param permittedIn Whether the action was permitted
-     * @param effectsIn Extra information
      */
-    public LogEntry(boolean permittedIn, ArrayList<String> effectsIn){
-        subject = "";
-        capabilityRequested = "";
-        permitted = permittedIn;
-        effects = effectsIn;
+    public LogEntry(boolean permittedIn){
+        this("", "", permittedIn);
     }
     /**
      * The complete constructor
      * @param subjectIn The subject requesting a capability
      * @param capabilityRequestedIn The capability requested
      * @param permittedIn Whether the action was permitted
-     * @param effectsIn Extra information
      */
-    public LogEntry(String subjectIn, String capabilityRequestedIn, boolean permittedIn, ArrayList<String> effectsIn){
+    public LogEntry(String subjectIn, String capabilityRequestedIn, boolean permittedIn){
         subject = subjectIn;
         capabilityRequested = capabilityRequestedIn;
+        object = "";
         permitted = permittedIn;
-        effects = effectsIn;
+        timestamp = System.currentTimeMillis();
+        sequence = -1;
+        effects = new ArrayList<LogEffect>(4);
+        effectArgs = new String[4];
+        effectArgCount = 0;
+    }
+    /**
+     * Clears the entry so a thread can use it for its next command
+     * Only for an entry that is copied when it is logged, since a logged entry is kept by the sink
+     */
+    void Reset(){
+        subject = "";
+        capabilityRequested = "";
+        object = "";
+        permitted = false;
+        timestamp = System.currentTimeMillis();
+        sequence = -1;
+        effects.clear();
+        Arrays.fill(effectArgs, 0, effectArgCount, null);
+        effectArgCount = 0;
     }
     //endregion
     //region Override
@@ -56,12 +83,64 @@ public final class LogEntry {
         sb.append("\". The request was ");
         sb.append((permitted) ? "granted" : "denied");
         sb.append("\n");
-        for (String effect : effects){
-            sb.append(effect);
+        int offset = 0;
+        for (LogEffect effect : effects){
+            effect.AppendTo(sb, effectArgs, offset);
+            offset += effect.ArgumentCount();
             sb.append("\n");
         }
 
         return sb.toString();
     }
     //endregion
+    //region Effects
+    /**
+     * Adds extra information to the entry. The text is only built when the entry is read
+     * @param effectIn The kind of information
+     * @param args The arguments of the effect
+     */
+    public void AddEffect(LogEffect effectIn, String... args){
+        Reserve(args.length);
+        System.arraycopy(args, 0, effectArgs, effectArgCount, args.length);
+        effectArgCount += args.length;
+        effects.add(effectIn);
+    }
+    /**
+     * Adds extra information with one argument to the entry, without making an argument array
+     * @param effectIn The kind of information
+     * @param arg The argument of the effect
+     */
+    public void AddEffect(LogEffect effectIn, String arg){
+        Reserve(1);
+        effectArgs[effectArgCount++] = arg;
+        effects.add(effectIn);
+    }
+    /**
+     * Adds extra information with two arguments to the entry, without making an argument array
+     * @param effectIn The kind of information
+     * @param first The first argument of the effect
+     * @param second The second argument of the effect
+     */
+    public void AddEffect(LogEffect effectIn, String first, String second){
+        Reserve(2);
+        effectArgs[effectArgCount++] = first;
+        effectArgs[effectArgCount++] = second;
+        effects.add(effectIn);
+    }
+    /**
+     * Makes room for more effect arguments
+     * @param argCount The number of arguments that will be added
+     */
+    private void Reserve(int argCount){
+        if (effectArgCount + argCount > effectArgs.length)
+            effectArgs = Arrays.copyOf(effectArgs, Math.max(effectArgs.length * 2, effectArgCount + argCount));
+    }
+    /**
+     * Gets the arguments of every effect, in order
+     * @return The effect arguments
+     */
+    public List<String> EffectArguments(){
+        return Arrays.asList(effectArgs).subList(0, effectArgCount);
+    }
+    //endregion
 }
\ No newline at end of file
@@ -1,6 +1,30 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class Main {
-    public static void main(String[] args) {
-        CLI cli = new CLI();
-        cli.RunCLI("exit");
+    public static void main(String[] args) throws IOException {
+        EditorialPolicy policy = (args.length > 3) ? EditorialPolicy.Load(Path.of(args[3])) : EditorialPolicy.Default();
+        //java Main {commandFile} {auditLog} {snapshot} {policy} uses the roles and lifecycle of the policy file instead of the default
+        EditorialACM system = (args.length > 1)
+                ? new EditorialACM(new SparseCapabilityMatrix(), new BinaryFileAuditSink(Path.of(args[1]), 64L << 20), policy)
+                : new EditorialACM(new SparseCapabilityMatrix(), new MemoryAuditSink(), policy);
+        //java Main {commandFile} {auditLog} writes the log to {auditLog}.0, {auditLog}.1, ... instead of keeping it in memory
+        if (args.length > 1)
+            system.StartAsyncLog(1 << 16, AsyncAuditLog.OverflowPolicy.BLOCK, 1);
+            //the file is written on a background thread without losing entries
+        if (args.length > 2)
+            system.Recover(Path.of(args[2]), Path.of(args[2].concat(".wal")));
+            //java Main {commandFile} {auditLog} {snapshot} starts from {snapshot} and the changes logged in {snapshot}.wal.0, {snapshot}.wal.1, ...
+        CLI cli = new CLI(system);
+        if (args.length > 0)
+            cli.StreamFile(args[0], 1024, 16, 5000);
+            //java Main {commandFile} streams the file instead of starting the prompt
+        else
+            cli.RunCLI("exit");
+        if (args.length > 2)
+            system.SaveSnapshot(Path.of(args[2]));
+            //the snapshot replaces the write-ahead log segments it holds
+        system.CloseWriteAheadLog();
+        system.CloseLog();
     }
 }
\ No newline at end of file
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A sparse capability matrix that stores every modified cell outside the heap in a memory mapped file
+ * The heap only holds the role defaults and the cells changed by running commands, so its size does not grow with the matrix
+ * The file is mapped in chunks. Directory chunks hold an entry for each object: the file offset, count and capacity of its cells
+ * Arena chunks hold each object's cells: the subject IDs in ascending order followed by the access mask of each
+ * An object's cells are moved to twice the space when they are full. The old space is not reused
+ * Changes made through SetMask are written to the file and seen by GetMask after Commit
+ * The file is only working storage. Use snapshots and the write-ahead log to keep the ACM between runs
+ */
+public final class MappedCapabilityMatrix extends CapabilityMatrix {
+    //region Variables
+    private static final int CHUNK_SHIFT = 26;
+    //Chunks are 2^CHUNK_SHIFT bytes. Only the pages that are written use memory or disk
+    private static final int CHUNK_BYTES = 1 << CHUNK_SHIFT;
+    //The size of a chunk
+    private static final int ENTRY_BYTES = 16;
+    //The size of a directory entry: the long file offset of the cells, then the int count and int capacity
+    private static final int ENTRIES_PER_CHUNK = CHUNK_BYTES / ENTRY_BYTES;
+    //The number of objects in a directory chunk
+    private static final int CELL_BYTES = Integer.BYTES + Long.BYTES;
+    //The size of a cell: its subject ID and its access mask
+    private static final int MIN_CAPACITY = 4;
+    //The number of cells an object has room for once its first cell is written. Must be a power of 2
+    private final FileChannel channel;
+    //The file the chunks are mapped from
+    private volatile ByteBuffer[] directory;
+    //The mapped directory chunks
+    private volatile ByteBuffer[] arena;
+    //The mapped arena chunks. Cells are never split between chunks
+    private int arenaUsed;
+    //The bytes used in the newest arena chunk. Guarded by the channel
+    private long fileSize;
+    //The number of bytes of the file given to chunks. Guarded by the channel
+    private final ConcurrentHashMap<Integer, CellColumn> pending;
+    //Cells changed since the last commit, keyed by object ID. Each column is guarded by its object's lock
+    //endregion
+    //region Constructors
+    /**
+     * The default MappedCapabilityMatrix constructor. The cells are stored in a temporary file that is deleted on exit
+     */
+    public MappedCapabilityMatrix(){
+        this(CreateTemporaryFile());
+    }
+    /**
+     * The MappedCapabilityMatrix constructor for a given file. Anything already in the file is discarded
+     * @param pathIn The file to store the cells in. It is deleted when the matrix is closed or the process exits
+     */
+    public MappedCapabilityMatrix(Path pathIn){
+        super();
+        try {
+            channel = FileChannel.open(pathIn, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        directory = new ByteBuffer[0];
+        arena = new ByteBuffer[0];
+        arenaUsed = CHUNK_BYTES;
+        //the first cells start a new arena chunk
+        fileSize = 0;
+        pending = new ConcurrentHashMap<Integer, CellColumn>();
+    }
+    /**
+     * Creates the temporary file used by the default constructor
+     * @return The path of the new file
+     */
+    private static Path CreateTemporaryFile(){
+        try {
+            return Files.createTempFile("capabilities", ".cells");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    //endregion
+    //region Overrides
+    /**
+     * Adds a row for a new subject. No cells are written
+     * @param roleDefaultIn The read only default capabilities of the subject's role
+     */
+    @Override
+    public void AddSubject(Capabilities roleDefaultIn){
+        roleDefaults.add(roleDefaultIn);
+    }
+    /**
+     * Adds an empty column for a new object, mapping a new directory chunk if needed
+     */
+    @Override
+    public void AddObject(){
+        if (objectCount / ENTRIES_PER_CHUNK == directory.length){
+            synchronized (channel){
+                ByteBuffer[] updated = Arrays.copyOf(directory, directory.length + 1);
+                updated[directory.length] = MapChunk();
+                directory = updated;
+            }
+        }
+        //a new chunk is all zeros, which is an object with no cells
+
+        objectCount++;
+    }
+    /**
+     * Gets the last committed access mask of a subject on an object by reading the mapped mask directly
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The committed mask, or the mask of the subject's role default if the cell was never modified
+     */
+    @Override
+    public long GetMask(int subjectId, int objectId){
+        ByteBuffer entry = Entry(objectId);
+        int entryOffset = EntryOffset(objectId);
+        int index = Find(entry, entryOffset, subjectId);
+        if (index < 0)
+            return roleDefaults.get(subjectId).GetAccessMask();
+
+        return ReadMask(entry, entryOffset, index);
+    }
+    /**
+     * Gets the access mask of a subject on an object including changes that are not written to the file until Commit
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The uncommitted mask if the cell was changed since the last commit, otherwise the committed mask
+     */
+    @Override
+    public long GetPendingMask(int subjectId, int objectId){
+        CellColumn changes = pending.get(objectId);
+        int index = (changes == null) ? -1 : changes.Find(subjectId);
+        if (index < 0)
+            return GetMask(subjectId, objectId);
+
+        return changes.MaskAt(index);
+    }
+    /**
+     * Stores a changed access mask on the heap. It is written to the file on Commit
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param accessMask The mask to store
+     */
+    @Override
+    protected void Store(int subjectId, int objectId, long accessMask){
+        pending.computeIfAbsent(objectId, x -> new CellColumn()).Put(subjectId, accessMask);
+    }
+    /**
+     * Writes every change to an object's cells since the last commit to the file
+     * @param objectId The ID of the object
+     */
+    @Override
+    public void Commit(int objectId){
+        CellColumn changes = pending.remove(objectId);
+        if (changes == null)
+            return;
+
+        ByteBuffer entry = Entry(objectId);
+        int entryOffset = EntryOffset(objectId);
+        for (int x = 0; x < changes.Size(); x++)
+            WriteCell(entry, entryOffset, changes.SubjectAt(x), changes.MaskAt(x));
+    }
+    /**
+     * Visits every committed cell of an object in subject ID order
+     * @param objectId The ID of the object
+     * @param visitor The function to give the subject ID and access mask of each committed cell to
+     */
+    @Override
+    public void ForEachCell(int objectId, CellVisitor visitor){
+        ByteBuffer entry = Entry(objectId);
+        int entryOffset = EntryOffset(objectId);
+        int count = entry.getInt(entryOffset + Long.BYTES);
+        for (int index = 0; index < count; index++)
+            visitor.Visit(ReadSubject(entry, entryOffset, index), ReadMask(entry, entryOffset, index));
+    }
+    //endregion
+    //region Cells
+    /**
+     * Finds a subject's cell in an object's cells by binary search
+     * @param entry The directory chunk of the object
+     * @param entryOffset The offset of the object's entry in the chunk
+     * @param subjectId The ID of the subject
+     * @return The index of the cell, or -(insertion point) - 1 if the subject has no cell
+     */
+    private int Find(ByteBuffer entry, int entryOffset, int subjectId){
+        int low = 0;
+        int high = entry.getInt(entryOffset + Long.BYTES) - 1;
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            int found = ReadSubject(entry, entryOffset, middle);
+            if (found < subjectId)
+                low = middle + 1;
+            else if (found > subjectId)
+                high = middle - 1;
+            else
+                return middle;
+        }
+
+        return -(low + 1);
+    }
+    /**
+     * Reads the subject ID of a cell
+     * @param entry The directory chunk of the object
+     * @param entryOffset The offset of the object's entry in the chunk
+     * @param index The index of the cell
+     * @return The subject ID
+     */
+    private int ReadSubject(ByteBuffer entry, int entryOffset, int index){
+        long cells = entry.getLong(entryOffset);
+        return Chunk(cells).getInt(ChunkOffset(cells) + index * Integer.BYTES);
+    }
+    /**
+     * Reads the access mask of a cell. The masks follow the subject IDs
+     * @param entry The directory chunk of the object
+     * @param entryOffset The offset of the object's entry in the chunk
+     * @param index The index of the cell
+     * @return The access mask
+     */
+    private long ReadMask(ByteBuffer entry, int entryOffset, int index){
+        long cells = entry.getLong(entryOffset);
+        int capacity = entry.getInt(entryOffset + Long.BYTES + Integer.BYTES);
+        return Chunk(cells).getLong(ChunkOffset(cells) + capacity * Integer.BYTES + index * Long.BYTES);
+    }
+    /**
+     * Stores the mask of a cell, inserting the cell in subject ID order if it is new
+     * @param entry The directory chunk of the object
+     * @param entryOffset The offset of the object's entry in the chunk
+     * @param subjectId The ID of the subject
+     * @param accessMask The mask to store
+     */
+    private void WriteCell(ByteBuffer entry, int entryOffset, int subjectId, long accessMask){
+        int index = Find(entry, entryOffset, subjectId);
+        int count = entry.getInt(entryOffset + Long.BYTES);
+        int capacity = entry.getInt(entryOffset + Long.BYTES + Integer.BYTES);
+        if (index < 0){
+            index = -index - 1;
+            if (count == capacity){
+                Grow(entry, entryOffset, Math.max(MIN_CAPACITY, capacity * 2));
+                capacity = entry.getInt(entryOffset + Long.BYTES + Integer.BYTES);
+            }
+
+            long cells = entry.getLong(entryOffset);
+            ByteBuffer chunk = Chunk(cells);
+            int subjects = ChunkOffset(cells);
+            int masks = subjects + capacity * Integer.BYTES;
+            for (int x = count; x > index; x--){
+                chunk.putInt(subjects + x * Integer.BYTES, chunk.getInt(subjects + (x - 1) * Integer.BYTES));
+                chunk.putLong(masks + x * Long.BYTES, chunk.getLong(masks + (x - 1) * Long.BYTES));
+            }
+            chunk.putInt(subjects + index * Integer.BYTES, subjectId);
+            entry.putInt(entryOffset + Long.BYTES, count + 1);
+        }
+
+        long cells = entry.getLong(entryOffset);
+        Chunk(cells).putLong(ChunkOffset(cells) + capacity * Integer.BYTES + index * Long.BYTES, accessMask);
+    }
+    /**
+     * Moves an object's cells to a larger space in the arena
+     * @param entry The directory chunk of the object
+     * @param entryOffset The offset of the object's entry in the chunk
+     * @param capacity The number of cells the new space holds
+     */
+    private void Grow(ByteBuffer entry, int entryOffset, int capacity){
+        int count = entry.getInt(entryOffset + Long.BYTES);
+        int oldCapacity = entry.getInt(entryOffset + Long.BYTES + Integer.BYTES);
+        long oldCells = entry.getLong(entryOffset);
+        long newCells = Allocate(capacity * CELL_BYTES);
+
+        ByteBuffer oldChunk = Chunk(oldCells);
+        ByteBuffer newChunk = Chunk(newCells);
+        int oldSubjects = ChunkOffset(oldCells);
+        int newSubjects = ChunkOffset(newCells);
+        for (int x = 0; x < count; x++){
+            newChunk.putInt(newSubjects + x * Integer.BYTES, oldChunk.getInt(oldSubjects + x * Integer.BYTES));
+            newChunk.putLong(newSubjects + capacity * Integer.BYTES + x * Long.BYTES,
+                    oldChunk.getLong(oldSubjects + oldCapacity * Integer.BYTES + x * Long.BYTES));
+        }
+
+        entry.putLong(entryOffset, newCells);
+        entry.putInt(entryOffset + Long.BYTES + Integer.BYTES, capacity);
+    }
+    //endregion
+    //region Chunks
+    /**
+     * Finds the directory chunk of an object
+     * @param objectId The ID of the object
+     * @return The chunk holding the object's entry
+     */
+    private ByteBuffer Entry(int objectId){
+        return directory[objectId / ENTRIES_PER_CHUNK];
+    }
+    /**
+     * The offset of an object's entry in its directory chunk
+     * @param objectId The ID of the object
+     * @return The offset of the entry
+     */
+    private static int EntryOffset(int objectId){
+        return (objectId % ENTRIES_PER_CHUNK) * ENTRY_BYTES;
+    }
+    /**
+     * Finds the arena chunk of a cell address
+     * @param cells The address of an object's cells: the arena chunk number, then the offset in the chunk
+     * @return The arena chunk
+     */
+    private ByteBuffer Chunk(long cells){
+        return arena[(int) (cells >>> CHUNK_SHIFT)];
+    }
+    /**
+     * The offset of a cell address in its arena chunk
+     * @param cells The address of an object's cells
+     * @return The offset in the chunk
+     */
+    private static int ChunkOffset(long cells){
+        return (int) (cells & (CHUNK_BYTES - 1));
+    }
+    /**
+     * Reserves space in the arena, mapping a new arena chunk if the newest one is full
+     * @param bytes The number of bytes to reserve. At most CHUNK_BYTES
+     * @return The address of the space: the arena chunk number, then the offset in the chunk
+     */
+    private long Allocate(int bytes){
+        if (bytes > CHUNK_BYTES)
+            throw new IllegalStateException("An object cannot have more than " + CHUNK_BYTES / CELL_BYTES + " modified cells");
+
+        synchronized (channel){
+            if (CHUNK_BYTES - arenaUsed < bytes){
+                ByteBuffer[] updated = Arrays.copyOf(arena, arena.length + 1);
+                updated[arena.length] = MapChunk();
+                arena = updated;
+                arenaUsed = 0;
+            }
+
+            long cells = ((long) (arena.length - 1) << CHUNK_SHIFT) | arenaUsed;
+            arenaUsed += (bytes + Long.BYTES - 1) & -Long.BYTES;
+            //keeps every mask 8 byte aligned
+            return cells;
+        }
+    }
+    /**
+     * Maps the next chunk of the file. The caller must hold the channel's monitor
+     * @return The new chunk, filled with zeros
+     */
+    private ByteBuffer MapChunk(){
+        try {
+            ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, CHUNK_BYTES).order(ByteOrder.nativeOrder());
+            fileSize += CHUNK_BYTES;
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    //endregion
+    //region Closing
+    /**
+     * Closes and deletes the file. No cell can be modified afterwards
+     * @throws IOException If the file cannot be closed
+     */
+    public void Close() throws IOException {
+        channel.close();
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,163 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Audit log indexes kept in memory
+ * Subjects, objects and capabilities have posting lists of sequence numbers and the permitted flag is a bitmap
+ * Not thread safe. The ACM guards the index with its monitor
+ */
+public final class MemoryAuditIndex extends AuditIndex {
+    //region Variables
+    private final HashMap<String, Postings> bySubject;
+    //The sequence numbers of the entries of each subject
+    private final HashMap<String, Postings> byObject;
+    //The sequence numbers of the entries of each object
+    private final HashMap<String, Postings> byCapability;
+    //The sequence numbers of the entries of each requested capability
+    private final BitSet permitted;
+    //Bit n is set if entry n was permitted
+    private int permittedCount;
+    //The number of permitted entries
+    private int size;
+    //The number of indexed entries, which is also the next sequence number
+    //endregion
+    //region Postings
+    /**
+     * A growable list of sequence numbers in ascending order
+     */
+    private static final class Postings {
+        int[] sequences = new int[4];
+        //The sequence numbers
+        int size = 0;
+        //The number of sequence numbers used
+
+        void Add(int sequence){
+            if (size == sequences.length)
+                sequences = Arrays.copyOf(sequences, size * 2);
+            sequences[size++] = sequence;
+        }
+    }
+    //endregion
+    //region Constructor
+    /**
+     * The default MemoryAuditIndex constructor
+     */
+    public MemoryAuditIndex(){
+        bySubject = new HashMap<String, Postings>();
+        byObject = new HashMap<String, Postings>();
+        byCapability = new HashMap<String, Postings>();
+        permitted = new BitSet();
+        permittedCount = 0;
+        size = 0;
+    }
+    //endregion
+    //region Modify
+    /**
+     * Indexes the next entry of the log and gives it its sequence number
+     * @param entryIn The entry to index
+     */
+    @Override
+    public void Add(LogEntry entryIn){
+        if (size == Integer.MAX_VALUE)
+            throw new IllegalStateException("Cannot index more than " + Integer.MAX_VALUE + " log entries");
+
+        entryIn.sequence = size;
+        Post(bySubject, entryIn.subject);
+        Post(byObject, entryIn.object);
+        Post(byCapability, entryIn.capabilityRequested);
+        if (entryIn.permitted){
+            permitted.set(size);
+            permittedCount++;
+        }
+        size++;
+    }
+    /**
+     * Adds the next sequence number to the posting list of a value
+     * @param index The index of the field
+     * @param value The value of the field in the entry
+     */
+    private void Post(HashMap<String, Postings> index, String value){
+        Postings postings = index.get(value);
+        if (postings == null){
+            postings = new Postings();
+            index.put(value, postings);
+        }
+        postings.Add(size);
+    }
+    //endregion
+    //region Lookup
+    /**
+     * The number of indexed entries
+     * @return The number of indexed entries
+     */
+    @Override
+    public int Size(){
+        return size;
+    }
+    /**
+     * Counts the entries with a given value
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for. "true" or "false" for PERMITTED
+     * @return The number of matching entries
+     */
+    @Override
+    public int Count(Field fieldIn, String valueIn){
+        if (fieldIn == Field.PERMITTED)
+            return Boolean.parseBoolean(valueIn) ? permittedCount : size - permittedCount;
+
+        Postings postings = IndexOf(fieldIn).get(valueIn);
+        return (postings == null) ? 0 : postings.size;
+    }
+    /**
+     * Finds the next page of entries with a given value
+     * @param fieldIn The field to search
+     * @param valueIn The value to search for. "true" or "false" for PERMITTED
+     * @param afterSequence Only entries after this sequence number are found. -1 starts from the beginning
+     * @param page Filled with the sequence numbers of the matching entries in ascending order
+     * @return The number of sequence numbers put in the page. Less than the page length once there are no more
+     */
+    @Override
+    public int Page(Field fieldIn, String valueIn, int afterSequence, int[] page){
+        int count = 0;
+        if (fieldIn == Field.PERMITTED){
+            boolean permittedIn = Boolean.parseBoolean(valueIn);
+            int next = afterSequence + 1;
+            while (count < page.length){
+                next = permittedIn ? permitted.nextSetBit(next) : permitted.nextClearBit(next);
+                if (next == -1 || next >= size)
+                    break;
+                page[count++] = next++;
+            }
+
+            return count;
+        }
+
+        Postings postings = IndexOf(fieldIn).get(valueIn);
+        if (postings == null)
+            return 0;
+
+        int start = Arrays.binarySearch(postings.sequences, 0, postings.size, afterSequence + 1);
+        if (start < 0)
+            start = -start - 1;
+        //the sequence numbers are unique, so this is the first one after afterSequence
+        count = Math.min(page.length, postings.size - start);
+        System.arraycopy(postings.sequences, start, page, 0, count);
+
+        return count;
+    }
+    /**
+     * Finds the index of a field
+     * @param fieldIn The field to find the index of. Must not be PERMITTED
+     * @return The posting lists of the field
+     */
+    private HashMap<String, Postings> IndexOf(Field fieldIn){
+        return switch (fieldIn){
+            case SUBJECT -> bySubject;
+            case OBJECT -> byObject;
+            case CAPABILITY -> byCapability;
+            default -> throw new IllegalArgumentException(fieldIn + " does not have posting lists");
+        };
+    }
+    //endregion
+}
\ No newline at end of file
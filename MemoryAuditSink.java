@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An audit sink that keeps every entry in memory
+ */
+public final class MemoryAuditSink extends AuditSink {
+    //region Variables
+    private final ArrayList<LogEntry> log;
+    //List of log data for testing the ACM. Guarded by its own monitor
+    //endregion
+    //region Constructor
+    /**
+     * The default MemoryAuditSink constructor
+     */
+    public MemoryAuditSink(){
+        log = new ArrayList<LogEntry>();
+    }
+    //endregion
+    //region Overrides
+    /**
+     * Adds an entry to the end of the log
+     * @param entryIn The entry to add
+     */
+    @Override
+    public void Append(LogEntry entryIn){
+        synchronized (log){
+            log.add(entryIn);
+        }
+    }
+    /**
+     * Adds several entries to the end of the log, keeping their order
+     * @param entriesIn The entries to add
+     */
+    @Override
+    public void AppendAll(List<LogEntry> entriesIn){
+        synchronized (log){
+            log.addAll(entriesIn);
+        }
+    }
+    /**
+     * Visits every entry in the order they were added
+     * @param visitor The function to give each entry to
+     */
+    @Override
+    public void Scan(Consumer<LogEntry> visitor){
+        synchronized (log){
+            for (LogEntry entry : log)
+                visitor.accept(entry);
+        }
+    }
+    /**
+     * Finds an entry by its position in the log
+     * @param sequence The number of entries added before it
+     * @return The entry
+     */
+    @Override
+    public LogEntry Get(int sequence){
+        synchronized (log){
+            return log.get(sequence);
+        }
+    }
+    /**
+     * Visits several entries by their position in the log
+     * @param sequences The number of entries added before each entry to visit
+     * @param count The number of sequences to use
+     * @param visitor The function to give each entry to, in the order of the sequences
+     */
+    @Override
+    public void Get(int[] sequences, int count, Consumer<LogEntry> visitor){
+        synchronized (log){
+            for (int x = 0; x < count; x++)
+                visitor.accept(log.get(sequences[x]));
+        }
+    }
+    //endregion
+}
\ No newline at end of file
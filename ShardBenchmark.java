@@ -0,0 +1,234 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures how throughput scales with the number of ACM shards
+ * For each shard count, that many ACMServer processes are started on localhost and reached through ShardRouters
+ * Authors and editors are added to every shard, then every author creates and submits a manuscript, so each Submit gives every
+ * editor access on the manuscript's shard. Then each connection runs on its own thread with its own router, sending Read commands
+ * for random manuscripts by their owner, another author or an editor
+ * java ShardBenchmark {maxShards} {connections} {window} {seconds} {population} {loopsPerShard}
+ * The shard counts measured are 1, 2, 4 and so on up to maxShards. Shards only run in parallel when there are cores for them
+ */
+public final class ShardBenchmark {
+    //region Variables
+    private static final int EDITORS = 5;
+    //The number of editors every submitted manuscript is given to
+    private static final int COMMANDS_PER_BATCH = 1 << 14;
+    //The number of Read commands each connection sends per RunPipelined call
+    private final int population;
+    //The number of authors and manuscripts
+    private final int window;
+    //The most requests in flight on each shard of each connection
+    //endregion
+    //region Constructor
+    /**
+     * The default ShardBenchmark constructor
+     * @param populationIn The number of authors and manuscripts
+     * @param windowIn The most requests in flight on each shard of each connection
+     */
+    public ShardBenchmark(int populationIn, int windowIn){
+        population = populationIn;
+        window = windowIn;
+    }
+    //endregion
+    //region Shards
+    /**
+     * ACMServer processes started on localhost
+     */
+    private static final class Shards implements AutoCloseable {
+        final Process[] processes;
+        //The process of each shard
+        final InetSocketAddress[] addresses;
+        //The address of each shard
+
+        /**
+         * Starts the shard processes and waits for each to report its port
+         * @param count The number of shards
+         * @param loops The number of event loops of each shard
+         * @throws IOException If a shard cannot be started
+         */
+        Shards(int count, int loops) throws IOException {
+            processes = new Process[count];
+            addresses = new InetSocketAddress[count];
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            try {
+                for (int x = 0; x < count; x++){
+                    processes[x] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ACMServer", "0",
+                            String.valueOf(loops)).redirectErrorStream(true).start();
+                    addresses[x] = new InetSocketAddress("127.0.0.1", ReadPort(processes[x]));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        /**
+         * Reads the port a shard process is serving on from its first line of output
+         * @param process The shard process
+         * @return The port
+         * @throws IOException If the process exits or does not report a port
+         */
+        private static int ReadPort(Process process) throws IOException {
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = output.readLine();
+            String prefix = "Serving on port ";
+            if (line == null || !line.startsWith(prefix))
+                throw new IOException("A shard did not start: ".concat(String.valueOf(line)));
+
+            return Integer.parseInt(line.substring(prefix.length(), line.indexOf(' ', prefix.length())));
+        }
+        /**
+         * Stops every shard process
+         */
+        @Override
+        public void close(){
+            for (Process process : processes)
+                if (process != null)
+                    process.destroy();
+            for (Process process : processes){
+                if (process == null)
+                    continue;
+                try {
+                    process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    //endregion
+    //region Benchmark
+    /**
+     * Adds the authors and editors, then creates and submits one manuscript for each author
+     * @param shards The addresses of the shards
+     * @return The number of commands run
+     * @throws IOException If a shard cannot be reached
+     */
+    public long Populate(InetSocketAddress[] shards) throws IOException {
+        ArrayList<String> commands = new ArrayList<String>(population * 3 + EDITORS);
+        for (int x = 0; x < EDITORS; x++)
+            commands.add("Add shardEditor" + x + " Editor");
+        for (int x = 0; x < population; x++)
+            commands.add("Add shardAuthor" + x + " Author");
+        for (int x = 0; x < population; x++){
+            commands.add("Create shardManuscript" + x + " shardAuthor" + x);
+            commands.add("Submit shardManuscript" + x + " shardAuthor" + x);
+        }
+
+        try (ShardRouter router = new ShardRouter(shards)) {
+            boolean[] results = router.RunPipelined(commands, window);
+            for (int x = 0; x < results.length; x++)
+                if (!results[x])
+                    throw new IllegalStateException("Populating failed at \"".concat(commands.get(x)).concat("\""));
+        }
+        return commands.size();
+    }
+    /**
+     * Makes a batch of Read commands, half by the owner and the rest by another author or an editor
+     * @param seed The seed of the random manuscripts and readers
+     * @return The commands
+     */
+    private ArrayList<String> ReadBatch(long seed){
+        Random random = new Random(seed);
+        ArrayList<String> commands = new ArrayList<String>(COMMANDS_PER_BATCH);
+        for (int x = 0; x < COMMANDS_PER_BATCH; x++){
+            int manuscript = random.nextInt(population);
+            String reader;
+            if (random.nextBoolean())
+                reader = "shardAuthor" + manuscript;
+            else if (random.nextBoolean())
+                reader = "shardAuthor" + random.nextInt(population);
+            else
+                reader = "shardEditor" + random.nextInt(EDITORS);
+            commands.add("Read shardManuscript" + manuscript + " " + reader);
+        }
+        return commands;
+    }
+    /**
+     * Sends Read commands on every connection until a deadline
+     * @param shards The addresses of the shards
+     * @param connections The number of connections, each on its own thread with its own router
+     * @param seconds How long to send requests for
+     * @return The number of checks answered per second
+     * @throws IOException If a shard's connection fails
+     * @throws InterruptedException If the benchmark is interrupted
+     */
+    public double RunReads(InetSocketAddress[] shards, int connections, double seconds) throws IOException, InterruptedException {
+        long[] checks = new long[connections];
+        IOException[] failures = new IOException[connections];
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1_000_000_000L);
+        for (int x = 0; x < connections; x++){
+            final int connection = x;
+            threads[x] = new Thread(() -> {
+                ArrayList<String> batch = ReadBatch(connection);
+                try (ShardRouter router = new ShardRouter(shards)) {
+                    while (System.nanoTime() < deadline){
+                        router.RunPipelined(batch, window);
+                        checks[connection] += batch.size();
+                    }
+                } catch (IOException e) {
+                    failures[connection] = e;
+                }
+            }, "ShardBenchmark-" + x);
+            threads[x].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        long total = 0;
+        for (int x = 0; x < connections; x++){
+            if (failures[x] != null)
+                throw failures[x];
+            total += checks[x];
+        }
+        return total / elapsed;
+    }
+    //endregion
+    //region Running Benchmark
+    /**
+     * Runs the benchmark for each shard count and prints the throughput of each
+     * @param args The most shards, the connections, the window, the seconds, the population and the event loops of each shard
+     * @throws Exception If a shard cannot be started or the benchmark is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int maxShards = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int connections = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int window = (args.length > 2) ? Integer.parseInt(args[2]) : 256;
+        double seconds = (args.length > 3) ? Double.parseDouble(args[3]) : 10;
+        int population = (args.length > 4) ? Integer.parseInt(args[4]) : 10_000;
+        int loops = (args.length > 5) ? Integer.parseInt(args[5]) : 1;
+
+        ShardBenchmark benchmark = new ShardBenchmark(population, window);
+        System.out.printf("%d connections with a window of %d per shard, %,d manuscripts, %d event loops per shard, %d cores%n",
+                connections, window, population, loops, Runtime.getRuntime().availableProcessors());
+        double baseline = 0;
+        int shardCount = 1;
+        while (true){
+            try (Shards shards = new Shards(shardCount, loops)) {
+                long start = System.nanoTime();
+                long commands = benchmark.Populate(shards.addresses);
+                double populateRate = commands / ((System.nanoTime() - start) / 1_000_000_000.0);
+                double checksPerSecond = benchmark.RunReads(shards.addresses, connections, seconds);
+                if (shardCount == 1)
+                    baseline = checksPerSecond;
+                System.out.printf("%d shards: populate %,.0f commands/sec, reads %,.0f checks/sec (%.2fx one shard)%n",
+                        shardCount, populateRate, checksPerSecond, checksPerSecond / baseline);
+            }
+            if (shardCount >= maxShards)
+                break;
+            shardCount = Math.min(shardCount * 2, maxShards);
+        }
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * A consistent hash ring that gives every manuscript name an owning shard
+ * Each shard is placed at many points on a ring of 64 bit hashes, and a manuscript belongs to the shard of the first point at or after
+ * its hash. Shards are placed by their number rather than their address, so restarting a shard on another port keeps its manuscripts,
+ * and adding a shard only moves the manuscripts whose hashes fall just before its points, about 1 / shardCount of them
+ */
+public final class ShardRing {
+    //region Variables
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    //The number of points each shard has unless told otherwise. More points spread the manuscripts more evenly
+    private final long[] points;
+    //The hash of every point in ascending order
+    private final int[] shards;
+    //The shard of each point
+    private final int shardCount;
+    //The number of shards
+    //endregion
+    //region Constructor
+    /**
+     * The default ShardRing constructor. Gives each shard DEFAULT_VIRTUAL_NODES points
+     * @param shardCountIn The number of shards
+     */
+    public ShardRing(int shardCountIn){
+        this(shardCountIn, DEFAULT_VIRTUAL_NODES);
+    }
+    /**
+     * The ShardRing constructor with a specific number of points per shard
+     * @param shardCountIn The number of shards
+     * @param virtualNodes The number of points each shard has on the ring
+     */
+    public ShardRing(int shardCountIn, int virtualNodes){
+        if (shardCountIn < 1 || virtualNodes < 1)
+            throw new IllegalArgumentException("There must be at least one shard with at least one point");
+
+        shardCount = shardCountIn;
+        long[] hashes = new long[shardCountIn * virtualNodes];
+        Integer[] order = new Integer[hashes.length];
+        for (int shard = 0; shard < shardCountIn; shard++){
+            for (int node = 0; node < virtualNodes; node++){
+                int point = shard * virtualNodes + node;
+                hashes[point] = Hash("shard" + shard + "#" + node);
+                order[point] = point;
+            }
+        }
+
+        Arrays.sort(order, (first, second) -> Long.compare(hashes[first], hashes[second]));
+        points = new long[hashes.length];
+        shards = new int[hashes.length];
+        for (int x = 0; x < order.length; x++){
+            points[x] = hashes[order[x]];
+            shards[x] = order[x] / virtualNodes;
+        }
+    }
+    //endregion
+    //region Using Ring
+    /**
+     * Finds the shard that owns a manuscript
+     * @param manuscriptIn The name of the manuscript
+     * @return The number of the shard
+     */
+    public int ShardOf(String manuscriptIn){
+        int index = Arrays.binarySearch(points, Hash(manuscriptIn));
+        if (index < 0)
+            index = -index - 1;
+        if (index == points.length)
+            index = 0;
+        //the ring wraps around to its first point
+
+        return shards[index];
+    }
+    /**
+     * The number of shards on the ring
+     * @return The shard count
+     */
+    public int ShardCount(){
+        return shardCount;
+    }
+    /**
+     * Hashes a name onto the ring. FNV-1a over the characters, then mixed so that similar names land far apart
+     * @param nameIn The name
+     * @return The 64 bit hash
+     */
+    private static long Hash(String nameIn){
+        long hash = 0xCBF29CE484222325L;
+        for (int x = 0; x < nameIn.length(); x++){
+            hash ^= nameIn.charAt(x);
+            hash *= 0x100000001B3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB93FE1A85EC3L;
+        return hash ^ (hash >>> 33);
+    }
+    //endregion
+}
\ No newline at end of file
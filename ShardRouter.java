@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A client for an ACM split across several ACMServer shards
+ * Manuscripts are partitioned by a ShardRing, and each manuscript command is sent to the shard that owns its manuscript
+ * Subjects and roles are replicated: every Add command is sent to every shard. Since every shard knows every subject, the commands that
+ * reach many subjects, such as Submit giving every editor access, only change cells of the submitted manuscript and run on its shard alone
+ * Commands to one shard are sent on one connection, so each shard runs them in the order they were given. An Add is sent to every shard
+ * before any later command, so a shard always has a subject before it sees a command about them. No lock is shared between shards
+ * Each shard keeps its own log, so a manuscript's log entries are on its shard and every shard logs each Add
+ * An Add is not atomic across shards. Every shard has the same roles, so an Add of a new subject is only denied by a shard that
+ * already has the subject, which happens when an earlier Add reached some shards before a connection failed
+ * FailedShards reports the shards an Add was denied by, and RepairAdd sends it again to chosen shards only, so a shard it succeeded
+ * on is never sent it twice. After a connection failure, RepairAdd to every shard from a new router completes the Add: each shard
+ * either adds the subject or already had it, and the shards that already had it are the ones reported
+ * Commands that are not about subjects and manuscripts, such as Print, are not run, as with a single ACMServer
+ * A router is not thread-safe; give each thread its own router
+ */
+public final class ShardRouter implements AutoCloseable {
+    //region Variables
+    private final ShardRing ring;
+    //The owning shard of each manuscript
+    private final ACMClient[] clients;
+    //The connection to each shard, indexed by shard number
+    private final CommandTokenizer tokens;
+    //Finds the verb and manuscript of each command
+    private final int[][] pending;
+    //The commands in flight on each shard, as indexes into the commands being run, in a ring of window entries
+    private final long[] received;
+    //The number of responses received from each shard
+    private final HashMap<Integer, BitSet> addFailures;
+    //The shards each Add of the last run did not succeed on, by the index of the Add in the commands being run
+    private int window;
+    //The most requests in flight on each shard
+    private static final int BROADCAST = -1;
+    //The target of a command sent to every shard
+    private static final int REJECTED = -2;
+    //The target of a command that is not run
+    //endregion
+    //region Constructor
+    /**
+     * The default ShardRouter constructor. Connects to every shard
+     * @param shardsIn The address of each shard. A shard's number is its index, so the order must be the same for every router
+     * @throws IOException If a shard cannot be reached
+     */
+    public ShardRouter(InetSocketAddress[] shardsIn) throws IOException {
+        ring = new ShardRing(shardsIn.length);
+        clients = new ACMClient[shardsIn.length];
+        tokens = new CommandTokenizer();
+        pending = new int[shardsIn.length][];
+        received = new long[shardsIn.length];
+        addFailures = new HashMap<Integer, BitSet>();
+        window = 0;
+        try {
+            for (int x = 0; x < shardsIn.length; x++)
+                clients[x] = new ACMClient(shardsIn[x]);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+    //endregion
+    //region Routing
+    /**
+     * Finds where a command is sent
+     * @param commandIn The command in the RunCommand syntax
+     * @return The number of the shard that owns the command's manuscript, BROADCAST for an Add or REJECTED if the command is not run
+     */
+    private int Target(String commandIn){
+        int words = tokens.Tokenize(commandIn);
+        if (words == 3 && tokens.Matches(0, "Add"))
+            return BROADCAST;
+        if (words != 3 && words != 4)
+            return REJECTED;
+
+        return ring.ShardOf(tokens.Token(1));
+    }
+    /**
+     * Finds the shard that owns a manuscript
+     * @param manuscriptIn The name of the manuscript
+     * @return The number of the shard
+     */
+    public int ShardOf(String manuscriptIn){
+        return ring.ShardOf(manuscriptIn);
+    }
+    /**
+     * The number of shards
+     * @return The shard count
+     */
+    public int ShardCount(){
+        return clients.length;
+    }
+    //endregion
+    //region Requests
+    /**
+     * Runs a command and waits for its result
+     * @param commandIn The command in the RunCommand syntax
+     * @return Whether the command ran and succeeded. An Add succeeds if it succeeded on every shard, otherwise see FailedShards
+     * @throws IOException If a shard's connection fails
+     */
+    public boolean RunCommand(String commandIn) throws IOException {
+        return RunPipelined(List.of(commandIn), 1)[0];
+    }
+    /**
+     * Runs many commands, keeping up to ACMClient.DEFAULT_WINDOW requests in flight on each shard
+     * @param commands The commands in the RunCommand syntax
+     * @return Whether each command ran and succeeded, in the same order as the commands
+     * @throws IOException If a shard's connection fails
+     */
+    public boolean[] RunPipelined(List<String> commands) throws IOException {
+        return RunPipelined(commands, ACMClient.DEFAULT_WINDOW);
+    }
+    /**
+     * Runs many commands, keeping a window of requests in flight on each shard so every shard can run them in batches
+     * The shards run their commands at the same time. A shard only waits for the router, never for another shard
+     * @param commands The commands in the RunCommand syntax
+     * @param windowIn The most requests in flight on each shard
+     * @return Whether each command ran and succeeded, in the same order as the commands
+     * An Add succeeds if it succeeded on every shard, otherwise see FailedShards
+     * @throws IOException If a shard's connection fails
+     */
+    public boolean[] RunPipelined(List<String> commands, int windowIn) throws IOException {
+        SetWindow(windowIn);
+        addFailures.clear();
+
+        boolean[] results = new boolean[commands.size()];
+        for (int x = 0; x < commands.size(); x++){
+            String command = commands.get(x);
+            int target = Target(command);
+            if (target == REJECTED)
+                continue;
+
+            results[x] = true;
+            //cleared by any shard that does not run the command successfully
+            if (target == BROADCAST){
+                addFailures.put(x, new BitSet(clients.length));
+                for (int shard = 0; shard < clients.length; shard++)
+                    Send(shard, command, x, results);
+            }
+            else
+                Send(target, command, x, results);
+        }
+
+        ReceiveAll(results);
+        return results;
+    }
+    /**
+     * Finds the shards an Add of the last RunCommand, RunPipelined or RepairAdd call did not succeed on
+     * @param index The index of the Add in the commands that were run. 0 for RunCommand and RepairAdd
+     * @return The numbers of the shards. Empty if the Add succeeded on every shard or the command was not an Add
+     */
+    public BitSet FailedShards(int index){
+        BitSet failures = addFailures.get(index);
+        return (failures == null) ? new BitSet() : (BitSet) failures.clone();
+    }
+    /**
+     * Sends an Add again to chosen shards only, so every shard ends up with the subject
+     * @param commandIn The Add command in the RunCommand syntax
+     * @param shardsIn The shards to send it to. Every shard after a connection failure
+     * @return The shards that denied it, which already had the subject. All of them if the role does not exist
+     * @throws IOException If a shard's connection fails
+     */
+    public BitSet RepairAdd(String commandIn, BitSet shardsIn) throws IOException {
+        if (Target(commandIn) != BROADCAST)
+            throw new IllegalArgumentException("Only an Add is sent to every shard");
+        SetWindow((window == 0) ? ACMClient.DEFAULT_WINDOW : window);
+        addFailures.clear();
+
+        boolean[] results = {true};
+        addFailures.put(0, new BitSet(clients.length));
+        for (int shard = shardsIn.nextSetBit(0); shard != -1 && shard < clients.length; shard = shardsIn.nextSetBit(shard + 1))
+            Send(shard, commandIn, 0, results);
+
+        ReceiveAll(results);
+        return FailedShards(0);
+    }
+    /**
+     * Makes the ring of pending requests of each shard hold a window of requests
+     * Only called between runs, when no request is in flight
+     * @param windowIn The most requests in flight on each shard
+     */
+    private void SetWindow(int windowIn){
+        if (windowIn < 1)
+            throw new IllegalArgumentException("The window must hold at least one request");
+        if (windowIn != window){
+            for (int x = 0; x < pending.length; x++)
+                pending[x] = new int[windowIn];
+            window = windowIn;
+        }
+    }
+    /**
+     * Sends a command to a shard, first receiving the shard's oldest response if its window is full
+     * Every shard's requests are written before waiting, so no shard sits idle with requests still in the router's buffers
+     * @param shard The number of the shard
+     * @param command The command
+     * @param index The index of the command in the commands being run
+     * @param results The result of each command being run
+     * @throws IOException If the shard's connection fails
+     */
+    private void Send(int shard, String command, int index, boolean[] results) throws IOException {
+        ACMClient client = clients[shard];
+        if (client.InFlight() == window){
+            for (ACMClient other : clients)
+                other.Flush();
+            Receive(shard, results);
+        }
+        pending[shard][(int) ((received[shard] + client.InFlight()) % window)] = index;
+        client.Send(command);
+    }
+    /**
+     * Receives the oldest response of a shard
+     * @param shard The number of the shard
+     * @param results The result of each command being run
+     * @throws IOException If the shard's connection fails
+     */
+    private void Receive(int shard, boolean[] results) throws IOException {
+        int index = pending[shard][(int) (received[shard]++ % window)];
+        if (clients[shard].Receive() != ACMProtocol.STATUS_OK){
+            results[index] = false;
+            BitSet failures = addFailures.get(index);
+            if (failures != null)
+                failures.set(shard);
+        }
+    }
+    /**
+     * Writes every shard's waiting requests and receives every response still in flight
+     * @param results The result of each command being run
+     * @throws IOException If a shard's connection fails
+     */
+    private void ReceiveAll(boolean[] results) throws IOException {
+        for (ACMClient client : clients)
+            client.Flush();
+        for (int shard = 0; shard < clients.length; shard++)
+            while (clients[shard].InFlight() > 0)
+                Receive(shard, results);
+    }
+    //endregion
+    //region Closing
+    /**
+     * Closes the connection to every shard
+     * @throws IOException If a connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ACMClient client : clients){
+            if (client == null)
+                continue;
+            try {
+                client.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A sparse capability matrix that publishes each object's cells as an immutable snapshot
+ * Readers never lock. Writers store changed masks privately and publish a new snapshot of the column on Commit
+ */
+public final class SnapshotCapabilityMatrix extends CapabilityMatrix {
+    //region Variables
+    private volatile Capabilities[] publishedDefaults;
+    //The role default of each subject that readers can see without locking. First dimension is subject
+    private volatile AtomicReferenceArray<Column> columns;
+    //The published snapshot of each object's modified cells. First dimension is object
+    private final ConcurrentHashMap<Integer, CellColumn> pending;
+    //Cells changed since the last commit, keyed by object ID. Each column is guarded by its object's lock
+    //endregion
+    //region Column
+    /**
+     * An immutable snapshot of the modified cells of an object
+     */
+    private static final class Column {
+        static final Column EMPTY = new Column(new int[0], new long[0]);
+        //The snapshot of an object with no modified cells
+        final int[] subjectIds;
+        //The IDs of the subjects with modified cells in ascending order
+        final long[] masks;
+        //The access mask of each subject in subjectIds
+
+        /**
+         * The default Column constructor
+         * @param subjectIdsIn The subject IDs in ascending order
+         * @param masksIn The access masks
+         */
+        Column(int[] subjectIdsIn, long[] masksIn){
+            subjectIds = subjectIdsIn;
+            masks = masksIn;
+        }
+        /**
+         * Finds the cell of a subject
+         * @param subjectId The ID of the subject
+         * @return The index of the cell, or a negative number if the subject's cell has not been modified
+         */
+        int Find(int subjectId){
+            return Arrays.binarySearch(subjectIds, subjectId);
+        }
+        /**
+         * Makes a new snapshot with changed cells replaced by merging the two columns in subject ID order
+         * @param changes The changed cells
+         * @return The new snapshot
+         */
+        Column With(CellColumn changes){
+            int addedCount = 0;
+            for (int y = 0; y < changes.Size(); y++)
+                if (Find(changes.SubjectAt(y)) < 0)
+                    addedCount++;
+
+            int[] newSubjectIds = new int[subjectIds.length + addedCount];
+            long[] newMasks = new long[newSubjectIds.length];
+            int x = 0;
+            int y = 0;
+            for (int z = 0; z < newSubjectIds.length; z++){
+                if (y == changes.Size() || (x < subjectIds.length && subjectIds[x] < changes.SubjectAt(y))){
+                    newSubjectIds[z] = subjectIds[x];
+                    newMasks[z] = masks[x++];
+                }
+                else {
+                    if (x < subjectIds.length && subjectIds[x] == changes.SubjectAt(y))
+                        x++;
+                    //the changed cell replaces the published one
+                    newSubjectIds[z] = changes.SubjectAt(y);
+                    newMasks[z] = changes.MaskAt(y++);
+                }
+            }
+
+            return new Column(newSubjectIds, newMasks);
+        }
+    }
+    //endregion
+    //region Constructor
+    /**
+     * The default SnapshotCapabilityMatrix constructor
+     */
+    public SnapshotCapabilityMatrix(){
+        super();
+        publishedDefaults = new Capabilities[16];
+        columns = new AtomicReferenceArray<Column>(16);
+        pending = new ConcurrentHashMap<Integer, CellColumn>();
+    }
+    //endregion
+    //region Overrides
+    /**
+     * Adds a row for a new subject. No cells are created
+     * @param roleDefaultIn The read only default capabilities of the subject's role
+     */
+    @Override
+    public void AddSubject(Capabilities roleDefaultIn){
+        int subjectId = roleDefaults.size();
+        Capabilities[] current = publishedDefaults;
+        if (subjectId == current.length)
+            current = Arrays.copyOf(current, current.length * 2);
+
+        current[subjectId] = roleDefaultIn;
+        publishedDefaults = current;
+        roleDefaults.add(roleDefaultIn);
+    }
+    /**
+     * Adds an empty column for a new object
+     */
+    @Override
+    public void AddObject(){
+        AtomicReferenceArray<Column> current = columns;
+        if (objectCount == current.length()){
+            AtomicReferenceArray<Column> larger = new AtomicReferenceArray<Column>(current.length() * 2);
+            for (int x = 0; x < objectCount; x++)
+                larger.set(x, current.get(x));
+            current = larger;
+        }
+
+        current.set(objectCount, Column.EMPTY);
+        columns = current;
+        objectCount++;
+    }
+    /**
+     * Gets the last committed access mask of a subject on an object. Safe to call without any lock
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The committed mask, or the mask of the subject's role default if the cell was never modified
+     */
+    @Override
+    public long GetMask(int subjectId, int objectId){
+        Column column = columns.get(objectId);
+        int index = column.Find(subjectId);
+        if (index < 0)
+            return publishedDefaults[subjectId].GetAccessMask();
+
+        return column.masks[index];
+    }
+    /**
+     * Gets the access mask of a subject on an object including changes that readers cannot see until Commit
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The uncommitted mask if the cell was changed since the last commit, otherwise the committed mask
+     */
+    @Override
+    public long GetPendingMask(int subjectId, int objectId){
+        CellColumn changes = pending.get(objectId);
+        int index = (changes == null) ? -1 : changes.Find(subjectId);
+        if (index < 0)
+            return GetMask(subjectId, objectId);
+
+        return changes.MaskAt(index);
+    }
+    /**
+     * Gets the role default of a subject. Safe to call without any lock
+     * @param subjectId The ID of the subject
+     * @return The read only default capabilities of the subject's role
+     */
+    @Override
+    protected Capabilities RoleDefault(int subjectId){
+        return publishedDefaults[subjectId];
+    }
+    /**
+     * Stores a changed access mask privately. Readers see it after Commit
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param accessMask The mask to store
+     */
+    @Override
+    protected void Store(int subjectId, int objectId, long accessMask){
+        pending.computeIfAbsent(objectId, x -> new CellColumn()).Put(subjectId, accessMask);
+    }
+    /**
+     * Publishes a new snapshot of an object's column containing every change since the last commit
+     * @param objectId The ID of the object
+     */
+    @Override
+    public void Commit(int objectId){
+        CellColumn changes = pending.remove(objectId);
+        if (changes != null)
+            columns.set(objectId, columns.get(objectId).With(changes));
+    }
+    /**
+     * Visits every committed cell of an object
+     * @param objectId The ID of the object
+     * @param visitor The function to give the subject ID and access mask of each committed cell to
+     */
+    @Override
+    public void ForEachCell(int objectId, CellVisitor visitor){
+        Column column = columns.get(objectId);
+        for (int x = 0; x < column.subjectIds.length; x++)
+            visitor.Visit(column.subjectIds[x], column.masks[x]);
+    }
+    /**
+     * Determines if cells can be read without holding any lock
+     * @return True
+     */
+    @Override
+    public boolean SupportsLockFreeReads(){
+        return true;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+
+/**
+ * A capability matrix that only stores entries that have been modified
+ * Entries that are not stored are read as the subject's role default
+ */
+public final class SparseCapabilityMatrix extends CapabilityMatrix {
+    //region Variables
+    private final ArrayList<CellColumn> columns;
+    //The access masks of the modified entries of each object. First dimension is object
+    //endregion
+    //region Constructor
+    /**
+     * The default SparseCapabilityMatrix constructor
+     */
+    public SparseCapabilityMatrix(){
+        super();
+        columns = new ArrayList<CellColumn>();
+    }
+    //endregion
+    //region Overrides
+    /**
+     * Adds a row for a new subject. No entries are created
+     * @param roleDefaultIn The read only default capabilities of the subject's role
+     */
+    @Override
+    public void AddSubject(Capabilities roleDefaultIn){
+        roleDefaults.add(roleDefaultIn);
+    }
+    /**
+     * Adds an empty column for a new object
+     */
+    @Override
+    public void AddObject(){
+        columns.add(new CellColumn());
+        objectCount++;
+    }
+    /**
+     * Gets the access mask of a subject on an object
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @return The stored mask, or the mask of the subject's role default if the entry was never modified
+     */
+    @Override
+    public long GetMask(int subjectId, int objectId){
+        CellColumn column = columns.get(objectId);
+        int index = column.Find(subjectId);
+        if (index < 0)
+            return roleDefaults.get(subjectId).GetAccessMask();
+
+        return column.MaskAt(index);
+    }
+    /**
+     * Stores the access mask of a subject on an object
+     * @param subjectId The ID of the subject
+     * @param objectId The ID of the object
+     * @param accessMask The mask to store
+     */
+    @Override
+    protected void Store(int subjectId, int objectId, long accessMask){
+        columns.get(objectId).Put(subjectId, accessMask);
+    }
+    /**
+     * Visits every stored cell of an object in subject ID order
+     * @param objectId The ID of the object
+     * @param visitor The function to give the subject ID and access mask of each stored cell to
+     */
+    @Override
+    public void ForEachCell(int objectId, CellVisitor visitor){
+        CellColumn column = columns.get(objectId);
+        for (int x = 0; x < column.Size(); x++)
+            visitor.Visit(column.SubjectAt(x), column.MaskAt(x));
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Checks that CLI.StreamFile runs every line of a command file and returns, whatever the batch size and read-ahead
+ * Each file is longer than batchSize * readAhead, so the reader fills the queue before the runner takes the last batch and the end
+ * of file marker has to wait for room. The test checks that:
+ * - every run returns within a time limit and reports success
+ * - the log holds as many entries as when the lines are run one at a time
+ * - a missing file returns failure instead of waiting forever
+ * - an interrupted run returns failure and its reader thread stops
+ * java StreamFileTest {lines} runs the test. Exits with status 1 if a check fails
+ */
+public final class StreamFileTest {
+    //region Variables
+    private static final int[][] SETTINGS = {
+            {1, 1}, {1, 2}, {2, 1}, {3, 4}, {64, 1}, {1024, 16}
+    };
+    //The batch size and read-ahead of each run
+    private static final long TIME_LIMIT_MILLIS = 20_000;
+    //How long a run may take before it is taken to be stuck
+    private static final PrintStream CONSOLE = System.out;
+    //The real standard output. The ACM prints the result of every command, so System.out is discarded while commands run
+    private final int lines;
+    //The number of Read lines in each file
+    private int failures;
+    //The number of checks that failed
+    //endregion
+    //region Constructor
+    /**
+     * The default StreamFileTest constructor
+     * @param linesIn The number of Read lines in each file
+     */
+    public StreamFileTest(int linesIn){
+        lines = linesIn;
+        failures = 0;
+    }
+    //endregion
+    //region Testing
+    /**
+     * Records a failed check
+     * @param condition Whether the check passed
+     * @param message What failed
+     */
+    private void Check(boolean condition, String message){
+        if (condition)
+            return;
+        if (failures++ < 20)
+            CONSOLE.println("FAILED: ".concat(message));
+    }
+    /**
+     * Makes the commands of a file that adds an author, creates a manuscript and reads it
+     * @param readLines The number of Read lines
+     * @return The commands
+     */
+    private static ArrayList<String> Commands(int readLines){
+        ArrayList<String> commands = new ArrayList<String>(readLines + 2);
+        commands.add("Add author Author");
+        commands.add("Create manuscript author");
+        for (int x = 0; x < readLines; x++)
+            commands.add("Read manuscript author");
+        return commands;
+    }
+    /**
+     * Writes commands to a temporary file
+     * @param commands The commands, one per line
+     * @return The path of the file
+     * @throws IOException If the file cannot be written
+     */
+    private static Path WriteFile(ArrayList<String> commands) throws IOException {
+        Path path = Files.createTempFile("commands", ".txt");
+        path.toFile().deleteOnExit();
+        return Files.write(path, commands);
+    }
+    /**
+     * Runs StreamFile on its own thread, waiting at most TIME_LIMIT_MILLIS for it
+     * @param cli The CLI to run the file on
+     * @param fileName The file
+     * @param batchSize The batch size
+     * @param readAhead The read-ahead
+     * @return Whether the run returned success. False if it did not return in time
+     * @throws InterruptedException If the test is interrupted
+     */
+    private boolean Stream(CLI cli, String fileName, int batchSize, int readAhead) throws InterruptedException {
+        boolean[] result = new boolean[1];
+        Thread runner = new Thread(() -> result[0] = cli.StreamFile(fileName, batchSize, readAhead, TIME_LIMIT_MILLIS));
+        runner.setDaemon(true);
+        runner.start();
+        runner.join(TIME_LIMIT_MILLIS);
+
+        Check(!runner.isAlive(), "StreamFile with batchSize=" + batchSize + " and readAhead=" + readAhead + " did not return");
+        return !runner.isAlive() && result[0];
+    }
+    /**
+     * Counts the log entries of a system
+     * @param system The system
+     * @return The number of entries
+     */
+    private static long LogSize(EditorialACM system){
+        return system.CountLog(AuditIndex.Field.PERMITTED, "true") + system.CountLog(AuditIndex.Field.PERMITTED, "false");
+    }
+    /**
+     * Streams a file that is longer than batchSize * readAhead with every setting
+     * @param path The file
+     * @param commands The commands in the file
+     * @throws InterruptedException If the test is interrupted
+     */
+    private void CheckComplete(Path path, ArrayList<String> commands) throws InterruptedException {
+        EditorialACM expected = new EditorialACM(new SparseCapabilityMatrix());
+        for (String command : commands)
+            expected.RunCommand(command);
+        //the log of the commands run one at a time
+
+        for (int[] setting : SETTINGS){
+            EditorialACM system = new EditorialACM(new SparseCapabilityMatrix());
+            String name = "batchSize=" + setting[0] + " and readAhead=" + setting[1];
+            Check(commands.size() > setting[0] * setting[1], "The file is not longer than " + name + " can read ahead");
+            Check(Stream(new CLI(system), path.toString(), setting[0], setting[1]), "StreamFile with " + name + " failed");
+
+            Check(LogSize(system) == LogSize(expected), "StreamFile with " + name + " logged " + LogSize(system) + " of " + LogSize(expected) + " entries");
+        }
+    }
+    /**
+     * Streams a file that does not exist
+     * @throws InterruptedException If the test is interrupted
+     */
+    private void CheckMissing() throws InterruptedException {
+        Check(!Stream(new CLI(), "missing-commands.txt", 1, 1), "StreamFile of a missing file reported success");
+    }
+    /**
+     * Interrupts a run while the reader is ahead and checks that both threads stop
+     * @param path The file
+     * @throws InterruptedException If the test is interrupted
+     */
+    private void CheckInterrupted(Path path) throws InterruptedException {
+        CLI cli = new CLI();
+        boolean[] result = {true};
+        Thread runner = new Thread(() -> result[0] = cli.StreamFile(path.toString(), 1, 1, TIME_LIMIT_MILLIS));
+        runner.setDaemon(true);
+        runner.start();
+        Thread.sleep(10);
+        runner.interrupt();
+        runner.join(TIME_LIMIT_MILLIS);
+        Check(!runner.isAlive(), "An interrupted StreamFile did not return");
+        Check(!runner.isAlive() && !result[0], "An interrupted StreamFile reported success");
+
+        long deadline = System.currentTimeMillis() + TIME_LIMIT_MILLIS;
+        while (ReaderRunning() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Check(!ReaderRunning(), "The reader of an interrupted StreamFile did not stop");
+    }
+    /**
+     * Determines if a StreamFile reader thread is still running
+     * @return Whether a thread named CommandFileReader is alive
+     */
+    private static boolean ReaderRunning(){
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals("CommandFileReader") && thread.isAlive())
+                return true;
+        return false;
+    }
+    /**
+     * Runs every check
+     * @return Whether every check passed
+     * @throws IOException If the command file cannot be written
+     * @throws InterruptedException If the test is interrupted
+     */
+    public boolean Run() throws IOException, InterruptedException {
+        ArrayList<String> commands = Commands(lines);
+        Path path = WriteFile(commands);
+        long start = System.nanoTime();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            CheckComplete(path, commands);
+            CheckMissing();
+            CheckInterrupted(path);
+        } finally {
+            System.setOut(CONSOLE);
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        CONSOLE.printf("%,d lines streamed with %d settings in %.2fs, %d failed checks%n", commands.size(), SETTINGS.length, seconds, failures);
+        return failures == 0;
+    }
+    /**
+     * Runs the test
+     * @param args The number of Read lines in the file. Defaults to 20,000, more than the 1024 * 16 that Main reads ahead
+     * @throws IOException If the command file cannot be written
+     * @throws InterruptedException If the test is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int lines = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+
+        if (!new StreamFileTest(lines).Run())
+            System.exit(1);
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,318 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Generates a realistic stream of EditorialACM commands in the RunCommand syntax
+ * Every subject is added first. Manuscripts then move through their workflow, a few at a time and interleaved like real traffic:
+ * Create, Edit by the owner, Submit, an editor invites an associate editor who invites reviewers,
+ * each reviewer accepts and reviews, then the associate editor and the editor review and consider the reviews
+ * Reads of active manuscripts are mixed in between the workflow steps
+ * java WorkloadGenerator {key=value} ... writes the stream to standard output. The keys are the fields of Settings
+ */
+public final class WorkloadGenerator {
+    //region Settings
+    /**
+     * The shape of a generated workload. Each field can be set on the command line as name=value
+     */
+    public static final class Settings {
+        public int authors = 1000;
+        //The number of subjects with the Author role
+        public int editors = 5;
+        //The number of subjects with the Editor role. Every submission gives every editor capabilities
+        public int associateEditors = 50;
+        //The number of subjects with the Associate_Editor role. With none, editors invite reviewers directly
+        public int reviewers = 300;
+        //The number of subjects with the Reviewer role
+        public int administrators = 2;
+        //The number of subjects with the Administrator role
+        public int manuscripts = 10000;
+        //The number of manuscripts created
+        public double submitRate = 0.8;
+        //The fraction of manuscripts that are submitted. The rest are created and edited but never reviewed
+        public int fanOut = 3;
+        //The number of reviewers invited to each submitted manuscript
+        public double readRatio = 2.0;
+        //The number of Read commands generated for each workflow command
+        public double deniedReadRate = 0.1;
+        //The fraction of reads made by a random author instead of someone with access
+        public int activeManuscripts = 64;
+        //The number of manuscripts whose workflows are interleaved at once
+        public long seed = 1;
+        //The seed of the random choices, so the same settings give the same stream
+        public String output = "";
+        //The file to write to. Standard output if empty
+
+        /**
+         * Sets fields from name=value arguments
+         * @param args The arguments
+         * @return These settings
+         */
+        public Settings Parse(String[] args){
+            for (String arg : args){
+                int equals = arg.indexOf('=');
+                if (equals == -1)
+                    throw new IllegalArgumentException("Expected name=value but found \"".concat(arg).concat("\""));
+                try {
+                    java.lang.reflect.Field field = Settings.class.getField(arg.substring(0, equals));
+                    String value = arg.substring(equals + 1);
+                    if (field.getType() == int.class)
+                        field.setInt(this, Integer.parseInt(value));
+                    else if (field.getType() == long.class)
+                        field.setLong(this, Long.parseLong(value));
+                    else if (field.getType() == double.class)
+                        field.setDouble(this, Double.parseDouble(value));
+                    else
+                        field.set(this, value);
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalArgumentException("Unknown setting \"".concat(arg.substring(0, equals)).concat("\""));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (authors < 1 || editors < 1 || reviewers < fanOut)
+                throw new IllegalArgumentException("There must be an author, an editor and at least fanOut reviewers");
+
+            return this;
+        }
+    }
+    //endregion
+    //region Variables
+    private final Settings settings;
+    //The shape of the workload
+    private final Random random;
+    //The source of every random choice
+    private final Writer writer;
+    //Where the commands are written
+    private long workflowCommands;
+    //The number of workflow commands written
+    private long readCommands;
+    //The number of Read commands written
+    private static final int RECENT_MANUSCRIPTS = 1024;
+    //The number of finished manuscripts that are still read
+    private static final String[] DECISIONS = {"Accept", "Accept_Minor", "Accept_Major", "Reject", "Report"};
+    //The review decisions
+    //endregion
+    //region Constructor
+    /**
+     * The default WorkloadGenerator constructor
+     * @param settingsIn The shape of the workload
+     * @param writerIn Where the commands are written
+     */
+    public WorkloadGenerator(Settings settingsIn, Writer writerIn){
+        settings = settingsIn;
+        random = new Random(settingsIn.seed);
+        writer = writerIn;
+        workflowCommands = 0;
+        readCommands = 0;
+    }
+    //endregion
+    //region Workflow
+    /**
+     * The steps of one manuscript's workflow and the subjects that have been given access so far
+     */
+    private static final class Workflow {
+        final String manuscript;
+        //The name of the manuscript
+        final ArrayList<String> steps;
+        //The commands of the workflow, in the order they must run
+        final HashMap<Integer, String> grants;
+        //The subject each step gives read access to, keyed by the step's index
+        final HashMap<Integer, String> revokes;
+        //The subject each step takes read access from, keyed by the step's index
+        final ArrayList<String> readers;
+        //The subjects that have been given read access by the steps written so far
+        int next;
+        //The index of the next step to write
+
+        /**
+         * The default Workflow constructor
+         * @param manuscriptIn The name of the manuscript
+         */
+        Workflow(String manuscriptIn){
+            manuscript = manuscriptIn;
+            steps = new ArrayList<String>();
+            grants = new HashMap<Integer, String>();
+            revokes = new HashMap<Integer, String>();
+            readers = new ArrayList<String>();
+            next = 0;
+        }
+        /**
+         * Adds a step
+         * @param command The command of the step
+         * @param reader The subject that can read the manuscript once the step has run, or null
+         */
+        void Add(String command, String reader){
+            if (reader != null)
+                grants.put(steps.size(), reader);
+            steps.add(command);
+        }
+        /**
+         * Adds a Review step. Reviewing takes read access away from everyone but the owner
+         * @param reviewer The subject that reviews
+         */
+        void AddReview(String reviewer){
+            revokes.put(steps.size(), reviewer);
+            steps.add("Review " + manuscript + " " + reviewer);
+        }
+    }
+    /**
+     * Plans every step of a manuscript's workflow
+     * @param index The number of the manuscript
+     * @return The workflow
+     */
+    private Workflow Plan(int index){
+        String manuscript = "manuscript" + index;
+        String owner = "author" + random.nextInt(settings.authors);
+        Workflow workflow = new Workflow(manuscript);
+        workflow.Add("Create " + manuscript + " " + owner, owner);
+        workflow.Add("Edit " + manuscript + " " + owner, null);
+        if (random.nextDouble() >= settings.submitRate)
+            return workflow;
+
+        String editor = "editor" + random.nextInt(settings.editors);
+        workflow.Add("Submit " + manuscript + " " + owner, editor);
+        String inviter = editor;
+        if (settings.associateEditors > 0){
+            inviter = "associateEditor" + random.nextInt(settings.associateEditors);
+            workflow.Add("Send " + manuscript + " " + editor + " " + inviter, null);
+            workflow.Add("Accept " + manuscript + " " + inviter, inviter);
+        }
+
+        int first = random.nextInt(settings.reviewers);
+        for (int x = 0; x < settings.fanOut; x++){
+            String reviewer = "reviewer" + ((first + x) % settings.reviewers);
+            workflow.Add("Send " + manuscript + " " + inviter + " " + reviewer, null);
+            workflow.Add("Accept " + manuscript + " " + reviewer, reviewer);
+        }
+        for (int x = 0; x < settings.fanOut; x++)
+            workflow.AddReview("reviewer" + ((first + x) % settings.reviewers));
+
+        if (!inviter.equals(editor)){
+            workflow.AddReview(inviter);
+            workflow.Add("Consider_Reviews " + manuscript + " " + inviter + " " + Decision(), null);
+        }
+        workflow.AddReview(editor);
+        workflow.Add("Consider_Reviews " + manuscript + " " + editor + " " + Decision(), null);
+
+        return workflow;
+    }
+    /**
+     * Picks a review decision
+     * @return Accept, Accept_Minor, Accept_Major, Reject or Report
+     */
+    private String Decision(){
+        return DECISIONS[random.nextInt(DECISIONS.length)];
+    }
+    //endregion
+    //region Generating
+    /**
+     * Writes the whole workload
+     * @throws IOException If the commands cannot be written
+     */
+    public void Generate() throws IOException {
+        AddSubjects("author", settings.authors, "Author");
+        AddSubjects("editor", settings.editors, "Editor");
+        AddSubjects("associateEditor", settings.associateEditors, "Associate_Editor");
+        AddSubjects("reviewer", settings.reviewers, "Reviewer");
+        AddSubjects("administrator", settings.administrators, "Administrator");
+
+        ArrayList<Workflow> active = new ArrayList<Workflow>();
+        Workflow[] finished = new Workflow[RECENT_MANUSCRIPTS];
+        //recently finished manuscripts, which are still read
+        int finishedCount = 0;
+        int planned = 0;
+        double reads = 0;
+        while (planned < settings.manuscripts || !active.isEmpty()){
+            while (active.size() < settings.activeManuscripts && planned < settings.manuscripts)
+                active.add(Plan(planned++));
+
+            int pick = random.nextInt(active.size());
+            Workflow workflow = active.get(pick);
+            Write(workflow.steps.get(workflow.next));
+            String reader = workflow.grants.get(workflow.next);
+            if (reader != null)
+                workflow.readers.add(reader);
+            workflow.readers.remove(workflow.revokes.get(workflow.next));
+            workflow.next++;
+            workflowCommands++;
+            if (workflow.next == workflow.steps.size()){
+                active.set(pick, active.get(active.size() - 1));
+                active.remove(active.size() - 1);
+                finished[finishedCount++ % RECENT_MANUSCRIPTS] = workflow;
+            }
+
+            reads += settings.readRatio;
+            for (; reads >= 1; reads--){
+                int choice = random.nextInt(active.size() + Math.min(finishedCount, RECENT_MANUSCRIPTS));
+                Workflow read = (choice < active.size()) ? active.get(choice) : finished[choice - active.size()];
+                if (read.next == 0)
+                    continue;
+                //the manuscript has not been created yet
+
+                String subject = (random.nextDouble() < settings.deniedReadRate)
+                        ? "author" + random.nextInt(settings.authors)
+                        : read.readers.get(random.nextInt(read.readers.size()));
+                Write("Read " + read.manuscript + " " + subject);
+                readCommands++;
+            }
+        }
+        writer.flush();
+    }
+    /**
+     * Writes the Add commands for the subjects of a role
+     * @param prefix The start of each subject's name. The subject's number follows it
+     * @param count The number of subjects
+     * @param role The role of the subjects
+     * @throws IOException If the commands cannot be written
+     */
+    private void AddSubjects(String prefix, int count, String role) throws IOException {
+        for (int x = 0; x < count; x++)
+            Write("Add " + prefix + x + " " + role);
+    }
+    /**
+     * Writes a command on its own line
+     * @param command The command
+     * @throws IOException If the command cannot be written
+     */
+    private void Write(String command) throws IOException {
+        writer.write(command);
+        writer.write('\n');
+    }
+    /**
+     * The number of workflow commands written, not counting the Add commands
+     * @return The number of manuscript commands other than reads
+     */
+    public long WorkflowCommands(){
+        return workflowCommands;
+    }
+    /**
+     * The number of Read commands written
+     * @return The number of reads
+     */
+    public long ReadCommands(){
+        return readCommands;
+    }
+    //endregion
+    //region Running Generator
+    /**
+     * Generates a workload
+     * @param args name=value settings. See Settings for the names
+     * @throws IOException If the workload cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Settings settings = new Settings().Parse(args);
+        try (Writer out = new BufferedWriter(settings.output.isEmpty() ? new OutputStreamWriter(System.out)
+                : new FileWriter(settings.output), 1 << 16)) {
+            WorkloadGenerator generator = new WorkloadGenerator(settings, out);
+            generator.Generate();
+            System.err.printf("Wrote %,d workflow commands and %,d reads%n", generator.WorkflowCommands(), generator.ReadCommands());
+        }
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,658 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of ACM state changes, stored in segment files named {basePath}.{n}
+ * Each record holds every change made by one command and is numbered by its position in the log
+ * Changes are absolute (a subject or object with a given ID, a cell with a given mask), so replaying a record twice is harmless
+ * Records are made durable with group commit: one thread writes and forces every record waiting at that moment
+ * while the others wait for it, so many commands share one fsync
+ * A segment starts with a magic number, version, the position of its first record and the capability names in ordinal order
+ * A record is its payload length, the CRC32 of the payload, and the payload: a list of operations
+ * Subject: 1, varint ID, name, role. Object: 2, varint ID, name. Cell: 3, varint object ID, varint subject ID, 8 byte mask
+ * Names are a varint length followed by UTF-8 bytes
+ */
+public final class WriteAheadLog {
+    //region Format
+    private static final int MAGIC = 0x41434D57;
+    //The first 4 bytes of every segment
+    private static final int VERSION = 1;
+    //The version of the format
+    private static final byte SUBJECT_OPERATION = 1;
+    //Adds a subject
+    private static final byte OBJECT_OPERATION = 2;
+    //Adds an object
+    private static final byte CELL_OPERATION = 3;
+    //Sets the access mask of a cell
+    private static final int RECORD_HEADER_SIZE = 8;
+    //The length and CRC32 before each record payload
+    //endregion
+    //region Record
+    /**
+     * The changes made by one command, encoded as they are added
+     */
+    public static final class Record {
+        private final Encoder payload = new Encoder();
+        //The encoded operations
+
+        /**
+         * Adds a subject
+         * @param subjectId The ID of the subject
+         * @param name The name of the subject
+         * @param role The role of the subject
+         */
+        public void AddSubject(int subjectId, String name, String role){
+            payload.WriteByte(SUBJECT_OPERATION);
+            payload.WriteVarint(subjectId);
+            payload.WriteString(name);
+            payload.WriteString(role);
+        }
+        /**
+         * Adds an object
+         * @param objectId The ID of the object
+         * @param name The name of the object
+         */
+        public void AddObject(int objectId, String name){
+            payload.WriteByte(OBJECT_OPERATION);
+            payload.WriteVarint(objectId);
+            payload.WriteString(name);
+        }
+        /**
+         * Sets the access mask of a cell
+         * @param objectId The ID of the object
+         * @param subjectId The ID of the subject
+         * @param accessMask The access mask of the cell, using this process's capability ordinals
+         */
+        public void SetCell(int objectId, int subjectId, long accessMask){
+            payload.WriteByte(CELL_OPERATION);
+            payload.WriteVarint(objectId);
+            payload.WriteVarint(subjectId);
+            payload.WriteLong(accessMask);
+        }
+        /**
+         * Determines if the record has any changes
+         * @return Whether the record is empty
+         */
+        public boolean IsEmpty(){
+            return payload.size == 0;
+        }
+        /**
+         * Removes every change so the record can be used again. The encoded bytes keep their capacity
+         */
+        public void Clear(){
+            payload.size = 0;
+        }
+    }
+    /**
+     * Applies the changes of records while the log is replayed
+     */
+    public interface Replayer {
+        /**
+         * Adds a subject if it does not exist yet
+         * @param subjectId The ID of the subject
+         * @param name The name of the subject
+         * @param role The role of the subject
+         * @throws IOException If the change does not fit the current state
+         */
+        void AddSubject(int subjectId, String name, String role) throws IOException;
+        /**
+         * Adds an object if it does not exist yet
+         * @param objectId The ID of the object
+         * @param name The name of the object
+         * @throws IOException If the change does not fit the current state
+         */
+        void AddObject(int objectId, String name) throws IOException;
+        /**
+         * Sets the access mask of a cell
+         * @param objectId The ID of the object
+         * @param subjectId The ID of the subject
+         * @param accessMask The access mask of the cell, using this process's capability ordinals
+         * @throws IOException If the change does not fit the current state
+         */
+        void SetCell(int objectId, int subjectId, long accessMask) throws IOException;
+        /**
+         * Called after every operation of a record has been applied
+         */
+        void EndRecord();
+    }
+    //endregion
+    //region Variables
+    private final Path basePath;
+    //The path the segment numbers are added to
+    private final long maxSegmentBytes;
+    //The size a segment can grow to before a new one is started
+    private final TreeMap<Integer, Long> segmentStarts;
+    //The position of the first record of each segment
+    private final ReentrantLock lock;
+    //Guards the pending records and the flush state
+    private final Condition flushed;
+    //Signalled when a flush finishes
+    private final ThreadLocal<long[]> threadPosition;
+    //The position after the last record appended by each thread. Only read and written by its thread
+    private Encoder pending;
+    //Records appended but not written yet
+    private Encoder spare;
+    //The buffer swapped in for pending while it is written
+    private long nextPosition;
+    //The position of the next record to append
+    private long durablePosition;
+    //Every record before this position has been forced to disk
+    private boolean flushing;
+    //Whether a thread is writing records or changing segments
+    private IOException failure;
+    //The first error while writing records. Records waiting for that flush or appended after it are not durable
+    private FileChannel channel;
+    //The current segment. Only used by the thread that is flushing
+    private int segmentIndex;
+    //The number of the current segment
+    private long segmentBytes;
+    //The size of the current segment
+    private long syncCount;
+    //The number of times the log has been forced to disk
+    //endregion
+    //region Constructor
+    /**
+     * Opens a write-ahead log, replays the records from a given position and starts a new segment for new records
+     * A record that was only partly written before a crash ends the log
+     * @param basePathIn The path the segment numbers are added to
+     * @param maxSegmentBytesIn The size a segment can grow to before a new one is started
+     * @param replayFrom The position of the first record to replay. Earlier records are skipped
+     * @param replayer Applies the replayed records
+     * @throws IOException If the log cannot be read, a replayed record cannot be applied, or a new segment cannot be created
+     */
+    public WriteAheadLog(Path basePathIn, long maxSegmentBytesIn, long replayFrom, Replayer replayer) throws IOException {
+        basePath = basePathIn.toAbsolutePath();
+        maxSegmentBytes = maxSegmentBytesIn;
+        segmentStarts = new TreeMap<Integer, Long>();
+        lock = new ReentrantLock();
+        flushed = lock.newCondition();
+        threadPosition = ThreadLocal.withInitial(() -> new long[] {0});
+        pending = new Encoder();
+        spare = new Encoder();
+        flushing = false;
+        failure = null;
+        syncCount = 0;
+
+        ArrayList<Integer> existing = SegmentIndexes();
+        long position = 0;
+        for (int x = 0; x < existing.size(); x++)
+            position = ReplaySegment(existing.get(x), position, replayFrom, replayer, x == existing.size() - 1);
+        if (!segmentStarts.isEmpty() && segmentStarts.firstEntry().getValue() > replayFrom)
+            throw new IOException("The records from " + replayFrom + " to " + segmentStarts.firstEntry().getValue() + " have been deleted");
+        nextPosition = Math.max(position, replayFrom);
+        //new records must come after every record the snapshot already contains
+        durablePosition = nextPosition;
+
+        segmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+        OpenSegment(nextPosition);
+    }
+    //endregion
+    //region Append
+    /**
+     * Adds a record to the log. The record is durable once Sync returns on the same thread
+     * @param recordIn The record to add. Nothing is added if it is empty
+     * @return The position of the record, or -1 if it was empty
+     */
+    public long Append(Record recordIn){
+        if (recordIn.IsEmpty())
+            return -1;
+
+        CRC32 crc = new CRC32();
+        crc.update(recordIn.payload.bytes, 0, recordIn.payload.size);
+        long position;
+        lock.lock();
+        try {
+            if (channel == null)
+                throw new IllegalStateException("The write-ahead log is closed");
+
+            pending.WriteInt(recordIn.payload.size);
+            pending.WriteInt((int) crc.getValue());
+            pending.WriteBytes(recordIn.payload.bytes, recordIn.payload.size);
+            position = nextPosition++;
+        } finally {
+            lock.unlock();
+        }
+
+        threadPosition.get()[0] = position + 1;
+        return position;
+    }
+    /**
+     * Waits until every record appended by this thread is durable
+     * If no other thread is writing records, this thread writes every waiting record and forces them to disk
+     * @throws IOException If the records could not be written
+     */
+    public void Sync() throws IOException {
+        long[] position = threadPosition.get();
+        if (position[0] == 0)
+            return;
+
+        WaitForDurable(position[0]);
+        position[0] = 0;
+    }
+    /**
+     * Waits until every record before a position is durable, leading the flush if no other thread is
+     * @param target The position to wait for
+     * @throws IOException If the records could not be written
+     */
+    private void WaitForDurable(long target) throws IOException {
+        lock.lock();
+        try {
+            while (durablePosition < target){
+                if (flushing){
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+
+                Flush();
+                //the records of every waiting thread are written together
+            }
+            if (failure != null)
+                throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * Writes and forces every pending record. The caller must hold the lock and no other thread can be flushing
+     * The lock is released while writing so other threads can keep appending
+     */
+    private void Flush(){
+        Encoder writing = pending;
+        pending = spare;
+        spare = writing;
+        long target = nextPosition;
+        flushing = true;
+        lock.unlock();
+        IOException error = null;
+        try {
+            Write(writing);
+            channel.force(false);
+            if (segmentBytes >= maxSegmentBytes)
+                Rotate(target);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            writing.size = 0;
+            lock.lock();
+        }
+
+        syncCount++;
+        if (failure == null)
+            failure = error;
+        //once a write fails nothing after it can be trusted, so every later sync fails too
+        durablePosition = target;
+        //waiting threads see the failure instead of waiting forever
+        flushing = false;
+        flushed.signalAll();
+    }
+    //endregion
+    //region Checkpoint
+    /**
+     * The position of the next record to be appended. A snapshot saved after reading it contains every earlier record
+     * @return The position of the next record
+     */
+    public long NextPosition(){
+        lock.lock();
+        try {
+            return nextPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * Deletes the segments that only hold records before a position. Called once a snapshot covers those records
+     * @param position The position of the first record that is still needed
+     * @throws IOException If a segment cannot be written or deleted
+     */
+    public void Checkpoint(long position) throws IOException {
+        long firstPosition;
+        lock.lock();
+        try {
+            while (flushing)
+                flushed.awaitUninterruptibly();
+            if (nextPosition > durablePosition)
+                Flush();
+            if (failure != null)
+                throw failure;
+
+            firstPosition = durablePosition;
+            flushing = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            Rotate(firstPosition);
+            //the current segment is finished so every older segment can be deleted
+            Integer next;
+            while ((next = segmentStarts.higherKey(segmentStarts.firstKey())) != null &&
+                    segmentStarts.get(next) <= position){
+                Files.deleteIfExists(SegmentPath(segmentStarts.firstKey()));
+                segmentStarts.pollFirstEntry();
+            }
+        } finally {
+            lock.lock();
+            flushing = false;
+            flushed.signalAll();
+            lock.unlock();
+        }
+    }
+    /**
+     * The number of times the log has been forced to disk
+     * @return The number of forces
+     */
+    public long SyncCount(){
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * Makes every appended record durable and closes the log
+     * @throws IOException If the records could not be written
+     */
+    public void Close() throws IOException {
+        WaitForDurable(NextPosition());
+        lock.lock();
+        try {
+            while (flushing)
+                flushed.awaitUninterruptibly();
+            if (channel != null)
+                channel.close();
+            channel = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    //endregion
+    //region Segments
+    /**
+     * Writes encoded bytes to the current segment
+     * @param encoder The bytes to write
+     * @throws IOException If the segment cannot be written
+     */
+    private void Write(Encoder encoder) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(encoder.bytes, 0, encoder.size);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        segmentBytes += encoder.size;
+    }
+    /**
+     * Closes the current segment and starts the next one
+     * @param firstPosition The position of the first record of the new segment
+     * @throws IOException If a segment cannot be closed or created
+     */
+    private void Rotate(long firstPosition) throws IOException {
+        channel.force(true);
+        channel.close();
+        segmentIndex++;
+        OpenSegment(firstPosition);
+    }
+    /**
+     * Creates the segment with the current index and writes its header
+     * @param firstPosition The position of the first record of the segment
+     * @throws IOException If the segment cannot be created
+     */
+    private void OpenSegment(long firstPosition) throws IOException {
+        channel = FileChannel.open(SegmentPath(segmentIndex), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        Encoder header = new Encoder();
+        header.WriteInt(MAGIC);
+        header.WriteInt(VERSION);
+        header.WriteLong(firstPosition);
+        header.WriteVarint(CapabilityRegistry.Size());
+        for (int x = 0; x < CapabilityRegistry.Size(); x++)
+            header.WriteString(CapabilityRegistry.NameOf(x));
+
+        segmentBytes = 0;
+        Write(header);
+        channel.force(true);
+        segmentStarts.put(segmentIndex, firstPosition);
+    }
+    /**
+     * Replays the records of a segment
+     * @param index The number of the segment
+     * @param expectedStart The position the segment should start at
+     * @param replayFrom The position of the first record to replay
+     * @param replayer Applies the replayed records
+     * @param last Whether this is the newest segment. Only its end can be partly written
+     * @return The position after the last record of the segment
+     * @throws IOException If the segment cannot be read or a record cannot be applied
+     */
+    private long ReplaySegment(int index, long expectedStart, long replayFrom, Replayer replayer, boolean last) throws IOException {
+        Path path = SegmentPath(index);
+        byte[] bytes = Files.readAllBytes(path);
+        Decoder decoder = new Decoder(bytes, 0, bytes.length);
+        if (bytes.length >= 16 && (decoder.ReadInt() != MAGIC || decoder.ReadInt() != VERSION))
+            throw new IOException("\"" + path + "\" is not a write-ahead log segment");
+
+        long position;
+        String[] capabilities;
+        try {
+            if (bytes.length < 16)
+                throw new IOException("\"" + path + "\" is not a write-ahead log segment");
+            position = decoder.ReadLong();
+            capabilities = new String[(int) decoder.ReadVarint()];
+            for (int x = 0; x < capabilities.length; x++)
+                capabilities[x] = decoder.ReadString();
+        } catch (IOException e) {
+            if (!last)
+                throw e;
+            Files.delete(path);
+            //the header is forced before any record is added, so a segment with a partly written header holds nothing
+            return expectedStart;
+        }
+
+        if (!segmentStarts.isEmpty() && position != expectedStart && (position < expectedStart || position > replayFrom))
+            throw new IOException("\"" + path + "\" starts at record " + position + " instead of " + expectedStart);
+        //a gap is only allowed where a snapshot already holds the missing records
+        segmentStarts.put(index, position);
+
+        int[] ordinals = new int[capabilities.length];
+        for (int x = 0; x < ordinals.length; x++){
+            ordinals[x] = CapabilityRegistry.OrdinalOf(capabilities[x]);
+            if (ordinals[x] == -1)
+                throw new IOException("Capability \"" + capabilities[x] + "\" does not exist");
+        }
+
+        CRC32 crc = new CRC32();
+        while (decoder.offset < bytes.length){
+            int recordStart = decoder.offset;
+            boolean complete = bytes.length - recordStart >= RECORD_HEADER_SIZE;
+            int length = complete ? decoder.ReadInt() : 0;
+            int checksum = complete ? decoder.ReadInt() : 0;
+            if (complete && (length < 0 || length > bytes.length - decoder.offset))
+                complete = false;
+            if (complete){
+                crc.reset();
+                crc.update(bytes, decoder.offset, length);
+                complete = (int) crc.getValue() == checksum;
+            }
+            if (!complete){
+                if (!last)
+                    throw new IOException("\"" + path + "\" has a damaged record at byte " + recordStart);
+                try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    truncate.truncate(recordStart);
+                }
+                //the record was being written when the process stopped and was never acknowledged
+                break;
+            }
+
+            if (position >= replayFrom)
+                ReplayRecord(new Decoder(bytes, decoder.offset, decoder.offset + length), ordinals, replayer);
+            decoder.offset += length;
+            position++;
+        }
+
+        return position;
+    }
+    /**
+     * Applies the operations of a record
+     * @param decoder The record payload
+     * @param ordinals The ordinal in this process of each capability ordinal of the segment
+     * @param replayer Applies the operations
+     * @throws IOException If the record is corrupt or cannot be applied
+     */
+    private static void ReplayRecord(Decoder decoder, int[] ordinals, Replayer replayer) throws IOException {
+        while (decoder.offset < decoder.end){
+            byte operation = decoder.ReadByte();
+            if (operation == SUBJECT_OPERATION)
+                replayer.AddSubject((int) decoder.ReadVarint(), decoder.ReadString(), decoder.ReadString());
+            else if (operation == OBJECT_OPERATION)
+                replayer.AddObject((int) decoder.ReadVarint(), decoder.ReadString());
+            else if (operation == CELL_OPERATION){
+                int objectId = (int) decoder.ReadVarint();
+                int subjectId = (int) decoder.ReadVarint();
+                long mask = decoder.ReadLong();
+                long remapped = 0;
+                for (int x = 0; x < ordinals.length; x++)
+                    if ((mask & (1L << x)) != 0)
+                        remapped |= 1L << ordinals[x];
+                replayer.SetCell(objectId, subjectId, remapped);
+            }
+            else
+                throw new IOException("Unknown write-ahead log operation " + operation);
+        }
+        replayer.EndRecord();
+    }
+    /**
+     * Finds the file of a segment
+     * @param index The number of the segment
+     * @return The path of the segment
+     */
+    private Path SegmentPath(int index){
+        return basePath.resolveSibling(basePath.getFileName() + "." + index);
+    }
+    /**
+     * Finds the numbers of the existing segments
+     * @return The segment numbers in ascending order
+     * @throws IOException If the directory cannot be listed
+     */
+    private ArrayList<Integer> SegmentIndexes() throws IOException {
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+        String prefix = basePath.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(basePath.getParent(), prefix + "*")) {
+            for (Path file : files){
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit))
+                    indexes.add(Integer.parseInt(suffix));
+            }
+        }
+        indexes.sort(null);
+
+        return indexes;
+    }
+    //endregion
+    //region Encoding
+    /**
+     * A growable byte array for building records
+     */
+    private static final class Encoder {
+        byte[] bytes = new byte[256];
+        //The encoded bytes
+        int size = 0;
+        //The number of bytes used
+
+        void WriteByte(int value){
+            Ensure(1);
+            bytes[size++] = (byte) value;
+        }
+        void WriteInt(int value){
+            Ensure(4);
+            for (int x = 3; x >= 0; x--)
+                bytes[size++] = (byte) (value >>> (x * 8));
+        }
+        void WriteLong(long value){
+            Ensure(8);
+            for (int x = 7; x >= 0; x--)
+                bytes[size++] = (byte) (value >>> (x * 8));
+        }
+        void WriteVarint(long value){
+            Ensure(10);
+            while ((value & ~0x7FL) != 0){
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+        void WriteString(String value){
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            WriteVarint(encoded.length);
+            WriteBytes(encoded, encoded.length);
+        }
+        void WriteBytes(byte[] value, int length){
+            Ensure(length);
+            System.arraycopy(value, 0, bytes, size, length);
+            size += length;
+        }
+        private void Ensure(int extra){
+            if (size + extra > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+    /**
+     * Reads values from part of a byte array
+     */
+    private static final class Decoder {
+        final byte[] bytes;
+        //The bytes being read
+        int offset;
+        //The position of the next byte to read
+        final int end;
+        //The position to stop reading at
+
+        Decoder(byte[] bytesIn, int offsetIn, int endIn){
+            bytes = bytesIn;
+            offset = offsetIn;
+            end = endIn;
+        }
+        byte ReadByte() throws IOException {
+            if (offset >= end)
+                throw new IOException("Unexpected end of write-ahead log record");
+            return bytes[offset++];
+        }
+        int ReadInt() throws IOException {
+            int value = 0;
+            for (int x = 0; x < 4; x++)
+                value = (value << 8) | (ReadByte() & 0xFF);
+            return value;
+        }
+        long ReadLong() throws IOException {
+            long value = 0;
+            for (int x = 0; x < 8; x++)
+                value = (value << 8) | (ReadByte() & 0xFF);
+            return value;
+        }
+        long ReadVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7){
+                byte next = ReadByte();
+                value |= (long) (next & 0x7F) << shift;
+                if ((next & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Varint is too long");
+        }
+        String ReadString() throws IOException {
+            int length = (int) ReadVarint();
+            if (length < 0 || length > end - offset)
+                throw new IOException("Unexpected end of write-ahead log record");
+            String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            offset += length;
+            return value;
+        }
+    }
+    //endregion
+}
\ No newline at end of file
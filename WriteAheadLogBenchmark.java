@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many durable records the write-ahead log commits per second as the number of writing threads grows
+ * Each thread appends a record and waits for it to be durable, so every record is one acknowledged command
+ * With more threads, more records share each fsync
+ */
+public final class WriteAheadLogBenchmark {
+    //region Variables
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+    //The numbers of writing threads to measure
+    private static final long RUN_MILLIS = 2000;
+    //How long each measurement runs for
+    //endregion
+    //region Constructor
+    /**
+     * The benchmark is only run through main
+     */
+    private WriteAheadLogBenchmark(){
+    }
+    //endregion
+    //region Running Benchmark
+    /**
+     * Runs the benchmark
+     * java WriteAheadLogBenchmark {directory} writes the log segments under {directory} instead of a temporary directory
+     * @param args The optional directory to write to
+     * @throws Exception If the log cannot be written or a thread is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = (args.length > 0) ? Path.of(args[0]) : Files.createTempDirectory("wal-benchmark");
+        System.out.println("Write-ahead log segments are written under ".concat(directory.toString()));
+
+        System.out.println("Raw records (one cell per record):");
+        for (int threads : THREAD_COUNTS)
+            RunRecords(Files.createTempDirectory(directory, "records").resolve("wal"), threads);
+
+        System.out.println("EditorialACM commands (Create, Submit, Send and Accept on separate manuscripts):");
+        for (int threads : THREAD_COUNTS)
+            RunCommands(Files.createTempDirectory(directory, "commands").resolve("wal"), threads);
+    }
+    /**
+     * Measures records appended directly to the log
+     * @param base The path the segment numbers are added to
+     * @param threads The number of writing threads
+     * @throws Exception If the log cannot be written or a thread is interrupted
+     */
+    private static void RunRecords(Path base, int threads) throws Exception {
+        WriteAheadLog log = new WriteAheadLog(base, 64L << 20, 0, null);
+        //the directory is new, so there is nothing to replay
+        AtomicLong records = new AtomicLong();
+        long nanos = RunThreads(threads, thread -> {
+            WriteAheadLog.Record record = new WriteAheadLog.Record();
+            record.SetCell(thread, thread, 0);
+            log.Append(record);
+            log.Sync();
+            records.incrementAndGet();
+        });
+        long syncs = log.SyncCount();
+        log.Close();
+        PrintResult(threads, records.get(), syncs, nanos);
+    }
+    /**
+     * Measures commands run through an EditorialACM with a write-ahead log
+     * Every thread has its own author, editor and manuscripts so the threads never wait for each other's object locks
+     * @param base The path the segment numbers are added to
+     * @param threads The number of writing threads
+     * @throws Exception If the log cannot be written or a thread is interrupted
+     */
+    private static void RunCommands(Path base, int threads) throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        //the ACM prints the result of every command
+        EditorialACM system = new EditorialACM();
+        system.Recover(base.resolveSibling(base.getFileName() + ".snapshot"), base);
+        for (int x = 0; x < threads; x++){
+            system.RunCommand("Add author" + x + " Author");
+            system.RunCommand("Add editor" + x + " Editor");
+            system.RunCommand("Add reviewer" + x + " Reviewer");
+        }
+        long syncsBefore = system.WriteAheadLogSyncCount();
+
+        AtomicLong commands = new AtomicLong();
+        long[] manuscripts = new long[threads];
+        long nanos = RunThreads(threads, thread -> {
+            String manuscript = "manuscript" + thread + "-" + manuscripts[thread]++;
+            system.RunCommand("Create " + manuscript + " author" + thread);
+            system.RunCommand("Submit " + manuscript + " author" + thread);
+            system.RunCommand("Send " + manuscript + " editor" + thread + " reviewer" + thread);
+            system.RunCommand("Accept " + manuscript + " reviewer" + thread);
+            commands.addAndGet(4);
+        });
+        long syncs = system.WriteAheadLogSyncCount() - syncsBefore;
+        system.CloseWriteAheadLog();
+        System.setOut(console);
+        PrintResult(threads, commands.get(), syncs, nanos);
+    }
+    /**
+     * Runs an operation repeatedly on several threads for RUN_MILLIS
+     * @param threads The number of threads
+     * @param operation The operation each thread repeats. Given the thread's number
+     * @return The time the threads ran for, in nanoseconds
+     * @throws Exception If the threads are interrupted or an operation fails
+     */
+    private static long RunThreads(int threads, Operation operation) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        Exception[] failures = new Exception[threads];
+        long[] end = new long[1];
+        for (int x = 0; x < threads; x++){
+            final int thread = x;
+            workers[x] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() < end[0])
+                        operation.Run(thread);
+                } catch (Exception e) {
+                    failures[thread] = e;
+                }
+            }, "WriteAheadLogBenchmark-" + x);
+            workers[x].start();
+        }
+
+        long startNanos = System.nanoTime();
+        end[0] = startNanos + RUN_MILLIS * 1_000_000L;
+        start.countDown();
+        //the latch publishes end to the workers
+        for (Thread worker : workers)
+            worker.join();
+        for (Exception failure : failures)
+            if (failure != null)
+                throw failure;
+
+        return System.nanoTime() - startNanos;
+    }
+    /**
+     * Prints the throughput of a measurement
+     * @param threads The number of threads that wrote
+     * @param operations The number of durable records or commands
+     * @param syncs The number of fsyncs made
+     * @param nanos The time the measurement ran for
+     */
+    private static void PrintResult(int threads, long operations, long syncs, long nanos){
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("  %2d threads: %,10.0f per second, %,8.0f fsyncs per second, %6.1f per fsync%n",
+                threads, operations / seconds, syncs / seconds, operations / (double) Math.max(syncs, 1));
+    }
+    /**
+     * An operation repeated by each benchmark thread
+     */
+    private interface Operation {
+        void Run(int thread) throws IOException;
+    }
+    //endregion
+}
\ No newline at end of file
@@ -0,0 +1,349 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Checks that EditorialACM.Recover rebuilds the state a crashed process had acknowledged
+ * A generated workload is run with the write-ahead log open, once from an empty log and once with a snapshot saved halfway, and the
+ * size of the newest segment is recorded after every command. Since every command waits for its record to be forced before it
+ * returns, those sizes are the record boundaries. A crash is simulated by copying the files and cutting the newest segment at a
+ * record boundary, inside a record's header, inside its payload and one byte before its end, or inside the segment header
+ * Each copy is recovered into a new EditorialACM, which is compared with an EditorialACM without a log that ran the commands
+ * whose records survived. The same scripts are run on both, so every cut must give exactly that state. The test checks that:
+ * - every subject has the same name and role, and every object the same name, as in the uncrashed run
+ * - every subject has the same capabilities on every object as in the uncrashed run
+ * - a recovered system that runs the rest of the workload ends in the state of the full uncrashed run
+ * - that state is recovered again from the log it wrote after the crash
+ * java WriteAheadLogRecoveryTest {matrix} {manuscripts} runs the test, where matrix is sparse, dense, snapshot or mapped
+ * Exits with status 1 if a check fails
+ */
+public final class WriteAheadLogRecoveryTest {
+    //region Variables
+    private static final int CRASH_POINTS = 8;
+    //The number of record boundaries the newest segment is cut at, besides its header
+    private static final int RECORD_HEADER_SIZE = 8;
+    //The length and CRC32 before each record payload
+    private static final String LOG_NAME = "commands.wal";
+    //The path the segment numbers are added to, in the directory of each run
+    private static final String SNAPSHOT_NAME = "commands.snapshot";
+    //The snapshot file, in the directory of each run
+    private static final PrintStream CONSOLE = System.out;
+    //The real standard output. The ACM prints the result of every command, so System.out is discarded while commands run
+    private final String matrix;
+    //The matrix type the systems use
+    private final int manuscripts;
+    //The number of manuscripts in the generated workload
+    private int failures;
+    //The number of checks that failed
+    private int recoveries;
+    //The number of crashed logs recovered
+    //endregion
+    //region Constructor
+    /**
+     * The default WriteAheadLogRecoveryTest constructor
+     * @param matrixIn The matrix type the systems use
+     * @param manuscriptsIn The number of manuscripts in the generated workload
+     */
+    public WriteAheadLogRecoveryTest(String matrixIn, int manuscriptsIn){
+        matrix = matrixIn;
+        manuscripts = manuscriptsIn;
+        failures = 0;
+        recoveries = 0;
+    }
+    //endregion
+    //region Checks
+    /**
+     * Records a failed check
+     * @param condition Whether the check passed
+     * @param message What failed
+     */
+    private void Check(boolean condition, String message){
+        if (condition)
+            return;
+        if (failures++ < 20)
+            CONSOLE.println("FAILED: ".concat(message));
+    }
+    /**
+     * Checks that a recovered system has the subjects, objects and capabilities of an uncrashed one
+     * @param recovered The recovered system
+     * @param expected The system that ran the commands whose records survived
+     * @param when Which recovery is compared, for failure messages
+     */
+    private void CheckState(EditorialACM recovered, EditorialACM expected, String when){
+        int subjectCount = expected.subjects.Size();
+        int objectCount = expected.objects.Size();
+        Check(recovered.subjects.Size() == subjectCount, when.concat(": ").concat(String.valueOf(recovered.subjects.Size()))
+                .concat(" subjects instead of ").concat(String.valueOf(subjectCount)));
+        Check(recovered.objects.Size() == objectCount, when.concat(": ").concat(String.valueOf(recovered.objects.Size()))
+                .concat(" objects instead of ").concat(String.valueOf(objectCount)));
+        if (recovered.subjects.Size() != subjectCount || recovered.objects.Size() != objectCount)
+            return;
+
+        for (int subjectId = 0; subjectId < subjectCount; subjectId++){
+            String subject = expected.subjects.NameOf(subjectId);
+            Check(subject.equals(recovered.subjects.NameOf(subjectId)) && expected.RoleOf(subjectId).equals(recovered.RoleOf(subjectId)),
+                    when.concat(": subject ").concat(String.valueOf(subjectId)).concat(" is not \"").concat(subject).concat("\""));
+        }
+        for (int objectId = 0; objectId < objectCount; objectId++){
+            String object = expected.objects.NameOf(objectId);
+            Check(object.equals(recovered.objects.NameOf(objectId)),
+                    when.concat(": object ").concat(String.valueOf(objectId)).concat(" is not \"").concat(object).concat("\""));
+            for (int subjectId = 0; subjectId < subjectCount; subjectId++)
+                Check(recovered.capabilityMatrix.GetMask(subjectId, objectId) == expected.capabilityMatrix.GetMask(subjectId, objectId),
+                        when.concat(": \"").concat(expected.subjects.NameOf(subjectId)).concat("\" has the wrong capabilities on \"")
+                                .concat(object).concat("\""));
+        }
+    }
+    //endregion
+    //region Crashing
+    /**
+     * Generates a workload with every role
+     * @return The commands
+     * @throws IOException If the workload cannot be generated
+     */
+    private ArrayList<String> Workload() throws IOException {
+        WorkloadGenerator.Settings settings = new WorkloadGenerator.Settings();
+        settings.authors = 40;
+        settings.editors = 3;
+        settings.associateEditors = 8;
+        settings.reviewers = 30;
+        settings.manuscripts = manuscripts;
+        settings.activeManuscripts = 16;
+        StringWriter writer = new StringWriter();
+        new WorkloadGenerator(settings, writer).Generate();
+
+        return new ArrayList<String>(Arrays.asList(writer.toString().split("\n")));
+    }
+    /**
+     * Runs the workload with the write-ahead log open, recording the size of the newest segment after each command
+     * @param directory The directory to keep the snapshot and write-ahead log in
+     * @param commands The workload
+     * @param snapshotAt The number of commands to run before saving a snapshot, or -1 to not save one
+     * @return The size of the newest segment after each number of commands, from the snapshot on
+     * @throws IOException If the log or snapshot cannot be written
+     */
+    private long[] RunLogged(Path directory, ArrayList<String> commands, int snapshotAt) throws IOException {
+        EditorialACM system = new EditorialACM(CreateMatrix(matrix));
+        system.Recover(directory.resolve(SNAPSHOT_NAME), directory.resolve(LOG_NAME));
+        long[] sizes = new long[commands.size() + 1];
+        Path segment = NewestSegment(directory);
+        for (int x = 0; x < commands.size(); x++){
+            if (x == snapshotAt){
+                system.SaveSnapshot(directory.resolve(SNAPSHOT_NAME));
+                segment = NewestSegment(directory);
+                //the snapshot starts a new segment and deletes the ones it covers
+            }
+            sizes[x] = Files.size(segment);
+            system.RunCommand(commands.get(x));
+        }
+        sizes[commands.size()] = Files.size(segment);
+        system.CloseWriteAheadLog();
+
+        return sizes;
+    }
+    /**
+     * Copies the files of a run and cuts the newest segment, as if the process stopped while it was being written
+     * @param directory The directory of the run
+     * @param length The number of bytes of the newest segment to keep
+     * @return The directory of the copy
+     * @throws IOException If the files cannot be copied or cut
+     */
+    private static Path Crash(Path directory, long length) throws IOException {
+        Path copy = Files.createTempDirectory("recovery");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.copy(file, copy.resolve(file.getFileName()));
+        }
+        try (FileChannel segment = FileChannel.open(NewestSegment(copy), StandardOpenOption.WRITE)) {
+            segment.truncate(length);
+        }
+        return copy;
+    }
+    /**
+     * Recovers a new system from the files of a run
+     * @param directory The directory of the run
+     * @return The recovered system, with its write-ahead log open
+     * @throws IOException If the snapshot or log cannot be read
+     */
+    private EditorialACM Recover(Path directory) throws IOException {
+        EditorialACM system = new EditorialACM(CreateMatrix(matrix));
+        system.Recover(directory.resolve(SNAPSHOT_NAME), directory.resolve(LOG_NAME));
+        recoveries++;
+        return system;
+    }
+    /**
+     * Finds the newest segment of a run
+     * @param directory The directory of the run
+     * @return The segment with the highest number
+     * @throws IOException If the directory cannot be listed
+     */
+    private static Path NewestSegment(Path directory) throws IOException {
+        int newest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_NAME.concat(".*"))) {
+            for (Path file : files)
+                newest = Math.max(newest, Integer.parseInt(file.getFileName().toString().substring(LOG_NAME.length() + 1)));
+        }
+        return directory.resolve(LOG_NAME.concat(".").concat(String.valueOf(newest)));
+    }
+    /**
+     * Deletes the files of a run and its directory
+     * @param directory The directory of the run
+     * @throws IOException If a file cannot be deleted
+     */
+    private static void Delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+    //endregion
+    //region Recovery
+    /**
+     * Crashes a run at several points of its newest segment and checks every recovery
+     * @param commands The workload
+     * @param snapshotAt The number of commands to run before saving a snapshot, or -1 to not save one
+     * @param complete The system that ran the whole workload without a log
+     * @throws IOException If a run cannot be written or copied
+     */
+    private void CheckRun(ArrayList<String> commands, int snapshotAt, EditorialACM complete) throws IOException {
+        String run = (snapshotAt == -1) ? "without a snapshot" : "with a snapshot after ".concat(String.valueOf(snapshotAt)).concat(" commands");
+        Path directory = Files.createTempDirectory("recovery");
+        try {
+            long[] sizes = RunLogged(directory, commands, snapshotAt);
+            int first = Math.max(snapshotAt, 0);
+            //the commands before the newest segment started are in the snapshot
+            EditorialACM expected = new EditorialACM(CreateMatrix(matrix));
+            int ran = 0;
+
+            for (int point = 0; point <= CRASH_POINTS; point++){
+                int count = first + (int) ((long) (commands.size() - first) * point / CRASH_POINTS);
+                for (; ran < count; ran++)
+                    expected.RunCommand(commands.get(ran));
+
+                TreeSet<Long> cuts = new TreeSet<Long>();
+                cuts.add(sizes[count]);
+                if (count == first){
+                    cuts.add(0L);
+                    cuts.add(8L);
+                    cuts.add(sizes[first] - 1);
+                    //the segment header was being written
+                }
+                int next = count + 1;
+                while (next <= commands.size() && sizes[next] == sizes[count])
+                    next++;
+                //commands that changed nothing add no record
+                if (next <= commands.size()){
+                    cuts.add(sizes[count] + 1);
+                    cuts.add(sizes[count] + RECORD_HEADER_SIZE - 1);
+                    cuts.add((sizes[count] + RECORD_HEADER_SIZE + sizes[next]) / 2);
+                    cuts.add(sizes[next] - 1);
+                    //every record after the cut was never acknowledged, so the state is that of the commands before it
+                }
+
+                for (long cut : cuts){
+                    String when = run.concat(", cut at byte ").concat(String.valueOf(cut)).concat(" after ")
+                            .concat(String.valueOf(count)).concat(" commands");
+                    Path crashed = Crash(directory, cut);
+                    try {
+                        EditorialACM recovered = Recover(crashed);
+                        CheckState(recovered, expected, when);
+                        if (cut == cuts.last())
+                            CheckResumed(recovered, crashed, commands, count, complete, when);
+                        else
+                            recovered.CloseWriteAheadLog();
+                    } catch (IOException e) {
+                        Check(false, when.concat(": ").concat(e.getMessage()));
+                    } finally {
+                        Delete(crashed);
+                    }
+                }
+            }
+        } finally {
+            Delete(directory);
+        }
+    }
+    /**
+     * Runs the rest of the workload on a recovered system, then recovers it again from the log it wrote
+     * @param recovered The recovered system, with its write-ahead log open
+     * @param directory The directory it recovered from
+     * @param commands The workload
+     * @param count The number of commands whose records survived the crash
+     * @param complete The system that ran the whole workload without a log
+     * @param when Which recovery is resumed, for failure messages
+     * @throws IOException If the log cannot be written or recovered
+     */
+    private void CheckResumed(EditorialACM recovered, Path directory, ArrayList<String> commands, int count, EditorialACM complete, String when) throws IOException {
+        for (int x = count; x < commands.size(); x++)
+            recovered.RunCommand(commands.get(x));
+        recovered.CloseWriteAheadLog();
+        CheckState(recovered, complete, when.concat(", then running the rest"));
+
+        EditorialACM again = Recover(directory);
+        again.CloseWriteAheadLog();
+        CheckState(again, complete, when.concat(", then running the rest and recovering again"));
+    }
+    //endregion
+    //region Running
+    /**
+     * Crashes a run without a snapshot and a run with one, and checks every recovery
+     * @return Whether every check passed
+     * @throws IOException If a run cannot be written or copied
+     */
+    public boolean Run() throws IOException {
+        ArrayList<String> commands = Workload();
+        long start = System.nanoTime();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            EditorialACM complete = new EditorialACM(CreateMatrix(matrix));
+            for (String command : commands)
+                complete.RunCommand(command);
+
+            CheckRun(commands, -1, complete);
+            CheckRun(commands, commands.size() / 2, complete);
+        } finally {
+            System.setOut(CONSOLE);
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        CONSOLE.printf("%s matrix: %,d recoveries of %,d commands in %.2fs, %d failed checks%n",
+                matrix, recoveries, commands.size(), seconds, failures);
+        return failures == 0;
+    }
+    /**
+     * Creates an empty capability matrix
+     * @param matrix The matrix type. sparse, dense, snapshot or mapped
+     * @return The new matrix
+     */
+    private static CapabilityMatrix CreateMatrix(String matrix){
+        return switch (matrix) {
+            case "dense" -> new DenseCapabilityMatrix();
+            case "snapshot" -> new SnapshotCapabilityMatrix();
+            case "mapped" -> new MappedCapabilityMatrix();
+            case "sparse" -> new SparseCapabilityMatrix();
+            default -> throw new IllegalArgumentException("Unknown matrix \"".concat(matrix).concat("\""));
+        };
+    }
+    /**
+     * Runs the test
+     * @param args The matrix type and the manuscripts in the workload. Defaults to sparse and 200
+     * @throws IOException If a run cannot be written or copied
+     */
+    public static void main(String[] args) throws IOException {
+        String matrix = (args.length > 0) ? args[0] : "sparse";
+        int manuscripts = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        if (!new WriteAheadLogRecoveryTest(matrix, manuscripts).Run())
+            System.exit(1);
+    }
+    //endregion
+}
\ No newline at end of file